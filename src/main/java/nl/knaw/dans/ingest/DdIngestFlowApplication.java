@@ -20,32 +20,75 @@ import io.dropwizard.Application;
 import io.dropwizard.db.PooledDataSourceFactory;
 import io.dropwizard.hibernate.HibernateBundle;
 import io.dropwizard.hibernate.UnitOfWorkAwareProxyFactory;
+import io.dropwizard.lifecycle.ExecutorServiceManager;
 import io.dropwizard.setup.Bootstrap;
 import io.dropwizard.setup.Environment;
+import io.dropwizard.util.Duration;
+import nl.knaw.dans.easy.dd2d.ConcurrencyLimiter;
 import nl.knaw.dans.ingest.core.AutoIngestArea;
 import nl.knaw.dans.ingest.core.CsvMessageBodyWriter;
+import nl.knaw.dans.ingest.core.CsvWriters;
+import nl.knaw.dans.ingest.core.DepositState;
 import nl.knaw.dans.ingest.core.ImportArea;
+import nl.knaw.dans.ingest.core.QueuedDeposit;
 import nl.knaw.dans.ingest.core.TaskEvent;
+import nl.knaw.dans.ingest.core.TaskPhase;
+import nl.knaw.dans.ingest.core.config.DataverseConfigScala;
+import nl.knaw.dans.ingest.core.config.DeferredPublishingConfig;
+import nl.knaw.dans.ingest.core.config.IngestFlowConfig;
+import nl.knaw.dans.ingest.core.config.RetryConfig;
+import nl.knaw.dans.ingest.core.legacy.AimdConcurrencyLimiter;
+import nl.knaw.dans.ingest.core.legacy.AwaitUnlockPoller;
+import nl.knaw.dans.ingest.core.legacy.DeferredPublisher;
 import nl.knaw.dans.ingest.core.legacy.DepositIngestTaskFactoryWrapper;
+import nl.knaw.dans.ingest.core.legacy.IngestContext;
+import nl.knaw.dans.ingest.core.legacy.RetryScheduler;
+import nl.knaw.dans.ingest.core.legacy.SemaphoreConcurrencyLimiter;
 import nl.knaw.dans.ingest.core.sequencing.TargetedTaskSequenceManager;
+import nl.knaw.dans.ingest.core.sequencing.TaskExecutors;
+import nl.knaw.dans.ingest.core.service.AsyncTaskEventService;
+import nl.knaw.dans.ingest.core.service.BatchProgressTracker;
+import nl.knaw.dans.ingest.core.service.DepositInboxScanner;
+import nl.knaw.dans.ingest.core.service.DepositJournal;
+import nl.knaw.dans.ingest.core.service.DepositJournalImpl;
 import nl.knaw.dans.ingest.core.service.EnqueuingService;
 import nl.knaw.dans.ingest.core.service.EnqueuingServiceImpl;
+import nl.knaw.dans.ingest.core.service.InboxWatcher;
+import nl.knaw.dans.ingest.core.service.ProgressTrackingTaskEventService;
+import nl.knaw.dans.ingest.core.service.TargetResolver;
 import nl.knaw.dans.ingest.core.service.TaskEventService;
 import nl.knaw.dans.ingest.core.service.TaskEventServiceImpl;
+import nl.knaw.dans.ingest.db.DatabaseUpgrade;
+import nl.knaw.dans.ingest.db.DepositStateDAO;
+import nl.knaw.dans.ingest.db.QueuedDepositDAO;
 import nl.knaw.dans.ingest.db.TaskEventDAO;
+import nl.knaw.dans.ingest.db.TaskPhaseDAO;
+import nl.knaw.dans.ingest.health.IngestContextHealthCheck;
 import nl.knaw.dans.ingest.resources.EventsResource;
 import nl.knaw.dans.ingest.resources.ImportsResource;
 import nl.knaw.dans.ingest.resources.MigrationsResource;
+import nl.knaw.dans.ingest.resources.ProgressResource;
+import org.hibernate.SessionFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
 
 public class DdIngestFlowApplication extends Application<DdIngestFlowConfiguration> {
+    private static final Logger log = LoggerFactory.getLogger(DdIngestFlowApplication.class);
+    private static final String AUTO_INGEST_LANE = "auto-ingest";
+    private static final String IMPORT_LANE = "import";
+    private static final String MIGRATION_LANE = "migration";
 
     public static void main(final String[] args) throws Exception {
         new DdIngestFlowApplication().run(args);
     }
 
-    private final HibernateBundle<DdIngestFlowConfiguration> hibernateBundle = new HibernateBundle<DdIngestFlowConfiguration>(TaskEvent.class) {
+    private final HibernateBundle<DdIngestFlowConfiguration> hibernateBundle = new HibernateBundle<DdIngestFlowConfiguration>(TaskEvent.class, DepositState.class, TaskPhase.class,
+        QueuedDeposit.class) {
 
         @Override
         public PooledDataSourceFactory getDataSourceFactory(DdIngestFlowConfiguration configuration) {
@@ -65,53 +108,204 @@ public class DdIngestFlowApplication extends Application<DdIngestFlowConfigurati
 
     @Override
     public void run(final DdIngestFlowConfiguration configuration, final Environment environment) {
-        final ExecutorService taskExecutor = configuration.getIngestFlow().getTaskQueue().build(environment);
-        final TargetedTaskSequenceManager targetedTaskSequenceManager = new TargetedTaskSequenceManager(taskExecutor);
+        final ExecutorService taskExecutor = createTaskExecutor(configuration.getIngestFlow(), environment);
+        final TargetedTaskSequenceManager targetedTaskSequenceManager = new TargetedTaskSequenceManager(taskExecutor,
+            getMaxConcurrentSequencers(taskExecutor, configuration.getIngestFlow()), environment.metrics());
+        targetedTaskSequenceManager.addLane(AUTO_INGEST_LANE, configuration.getIngestFlow().getAutoIngest().getPriority());
+        targetedTaskSequenceManager.addLane(IMPORT_LANE, configuration.getIngestFlow().getImportConfig().getPriority());
+        targetedTaskSequenceManager.addLane(MIGRATION_LANE, configuration.getIngestFlow().getMigration().getPriority());
+        // Shared by import, migration and auto-ingest, as they all talk to the same Dataverse
+        final ConcurrencyLimiter dataverseLimiter = createDataverseLimiter(configuration.getDataverse(), environment);
+        final AwaitUnlockPoller awaitUnlockPoller = configuration.getIngestFlow().getAwaitUnlockPollerThreads() > 0
+            ? new AwaitUnlockPoller(configuration.getIngestFlow().getAwaitUnlockPollerThreads(), taskExecutor, environment.metrics())
+            : null;
+        final RetryScheduler retryScheduler = createRetryScheduler(null, configuration.getIngestFlow().getRetry(), taskExecutor, environment);
+        // Only used for migration deposits, so that a bulk migration is not held up by Dataverse publishing the datasets
+        final DeferredPublishingConfig deferredPublishingConfig = configuration.getIngestFlow().getDeferredPublishing();
+        final RetryScheduler publishRetryScheduler = deferredPublishingConfig.isEnabled()
+            ? createRetryScheduler("publish", deferredPublishingConfig.getRetry(), taskExecutor, environment)
+            : null;
+        final DeferredPublisher deferredPublisher = deferredPublishingConfig.isEnabled()
+            ? new DeferredPublisher(deferredPublishingConfig.getMaxConcurrentPublications(), publishRetryScheduler, taskExecutor, environment.metrics())
+            : null;
+        // Shared as well, because deposits for the same dataset must get the same target in every area
+        final TargetResolver targetResolver = TargetResolver.firstOf(configuration.getIngestFlow().getTargetResolvers());
+        // Loaded once, as it is the same for regular and migration deposits. Does not wait for Dataverse.
+        final IngestContext ingestContext = IngestContext.load(
+            configuration.getIngestFlow(),
+            configuration.getDataverse(),
+            configuration.getManagePrestaging(),
+            configuration.getValidateDansBag(),
+            environment.metrics());
+        environment.lifecycle().manage(ingestContext);
+        environment.lifecycle().manage(ingestContext.getMappingRegistry());
+        environment.healthChecks().register("ingest-context", new IngestContextHealthCheck(ingestContext));
         final DepositIngestTaskFactoryWrapper ingestTaskFactoryWrapper = new DepositIngestTaskFactoryWrapper(
             false,
             configuration.getIngestFlow(),
             configuration.getDataverse(),
-            configuration.getManagePrestaging(),
-            configuration.getValidateDansBag());
+            ingestContext,
+            environment.metrics(),
+            dataverseLimiter,
+            awaitUnlockPoller,
+            retryScheduler,
+            null,
+            targetResolver);
         final DepositIngestTaskFactoryWrapper migrationTaskFactoryWrapper = new DepositIngestTaskFactoryWrapper(
             true,
             configuration.getIngestFlow(),
             configuration.getDataverse(),
-            configuration.getManagePrestaging(),
-            configuration.getValidateDansBag());
+            ingestContext,
+            environment.metrics(),
+            dataverseLimiter,
+            awaitUnlockPoller,
+            retryScheduler,
+            deferredPublisher,
+            targetResolver);
 
-        final EnqueuingService enqueuingService = new EnqueuingServiceImpl(targetedTaskSequenceManager, 3 /* Must support importArea, migrationArea and autoIngestArea */);
+        // Deposits are held in the inboxes until the ingest context is ready, so that startup does not wait for Dataverse
+        final EnqueuingService enqueuingService = new EnqueuingServiceImpl(targetedTaskSequenceManager, 3 /* importArea, migrationArea and autoIngestArea; sources at their high-water mark do not hold a thread */,
+            configuration.getIngestFlow().getMaxPendingTasksPerSource(), ingestContext.whenReady(), environment.metrics());
         final TaskEventDAO taskEventDAO = new TaskEventDAO(hibernateBundle.getSessionFactory());
-        final TaskEventService taskEventService = new UnitOfWorkAwareProxyFactory(hibernateBundle).create(TaskEventServiceImpl.class, TaskEventDAO.class, taskEventDAO);
+        final DepositStateDAO depositStateDAO = new DepositStateDAO(hibernateBundle.getSessionFactory());
+        final TaskPhaseDAO taskPhaseDAO = new TaskPhaseDAO(hibernateBundle.getSessionFactory());
+        final QueuedDepositDAO queuedDepositDAO = new QueuedDepositDAO(hibernateBundle.getSessionFactory());
+        final UnitOfWorkAwareProxyFactory unitOfWorkAwareProxyFactory = new UnitOfWorkAwareProxyFactory(hibernateBundle);
+        unitOfWorkAwareProxyFactory.create(DatabaseUpgrade.class, SessionFactory.class, hibernateBundle.getSessionFactory()).upgrade();
+        final TaskEventService transactionalTaskEventService = unitOfWorkAwareProxyFactory
+            .create(TaskEventServiceImpl.class, new Class<?>[] { TaskEventDAO.class, DepositStateDAO.class, TaskPhaseDAO.class, QueuedDepositDAO.class },
+                new Object[] { taskEventDAO, depositStateDAO, taskPhaseDAO, queuedDepositDAO });
+        final DepositJournal depositJournal = unitOfWorkAwareProxyFactory.create(DepositJournalImpl.class, new Class<?>[] { QueuedDepositDAO.class, DepositStateDAO.class },
+            new Object[] { queuedDepositDAO, depositStateDAO });
+        final AsyncTaskEventService asyncTaskEventService = new AsyncTaskEventService(
+            transactionalTaskEventService,
+            configuration.getTaskEventWriter().getQueueSize(),
+            configuration.getTaskEventWriter().getBatchSize(),
+            configuration.getTaskEventWriter().getMaxFlushDelay().toMilliseconds(), TimeUnit.MILLISECONDS,
+            environment.metrics());
+        final BatchProgressTracker batchProgressTracker = new BatchProgressTracker(environment.metrics());
+        final TaskEventService taskEventService = new ProgressTrackingTaskEventService(asyncTaskEventService, batchProgressTracker);
 
         final ImportArea importArea = new ImportArea(
             configuration.getIngestFlow().getImportConfig().getInbox(),
             configuration.getIngestFlow().getImportConfig().getOutbox(),
+            new DepositInboxScanner(configuration.getIngestFlow().getImportConfig().getScanParallelism()),
             ingestTaskFactoryWrapper,
             migrationTaskFactoryWrapper, // Only necessary during migration. Can be phased out after that.
             taskEventService,
-            enqueuingService);
+            enqueuingService,
+            IMPORT_LANE,
+            depositJournal,
+            batchProgressTracker);
 
         final ImportArea migrationArea = new ImportArea(
             configuration.getIngestFlow().getMigration().getInbox(),
             configuration.getIngestFlow().getMigration().getOutbox(),
+            new DepositInboxScanner(configuration.getIngestFlow().getMigration().getScanParallelism()),
             ingestTaskFactoryWrapper,
             migrationTaskFactoryWrapper, // Only necessary during migration. Can be phased out after that.
             taskEventService,
-            enqueuingService);
+            enqueuingService,
+            MIGRATION_LANE,
+            depositJournal,
+            batchProgressTracker);
 
         final AutoIngestArea autoIngestArea = new AutoIngestArea(
             configuration.getIngestFlow().getAutoIngest().getInbox(),
             configuration.getIngestFlow().getAutoIngest().getOutbox(),
+            InboxWatcher.create(
+                configuration.getIngestFlow().getAutoIngest().getWatchMode(),
+                configuration.getIngestFlow().getAutoIngest().getInbox(),
+                configuration.getIngestFlow().getAutoIngest().getPollingInterval()),
+            new DepositInboxScanner(configuration.getIngestFlow().getAutoIngest().getScanParallelism()),
             ingestTaskFactoryWrapper,
             taskEventService,
-            enqueuingService
+            enqueuingService,
+            AUTO_INGEST_LANE
         );
 
+        // Managed objects are stopped in reverse order, so the event writer is flushed after the auto-ingest area has stopped
+        environment.lifecycle().manage(asyncTaskEventService);
+        if (awaitUnlockPoller != null) {
+            environment.lifecycle().manage(awaitUnlockPoller);
+        }
+        if (retryScheduler != null) {
+            environment.lifecycle().manage(retryScheduler);
+        }
+        if (publishRetryScheduler != null) {
+            environment.lifecycle().manage(publishRetryScheduler);
+        }
+        if (deferredPublisher != null) {
+            environment.lifecycle().manage(deferredPublisher);
+        }
+        // Resume the batches that were interrupted by the previous shutdown
+        environment.lifecycle().manage(importArea);
+        environment.lifecycle().manage(migrationArea);
         environment.lifecycle().manage(autoIngestArea);
         environment.jersey().register(new ImportsResource(importArea));
         environment.jersey().register(new MigrationsResource(migrationArea));
-        environment.jersey().register(new EventsResource(taskEventDAO));
-        environment.jersey().register(new CsvMessageBodyWriter());
+        final CsvWriters csvWriters = new CsvWriters();
+        environment.jersey().register(new EventsResource(taskEventDAO, depositStateDAO, taskPhaseDAO, csvWriters));
+        environment.jersey().register(new CsvMessageBodyWriter(csvWriters));
+        environment.jersey().register(new ProgressResource(batchProgressTracker));
+    }
+
+    private ConcurrencyLimiter createDataverseLimiter(DataverseConfigScala dataverseConfig, Environment environment) {
+        if (dataverseConfig.getAdaptiveConcurrency().isEnabled()) {
+            return new AimdConcurrencyLimiter("dataverse",
+                dataverseConfig.getAdaptiveConcurrency().getMinConcurrentRequests(),
+                dataverseConfig.getMaxConcurrentRequests(),
+                dataverseConfig.getAdaptiveConcurrency().getLatencyTolerance(),
+                dataverseConfig.getAdaptiveConcurrency().getBackoffRatio(),
+                environment.metrics());
+        }
+        return new SemaphoreConcurrencyLimiter("dataverse", dataverseConfig.getMaxConcurrentRequests(), environment.metrics());
+    }
+
+    private ExecutorService createTaskExecutor(IngestFlowConfig ingestFlowConfig, Environment environment) {
+        ExecutorService executor;
+        switch (ingestFlowConfig.getTaskExecutorMode()) {
+            case VIRTUAL:
+                executor = TaskExecutors.newVirtualThreadExecutor("ingest-worker-");
+                if (executor != null) {
+                    break;
+                }
+                log.warn("Virtual threads are not available on this Java runtime; falling back to task executor mode ELASTIC");
+                // fall through
+            case ELASTIC:
+                executor = TaskExecutors.newElasticExecutor("ingest-worker-", ingestFlowConfig.getElasticMaxThreads(), 60, TimeUnit.SECONDS);
+                break;
+            default:
+                // Managed by Dropwizard already
+                return ingestFlowConfig.getTaskQueue().build(environment);
+        }
+        environment.lifecycle().manage(new ExecutorServiceManager(executor, Duration.seconds(5), "ingest-worker"));
+        return executor;
+    }
+
+    private RetryScheduler createRetryScheduler(String name, RetryConfig retryConfig, ExecutorService taskExecutor, Environment environment) {
+        if (retryConfig.getMaxAttempts() <= 1) {
+            return null;
+        }
+        return new RetryScheduler(
+            name,
+            retryConfig.getMaxAttempts(),
+            retryConfig.getInitialDelay().toMilliseconds(),
+            retryConfig.getMaxDelay().toMilliseconds(),
+            retryConfig.getJitter(),
+            Pattern.compile(retryConfig.getTransientFailurePattern()),
+            taskExecutor,
+            environment.metrics());
+    }
+
+    /*
+     * Sequencers beyond this number wait in their priority lanes instead of in the queue of the executor, where all areas would be served first come, first served.
+     * A pool only starts threads beyond its core size when its queue is full, so its core size is the number of workers that actually run.
+     */
+    private int getMaxConcurrentSequencers(ExecutorService taskExecutor, IngestFlowConfig ingestFlowConfig) {
+        if (taskExecutor instanceof ThreadPoolExecutor) {
+            return Math.max(1, ((ThreadPoolExecutor) taskExecutor).getCorePoolSize());
+        }
+        return ingestFlowConfig.getElasticMaxThreads();
     }
 }
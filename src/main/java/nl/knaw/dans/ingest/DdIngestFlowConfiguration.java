@@ -21,6 +21,7 @@ import io.dropwizard.db.DataSourceFactory;
 import nl.knaw.dans.ingest.core.config.DataverseConfigScala;
 import nl.knaw.dans.ingest.core.config.HttpServiceConfig;
 import nl.knaw.dans.ingest.core.config.IngestFlowConfig;
+import nl.knaw.dans.ingest.core.config.TaskEventWriterConfig;
 
 public class DdIngestFlowConfiguration extends Configuration {
 
@@ -29,6 +30,7 @@ public class DdIngestFlowConfiguration extends Configuration {
     private HttpServiceConfig validateDansBag;
     private HttpServiceConfig managePrestaging;
     private DataSourceFactory taskEventDatabase;
+    private TaskEventWriterConfig taskEventWriter = new TaskEventWriterConfig();
 
     public IngestFlowConfig getIngestFlow() {
         return ingestFlow;
@@ -70,4 +72,12 @@ public class DdIngestFlowConfiguration extends Configuration {
         this.taskEventDatabase = dataSourceFactory;
     }
 
+    public TaskEventWriterConfig getTaskEventWriter() {
+        return taskEventWriter;
+    }
+
+    public void setTaskEventWriter(TaskEventWriterConfig taskEventWriter) {
+        this.taskEventWriter = taskEventWriter;
+    }
+
 }
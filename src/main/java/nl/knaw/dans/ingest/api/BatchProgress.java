@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.ingest.api;
+
+import java.time.OffsetDateTime;
+
+public class BatchProgress {
+    private final String batch;
+    private final long scanned;
+    private final long enqueued;
+    private final long started;
+    private final long ok;
+    private final long failed;
+    private final long rejected;
+    private final long remaining;
+    private final double depositsPerMinute;
+    private final OffsetDateTime eta;
+
+    public BatchProgress(String batch, long scanned, long enqueued, long started, long ok, long failed, long rejected, long remaining, double depositsPerMinute, OffsetDateTime eta) {
+        this.batch = batch;
+        this.scanned = scanned;
+        this.enqueued = enqueued;
+        this.started = started;
+        this.ok = ok;
+        this.failed = failed;
+        this.rejected = rejected;
+        this.remaining = remaining;
+        this.depositsPerMinute = depositsPerMinute;
+        this.eta = eta;
+    }
+
+    public String getBatch() {
+        return batch;
+    }
+
+    /**
+     * @return the number of deposits found by the scan of the batch, or resumed after a restart; zero if the batch was not scanned up front
+     */
+    public long getScanned() {
+        return scanned;
+    }
+
+    public long getEnqueued() {
+        return enqueued;
+    }
+
+    public long getStarted() {
+        return started;
+    }
+
+    public long getOk() {
+        return ok;
+    }
+
+    public long getFailed() {
+        return failed;
+    }
+
+    public long getRejected() {
+        return rejected;
+    }
+
+    public long getRemaining() {
+        return remaining;
+    }
+
+    public double getDepositsPerMinute() {
+        return depositsPerMinute;
+    }
+
+    /**
+     * @return the estimated time at which the remaining deposits will have been processed, or null if nothing has been processed yet
+     */
+    public OffsetDateTime getEta() {
+        return eta;
+    }
+}
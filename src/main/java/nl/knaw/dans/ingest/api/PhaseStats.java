@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.ingest.api;
+
+/**
+ * Summary of the durations of one phase over the deposits of a source.
+ */
+public class PhaseStats {
+    private final String phase;
+    private final long count;
+    private final long failed;
+    private final double averageMs;
+    private final long maxMs;
+    private final long totalMs;
+
+    public PhaseStats(String phase, long count, long failed, double averageMs, long maxMs, long totalMs) {
+        this.phase = phase;
+        this.count = count;
+        this.failed = failed;
+        this.averageMs = averageMs;
+        this.maxMs = maxMs;
+        this.totalMs = totalMs;
+    }
+
+    public String getPhase() {
+        return phase;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getFailed() {
+        return failed;
+    }
+
+    public double getAverageMs() {
+        return averageMs;
+    }
+
+    public long getMaxMs() {
+        return maxMs;
+    }
+
+    public long getTotalMs() {
+        return totalMs;
+    }
+}
@@ -15,10 +15,19 @@
  */
 package nl.knaw.dans.ingest.api;
 
+import nl.knaw.dans.ingest.core.TaskEvent;
+
+/**
+ * Counts of deposits by their latest state. The first three counts are by event type and add up to the total number of deposits; the last three are by result and count
+ * finished deposits, plus the deposits that could not be enqueued under failed.
+ */
 public class StateStats {
     private int enqueue;
     private int startProcessing;
     private int finished;
+    private int ok;
+    private int rejected;
+    private int failed;
 
     public StateStats() {
     }
@@ -29,6 +38,36 @@ public class StateStats {
         this.finished = finished;
     }
 
+    public void add(TaskEvent.EventType eventType, TaskEvent.Result result, int count) {
+        switch (eventType) {
+            case ENQUEUE:
+                enqueue += count;
+                break;
+            case START_PROCESSING:
+            case RETRY:
+            case DRAFT_CREATED:
+                // Waiting for the next attempt or for the publication
+                startProcessing += count;
+                break;
+            case END_PROCESSING:
+                finished += count;
+                break;
+        }
+        if (eventType == TaskEvent.EventType.END_PROCESSING || (eventType == TaskEvent.EventType.ENQUEUE && result != TaskEvent.Result.OK)) {
+            switch (result) {
+                case OK:
+                    ok += count;
+                    break;
+                case REJECTED:
+                    rejected += count;
+                    break;
+                case FAILED:
+                    failed += count;
+                    break;
+            }
+        }
+    }
+
     public int getEnqueue() {
         return enqueue;
     }
@@ -52,4 +91,28 @@ public class StateStats {
     public void setFinished(int finished) {
         this.finished = finished;
     }
+
+    public int getOk() {
+        return ok;
+    }
+
+    public void setOk(int ok) {
+        this.ok = ok;
+    }
+
+    public int getRejected() {
+        return rejected;
+    }
+
+    public void setRejected(int rejected) {
+        this.rejected = rejected;
+    }
+
+    public int getFailed() {
+        return failed;
+    }
+
+    public void setFailed(int failed) {
+        this.failed = failed;
+    }
 }
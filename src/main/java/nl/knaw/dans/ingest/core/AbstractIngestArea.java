@@ -16,6 +16,7 @@
 package nl.knaw.dans.ingest.core;
 
 import nl.knaw.dans.ingest.core.legacy.DepositIngestTaskFactoryWrapper;
+import nl.knaw.dans.ingest.core.service.DepositInboxScanner;
 import nl.knaw.dans.ingest.core.service.EnqueuingService;
 import nl.knaw.dans.ingest.core.service.TaskEventService;
 import org.slf4j.Logger;
@@ -29,17 +30,21 @@ public class AbstractIngestArea {
     private static final Logger log = LoggerFactory.getLogger(AbstractIngestArea.class);
     protected final Path inboxDir;
     protected final Path outboxDir;
+    protected final DepositInboxScanner inboxScanner;
     protected final DepositIngestTaskFactoryWrapper taskFactory;
     protected final TaskEventService taskEventService;
     protected final EnqueuingService enqueuingService;
+    protected final String lane;
 
-    public AbstractIngestArea(Path inboxDir, Path outboxDir,
-        DepositIngestTaskFactoryWrapper taskFactory, TaskEventService taskEventService, EnqueuingService enqueuingService) {
+    public AbstractIngestArea(Path inboxDir, Path outboxDir, DepositInboxScanner inboxScanner,
+        DepositIngestTaskFactoryWrapper taskFactory, TaskEventService taskEventService, EnqueuingService enqueuingService, String lane) {
         this.inboxDir = inboxDir.toAbsolutePath();
         this.outboxDir = outboxDir.toAbsolutePath();
+        this.inboxScanner = inboxScanner;
         this.taskFactory = taskFactory;
         this.taskEventService = taskEventService;
         this.enqueuingService = enqueuingService;
+        this.lane = lane;
     }
 
     protected static boolean nonEmpty(Path p) throws IOException {
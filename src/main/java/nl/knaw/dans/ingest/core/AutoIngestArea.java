@@ -17,6 +17,8 @@ package nl.knaw.dans.ingest.core;
 
 import io.dropwizard.lifecycle.Managed;
 import nl.knaw.dans.ingest.core.legacy.DepositIngestTaskFactoryWrapper;
+import nl.knaw.dans.ingest.core.service.DepositInboxScanner;
+import nl.knaw.dans.ingest.core.service.InboxWatcher;
 import nl.knaw.dans.ingest.core.service.UnboundedTargetedTaskSource;
 import nl.knaw.dans.ingest.core.service.EnqueuingService;
 import nl.knaw.dans.ingest.core.service.TaskEventService;
@@ -24,23 +26,28 @@ import nl.knaw.dans.ingest.core.service.TaskEventService;
 import java.nio.file.Path;
 
 public class AutoIngestArea extends AbstractIngestArea implements Managed {
+    private final InboxWatcher inboxWatcher;
     private UnboundedTargetedTaskSource taskSource;
 
-    public AutoIngestArea(Path inboxDir, Path outboxDir, DepositIngestTaskFactoryWrapper taskFactory,
-        TaskEventService taskEventService, EnqueuingService enqueuingService) {
-        super(inboxDir, outboxDir, taskFactory, taskEventService, enqueuingService);
+    public AutoIngestArea(Path inboxDir, Path outboxDir, InboxWatcher inboxWatcher, DepositInboxScanner inboxScanner, DepositIngestTaskFactoryWrapper taskFactory,
+        TaskEventService taskEventService, EnqueuingService enqueuingService, String lane) {
+        super(inboxDir, outboxDir, inboxScanner, taskFactory, taskEventService, enqueuingService, lane);
+        this.inboxWatcher = inboxWatcher;
     }
 
     @Override
     public void start() throws Exception {
         validateInDir(inboxDir);
         initOutbox(outboxDir, true);
-        taskSource = new UnboundedTargetedTaskSource("auto-ingest", inboxDir, outboxDir, taskEventService, taskFactory);
-        enqueuingService.executeEnqueue(taskSource);
+        taskSource = new UnboundedTargetedTaskSource("auto-ingest", inboxDir, outboxDir, taskEventService, inboxWatcher, inboxScanner, taskFactory);
+        enqueuingService.executeEnqueue(taskSource, lane);
     }
 
     @Override
     public void stop() throws Exception {
-        taskSource.stop();
+        // Not set if the inbox or outbox was found to be invalid at start-up
+        if (taskSource != null) {
+            taskSource.stop();
+        }
     }
 }
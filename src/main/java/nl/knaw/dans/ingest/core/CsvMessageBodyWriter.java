@@ -15,11 +15,6 @@
  */
 package nl.knaw.dans.ingest.core;
 
-import com.fasterxml.jackson.databind.SerializationFeature;
-import com.fasterxml.jackson.dataformat.csv.CsvMapper;
-import com.fasterxml.jackson.dataformat.csv.CsvSchema;
-import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
-
 import javax.ws.rs.Produces;
 import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.MediaType;
@@ -36,6 +31,11 @@ import java.util.List;
 @Provider
 @Produces("text/csv")
 public class CsvMessageBodyWriter implements MessageBodyWriter<List<?>> {
+    private final CsvWriters csvWriters;
+
+    public CsvMessageBodyWriter(CsvWriters csvWriters) {
+        this.csvWriters = csvWriters;
+    }
 
     @Override
     public boolean isWriteable(Class type, Type genericType, Annotation[] annotations, MediaType mediaType) {
@@ -46,14 +46,8 @@ public class CsvMessageBodyWriter implements MessageBodyWriter<List<?>> {
     public void writeTo(List data, Class aClass, Type type, Annotation[] annotations, MediaType mediaType, MultivaluedMap multivaluedMap, OutputStream outputStream) throws
         IOException, WebApplicationException {
         if (data != null && data.size() > 0) {
-            // TODO: pass the mapper in at configuration time
-            CsvMapper mapper = new CsvMapper();
             Object o = data.get(0);
-            CsvSchema schema = mapper.schemaFor(o.getClass())
-                .withHeader();
-            mapper.configure(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS, false);
-            mapper.registerModule(new JavaTimeModule());
-            mapper.writer(schema).writeValue(outputStream, data);
+            csvWriters.forType(o.getClass()).writeValue(outputStream, data);
         }
     }
 }
@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.ingest.core;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.IdClass;
+import javax.persistence.Table;
+import java.io.Serializable;
+import java.time.OffsetDateTime;
+import java.util.Objects;
+
+/**
+ * The latest task event of a deposit within a source. This is kept up to date by the event writer, so that the state of a batch can be looked up without searching the
+ * history in the task_event table.
+ */
+@Entity
+@Table(name = "deposit_state")
+@IdClass(DepositState.Key.class)
+public class DepositState {
+
+    public static class Key implements Serializable {
+        private String source;
+        private String depositId;
+
+        public Key() {
+        }
+
+        public Key(String source, String depositId) {
+            this.source = source;
+            this.depositId = depositId;
+        }
+
+        public String getSource() {
+            return source;
+        }
+
+        public String getDepositId() {
+            return depositId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o)
+                return true;
+            if (o == null || getClass() != o.getClass())
+                return false;
+            Key key = (Key) o;
+            return Objects.equals(source, key.source) && Objects.equals(depositId, key.depositId);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(source, depositId);
+        }
+    }
+
+    @Id
+    @Column(name = "source", nullable = false)
+    private String source;
+
+    @Id
+    @Column(name = "deposit_id", nullable = false, length = 36)
+    private String depositId;
+
+    @Column(name = "timestamp", nullable = false)
+    private OffsetDateTime timestamp;
+
+    @Column(name = "event_type", nullable = false, length = 20)
+    private String eventType;
+
+    @Column(name = "result", nullable = false, length = 20)
+    private String result;
+
+    public DepositState() {
+    }
+
+    public DepositState(TaskEvent event) {
+        this.source = event.getSource();
+        this.depositId = event.getDepositId().toString();
+        update(event);
+    }
+
+    /**
+     * Sets the state to that of the event, unless the event is older than the current state.
+     *
+     * @param event the event
+     */
+    public void update(TaskEvent event) {
+        if (timestamp == null || !event.getTimestamp().isBefore(timestamp)) {
+            this.timestamp = event.getTimestamp();
+            this.eventType = event.getEvenType().name();
+            this.result = event.getResult().name();
+        }
+    }
+
+    public Key getKey() {
+        return new Key(source, depositId);
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    public String getDepositId() {
+        return depositId;
+    }
+
+    public OffsetDateTime getTimestamp() {
+        return timestamp;
+    }
+
+    public TaskEvent.EventType getEventType() {
+        return TaskEvent.EventType.valueOf(eventType);
+    }
+
+    public TaskEvent.Result getResult() {
+        return TaskEvent.Result.valueOf(result);
+    }
+}
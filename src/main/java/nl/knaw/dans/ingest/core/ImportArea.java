@@ -15,29 +15,71 @@
  */
 package nl.knaw.dans.ingest.core;
 
+import io.dropwizard.lifecycle.Managed;
 import nl.knaw.dans.ingest.core.legacy.DepositImportTaskWrapper;
 import nl.knaw.dans.ingest.core.legacy.DepositIngestTaskFactoryWrapper;
+import nl.knaw.dans.ingest.core.service.BatchProgressTracker;
+import nl.knaw.dans.ingest.core.service.DepositInboxScanner;
+import nl.knaw.dans.ingest.core.service.DepositJournal;
 import nl.knaw.dans.ingest.core.service.EnqueuingService;
+import nl.knaw.dans.ingest.core.service.JournaledTargetedTaskSource;
+import nl.knaw.dans.ingest.core.service.ResumedTargetedTaskSource;
 import nl.knaw.dans.ingest.core.service.TargetedTaskSource;
-import nl.knaw.dans.ingest.core.service.TargetedTaskSourceImpl;
 import nl.knaw.dans.ingest.core.service.TaskEventService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
-public class ImportArea extends AbstractIngestArea {
+public class ImportArea extends AbstractIngestArea implements Managed {
     private static final Logger log = LoggerFactory.getLogger(ImportArea.class);
     private final DepositIngestTaskFactoryWrapper migrationTaskFactory;
+    private final DepositJournal journal;
+    private final BatchProgressTracker progressTracker;
     private final Map<String, TargetedTaskSource<DepositImportTaskWrapper>> batches = new HashMap<>();
 
-    public ImportArea(Path inboxDir, Path outboxDir, DepositIngestTaskFactoryWrapper taskFactory, DepositIngestTaskFactoryWrapper migrationTaskFactory,
-        TaskEventService taskEventService, EnqueuingService enqueuingService) {
-        super(inboxDir, outboxDir, taskFactory, taskEventService, enqueuingService);
+    public ImportArea(Path inboxDir, Path outboxDir, DepositInboxScanner inboxScanner, DepositIngestTaskFactoryWrapper taskFactory,
+        DepositIngestTaskFactoryWrapper migrationTaskFactory, TaskEventService taskEventService, EnqueuingService enqueuingService, String lane, DepositJournal journal,
+        BatchProgressTracker progressTracker) {
+        super(inboxDir, outboxDir, inboxScanner, taskFactory, taskEventService, enqueuingService, lane);
         this.migrationTaskFactory = migrationTaskFactory;
+        this.journal = journal;
+        this.progressTracker = progressTracker;
+    }
+
+    /**
+     * Resumes the batches that were interrupted by a restart, from the deposits left in the journal. This does not scan the inboxes again. Deposits that are no longer in the
+     * inbox were processed, but their END_PROCESSING event was not written before the restart; they are removed from the journal.
+     */
+    @Override
+    public void start() throws Exception {
+        Map<Boolean, List<QueuedDeposit>> queued = journal.getQueued(lane).stream()
+            .collect(Collectors.partitioningBy(d -> Files.isDirectory(d.getDepositDir())));
+        if (!queued.get(false).isEmpty()) {
+            log.warn("{} deposit(s) in the journal for {} are no longer in the inbox; removing them from the journal", queued.get(false).size(), lane);
+            journal.remove(queued.get(false));
+        }
+        List<QueuedDeposit> resumed = queued.get(true);
+        if (!resumed.isEmpty()) {
+            log.info("Resuming {} deposit(s) of interrupted batches for {}", resumed.size(), lane);
+            resumed.stream()
+                .collect(Collectors.groupingBy(QueuedDeposit::getSource, Collectors.counting()))
+                .forEach((batch, count) -> progressTracker.recordScanned(batch, count.intValue()));
+            enqueuingService.executeEnqueue(new ResumedTargetedTaskSource(resumed, taskEventService, taskFactory, migrationTaskFactory), lane);
+        }
+    }
+
+    @Override
+    public void stop() throws Exception {
     }
 
     public String startBatch(Path batchPath, boolean continuePrevious, boolean isMigration) {
@@ -59,10 +101,29 @@ public class ImportArea extends AbstractIngestArea {
         validateInDir(inDir);
         initOutbox(outDir, continuePrevious);
         String batchName = relativeBatchDir.toString();
-        TargetedTaskSource<DepositImportTaskWrapper> taskSource = new TargetedTaskSourceImpl(batchName, inDir, outDir, taskEventService,
-            isMigration ? migrationTaskFactory : taskFactory);
+        DepositInboxScanner scanner = continuePrevious ? inboxScanner.skipping(getDepositIdsToSkip(batchName, outDir)) : inboxScanner;
+        TargetedTaskSource<DepositImportTaskWrapper> taskSource = new JournaledTargetedTaskSource(batchName, inDir, outDir, taskEventService, scanner,
+            isMigration ? migrationTaskFactory : taskFactory, journal, progressTracker, lane, isMigration);
         batches.put(batchName, taskSource);
-        enqueuingService.executeEnqueue(taskSource);
+        enqueuingService.executeEnqueue(taskSource, lane);
         return  relativeBatchDir.toString();
     }
+
+    /*
+     * The deposits that the journal reports as processed or still enqueued, plus those found in the outbox, in case their last event was lost. Both are looked up in bulk,
+     * before the inbox is scanned.
+     */
+    private Set<String> getDepositIdsToSkip(String batchName, Path outDir) {
+        Set<String> depositIds = journal.getDepositIdsToSkip(batchName);
+        for (String subdir : new String[] { "processed", "failed", "rejected" }) {
+            try (Stream<Path> deposits = Files.list(outDir.resolve(subdir))) {
+                deposits.forEach(d -> depositIds.add(d.getFileName().toString()));
+            }
+            catch (IOException e) {
+                throw new IllegalArgumentException("cannot list outbox for batch at " + outDir, e);
+            }
+        }
+        log.info("Skipping {} deposit(s) of batch {} that have been processed or are still enqueued", depositIds.size(), batchName);
+        return depositIds;
+    }
 }
@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.ingest.core;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.IdClass;
+import javax.persistence.Index;
+import javax.persistence.Table;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.OffsetDateTime;
+
+/**
+ * A deposit of a batch that has been scanned, but not yet processed. The deposits of a batch are added when the inbox of the batch is scanned, and each one is removed by the
+ * event writer when the END_PROCESSING event of the deposit is written, or an ENQUEUE event that reports a failure. What is left after a restart can therefore be resumed
+ * without scanning the inbox again. A deposit of which the draft was created, but not yet published, is resumed at the publication of that draft.
+ */
+@Entity
+@Table(name = "queued_deposit",
+       indexes = {
+           @Index(name = "queued_deposit_lane_idx", columnList = "lane")
+       })
+@IdClass(DepositState.Key.class)
+public class QueuedDeposit {
+
+    @Id
+    @Column(name = "source", nullable = false)
+    private String source;
+
+    @Id
+    @Column(name = "deposit_id", nullable = false, length = 36)
+    private String depositId;
+
+    @Column(name = "lane", nullable = false, length = 20)
+    private String lane;
+
+    @Column(name = "migration", nullable = false)
+    private boolean migration;
+
+    @Column(name = "deposit_dir", nullable = false, length = 1024)
+    private String depositDir;
+
+    @Column(name = "outbox_dir", nullable = false, length = 1024)
+    private String outboxDir;
+
+    @Column(name = "timestamp", nullable = false)
+    private OffsetDateTime timestamp;
+
+    // The position of the deposit in the batch after ordering by Created
+    @Column(name = "position", nullable = false)
+    private int position;
+
+    // The draft that was created for the deposit, if it is waiting for its publication
+    @Column(name = "persistent_id")
+    private String persistentId;
+
+    public QueuedDeposit() {
+    }
+
+    public QueuedDeposit(String source, Path depositDir, String lane, boolean migration, Path outboxDir, OffsetDateTime timestamp, int position) {
+        this.source = source;
+        this.depositId = depositDir.getFileName().toString();
+        this.lane = lane;
+        this.migration = migration;
+        this.depositDir = depositDir.toString();
+        this.outboxDir = outboxDir.toString();
+        this.timestamp = timestamp;
+        this.position = position;
+    }
+
+    public DepositState.Key getKey() {
+        return new DepositState.Key(source, depositId);
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    public String getDepositId() {
+        return depositId;
+    }
+
+    public String getLane() {
+        return lane;
+    }
+
+    public boolean isMigration() {
+        return migration;
+    }
+
+    public Path getDepositDir() {
+        return Paths.get(depositDir);
+    }
+
+    public Path getOutboxDir() {
+        return Paths.get(outboxDir);
+    }
+
+    public OffsetDateTime getTimestamp() {
+        return timestamp;
+    }
+
+    public int getPosition() {
+        return position;
+    }
+
+    public String getPersistentId() {
+        return persistentId;
+    }
+
+    public void setPersistentId(String persistentId) {
+        this.persistentId = persistentId;
+    }
+
+    @Override
+    public String toString() {
+        return "QueuedDeposit{" +
+            "source='" + source + '\'' +
+            ", depositDir='" + depositDir + '\'' +
+            '}';
+    }
+}
@@ -22,16 +22,28 @@ import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.SequenceGenerator;
 import javax.persistence.Table;
 import java.time.OffsetDateTime;
 import java.util.UUID;
 
 @Entity
-@Table(name = "task_event")
+@Table(name = "task_event",
+       indexes = {
+           @Index(name = "task_event_source_deposit_id_timestamp_idx", columnList = "source, deposit_id, timestamp"),
+           @Index(name = "task_event_deposit_id_timestamp_idx", columnList = "deposit_id, timestamp")
+       })
 public class TaskEvent {
+    // The number of ids taken from the sequence at a time; keep it equal to hibernate.jdbc.batch_size
+    public static final int ID_ALLOCATION_SIZE = 50;
+
     public enum EventType {
         ENQUEUE,
         START_PROCESSING,
+        RETRY,
+        // The draft of the dataset has been created, and possibly its publication requested; the message is its persistent ID
+        DRAFT_CREATED,
         END_PROCESSING
     }
 
@@ -41,8 +53,10 @@ public class TaskEvent {
         REJECTED
     }
 
+    // Taken from the sequence in blocks, so that the inserts of a batch of events can be sent as one JDBC batch
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "task_event_seq")
+    @SequenceGenerator(name = "task_event_seq", sequenceName = "task_event_seq", allocationSize = ID_ALLOCATION_SIZE)
     private long id;
 
     @Column(name = "source")
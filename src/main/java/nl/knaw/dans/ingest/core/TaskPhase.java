@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.ingest.core;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.SequenceGenerator;
+import javax.persistence.Table;
+import java.time.OffsetDateTime;
+import java.util.UUID;
+
+/**
+ * The timing of one phase of the processing of a deposit, such as validation or publication.
+ */
+@Entity
+@Table(name = "task_phase",
+       indexes = {
+           @Index(name = "task_phase_source_phase_idx", columnList = "source, phase"),
+           @Index(name = "task_phase_deposit_id_idx", columnList = "deposit_id")
+       })
+public class TaskPhase {
+    // The number of ids taken from the sequence at a time; keep it equal to hibernate.jdbc.batch_size
+    public static final int ID_ALLOCATION_SIZE = 50;
+
+    // Taken from the sequence in blocks, so that the inserts of a batch of phases can be sent as one JDBC batch
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "task_phase_seq")
+    @SequenceGenerator(name = "task_phase_seq", sequenceName = "task_phase_seq", allocationSize = ID_ALLOCATION_SIZE)
+    private long id;
+
+    @Column(name = "source")
+    private String source;
+
+    @Column(name = "deposit_id", nullable = false, length = 36)
+    private String depositId;
+
+    @Column(name = "phase", nullable = false, length = 40)
+    private String phase;
+
+    @Column(name = "start_time", nullable = false)
+    private OffsetDateTime start;
+
+    @Column(name = "duration_ms", nullable = false)
+    private long durationMs;
+
+    @Column(name = "succeeded", nullable = false)
+    private boolean succeeded;
+
+    public TaskPhase() {
+    }
+
+    public TaskPhase(String source, UUID depositId, String phase, OffsetDateTime start, long durationMs, boolean succeeded) {
+        this.source = source;
+        this.depositId = depositId.toString();
+        this.phase = phase;
+        this.start = start;
+        this.durationMs = durationMs;
+        this.succeeded = succeeded;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    public UUID getDepositId() {
+        return UUID.fromString(depositId);
+    }
+
+    public String getPhase() {
+        return phase;
+    }
+
+    public OffsetDateTime getStart() {
+        return start;
+    }
+
+    public long getDurationMs() {
+        return durationMs;
+    }
+
+    public boolean isSucceeded() {
+        return succeeded;
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.ingest.core.config;
+
+import nl.knaw.dans.ingest.core.service.InboxWatchMode;
+
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+
+public class AutoIngestAreaConfig extends IngestAreaConfig {
+    @NotNull
+    private InboxWatchMode watchMode = InboxWatchMode.WATCH_SERVICE;
+
+    @Min(1)
+    private int pollingInterval = 500;
+
+    public InboxWatchMode getWatchMode() {
+        return watchMode;
+    }
+
+    public void setWatchMode(InboxWatchMode watchMode) {
+        this.watchMode = watchMode;
+    }
+
+    public int getPollingInterval() {
+        return pollingInterval;
+    }
+
+    public void setPollingInterval(int pollingInterval) {
+        this.pollingInterval = pollingInterval;
+    }
+}
@@ -15,10 +15,25 @@
  */
 package nl.knaw.dans.ingest.core.config;
 
+import javax.validation.Valid;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+
 public class DataverseConfigScala {
     private HttpServiceConfig http;
     private DataverseApiConfig api;
 
+    @Min(1)
+    private int maxConcurrentRequests = 5;
+
+    @NotNull
+    @Valid
+    private AdaptiveConcurrencyConfig adaptiveConcurrency = new AdaptiveConcurrencyConfig();
+
+    @NotNull
+    @Valid
+    private LookupCacheConfig lookupCache = new LookupCacheConfig();
+
     public HttpServiceConfig getHttp() {
         return http;
     }
@@ -34,4 +49,28 @@ public class DataverseConfigScala {
     public void setApi(DataverseApiConfig api) {
         this.api = api;
     }
+
+    public int getMaxConcurrentRequests() {
+        return maxConcurrentRequests;
+    }
+
+    public void setMaxConcurrentRequests(int maxConcurrentRequests) {
+        this.maxConcurrentRequests = maxConcurrentRequests;
+    }
+
+    public AdaptiveConcurrencyConfig getAdaptiveConcurrency() {
+        return adaptiveConcurrency;
+    }
+
+    public void setAdaptiveConcurrency(AdaptiveConcurrencyConfig adaptiveConcurrency) {
+        this.adaptiveConcurrency = adaptiveConcurrency;
+    }
+
+    public LookupCacheConfig getLookupCache() {
+        return lookupCache;
+    }
+
+    public void setLookupCache(LookupCacheConfig lookupCache) {
+        this.lookupCache = lookupCache;
+    }
 }
@@ -20,6 +20,8 @@ import java.nio.file.Path;
 public class IngestAreaConfig {
     private Path inbox;
     private Path outbox;
+    private int scanParallelism = 1;
+    private int priority = 0;
 
     public Path getInbox() {
         return inbox;
@@ -36,4 +38,20 @@ public class IngestAreaConfig {
     public void setOutbox(Path outbox) {
         this.outbox = outbox;
     }
+
+    public int getScanParallelism() {
+        return scanParallelism;
+    }
+
+    public void setScanParallelism(int scanParallelism) {
+        this.scanParallelism = scanParallelism;
+    }
+
+    public int getPriority() {
+        return priority;
+    }
+
+    public void setPriority(int priority) {
+        this.priority = priority;
+    }
 }
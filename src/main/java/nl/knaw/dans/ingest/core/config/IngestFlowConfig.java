@@ -16,11 +16,18 @@
 package nl.knaw.dans.ingest.core.config;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
+import io.dropwizard.util.Duration;
+import nl.knaw.dans.ingest.core.sequencing.TaskExecutorMode;
+import nl.knaw.dans.ingest.core.service.DepositTargetResolver;
 import nl.knaw.dans.lib.util.ExecutorServiceFactory;
 
 import javax.validation.Valid;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotEmpty;
 import javax.validation.constraints.NotNull;
 import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
 
 public class IngestFlowConfig {
     @NotNull
@@ -35,7 +42,7 @@ public class IngestFlowConfig {
 
     @NotNull
     @Valid
-    private IngestAreaConfig autoIngest;
+    private AutoIngestAreaConfig autoIngest;
 
     @NotNull
     @Valid
@@ -45,6 +52,9 @@ public class IngestFlowConfig {
     @Valid
     private Path mappingDefsDir;
 
+    @NotNull
+    private Duration mappingDefsCheckInterval = Duration.minutes(1);
+
     @NotNull
     @Valid
     private String fileExclusionPattern;
@@ -60,6 +70,29 @@ public class IngestFlowConfig {
     @Valid
     private ExecutorServiceFactory taskQueue;
 
+    @NotNull
+    private TaskExecutorMode taskExecutorMode = TaskExecutorMode.POOL;
+
+    @Min(1)
+    private int elasticMaxThreads = 100;
+
+    @Min(0)
+    private int awaitUnlockPollerThreads = 2;
+
+    private int maxPendingTasksPerSource = 0;
+
+    @NotNull
+    @Valid
+    private RetryConfig retry = new RetryConfig();
+
+    @NotNull
+    @Valid
+    private DeferredPublishingConfig deferredPublishing = new DeferredPublishingConfig();
+
+    @NotEmpty
+    private List<DepositTargetResolver> targetResolvers = Arrays.asList(DepositTargetResolver.DOI, DepositTargetResolver.IS_VERSION_OF, DepositTargetResolver.BAG_ID,
+        DepositTargetResolver.DEPOSIT_ID);
+
     public IngestAreaConfig getImportConfig() {
         return importConfig;
     }
@@ -76,11 +109,11 @@ public class IngestFlowConfig {
         this.migration = migration;
     }
 
-    public IngestAreaConfig getAutoIngest() {
+    public AutoIngestAreaConfig getAutoIngest() {
         return autoIngest;
     }
 
-    public void setAutoIngest(IngestAreaConfig autoIngest) {
+    public void setAutoIngest(AutoIngestAreaConfig autoIngest) {
         this.autoIngest = autoIngest;
     }
 
@@ -100,6 +133,14 @@ public class IngestFlowConfig {
         this.mappingDefsDir = mappingDefsDir;
     }
 
+    public Duration getMappingDefsCheckInterval() {
+        return mappingDefsCheckInterval;
+    }
+
+    public void setMappingDefsCheckInterval(Duration mappingDefsCheckInterval) {
+        this.mappingDefsCheckInterval = mappingDefsCheckInterval;
+    }
+
     public String getFileExclusionPattern() {
         return fileExclusionPattern;
     }
@@ -131,4 +172,60 @@ public class IngestFlowConfig {
     public void setTaskQueue(ExecutorServiceFactory taskQueue) {
         this.taskQueue = taskQueue;
     }
+
+    public TaskExecutorMode getTaskExecutorMode() {
+        return taskExecutorMode;
+    }
+
+    public void setTaskExecutorMode(TaskExecutorMode taskExecutorMode) {
+        this.taskExecutorMode = taskExecutorMode;
+    }
+
+    public int getElasticMaxThreads() {
+        return elasticMaxThreads;
+    }
+
+    public void setElasticMaxThreads(int elasticMaxThreads) {
+        this.elasticMaxThreads = elasticMaxThreads;
+    }
+
+    public int getAwaitUnlockPollerThreads() {
+        return awaitUnlockPollerThreads;
+    }
+
+    public void setAwaitUnlockPollerThreads(int awaitUnlockPollerThreads) {
+        this.awaitUnlockPollerThreads = awaitUnlockPollerThreads;
+    }
+
+    public int getMaxPendingTasksPerSource() {
+        return maxPendingTasksPerSource;
+    }
+
+    public void setMaxPendingTasksPerSource(int maxPendingTasksPerSource) {
+        this.maxPendingTasksPerSource = maxPendingTasksPerSource;
+    }
+
+    public RetryConfig getRetry() {
+        return retry;
+    }
+
+    public void setRetry(RetryConfig retry) {
+        this.retry = retry;
+    }
+
+    public DeferredPublishingConfig getDeferredPublishing() {
+        return deferredPublishing;
+    }
+
+    public void setDeferredPublishing(DeferredPublishingConfig deferredPublishing) {
+        this.deferredPublishing = deferredPublishing;
+    }
+
+    public List<DepositTargetResolver> getTargetResolvers() {
+        return targetResolvers;
+    }
+
+    public void setTargetResolvers(List<DepositTargetResolver> targetResolvers) {
+        this.targetResolvers = targetResolvers;
+    }
 }
@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.ingest.core.config;
+
+import io.dropwizard.util.Duration;
+
+import javax.validation.constraints.DecimalMax;
+import javax.validation.constraints.DecimalMin;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+
+public class RetryConfig {
+    @Min(1)
+    private int maxAttempts = 1;
+
+    @NotNull
+    private Duration initialDelay = Duration.seconds(30);
+
+    @NotNull
+    private Duration maxDelay = Duration.minutes(10);
+
+    @DecimalMin("0.0")
+    @DecimalMax("1.0")
+    private double jitter = 0.5;
+
+    @NotNull
+    private String transientFailurePattern = "(?is).*(timed out|connection refused|connection reset|\\b502\\b|\\b503\\b|\\b504\\b).*";
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    public void setMaxAttempts(int maxAttempts) {
+        this.maxAttempts = maxAttempts;
+    }
+
+    public Duration getInitialDelay() {
+        return initialDelay;
+    }
+
+    public void setInitialDelay(Duration initialDelay) {
+        this.initialDelay = initialDelay;
+    }
+
+    public Duration getMaxDelay() {
+        return maxDelay;
+    }
+
+    public void setMaxDelay(Duration maxDelay) {
+        this.maxDelay = maxDelay;
+    }
+
+    public double getJitter() {
+        return jitter;
+    }
+
+    public void setJitter(double jitter) {
+        this.jitter = jitter;
+    }
+
+    public String getTransientFailurePattern() {
+        return transientFailurePattern;
+    }
+
+    public void setTransientFailurePattern(String transientFailurePattern) {
+        this.transientFailurePattern = transientFailurePattern;
+    }
+}
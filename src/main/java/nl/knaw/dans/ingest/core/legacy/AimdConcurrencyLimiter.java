@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.ingest.core.legacy;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import nl.knaw.dans.easy.dd2d.ConcurrencyLimiter;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Adapts the number of concurrent calls to an external service to how well the service keeps up, in the manner of TCP congestion control: additive increase, multiplicative
+ * decrease. A call that fails, or that takes more than latencyTolerance times the usual duration of calls of its kind, is taken as a sign of overload and lowers the limit by
+ * the backoff ratio. Every other call raises the limit by 1/limit, so that it grows by about one per round of calls. The limit stays between minLimit and maxLimit, starting at
+ * minLimit.
+ * <p>
+ * The usual duration of a kind of call is a slowly moving average of its successful calls. Calls that were started before the last decrease do not lower the limit again, so
+ * that one slow period causes one decrease rather than one per call that was in flight. This only works if the reported durations are those of single requests: a kind of call
+ * that includes waiting for locks, or uploads of files of very different sizes, has no usual duration.
+ */
+public class AimdConcurrencyLimiter implements ConcurrencyLimiter {
+    private static final double BASELINE_WEIGHT = 0.05;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final double latencyTolerance;
+    private final double backoffRatio;
+    private final Timer waitTimer;
+
+    // A lock rather than synchronized, so that waiting virtual threads do not pin their carrier thread
+    private final Lock lock = new ReentrantLock(true);
+    private final Condition permitAvailable = lock.newCondition();
+    private final Map<String, Double> baselineNanos = new HashMap<>();
+    private double limit;
+    private int inFlight = 0;
+    private long lastDecrease = System.nanoTime();
+
+    public AimdConcurrencyLimiter(String name, int minLimit, int maxLimit, double latencyTolerance, double backoffRatio, MetricRegistry metricRegistry) {
+        if (minLimit < 1 || maxLimit < minLimit) {
+            throw new IllegalArgumentException("Limits must satisfy 1 <= minLimit <= maxLimit");
+        }
+        if (latencyTolerance <= 1.0) {
+            throw new IllegalArgumentException("latencyTolerance must be greater than 1");
+        }
+        if (backoffRatio <= 0.0 || backoffRatio >= 1.0) {
+            throw new IllegalArgumentException("backoffRatio must be between 0 and 1");
+        }
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.latencyTolerance = latencyTolerance;
+        this.backoffRatio = backoffRatio;
+        this.limit = minLimit;
+        this.waitTimer = metricRegistry.timer(MetricRegistry.name(AimdConcurrencyLimiter.class, name, "wait"));
+        metricRegistry.register(MetricRegistry.name(AimdConcurrencyLimiter.class, name, "limit"), (Gauge<Integer>) this::getLimit);
+        metricRegistry.register(MetricRegistry.name(AimdConcurrencyLimiter.class, name, "in-use"), (Gauge<Integer>) this::getInUse);
+    }
+
+    @Override
+    public void acquire() {
+        try (Timer.Context ignored = waitTimer.time()) {
+            lock.lockInterruptibly();
+            try {
+                while (inFlight >= (int) limit) {
+                    permitAvailable.await();
+                }
+                inFlight++;
+            }
+            finally {
+                lock.unlock();
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for a permit", e);
+        }
+    }
+
+    @Override
+    public void release(String call, long durationNanos, boolean succeeded) {
+        long now = System.nanoTime();
+        lock.lock();
+        try {
+            inFlight--;
+            Double baseline = baselineNanos.get(call);
+            boolean slow = baseline != null && durationNanos > latencyTolerance * baseline;
+            if (!succeeded || slow) {
+                if (now - durationNanos - lastDecrease > 0) {
+                    limit = Math.max(minLimit, limit * backoffRatio);
+                    lastDecrease = now;
+                }
+            }
+            else {
+                limit = Math.min(maxLimit, limit + 1.0 / limit);
+            }
+            if (succeeded) {
+                baselineNanos.put(call, baseline == null ? durationNanos : baseline + BASELINE_WEIGHT * (durationNanos - baseline));
+            }
+            permitAvailable.signalAll();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    public int getLimit() {
+        lock.lock();
+        try {
+            return (int) limit;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    public int getInUse() {
+        lock.lock();
+        try {
+            return inFlight;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+}
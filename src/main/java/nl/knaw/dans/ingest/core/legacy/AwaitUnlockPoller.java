@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.ingest.core.legacy;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import io.dropwizard.lifecycle.Managed;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Waits for datasets to be unlocked without occupying a worker thread. The check is repeated by a scheduler at a fixed interval; in between, nothing runs on behalf of the
+ * waiting deposit. The returned futures are completed on the resume executor, so that the work that follows does not run on, and hold up, the scheduler threads. When the poller is stopped, the waits that have not finished yet are
+ * completed with a {@link StoppedException}.
+ */
+public class AwaitUnlockPoller implements Managed {
+    private static final Logger log = LoggerFactory.getLogger(AwaitUnlockPoller.class);
+
+    private final ScheduledExecutorService scheduler;
+    private final Executor resumeExecutor;
+    private final Set<CompletableFuture<Void>> waiting = ConcurrentHashMap.newKeySet();
+    private volatile boolean stopped;
+    private final Meter polls;
+
+    public AwaitUnlockPoller(int threads, Executor resumeExecutor, MetricRegistry metricRegistry) {
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.scheduler = Executors.newScheduledThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "await-unlock-poller-" + threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.resumeExecutor = resumeExecutor;
+        this.polls = metricRegistry.meter(MetricRegistry.name(AwaitUnlockPoller.class, "polls"));
+        metricRegistry.register(MetricRegistry.name(AwaitUnlockPoller.class, "waiting"), (Gauge<Integer>) waiting::size);
+    }
+
+    /**
+     * Waits until the check returns true. The first check is done on the calling thread, after that they are done by the scheduler.
+     *
+     * @param isUnlocked returns whether the dataset is unlocked; if it throws, waiting stops and the future is completed with the exception
+     * @param maxPolls   the maximum number of checks
+     * @param interval   the time between checks
+     * @param unit       the unit of interval
+     * @return a future that is completed when the check returns true, or completed exceptionally if it still returns false after maxPolls checks, or with a
+     *     {@link StoppedException} if the poller was stopped first
+     */
+    public CompletableFuture<Void> awaitUnlock(Callable<Boolean> isUnlocked, int maxPolls, long interval, TimeUnit unit) {
+        CompletableFuture<Void> unlocked = new CompletableFuture<>();
+        if (check(isUnlocked, unlocked, 1, maxPolls)) {
+            return unlocked;
+        }
+        waiting.add(unlocked);
+        CompletableFuture<Void> resumed = new CompletableFuture<>();
+        unlocked.whenComplete((v, e) -> {
+            waiting.remove(unlocked);
+            try {
+                resumeExecutor.execute(() -> complete(resumed, e));
+            }
+            catch (RejectedExecutionException ree) {
+                log.warn("Resume executor rejected continuation; continuing on the poller thread");
+                complete(resumed, e);
+            }
+        });
+        if (stopped) {
+            // The wait may have been added after stop() completed the pending ones
+            unlocked.completeExceptionally(new StoppedException());
+        }
+        else {
+            schedule(isUnlocked, unlocked, 2, maxPolls, interval, unit);
+        }
+        return resumed;
+    }
+
+    private void schedule(Callable<Boolean> isUnlocked, CompletableFuture<Void> unlocked, int poll, int maxPolls, long interval, TimeUnit unit) {
+        try {
+            scheduler.schedule(() -> {
+                if (!check(isUnlocked, unlocked, poll, maxPolls)) {
+                    schedule(isUnlocked, unlocked, poll + 1, maxPolls, interval, unit);
+                }
+            }, interval, unit);
+        }
+        catch (RejectedExecutionException e) {
+            unlocked.completeExceptionally(new StoppedException());
+        }
+    }
+
+    /**
+     * @return true if the future has been completed
+     */
+    private boolean check(Callable<Boolean> isUnlocked, CompletableFuture<Void> unlocked, int poll, int maxPolls) {
+        polls.mark();
+        try {
+            if (isUnlocked.call()) {
+                unlocked.complete(null);
+                return true;
+            }
+        }
+        catch (Exception e) {
+            unlocked.completeExceptionally(e);
+            return true;
+        }
+        if (poll >= maxPolls) {
+            unlocked.completeExceptionally(new IllegalStateException("Dataset was still locked after " + maxPolls + " checks"));
+            return true;
+        }
+        return false;
+    }
+
+    private static void complete(CompletableFuture<Void> future, Throwable error) {
+        if (error == null) {
+            future.complete(null);
+        }
+        else {
+            future.completeExceptionally(error);
+        }
+    }
+
+    public int getWaiting() {
+        return waiting.size();
+    }
+
+    @Override
+    public void start() {
+    }
+
+    @Override
+    public void stop() {
+        stopped = true;
+        for (CompletableFuture<Void> unlocked : waiting) {
+            unlocked.completeExceptionally(new StoppedException());
+        }
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * The wait did not finish, because the poller was stopped. The dataset may still become unlocked; the deposit is neither published nor failed yet.
+     */
+    public static class StoppedException extends IllegalStateException {
+        public StoppedException() {
+            super("The poller was stopped before the dataset was unlocked");
+        }
+    }
+}
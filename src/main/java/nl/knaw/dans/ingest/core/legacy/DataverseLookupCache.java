@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.ingest.core.legacy;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import nl.knaw.dans.easy.dd2d.LookupCache;
+import scala.Function0;
+import scala.util.Try;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Caches the successful results of read-only lookups in Dataverse for a fixed time. When the cache is full, the least recently used result is evicted. Lookups for a key that
+ * is not cached are not coalesced: if several tasks look up the same key at the same time, each of them calls Dataverse.
+ */
+public class DataverseLookupCache implements LookupCache {
+    private final int maxSize;
+    private final long timeToLiveNanos;
+    private final LongSupplier nanoClock;
+    private final Map<String, CachedResult> entries;
+    private final Meter hits;
+    private final Meter misses;
+    private final Meter evictions;
+
+    public DataverseLookupCache(int maxSize, long timeToLive, TimeUnit unit, MetricRegistry metricRegistry) {
+        this(maxSize, timeToLive, unit, System::nanoTime, metricRegistry);
+    }
+
+    DataverseLookupCache(int maxSize, long timeToLive, TimeUnit unit, LongSupplier nanoClock, MetricRegistry metricRegistry) {
+        this.maxSize = maxSize;
+        this.timeToLiveNanos = unit.toNanos(timeToLive);
+        this.nanoClock = nanoClock;
+        this.hits = metricRegistry.meter(MetricRegistry.name(DataverseLookupCache.class, "hits"));
+        this.misses = metricRegistry.meter(MetricRegistry.name(DataverseLookupCache.class, "misses"));
+        this.evictions = metricRegistry.meter(MetricRegistry.name(DataverseLookupCache.class, "evictions"));
+        // Access order, so that the eldest entry is the least recently used one
+        this.entries = new LinkedHashMap<String, CachedResult>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedResult> eldest) {
+                if (size() > DataverseLookupCache.this.maxSize) {
+                    evictions.mark();
+                    return true;
+                }
+                return false;
+            }
+        };
+        metricRegistry.register(MetricRegistry.name(DataverseLookupCache.class, "size"), (Gauge<Integer>) this::size);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> Try<T> getOrLoad(String key, Function0<Try<T>> load) {
+        long now = nanoClock.getAsLong();
+        synchronized (entries) {
+            CachedResult entry = entries.get(key);
+            if (entry != null && now - entry.loadedNanos < timeToLiveNanos) {
+                hits.mark();
+                return (Try<T>) entry.result;
+            }
+            if (entry != null) {
+                entries.remove(key);
+            }
+        }
+        misses.mark();
+        // Not holding the lock while calling Dataverse
+        Try<T> result = load.apply();
+        if (result.isSuccess() && maxSize > 0) {
+            synchronized (entries) {
+                entries.put(key, new CachedResult(result, now));
+            }
+        }
+        return result;
+    }
+
+    int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    private static class CachedResult {
+        private final Try<?> result;
+        private final long loadedNanos;
+
+        private CachedResult(Try<?> result, long loadedNanos) {
+            this.result = result;
+            this.loadedNanos = loadedNanos;
+        }
+    }
+}
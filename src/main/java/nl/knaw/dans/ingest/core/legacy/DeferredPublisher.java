@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.ingest.core.legacy;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import io.dropwizard.lifecycle.Managed;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import scala.util.Try;
+
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * The publish stage of a bulk migration. The workers only ingest the deposits as drafts; the drafts are published here, by a fixed number of threads, so that at most that
+ * many datasets are published, and waited for, at the same time. The workers can go on with the next deposits in the meantime. A publish request that fails with a transient
+ * failure is made again according to the retry scheduler of this stage, without editing the draft again. When the publisher is stopped, the publications that have not finished
+ * yet are completed with a {@link StoppedException}; their drafts are left to be published after the restart. A finished publication is completed on the resume executor,
+ * because the rest of the task, and the next task of its target, run on the thread that completes it.
+ */
+public class DeferredPublisher implements Managed {
+    private static final Logger log = LoggerFactory.getLogger(DeferredPublisher.class);
+
+    private final ExecutorService executor;
+    private final RetryScheduler retryScheduler;
+    private final Executor resumeExecutor;
+    private final Set<CompletableFuture<Void>> pending = ConcurrentHashMap.newKeySet();
+    private volatile boolean stopped;
+    private final Meter published;
+    private final Meter failed;
+
+    /**
+     * @param maxConcurrentPublications the number of publish threads
+     * @param retryScheduler            the scheduler for repeating failed publish requests, or null to never repeat them
+     * @param resumeExecutor            the executor on which finished publications are completed; normally the worker pool
+     */
+    public DeferredPublisher(int maxConcurrentPublications, RetryScheduler retryScheduler, Executor resumeExecutor, MetricRegistry metricRegistry) {
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(maxConcurrentPublications, r -> {
+            Thread thread = new Thread(r, "deferred-publisher-" + threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.retryScheduler = retryScheduler;
+        this.resumeExecutor = resumeExecutor;
+        this.published = metricRegistry.meter(MetricRegistry.name(DeferredPublisher.class, "published"));
+        this.failed = metricRegistry.meter(MetricRegistry.name(DeferredPublisher.class, "failed"));
+        metricRegistry.register(MetricRegistry.name(DeferredPublisher.class, "pending"), (Gauge<Integer>) pending::size);
+    }
+
+    /**
+     * Publishes a draft on one of the publish threads.
+     *
+     * @param request        requests Dataverse to publish the draft; made again after a transient failure
+     * @param awaitPublished waits until Dataverse has published the dataset
+     * @return a future that is completed when the dataset has been published, or completed exceptionally with the cause of the last failure, or with a
+     *     {@link StoppedException} if the publisher was stopped first
+     */
+    public CompletableFuture<Void> publish(Supplier<Try<?>> request, Supplier<Try<?>> awaitPublished) {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        pending.add(done);
+        // Returned instead of done, so that the caller does not see the publication completed before it is counted
+        CompletableFuture<Void> counted = done.whenComplete((v, e) -> {
+            pending.remove(done);
+            if (e == null) {
+                published.mark();
+            }
+            else if (!(e instanceof StoppedException)) {
+                failed.mark();
+            }
+        });
+        if (stopped) {
+            // The publication may have been added after stop() completed the pending ones
+            done.completeExceptionally(new StoppedException());
+        }
+        else {
+            attempt(request, awaitPublished, 1).whenComplete((v, e) -> resume(done, e));
+        }
+        return counted;
+    }
+
+    private CompletableFuture<Void> attempt(Supplier<Try<?>> request, Supplier<Try<?>> awaitPublished, int number) {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        try {
+            executor.execute(() -> {
+                try {
+                    Try<?> requested = request.get();
+                    if (requested.isFailure()) {
+                        retryOrFail(requested.failed().get(), request, awaitPublished, number, done);
+                        return;
+                    }
+                    Try<?> awaited = awaitPublished.get();
+                    complete(done, awaited.isFailure() ? awaited.failed().get() : null);
+                }
+                catch (RuntimeException e) {
+                    done.completeExceptionally(e);
+                }
+            });
+        }
+        catch (RejectedExecutionException e) {
+            done.completeExceptionally(new StoppedException());
+        }
+        return done;
+    }
+
+    private void retryOrFail(Throwable failure, Supplier<Try<?>> request, Supplier<Try<?>> awaitPublished, int number, CompletableFuture<Void> done) {
+        if (retryScheduler == null || !retryScheduler.shouldRetry(failure, number)) {
+            done.completeExceptionally(failure);
+            return;
+        }
+        long delay = retryScheduler.getDelayMillis(number);
+        log.info("Publish request {} failed; trying again in {} ms: {}", number, delay, failure.getMessage());
+        retryScheduler.schedule(() -> attempt(request, awaitPublished, number + 1), delay)
+            .whenComplete((v, e) -> complete(done, e));
+    }
+
+    private void resume(CompletableFuture<Void> done, Throwable error) {
+        try {
+            resumeExecutor.execute(() -> complete(done, error));
+        }
+        catch (RejectedExecutionException e) {
+            log.warn("Resume executor rejected continuation; continuing on the publisher thread");
+            complete(done, error);
+        }
+    }
+
+    private static void complete(CompletableFuture<Void> future, Throwable error) {
+        if (error == null) {
+            future.complete(null);
+        }
+        else {
+            future.completeExceptionally(error);
+        }
+    }
+
+    public int getPending() {
+        return pending.size();
+    }
+
+    @Override
+    public void start() {
+    }
+
+    @Override
+    public void stop() {
+        stopped = true;
+        // Completed before the threads are interrupted, so that an interrupted wait is not taken for a failed publication
+        for (CompletableFuture<Void> publication : pending) {
+            publication.completeExceptionally(new StoppedException());
+        }
+        executor.shutdownNow();
+    }
+
+    /**
+     * The publication did not finish, because the publisher was stopped. The draft is not published yet, but it is not failed either.
+     */
+    public static class StoppedException extends IllegalStateException {
+        public StoppedException() {
+            super("The deferred publisher was stopped before the publication had finished");
+        }
+    }
+}
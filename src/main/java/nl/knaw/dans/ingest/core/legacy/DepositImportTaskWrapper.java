@@ -15,44 +15,83 @@
  */
 package nl.knaw.dans.ingest.core.legacy;
 
-import gov.loc.repository.bagit.domain.Bag;
-import gov.loc.repository.bagit.domain.Metadata;
+import com.codahale.metrics.MetricRegistry;
+import nl.knaw.dans.easy.dd2d.ConcurrencyLimiter;
 import nl.knaw.dans.easy.dd2d.DepositIngestTask;
 import nl.knaw.dans.easy.dd2d.FailedDepositException;
 import nl.knaw.dans.easy.dd2d.RejectedDepositException;
 import nl.knaw.dans.ingest.core.TaskEvent;
 import nl.knaw.dans.ingest.core.sequencing.TargetedTask;
+import nl.knaw.dans.ingest.core.service.DepositOrderingInfo;
 import nl.knaw.dans.ingest.core.service.EventWriter;
+import nl.knaw.dans.ingest.core.service.TargetResolver;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import scala.util.Failure;
+import scala.util.Try;
 
 import java.time.Instant;
-import java.time.OffsetDateTime;
-import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
 
 public class DepositImportTaskWrapper implements TargetedTask, Comparable<DepositImportTaskWrapper> {
     private static final Logger log = LoggerFactory.getLogger(DepositImportTaskWrapper.class);
 
     private final DepositIngestTask task;
     private final Instant created;
+    private final String target;
     private final EventWriter eventWriter;
+    private final MetricRegistry metricRegistry;
+    private final AwaitUnlockPoller awaitUnlockPoller;
+    private final RetryScheduler retryScheduler;
+    private final DeferredPublisher deferredPublisher;
+    private volatile int attempt;
+    private volatile boolean retrying;
+    private volatile boolean draftCreated;
+    private volatile boolean interrupted;
 
-    public DepositImportTaskWrapper(DepositIngestTask task, EventWriter eventWriter) {
+    /**
+     * @param orderingInfo      the ordering info of the deposit of the task, as read by the inbox scan
+     * @param awaitUnlockPoller the poller to wait for the dataset to be unlocked after publishing, or null to wait on the worker thread
+     * @param retryScheduler    the scheduler for retrying after transient failures, or null to never retry
+     * @param deferredPublisher the publish stage to leave publishing the draft to, or null to publish it as part of the ingest
+     * @param targetResolver    determines the dataset that the deposit is sequenced by
+     */
+    public DepositImportTaskWrapper(DepositIngestTask task, DepositOrderingInfo orderingInfo, EventWriter eventWriter, MetricRegistry metricRegistry, ConcurrencyLimiter dataverseLimiter,
+        AwaitUnlockPoller awaitUnlockPoller, RetryScheduler retryScheduler, DeferredPublisher deferredPublisher, TargetResolver targetResolver) {
         this.task = task;
-        this.created = getCreatedInstant(task);
+        this.created = orderingInfo.getCreated();
+        this.target = targetResolver.resolve(orderingInfo);
         this.eventWriter = eventWriter;
+        this.metricRegistry = metricRegistry;
+        this.awaitUnlockPoller = awaitUnlockPoller;
+        this.retryScheduler = retryScheduler;
+        this.deferredPublisher = deferredPublisher;
+        task.setPhaseListener(this::recordPhase);
+        task.setDataverseLimiter(dataverseLimiter);
+        task.setRetryPolicy(this::shouldRetry);
     }
 
     @Override
     public String getTarget() {
-        return task.deposit().doi();
+        return target;
     }
 
     public UUID getDepositId() {
         return UUID.fromString(task.deposit().depositId());
     }
 
+    /**
+     * Resumes a deposit of which the draft was created before a restart, by publishing that draft instead of ingesting the deposit again.
+     *
+     * @param persistentId the persistent ID of the draft
+     */
+    public void resumeAtPublication(String persistentId) {
+        task.resumeAtPublication(persistentId);
+    }
+
 
     @Override
     public void writeEvent(TaskEvent.EventType eventType, TaskEvent.Result result, String message) {
@@ -61,44 +100,146 @@ public class DepositImportTaskWrapper implements TargetedTask, Comparable<Deposi
 
     @Override
     public void run() {
+        start().join();
+    }
+
+    /**
+     * Ingests the deposit. If an attempt fails with a transient failure, the deposit stays in the inbox and the next attempt is scheduled with the retry scheduler. The
+     * returned future is completed when the last attempt has finished, so that later deposits for the same dataset wait for it, but no worker thread is occupied in between.
+     * The task itself never retries a failure during the creation or edit of the dataset, and a next attempt resumes after the last stage that was completed, so that the
+     * dataset is not created or edited twice.
+     */
+    @Override
+    public CompletableFuture<Void> start() {
         writeEvent(TaskEvent.EventType.START_PROCESSING, TaskEvent.Result.OK, null);
+        return startAttempt(1);
+    }
+
+    private CompletableFuture<Void> startAttempt(int number) {
+        attempt = number;
+        retrying = false;
+        draftCreated = false;
+        interrupted = false;
+        long start = System.nanoTime();
+        return ingest().thenCompose(outcome -> {
+            if (interrupted) {
+                // Left in the inbox, and in the journal, without an END_PROCESSING event
+                log.info("Ingest of deposit {} interrupted by shutdown; it is resumed after the restart", getDepositId());
+                return CompletableFuture.completedFuture(null);
+            }
+            if (!retrying) {
+                recordOutcome(outcome, start);
+                return CompletableFuture.completedFuture(null);
+            }
+            recordDuration(start, "retried");
+            long delay = retryScheduler.getDelayMillis(number);
+            writeEvent(TaskEvent.EventType.RETRY, TaskEvent.Result.FAILED,
+                String.format("Attempt %d failed; retrying in %d ms: %s", number, delay, outcome.failed().get().getMessage()));
+            return retryScheduler.schedule(() -> startAttempt(number + 1), delay)
+                .exceptionally(e -> {
+                    Throwable cause = e instanceof CompletionException ? e.getCause() : e;
+                    if (!(cause instanceof RetryScheduler.StoppedException)) {
+                        throw e instanceof CompletionException ? (CompletionException) e : new CompletionException(e);
+                    }
+                    // Recorded as failed, so that it is not left unfinished; the deposit itself stays in the inbox
+                    writeEvent(TaskEvent.EventType.END_PROCESSING, TaskEvent.Result.FAILED, String.format("Attempt %d was not made: %s", number + 1, cause.getMessage()));
+                    return null;
+                });
+        });
+    }
+
+    /**
+     * Runs one attempt. With a deferred publisher, the ingest runs up to the edit of the draft and leaves publishing it to the publisher. With a poller, the ingest runs up to
+     * the publish request and then leaves waiting for the dataset to be unlocked to the poller. Either way, the worker thread is free in the meantime.
+     */
+    private CompletableFuture<Try<?>> ingest() {
+        if (deferredPublisher != null) {
+            return ingestDraft();
+        }
+        if (awaitUnlockPoller == null) {
+            return CompletableFuture.<Try<?>> completedFuture(task.run());
+        }
+        Try<String> published = task.startIngest();
+        if (published.isFailure()) {
+            return CompletableFuture.<Try<?>> completedFuture(published);
+        }
+        String persistentId = published.get();
+        // Journaled, so that after a restart the deposit is resumed at the publication, which is then only awaited
+        writeEvent(TaskEvent.EventType.DRAFT_CREATED, TaskEvent.Result.OK, persistentId);
+        return awaitUnlockPoller.awaitUnlock(() -> (Boolean) task.isUnlocked(persistentId).get(),
+                task.publishAwaitUnlockMaxNumberOfRetries(), task.publishAwaitUnlockMillisecondsBetweenRetries(), TimeUnit.MILLISECONDS)
+            .<Try<?>> handle((v, e) -> finishOrAbort(persistentId, e));
+    }
+
+    private CompletableFuture<Try<?>> ingestDraft() {
+        Try<String> draft = task.createDraft();
+        if (draft.isFailure()) {
+            return CompletableFuture.<Try<?>> completedFuture(draft);
+        }
+        draftCreated = true;
+        String persistentId = draft.get();
+        // Journaled, so that after a restart the deposit is resumed at the publication of the draft
+        writeEvent(TaskEvent.EventType.DRAFT_CREATED, TaskEvent.Result.OK, persistentId);
+        return deferredPublisher.publish(() -> task.publishDraft(persistentId), () -> task.awaitPublication(persistentId))
+            .<Try<?>> handle((v, e) -> finishOrAbort(persistentId, e));
+    }
+
+    private Try<?> finishOrAbort(String persistentId, Throwable e) {
+        if (e == null) {
+            return task.finishIngest(persistentId);
+        }
+        Throwable cause = e instanceof CompletionException ? e.getCause() : e;
+        if (cause instanceof DeferredPublisher.StoppedException || cause instanceof AwaitUnlockPoller.StoppedException) {
+            interrupted = true;
+            return new Failure<>(cause);
+        }
+        return task.abortIngest(cause);
+    }
+
+    /*
+     * Called by the task when an attempt has failed, before it decides whether to move the deposit to the failed outbox. Once the draft has been handed to the deferred
+     * publisher, the retries of the publisher apply instead.
+     */
+    private boolean shouldRetry(Throwable cause) {
+        retrying = !draftCreated && retryScheduler != null && retryScheduler.shouldRetry(cause, attempt);
+        return retrying;
+    }
+
+    private void recordOutcome(Try<?> outcome, long start) {
         try {
-            task.run().get();
+            outcome.get();
+            recordDuration(start, TaskEvent.Result.OK);
             writeEvent(TaskEvent.EventType.END_PROCESSING, TaskEvent.Result.OK, null);
         }
         catch (RejectedDepositException e) {
+            recordDuration(start, TaskEvent.Result.REJECTED);
             writeEvent(TaskEvent.EventType.END_PROCESSING, TaskEvent.Result.REJECTED, e.getMessage());
         }
         catch (Exception e) { // Not necessarily a FailedDepositException !
+            recordDuration(start, TaskEvent.Result.FAILED);
             writeEvent(TaskEvent.EventType.END_PROCESSING, TaskEvent.Result.FAILED, e.getMessage());
         }
     }
 
-    @Override
-    public int compareTo(DepositImportTaskWrapper o) {
-        return created.compareTo(o.created);
+    private void recordDuration(long start, TaskEvent.Result result) {
+        recordDuration(start, result.name().toLowerCase());
     }
 
-    private static Instant getCreatedInstant(DepositIngestTask t) {
-        Bag bag;
-        try {
-            bag = t.deposit().tryBag().get();
-        }
-        catch (Exception e) {
-            throw new IllegalArgumentException("Unable to find bag; task = " + t, e);
-        }
-        Metadata metadata = bag.getMetadata();
-        if (metadata == null) {
-            throw new IllegalArgumentException("bag-info.txt not found in bag; task = " + t);
-        }
-        List<String> createdValues = metadata.get("Created");
-        if (createdValues == null) {
-            throw new IllegalArgumentException("No Created value found in bag; task = " + t);
-        }
-        if (createdValues.size() != 1) {
-            throw new IllegalArgumentException("There should be exactly one Created value; found " + createdValues.size() + "; task = " + t);
+    private void recordDuration(long start, String outcome) {
+        metricRegistry.timer(MetricRegistry.name(DepositImportTaskWrapper.class, "duration", outcome))
+            .update(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+
+    private void recordPhase(String phase, Instant start, long durationNanos, boolean succeeded) {
+        metricRegistry.timer(MetricRegistry.name(DepositImportTaskWrapper.class, "phase", phase)).update(durationNanos, TimeUnit.NANOSECONDS);
+        if (eventWriter != null) {
+            eventWriter.writePhase(getDepositId(), phase, start, durationNanos, succeeded);
         }
-        return OffsetDateTime.parse(createdValues.get(0)).toInstant();
+    }
+
+    @Override
+    public int compareTo(DepositImportTaskWrapper o) {
+        return created.compareTo(o.created);
     }
 
     @Override
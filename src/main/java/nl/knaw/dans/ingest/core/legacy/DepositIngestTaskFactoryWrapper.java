@@ -16,105 +16,119 @@
 package nl.knaw.dans.ingest.core.legacy;
 
 import better.files.File;
+import com.codahale.metrics.MetricRegistry;
+import nl.knaw.dans.easy.dd2d.ConcurrencyLimiter;
 import nl.knaw.dans.easy.dd2d.Deposit;
+import nl.knaw.dans.easy.dd2d.DepositIngestTask;
 import nl.knaw.dans.easy.dd2d.DepositIngestTaskFactory;
 import nl.knaw.dans.easy.dd2d.ZipFileHandler;
-import nl.knaw.dans.easy.dd2d.dansbag.DansBagValidator;
-import nl.knaw.dans.easy.dd2d.migrationinfo.MigrationInfo;
-import nl.knaw.dans.easy.dd2d.migrationinfo.MigrationInfoConfig;
 import nl.knaw.dans.ingest.core.config.DataverseConfigScala;
-import nl.knaw.dans.ingest.core.config.HttpServiceConfig;
 import nl.knaw.dans.ingest.core.config.IngestFlowConfig;
+import nl.knaw.dans.ingest.core.service.DepositOrderingInfo;
 import nl.knaw.dans.ingest.core.service.EventWriter;
-import nl.knaw.dans.lib.dataverse.DataverseInstance;
-import nl.knaw.dans.lib.dataverse.DataverseInstanceConfig;
+import nl.knaw.dans.ingest.core.service.TargetResolver;
 import scala.Option;
-import scala.collection.immutable.List;
-import scala.collection.immutable.Map;
-import scala.xml.Elem;
 
-import java.net.URI;
 import java.nio.file.Path;
 import java.util.regex.Pattern;
 
 /**
- * Wraps the legacy Scala ingest task factory
+ * Wraps the legacy Scala ingest task factory. The Scala factory is bound to one version of the mappings, so a new one is created when the mappings have been reloaded.
  */
 public class DepositIngestTaskFactoryWrapper {
-    private final DepositIngestTaskFactory factory;
+    private final boolean isMigration;
+    private final IngestFlowConfig ingestFlowConfig;
+    private final DataverseConfigScala dataverseConfigScala;
+    private final IngestContext ingestContext;
+    private final ZipFileHandler zipFileHandler;
+    private final MetricRegistry metricRegistry;
+    private final ConcurrencyLimiter dataverseLimiter;
+    private final AwaitUnlockPoller awaitUnlockPoller;
+    private final RetryScheduler retryScheduler;
+    private final DeferredPublisher deferredPublisher;
+    private final TargetResolver targetResolver;
+    private volatile VersionedFactory factory;
 
     public DepositIngestTaskFactoryWrapper(
         boolean isMigration,
         IngestFlowConfig ingestFlowConfig,
         DataverseConfigScala dataverseConfigScala,
-        HttpServiceConfig migrationInfoConfig,
-        HttpServiceConfig validationDansBagConfig) {
-
-        final DataverseInstance dataverseInstance = new DataverseInstance(new DataverseInstanceConfig(
-            DepositIngestTaskFactory.appendSlash(dataverseConfigScala.getHttp().getBaseUrl()),
-            dataverseConfigScala.getApi().getApiKey(),
-            Option.apply(dataverseConfigScala.getApi().getUnblockKey()),
-            dataverseConfigScala.getHttp().getConnectionTimeoutMs(),
-            dataverseConfigScala.getHttp().getReadTimeoutMs(),
-            Integer.toString(dataverseConfigScala.getApi().getApiVersion()),
-            dataverseConfigScala.getApi().getAwaitUnlockMaxRetries(),
-            dataverseConfigScala.getApi().getAwaitUnlockWaitTimeMs()));
-
-        final DansBagValidator validator = new DansBagValidator(
-            DepositIngestTaskFactory.appendSlash(validationDansBagConfig.getBaseUrl()),
-            validationDansBagConfig.getConnectionTimeoutMs(),
-            validationDansBagConfig.getReadTimeoutMs());
-
-        final MigrationInfo migrationInfo = new MigrationInfo(
-            new MigrationInfoConfig(
-                DepositIngestTaskFactory.appendSlash(migrationInfoConfig.getBaseUrl()),
-                migrationInfoConfig.getConnectionTimeoutMs(),
-                migrationInfoConfig.getReadTimeoutMs()),
-            false // TODO: make configurable
-        );
+        IngestContext ingestContext,
+        MetricRegistry metricRegistry,
+        ConcurrencyLimiter dataverseLimiter,
+        AwaitUnlockPoller awaitUnlockPoller,
+        RetryScheduler retryScheduler,
+        DeferredPublisher deferredPublisher,
+        TargetResolver targetResolver) {
+        this.metricRegistry = metricRegistry;
+        this.dataverseLimiter = dataverseLimiter;
+        this.awaitUnlockPoller = awaitUnlockPoller;
+        this.retryScheduler = retryScheduler;
+        this.deferredPublisher = deferredPublisher;
+        this.targetResolver = targetResolver;
+        this.isMigration = isMigration;
+        this.ingestFlowConfig = ingestFlowConfig;
+        this.dataverseConfigScala = dataverseConfigScala;
+        this.ingestContext = ingestContext;
+        this.zipFileHandler = new ZipFileHandler(File.apply(ingestFlowConfig.getZipWrappingTempDir()));
+    }
 
-        final Elem narcisClassification = DepositIngestTaskFactory.readXml(ingestFlowConfig.getMappingDefsDir().resolve("narcis_classification.xml").toFile());
-        final Map<String, String> iso1ToDataverseLanguage = getMap(ingestFlowConfig, "iso639-1-to-dv.csv", "ISO639-1", "Dataverse-language");
-        final Map<String, String> iso2ToDataverseLanguage = getMap(ingestFlowConfig, "iso639-2-to-dv.csv", "ISO639-2", "Dataverse-language");
-        final Map<String, String> reportIdToTerm = getMap(ingestFlowConfig, "ABR-reports.csv", "URI-suffix", "Term");
-        final Map<String, String> variantToLicense = getMap(ingestFlowConfig, "license-uri-variants.csv", "Variant", "Normalized");
-        final List<URI> supportedLicenses = getUriList(ingestFlowConfig, "supported-licenses.txt");
+    private DepositIngestTaskFactory getFactory() {
+        Mappings mappings = ingestContext.getMappingRegistry().getCurrent();
+        VersionedFactory current = factory;
+        if (current == null || current.version != mappings.getVersion()) {
+            // Creating the Scala factory is cheap; if two threads do it at the same time, one of the results is simply dropped
+            current = new VersionedFactory(mappings.getVersion(), createFactory(mappings));
+            factory = current;
+        }
+        return current.factory;
+    }
 
-        factory = new DepositIngestTaskFactory(
+    private DepositIngestTaskFactory createFactory(Mappings mappings) {
+        return new DepositIngestTaskFactory(
             isMigration,
             Option.apply(Pattern.compile(ingestFlowConfig.getFileExclusionPattern())),
-            new ZipFileHandler(File.apply(ingestFlowConfig.getZipWrappingTempDir())),
+            zipFileHandler,
             ingestFlowConfig.getDepositorRole(),
             false,
             ingestFlowConfig.isDeduplicate(),
-            DepositIngestTaskFactory.getActiveMetadataBlocks(dataverseInstance).get(),
-            Option.apply(validator),
-            dataverseInstance,
-            Option.apply(migrationInfo),
+            ingestContext.getActiveMetadataBlocks(),
+            Option.apply(ingestContext.getDansBagValidator()),
+            ingestContext.getDataverseInstance(),
+            Option.apply(ingestContext.getMigrationInfo()),
             dataverseConfigScala.getApi().getPublishAwaitUnlockMaxRetries(),
             dataverseConfigScala.getApi().getPublishAwaitUnlockWaitTimeMs(),
-            narcisClassification,
-            iso1ToDataverseLanguage,
-            iso2ToDataverseLanguage,
-            variantToLicense,
-            supportedLicenses,
-            reportIdToTerm);
+            mappings.getNarcisClassification(),
+            mappings.getIso1ToDataverseLanguage(),
+            mappings.getIso2ToDataverseLanguage(),
+            mappings.getVariantToLicense(),
+            mappings.getSupportedLicenses(),
+            mappings.getReportIdToTerm());
     }
 
-    private Map<String, String> getMap(IngestFlowConfig ingestFlowConfig, String mappingCsv, String keyColumn, String valueColumn) {
-        return DepositIngestTaskFactory
-            .loadCsvToMap(File.apply(ingestFlowConfig.getMappingDefsDir().resolve(mappingCsv)),
-                keyColumn,
-                valueColumn).get();
+    /**
+     * Creates the task for a deposit that was not found by a scan of the inbox, reading its ordering info first.
+     */
+    public DepositImportTaskWrapper createIngestTask(Path depositDir, Path outboxDir, EventWriter eventWriter) {
+        return createIngestTask(DepositOrderingInfo.read(depositDir), outboxDir, eventWriter);
     }
 
-    private List<URI> getUriList(IngestFlowConfig ingestFlowConfig, String listFile) {
-        return DepositIngestTaskFactory
-            .loadTxtToUriList(File.apply(ingestFlowConfig.getMappingDefsDir().resolve(listFile)))
-            .get();
+    /**
+     * Creates the task for a deposit found by a scan of the inbox, so that bag-info.txt and deposit.properties are not read again.
+     */
+    public DepositImportTaskWrapper createIngestTask(DepositOrderingInfo orderingInfo, Path outboxDir, EventWriter eventWriter) {
+        DepositIngestTask task = getFactory().createDepositIngestTask(new Deposit(File.apply(orderingInfo.getDepositDir())), File.apply(outboxDir));
+        task.setLookupCache(ingestContext.getLookupCache());
+        return new DepositImportTaskWrapper(task, orderingInfo, eventWriter, metricRegistry, dataverseLimiter, awaitUnlockPoller, retryScheduler, deferredPublisher, targetResolver);
     }
 
-    public DepositImportTaskWrapper createIngestTask(Path depositDir, Path outboxDir, EventWriter eventWriter) {
-        return new DepositImportTaskWrapper(factory.createDepositIngestTask(new Deposit(File.apply(depositDir)), File.apply(outboxDir)), eventWriter);
+    private static class VersionedFactory {
+        private final long version;
+        private final DepositIngestTaskFactory factory;
+
+        private VersionedFactory(long version, DepositIngestTaskFactory factory) {
+            this.version = version;
+            this.factory = factory;
+        }
     }
 }
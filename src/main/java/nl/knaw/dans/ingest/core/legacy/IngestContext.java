@@ -0,0 +1,210 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.ingest.core.legacy;
+
+import com.codahale.metrics.MetricRegistry;
+import io.dropwizard.lifecycle.Managed;
+import nl.knaw.dans.easy.dd2d.DepositIngestTaskFactory;
+import nl.knaw.dans.easy.dd2d.dansbag.DansBagValidator;
+import nl.knaw.dans.easy.dd2d.migrationinfo.MigrationInfo;
+import nl.knaw.dans.easy.dd2d.migrationinfo.MigrationInfoConfig;
+import nl.knaw.dans.ingest.core.config.DataverseConfigScala;
+import nl.knaw.dans.ingest.core.config.HttpServiceConfig;
+import nl.knaw.dans.ingest.core.config.IngestFlowConfig;
+import nl.knaw.dans.lib.dataverse.DataverseInstance;
+import nl.knaw.dans.lib.dataverse.DataverseInstanceConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import scala.Option;
+import scala.collection.immutable.List;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * The clients and mapping tables that the legacy ingest tasks need. They are the same for regular and migration deposits, so they are built once at startup and shared by
+ * the task factories. The mapping tables are held by a {@link MappingRegistry}, which reloads them when they change. Lookups in Dataverse for data that rarely changes go
+ * through a {@link DataverseLookupCache}.
+ *
+ * <p>
+ * The active metadata blocks are requested from Dataverse in the background, so that the service starts also if Dataverse is slow or down. A failed request is repeated
+ * after a delay that doubles up to a maximum, until it succeeds. The context is ready once the metadata blocks are known; until then, no deposits should be taken from the
+ * inboxes.
+ * </p>
+ */
+public class IngestContext implements Managed {
+    private static final Logger log = LoggerFactory.getLogger(IngestContext.class);
+    static final long INITIAL_RETRY_DELAY_MILLIS = TimeUnit.SECONDS.toMillis(1);
+    static final long MAX_RETRY_DELAY_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    private final DataverseInstance dataverseInstance;
+    private final DansBagValidator dansBagValidator;
+    private final MigrationInfo migrationInfo;
+    private final MappingRegistry mappingRegistry;
+    private final DataverseLookupCache lookupCache;
+    private final Supplier<List<String>> activeMetadataBlocksRequest;
+    private final long initialRetryDelayMillis;
+    private final long maxRetryDelayMillis;
+    private final ScheduledExecutorService requester;
+    private final CompletableFuture<List<String>> activeMetadataBlocks = new CompletableFuture<>();
+    private final long start = System.nanoTime();
+    private volatile String lastFailure;
+
+    private IngestContext(DataverseInstance dataverseInstance, DansBagValidator dansBagValidator, MigrationInfo migrationInfo, MappingRegistry mappingRegistry,
+        DataverseLookupCache lookupCache, Supplier<List<String>> activeMetadataBlocksRequest, long initialRetryDelayMillis, long maxRetryDelayMillis) {
+        this.dataverseInstance = dataverseInstance;
+        this.dansBagValidator = dansBagValidator;
+        this.migrationInfo = migrationInfo;
+        this.mappingRegistry = mappingRegistry;
+        this.lookupCache = lookupCache;
+        this.activeMetadataBlocksRequest = activeMetadataBlocksRequest;
+        this.initialRetryDelayMillis = initialRetryDelayMillis;
+        this.maxRetryDelayMillis = maxRetryDelayMillis;
+        this.requester = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "ingest-context-loader");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Creates the clients and loads the mapping files. The active metadata blocks are requested in the background.
+     */
+    public static IngestContext load(IngestFlowConfig ingestFlowConfig, DataverseConfigScala dataverseConfigScala, HttpServiceConfig migrationInfoConfig,
+        HttpServiceConfig validationDansBagConfig, MetricRegistry metricRegistry) {
+        final DataverseInstance dataverseInstance = new DataverseInstance(new DataverseInstanceConfig(
+            DepositIngestTaskFactory.appendSlash(dataverseConfigScala.getHttp().getBaseUrl()),
+            dataverseConfigScala.getApi().getApiKey(),
+            Option.apply(dataverseConfigScala.getApi().getUnblockKey()),
+            dataverseConfigScala.getHttp().getConnectionTimeoutMs(),
+            dataverseConfigScala.getHttp().getReadTimeoutMs(),
+            Integer.toString(dataverseConfigScala.getApi().getApiVersion()),
+            dataverseConfigScala.getApi().getAwaitUnlockMaxRetries(),
+            dataverseConfigScala.getApi().getAwaitUnlockWaitTimeMs()));
+
+        final DansBagValidator validator = new DansBagValidator(
+            DepositIngestTaskFactory.appendSlash(validationDansBagConfig.getBaseUrl()),
+            validationDansBagConfig.getConnectionTimeoutMs(),
+            validationDansBagConfig.getReadTimeoutMs());
+
+        final MigrationInfo migrationInfo = new MigrationInfo(
+            new MigrationInfoConfig(
+                DepositIngestTaskFactory.appendSlash(migrationInfoConfig.getBaseUrl()),
+                migrationInfoConfig.getConnectionTimeoutMs(),
+                migrationInfoConfig.getReadTimeoutMs()),
+            false // TODO: make configurable
+        );
+
+        return load(dataverseInstance, validator, migrationInfo, () -> DepositIngestTaskFactory.getActiveMetadataBlocks(dataverseInstance).get(),
+            new MappingRegistry(ingestFlowConfig.getMappingDefsDir(), ingestFlowConfig.getMappingDefsCheckInterval().toMilliseconds(), metricRegistry),
+            new DataverseLookupCache(dataverseConfigScala.getLookupCache().getMaxSize(), dataverseConfigScala.getLookupCache().getTimeToLive().toMilliseconds(),
+                TimeUnit.MILLISECONDS, metricRegistry),
+            INITIAL_RETRY_DELAY_MILLIS, MAX_RETRY_DELAY_MILLIS);
+    }
+
+    static IngestContext load(DataverseInstance dataverseInstance, DansBagValidator validator, MigrationInfo migrationInfo, Supplier<List<String>> activeMetadataBlocks,
+        MappingRegistry mappingRegistry, DataverseLookupCache lookupCache, long initialRetryDelayMillis, long maxRetryDelayMillis) {
+        IngestContext context = new IngestContext(dataverseInstance, validator, migrationInfo, mappingRegistry, lookupCache, activeMetadataBlocks, initialRetryDelayMillis,
+            maxRetryDelayMillis);
+        // The files are local; loading them does not depend on Dataverse
+        mappingRegistry.reload();
+        context.requestActiveMetadataBlocks(1, 0);
+        return context;
+    }
+
+    private void requestActiveMetadataBlocks(int attempt, long delayMillis) {
+        try {
+            requester.schedule(() -> {
+                try {
+                    activeMetadataBlocks.complete(activeMetadataBlocksRequest.get());
+                    lastFailure = null;
+                    log.info("Ingest context ready after {} ms", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                }
+                catch (Exception e) {
+                    long nextDelayMillis = Math.min(delayMillis == 0 ? initialRetryDelayMillis : delayMillis * 2, maxRetryDelayMillis);
+                    lastFailure = e.getMessage();
+                    log.warn("Unable to get the active metadata blocks from Dataverse (attempt {}); trying again in {} ms", attempt, nextDelayMillis, e);
+                    requestActiveMetadataBlocks(attempt + 1, nextDelayMillis);
+                }
+            }, delayMillis, TimeUnit.MILLISECONDS);
+        }
+        catch (RejectedExecutionException e) {
+            log.debug("Not requesting the active metadata blocks, because the ingest context was stopped");
+        }
+    }
+
+    /**
+     * @return a future that is completed when the context is ready
+     */
+    public CompletableFuture<Void> whenReady() {
+        return activeMetadataBlocks.thenApply(blocks -> null);
+    }
+
+    public boolean isReady() {
+        return activeMetadataBlocks.isDone();
+    }
+
+    /**
+     * @return the message of the last failed request for the active metadata blocks, or null if there is none
+     */
+    public String getLastFailure() {
+        return lastFailure;
+    }
+
+    public DataverseInstance getDataverseInstance() {
+        return dataverseInstance;
+    }
+
+    public DansBagValidator getDansBagValidator() {
+        return dansBagValidator;
+    }
+
+    public MigrationInfo getMigrationInfo() {
+        return migrationInfo;
+    }
+
+    /**
+     * @return the active metadata blocks
+     * @throws IllegalStateException if the context is not ready yet
+     */
+    public List<String> getActiveMetadataBlocks() {
+        if (!isReady()) {
+            throw new IllegalStateException("Ingest context not ready yet; the active metadata blocks have not been received from Dataverse");
+        }
+        return activeMetadataBlocks.join();
+    }
+
+    public MappingRegistry getMappingRegistry() {
+        return mappingRegistry;
+    }
+
+    public DataverseLookupCache getLookupCache() {
+        return lookupCache;
+    }
+
+    @Override
+    public void start() throws Exception {
+    }
+
+    @Override
+    public void stop() throws Exception {
+        requester.shutdownNow();
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.ingest.core.legacy;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import io.dropwizard.lifecycle.Managed;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Holds the current {@link Mappings} and replaces them when the mapping files change, so that a changed license list or vocabulary does not require a restart. The files are
+ * checked at a fixed interval, by their size and modification time. When one of them has changed, all of them are loaded into a new snapshot, which then replaces the
+ * current one at once. Deposits whose tasks were created earlier keep using the old snapshot. If the new files cannot be loaded, the current snapshot stays in use; the files
+ * are loaded again after the next change.
+ */
+public class MappingRegistry implements Managed {
+    private static final Logger log = LoggerFactory.getLogger(MappingRegistry.class);
+    static final int DEFAULT_LOADER_THREADS = Mappings.FILES.length;
+
+    private final Path mappingDefsDir;
+    private final long checkIntervalMillis;
+    private final ThreadPoolExecutor loader;
+    private final ScheduledExecutorService checker;
+    private final Timer reloadTimer;
+    private final Meter reloadFailures;
+    private volatile Mappings current;
+    private List<String> fingerprint;
+
+    /**
+     * @param mappingDefsDir      the directory with the mapping files
+     * @param checkIntervalMillis the interval between checks for changed files; zero or less to never reload
+     * @param metricRegistry      the registry for the metrics of the registry
+     */
+    public MappingRegistry(Path mappingDefsDir, long checkIntervalMillis, MetricRegistry metricRegistry) {
+        this(mappingDefsDir, checkIntervalMillis, DEFAULT_LOADER_THREADS, metricRegistry);
+    }
+
+    MappingRegistry(Path mappingDefsDir, long checkIntervalMillis, int loaderThreads, MetricRegistry metricRegistry) {
+        this.mappingDefsDir = mappingDefsDir;
+        this.checkIntervalMillis = checkIntervalMillis;
+        AtomicInteger threadNumber = new AtomicInteger(1);
+        this.loader = new ThreadPoolExecutor(loaderThreads, loaderThreads, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+            Thread thread = new Thread(r, "mapping-loader-" + threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        // The files are loaded rarely; no threads are kept in between
+        this.loader.allowCoreThreadTimeOut(true);
+        this.checker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "mapping-registry");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.reloadTimer = metricRegistry.timer(MetricRegistry.name(MappingRegistry.class, "reload"));
+        this.reloadFailures = metricRegistry.meter(MetricRegistry.name(MappingRegistry.class, "reload-failures"));
+        metricRegistry.register(MetricRegistry.name(MappingRegistry.class, "version"), (Gauge<Long>) () -> current == null ? 0L : current.getVersion());
+    }
+
+    /**
+     * @return the current snapshot
+     * @throws IllegalStateException if the mappings were never loaded
+     */
+    public Mappings getCurrent() {
+        Mappings mappings = current;
+        if (mappings == null) {
+            throw new IllegalStateException("Mappings not loaded yet");
+        }
+        return mappings;
+    }
+
+    /**
+     * Loads the mapping files into a new snapshot and makes it the current one.
+     *
+     * @return the new snapshot
+     */
+    public synchronized Mappings reload() {
+        fingerprint = readFingerprint();
+        long version = current == null ? 1 : current.getVersion() + 1;
+        try (Timer.Context ignored = reloadTimer.time()) {
+            current = Mappings.load(mappingDefsDir, version, loader);
+        }
+        log.info("Loaded version {} of the mappings from {}", version, mappingDefsDir);
+        return current;
+    }
+
+    /**
+     * Reloads the mappings if one of the files has changed since the last load.
+     *
+     * @return true if the mappings were reloaded
+     */
+    synchronized boolean reloadIfChanged() {
+        if (readFingerprint().equals(fingerprint)) {
+            return false;
+        }
+        try {
+            reload();
+            return true;
+        }
+        catch (RuntimeException e) {
+            reloadFailures.mark();
+            log.error("Unable to reload mappings from {}; keeping version {}", mappingDefsDir, current == null ? 0 : current.getVersion(), e);
+            return false;
+        }
+    }
+
+    private List<String> readFingerprint() {
+        List<String> result = new ArrayList<>();
+        for (String file : Mappings.FILES) {
+            try {
+                BasicFileAttributes attributes = Files.readAttributes(mappingDefsDir.resolve(file), BasicFileAttributes.class);
+                result.add(file + ":" + attributes.size() + ":" + attributes.lastModifiedTime().toMillis());
+            }
+            catch (NoSuchFileException e) {
+                result.add(file + ":missing");
+            }
+            catch (IOException e) {
+                result.add(file + ":unreadable");
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public void start() throws Exception {
+        if (checkIntervalMillis > 0) {
+            checker.scheduleWithFixedDelay(() -> {
+                try {
+                    reloadIfChanged();
+                }
+                catch (RuntimeException e) {
+                    log.error("Unable to check mappings in {}", mappingDefsDir, e);
+                }
+            }, checkIntervalMillis, checkIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    public void stop() throws Exception {
+        checker.shutdownNow();
+        loader.shutdownNow();
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.ingest.core.legacy;
+
+import better.files.File;
+import nl.knaw.dans.easy.dd2d.DepositIngestTaskFactory;
+import scala.collection.immutable.List;
+import scala.collection.immutable.Map;
+import scala.xml.Elem;
+
+import java.net.URI;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+/**
+ * An immutable snapshot of the mapping tables in the mapping definitions directory. A deposit uses the snapshot that was current when its task was created, also if the
+ * tables are reloaded while it is being processed.
+ */
+public class Mappings {
+    static final String[] FILES = {
+        "narcis_classification.xml",
+        "iso639-1-to-dv.csv",
+        "iso639-2-to-dv.csv",
+        "ABR-reports.csv",
+        "license-uri-variants.csv",
+        "supported-licenses.txt"
+    };
+
+    private final long version;
+    private final Instant loaded;
+    private final Elem narcisClassification;
+    private final Map<String, String> iso1ToDataverseLanguage;
+    private final Map<String, String> iso2ToDataverseLanguage;
+    private final Map<String, String> reportIdToTerm;
+    private final Map<String, String> variantToLicense;
+    private final List<URI> supportedLicenses;
+
+    private Mappings(long version, Elem narcisClassification, Map<String, String> iso1ToDataverseLanguage, Map<String, String> iso2ToDataverseLanguage,
+        Map<String, String> reportIdToTerm, Map<String, String> variantToLicense, List<URI> supportedLicenses) {
+        this.version = version;
+        this.loaded = Instant.now();
+        this.narcisClassification = narcisClassification;
+        this.iso1ToDataverseLanguage = iso1ToDataverseLanguage;
+        this.iso2ToDataverseLanguage = iso2ToDataverseLanguage;
+        this.reportIdToTerm = reportIdToTerm;
+        this.variantToLicense = variantToLicense;
+        this.supportedLicenses = supportedLicenses;
+    }
+
+    /**
+     * Loads the mapping files in parallel.
+     *
+     * @param mappingDefsDir the directory with the mapping files
+     * @param version        the version number of the snapshot
+     * @param loader         the executor to load the files on
+     * @return the snapshot
+     */
+    static Mappings load(Path mappingDefsDir, long version, Executor loader) {
+        CompletableFuture<Elem> narcisClassification = CompletableFuture.supplyAsync(
+            () -> DepositIngestTaskFactory.readXml(mappingDefsDir.resolve(FILES[0]).toFile()), loader);
+        CompletableFuture<Map<String, String>> iso1ToDataverseLanguage = loadMap(mappingDefsDir, FILES[1], "ISO639-1", "Dataverse-language", loader);
+        CompletableFuture<Map<String, String>> iso2ToDataverseLanguage = loadMap(mappingDefsDir, FILES[2], "ISO639-2", "Dataverse-language", loader);
+        CompletableFuture<Map<String, String>> reportIdToTerm = loadMap(mappingDefsDir, FILES[3], "URI-suffix", "Term", loader);
+        CompletableFuture<Map<String, String>> variantToLicense = loadMap(mappingDefsDir, FILES[4], "Variant", "Normalized", loader);
+        CompletableFuture<List<URI>> supportedLicenses = CompletableFuture.supplyAsync(
+            () -> DepositIngestTaskFactory.loadTxtToUriList(File.apply(mappingDefsDir.resolve(FILES[5]))).get(), loader);
+
+        return new Mappings(version, join(narcisClassification), join(iso1ToDataverseLanguage), join(iso2ToDataverseLanguage), join(reportIdToTerm),
+            join(variantToLicense), join(supportedLicenses));
+    }
+
+    private static CompletableFuture<Map<String, String>> loadMap(Path mappingDefsDir, String mappingCsv, String keyColumn, String valueColumn, Executor loader) {
+        return CompletableFuture.supplyAsync(() -> DepositIngestTaskFactory.loadCsvToMap(File.apply(mappingDefsDir.resolve(mappingCsv)), keyColumn, valueColumn).get(), loader);
+    }
+
+    /*
+     * Fails with the exception of the loading step itself, as the sequential loading did.
+     */
+    static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        }
+        catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw new IllegalStateException("Unable to load mappings", e.getCause());
+        }
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public Instant getLoaded() {
+        return loaded;
+    }
+
+    public Elem getNarcisClassification() {
+        return narcisClassification;
+    }
+
+    public Map<String, String> getIso1ToDataverseLanguage() {
+        return iso1ToDataverseLanguage;
+    }
+
+    public Map<String, String> getIso2ToDataverseLanguage() {
+        return iso2ToDataverseLanguage;
+    }
+
+    public Map<String, String> getReportIdToTerm() {
+        return reportIdToTerm;
+    }
+
+    public Map<String, String> getVariantToLicense() {
+        return variantToLicense;
+    }
+
+    public List<URI> getSupportedLicenses() {
+        return supportedLicenses;
+    }
+}
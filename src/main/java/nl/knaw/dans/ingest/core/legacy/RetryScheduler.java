@@ -0,0 +1,217 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.ingest.core.legacy;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import io.dropwizard.lifecycle.Managed;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+
+/**
+ * Decides which failed deposits are tried again, and when. A failure is transient if a timeout or refused connection is found among its causes, or if the message of one of
+ * its causes matches the transient-failure pattern. The delay before attempt n + 1 is the initial delay times 2<sup>n - 1</sup>, capped at the maximum delay, of which a random
+ * fraction of at most the jitter is taken off, so that deposits that failed together do not all come back at the same time.
+ *
+ * <p>
+ * A deposit that waits for its next attempt does not occupy a worker thread; the attempt is started on the resume executor when the delay has passed. When the scheduler is
+ * stopped, the attempts that are still waiting do not take place: their futures are completed with a {@link StoppedException}, so that the deposits are recorded as failed.
+ * </p>
+ */
+public class RetryScheduler implements Managed {
+    private static final Logger log = LoggerFactory.getLogger(RetryScheduler.class);
+
+    private final int maxAttempts;
+    private final long initialDelayMillis;
+    private final long maxDelayMillis;
+    private final double jitter;
+    private final Pattern transientFailurePattern;
+    private final ScheduledExecutorService scheduler;
+    private final Executor resumeExecutor;
+    private final AtomicInteger waiting = new AtomicInteger();
+    // The futures of the attempts that are waiting for their delay; whoever removes a future from this set completes it
+    private final Set<CompletableFuture<Void>> pending = ConcurrentHashMap.newKeySet();
+    private volatile boolean stopped;
+    private final Meter retries;
+    private final Meter exhausted;
+
+    public RetryScheduler(int maxAttempts, long initialDelayMillis, long maxDelayMillis, double jitter, Pattern transientFailurePattern, Executor resumeExecutor,
+        MetricRegistry metricRegistry) {
+        this(null, maxAttempts, initialDelayMillis, maxDelayMillis, jitter, transientFailurePattern, resumeExecutor, metricRegistry);
+    }
+
+    /**
+     * @param name distinguishes the thread and the metrics of this scheduler from those of the other schedulers, or null for the default scheduler
+     */
+    public RetryScheduler(String name, int maxAttempts, long initialDelayMillis, long maxDelayMillis, double jitter, Pattern transientFailurePattern, Executor resumeExecutor,
+        MetricRegistry metricRegistry) {
+        this.maxAttempts = maxAttempts;
+        this.initialDelayMillis = initialDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+        this.jitter = jitter;
+        this.transientFailurePattern = transientFailurePattern;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, name == null ? "retry-scheduler" : "retry-scheduler-" + name);
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.resumeExecutor = resumeExecutor;
+        this.retries = metricRegistry.meter(MetricRegistry.name(RetryScheduler.class, name, "retries"));
+        this.exhausted = metricRegistry.meter(MetricRegistry.name(RetryScheduler.class, name, "exhausted"));
+        metricRegistry.register(MetricRegistry.name(RetryScheduler.class, name, "waiting"), (Gauge<Integer>) waiting::get);
+    }
+
+    /**
+     * @param failure the cause of the failure
+     * @param attempt the number of the attempt that failed, starting at 1
+     * @return true if the failure is transient and the maximum number of attempts has not been reached
+     */
+    public boolean shouldRetry(Throwable failure, int attempt) {
+        if (!isTransient(failure)) {
+            return false;
+        }
+        if (attempt >= maxAttempts) {
+            exhausted.mark();
+            log.warn("Giving up after {} attempts", attempt);
+            return false;
+        }
+        return true;
+    }
+
+    boolean isTransient(Throwable failure) {
+        for (Throwable cause = failure; cause != null; cause = cause.getCause() == cause ? null : cause.getCause()) {
+            if (cause instanceof SocketTimeoutException || cause instanceof ConnectException) {
+                return true;
+            }
+            if (cause.getMessage() != null && transientFailurePattern.matcher(cause.getMessage()).matches()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param attempt the number of the attempt that failed, starting at 1
+     * @return the delay before the next attempt
+     */
+    public long getDelayMillis(int attempt) {
+        // Shifting by more than 62 would overflow; the cap applies long before that anyway
+        long delay = initialDelayMillis << Math.min(attempt - 1, 62);
+        if (delay <= 0 || delay > maxDelayMillis) {
+            delay = maxDelayMillis;
+        }
+        return delay - (long) (delay * jitter * ThreadLocalRandom.current().nextDouble());
+    }
+
+    /**
+     * Starts the next attempt on the resume executor after the delay.
+     *
+     * @param attempt     starts the attempt; the returned future must be completed when the attempt is finished
+     * @param delayMillis the delay
+     * @return a future that is completed when the attempt is finished, or completed exceptionally with a {@link StoppedException} if the scheduler is stopped first
+     */
+    public CompletableFuture<Void> schedule(Supplier<CompletableFuture<Void>> attempt, long delayMillis) {
+        CompletableFuture<Void> finished = new CompletableFuture<>();
+        retries.mark();
+        waiting.incrementAndGet();
+        pending.add(finished);
+        try {
+            scheduler.schedule(() -> {
+                if (!pending.remove(finished)) {
+                    return;
+                }
+                waiting.decrementAndGet();
+                try {
+                    resumeExecutor.execute(() -> {
+                        try {
+                            attempt.get().whenComplete((v, e) -> complete(finished, e));
+                        }
+                        catch (RuntimeException e) {
+                            finished.completeExceptionally(e);
+                        }
+                    });
+                }
+                catch (RejectedExecutionException e) {
+                    finished.completeExceptionally(e);
+                }
+            }, delayMillis, TimeUnit.MILLISECONDS);
+        }
+        catch (RejectedExecutionException e) {
+            cancel(finished);
+        }
+        if (stopped) {
+            // The attempt may have been added after stop() completed the pending ones
+            cancel(finished);
+        }
+        return finished;
+    }
+
+    private void cancel(CompletableFuture<Void> finished) {
+        if (pending.remove(finished)) {
+            waiting.decrementAndGet();
+            finished.completeExceptionally(new StoppedException());
+        }
+    }
+
+    private static void complete(CompletableFuture<Void> future, Throwable error) {
+        if (error == null) {
+            future.complete(null);
+        }
+        else {
+            future.completeExceptionally(error);
+        }
+    }
+
+    public int getWaiting() {
+        return waiting.get();
+    }
+
+    @Override
+    public void start() {
+    }
+
+    @Override
+    public void stop() {
+        stopped = true;
+        pending.forEach(this::cancel);
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * The next attempt did not take place, because the scheduler was stopped while it was waiting for its delay.
+     */
+    public static class StoppedException extends IllegalStateException {
+        public StoppedException() {
+            super("The retry scheduler was stopped before the next attempt");
+        }
+    }
+}
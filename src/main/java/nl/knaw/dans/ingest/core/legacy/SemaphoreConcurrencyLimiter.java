@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.ingest.core.legacy;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import nl.knaw.dans.easy.dd2d.ConcurrencyLimiter;
+
+import java.util.concurrent.Semaphore;
+
+/**
+ * Limits the number of concurrent calls to an external service to a fixed number. Waiting tasks are served in arrival order.
+ */
+public class SemaphoreConcurrencyLimiter implements ConcurrencyLimiter {
+    private final int maxConcurrent;
+    private final Semaphore permits;
+    private final Timer waitTimer;
+
+    public SemaphoreConcurrencyLimiter(String name, int maxConcurrent, MetricRegistry metricRegistry) {
+        if (maxConcurrent < 1) {
+            throw new IllegalArgumentException("maxConcurrent must be at least 1");
+        }
+        this.maxConcurrent = maxConcurrent;
+        this.permits = new Semaphore(maxConcurrent, true);
+        this.waitTimer = metricRegistry.timer(MetricRegistry.name(SemaphoreConcurrencyLimiter.class, name, "wait"));
+        metricRegistry.register(MetricRegistry.name(SemaphoreConcurrencyLimiter.class, name, "in-use"), (Gauge<Integer>) this::getInUse);
+    }
+
+    @Override
+    public void acquire() {
+        try (Timer.Context ignored = waitTimer.time()) {
+            permits.acquire();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for a permit", e);
+        }
+    }
+
+    @Override
+    public void release(String call, long durationNanos, boolean succeeded) {
+        permits.release();
+    }
+
+    public int getInUse() {
+        return maxConcurrent - permits.availablePermits();
+    }
+}
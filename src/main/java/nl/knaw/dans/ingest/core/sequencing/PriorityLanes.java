@@ -0,0 +1,206 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.ingest.core.sequencing;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Hands runnables to an executor in order of priority. At most maxConcurrent of them are with the executor at any time; the others wait in the queue of their lane. When one
+ * finishes, the oldest runnable in the highest-priority lane that is not empty is handed over next. Lower lanes therefore only make progress when the higher ones are empty.
+ * A runnable that the executor rejects is handed to the rejection handler it was queued with, whichever thread was dispatching it.
+ *
+ * <p>
+ * Dispatching takes no lock: the lanes are concurrent queues and the room at the executor is an atomic count of permits. A runnable that is queued while another thread is
+ * dispatching may therefore be overtaken by one in a lower lane that the other thread had already found. Only adding a lane is synchronized.
+ * </p>
+ */
+class PriorityLanes {
+    private static final Logger log = LoggerFactory.getLogger(PriorityLanes.class);
+
+    private static class Lane {
+        private final String name;
+        private final int priority;
+        private final Queue<Entry> queue = new ConcurrentLinkedQueue<>();
+
+        private Lane(String name, int priority) {
+            this.name = name;
+            this.priority = priority;
+        }
+    }
+
+    private static class Entry {
+        private final Runnable runnable;
+        private final Consumer<RejectedExecutionException> onRejected;
+
+        private Entry(Runnable runnable, Consumer<RejectedExecutionException> onRejected) {
+            this.runnable = runnable;
+            this.onRejected = onRejected;
+        }
+    }
+
+    private final Executor executor;
+    private final int maxConcurrent;
+    private final MetricRegistry metricRegistry;
+    private final Map<String, Lane> lanes = new ConcurrentHashMap<>();
+    // Replaced as a whole when a lane is added
+    private volatile List<Lane> lanesByPriority = new ArrayList<>();
+    private final AtomicInteger running = new AtomicInteger();
+
+    PriorityLanes(Executor executor, int maxConcurrent, MetricRegistry metricRegistry) {
+        this.executor = executor;
+        this.maxConcurrent = maxConcurrent;
+        this.metricRegistry = metricRegistry;
+        metricRegistry.register(MetricRegistry.name(TargetedTaskSequenceManager.class, "lanes", "running"), (Gauge<Integer>) this::getRunning);
+    }
+
+    synchronized void addLane(String name, int priority) {
+        if (lanes.containsKey(name)) {
+            throw new IllegalArgumentException("Lane already exists: " + name);
+        }
+        Lane lane = new Lane(name, priority);
+        List<Lane> byPriority = new ArrayList<>(lanesByPriority);
+        byPriority.add(lane);
+        byPriority.sort(Comparator.comparingInt((Lane l) -> l.priority).reversed());
+        lanesByPriority = byPriority;
+        lanes.put(name, lane);
+        metricRegistry.register(MetricRegistry.name(TargetedTaskSequenceManager.class, "lane", name, "queue-size"), (Gauge<Integer>) () -> getQueueSize(name));
+    }
+
+    boolean hasLane(String name) {
+        return lanes.containsKey(name);
+    }
+
+    /**
+     * Queues the runnable in the lane and hands over as many runnables to the executor as there is room for.
+     *
+     * @param laneName   the name of the lane
+     * @param runnable   the runnable to execute
+     * @param onRejected called if the executor rejects the runnable, now or when it is handed over later
+     * @throws RejectedExecutionException if the executor rejected this runnable right away; the rejection handler has been called already
+     */
+    void execute(String laneName, Runnable runnable, Consumer<RejectedExecutionException> onRejected) {
+        Entry entry = new Entry(runnable, onRejected);
+        Lane lane = lanes.get(laneName);
+        if (lane == null) {
+            throw new IllegalArgumentException("Unknown lane: " + laneName);
+        }
+        lane.queue.add(entry);
+        RejectedExecutionException rejected = dispatch(entry);
+        if (rejected != null) {
+            throw rejected;
+        }
+    }
+
+    /**
+     * @param own the entry of the caller, or null
+     * @return the exception with which the executor rejected the entry of the caller, if it did
+     */
+    private RejectedExecutionException dispatch(Entry own) {
+        RejectedExecutionException ownRejected = null;
+        while (true) {
+            if (!tryAcquirePermit()) {
+                return ownRejected;
+            }
+            Entry next = pollHighestPriority();
+            if (next == null) {
+                running.decrementAndGet();
+                // A runnable queued while this thread held the permit may have been left by its own thread, which found no room; it is dispatched here instead
+                if (isEmpty()) {
+                    return ownRejected;
+                }
+                continue;
+            }
+            try {
+                executor.execute(() -> {
+                    try {
+                        next.runnable.run();
+                    }
+                    finally {
+                        finished();
+                    }
+                });
+            }
+            catch (RejectedExecutionException e) {
+                running.decrementAndGet();
+                log.error("Executor rejected {}", next.runnable, e);
+                // Otherwise whatever waits for the runnable would wait forever
+                next.onRejected.accept(e);
+                if (next == own) {
+                    ownRejected = e;
+                }
+            }
+        }
+    }
+
+    private boolean tryAcquirePermit() {
+        while (true) {
+            int current = running.get();
+            if (current >= maxConcurrent) {
+                return false;
+            }
+            if (running.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    private void finished() {
+        running.decrementAndGet();
+        dispatch(null);
+    }
+
+    private Entry pollHighestPriority() {
+        for (Lane lane : lanesByPriority) {
+            Entry entry = lane.queue.poll();
+            if (entry != null) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    private boolean isEmpty() {
+        for (Lane lane : lanesByPriority) {
+            if (!lane.queue.isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    int getQueueSize(String laneName) {
+        return lanes.get(laneName).queue.size();
+    }
+
+    int getRunning() {
+        return running.get();
+    }
+}
@@ -17,9 +17,23 @@ package nl.knaw.dans.ingest.core.sequencing;
 
 import nl.knaw.dans.ingest.core.TaskEvent;
 
+import java.util.concurrent.CompletableFuture;
+
 public interface TargetedTask extends Runnable {
 
     String getTarget();
 
+    /**
+     * Starts the task. A task that has to wait for an external system can return before it is finished, so that the worker thread can run other tasks in the meantime; the
+     * next task for the same target is not started until the returned future is completed. The future must be completed on a worker thread, because the sequencer continues
+     * with the next task on the thread that completes it. The default implementation runs the task to completion.
+     *
+     * @return a future that is completed when the task has finished
+     */
+    default CompletableFuture<Void> start() {
+        run();
+        return CompletableFuture.completedFuture(null);
+    }
+
     void writeEvent(TaskEvent.EventType eventType, TaskEvent.Result result, String message);
 }
@@ -15,44 +15,162 @@
  */
 package nl.knaw.dans.ingest.core.sequencing;
 
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.LinkedHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Manages the process of ingesting deposits in the correct order by ensuring that deposits that target the same dataset are not concurrently scheduled on different threads. If an unfinished deposit
  * for the same dataset is still present, the next deposit for that dataset will be queued on the same thread, ensuring that it cannot overtake the already processing deposit.
+ *
+ * <p>
+ * The manager does not use a global lock. All state changes for a target (creating its sequencer, adding a task to it and removing it once it has run dry) are performed inside
+ * {@link ConcurrentMap#compute} calls on the key of that target, so they are serialized per target only. Scheduling tasks for different targets does not contend.
+ * </p>
+ *
+ * <p>
+ * New sequencers are handed to the executor through priority lanes (see {@link #addLane(String, int)}). A sequencer runs in the lane of the task that created it; tasks that join an
+ * existing sequencer run in its lane, because the per-target order always takes precedence over the priority. A sequencer that continues after having been parked does not go
+ * through the lanes again.
+ * </p>
  */
 public class TargetedTaskSequenceManager {
     private static final Logger log = LoggerFactory.getLogger(TargetedTaskSequenceManager.class);
-    private final LinkedHashMap<String, TargetedTaskSequencer> sequencers = new LinkedHashMap<>();
-    private final ExecutorService executorService;
-
-    public TargetedTaskSequenceManager(ExecutorService executorService) {
-        this.executorService = executorService;
-    }
-
-    public synchronized void scheduleTask(TargetedTask targetedTask) {
-        log.trace("Scheduling targeted task {}", targetedTask);
-        // TODO: Use Is-Version-Of in autoIngest service (DOI is not available there)
-        TargetedTaskSequencer sequencer = sequencers.get(targetedTask.getTarget());
-        if (sequencer == null) {
-            log.debug("Creating NEW sequencer for target {}", targetedTask.getTarget());
-            sequencer = new TargetedTaskSequencer(this, targetedTask);
-            sequencers.put(targetedTask.getTarget(), sequencer);
-            executorService.execute(sequencer);
+    public static final String DEFAULT_LANE = "default";
+
+    private final ConcurrentMap<String, TargetedTaskSequencer> sequencers = new ConcurrentHashMap<>();
+    private final PriorityLanes lanes;
+    private final Timer queueWaitTimer;
+
+    public TargetedTaskSequenceManager(ExecutorService executorService, MetricRegistry metricRegistry) {
+        this(executorService, Integer.MAX_VALUE, metricRegistry);
+    }
+
+    /**
+     * @param executorService         the executor to run the sequencers on
+     * @param maxConcurrentSequencers the maximum number of sequencers handed to the executor at the same time; the others wait in their lanes. This should not exceed the number of
+     *                                threads of the executor, otherwise sequencers queue up in the executor, where priorities are not honored.
+     * @param metricRegistry          the registry for the metrics of the manager
+     */
+    public TargetedTaskSequenceManager(ExecutorService executorService, int maxConcurrentSequencers, MetricRegistry metricRegistry) {
+        this.lanes = new PriorityLanes(executorService, maxConcurrentSequencers, metricRegistry);
+        this.lanes.addLane(DEFAULT_LANE, 0);
+        this.queueWaitTimer = metricRegistry.timer(MetricRegistry.name(TargetedTaskSequenceManager.class, "queue-wait"));
+        metricRegistry.register(MetricRegistry.name(TargetedTaskSequenceManager.class, "sequencers"), (Gauge<Integer>) sequencers::size);
+        if (executorService instanceof ThreadPoolExecutor) {
+            ThreadPoolExecutor executor = (ThreadPoolExecutor) executorService;
+            metricRegistry.register(MetricRegistry.name(TargetedTaskSequenceManager.class, "executor", "queue-size"), (Gauge<Integer>) () -> executor.getQueue().size());
+            metricRegistry.register(MetricRegistry.name(TargetedTaskSequenceManager.class, "executor", "active-threads"), (Gauge<Integer>) executor::getActiveCount);
+            metricRegistry.register(MetricRegistry.name(TargetedTaskSequenceManager.class, "executor", "pool-size"), (Gauge<Integer>) executor::getPoolSize);
         }
-        else {
-            log.debug("Using EXISTING sequencer for target {}", targetedTask.getTarget());
-            sequencer.enqueue(targetedTask);
+    }
+
+    /**
+     * Adds a lane. Waiting sequencers in a lane with a higher priority are always started before those in a lane with a lower priority; within a lane they are started in the order
+     * in which they were created.
+     *
+     * @param name     the name of the lane
+     * @param priority the priority of the lane; higher values go first
+     */
+    public void addLane(String name, int priority) {
+        lanes.addLane(name, priority);
+    }
+
+    /**
+     * Schedules a task in the default lane.
+     *
+     * @param targetedTask the task to schedule
+     * @return a future that is completed when the task has finished running
+     * @see #scheduleTask(TargetedTask, String)
+     */
+    public CompletableFuture<Void> scheduleTask(TargetedTask targetedTask) {
+        return scheduleTask(targetedTask, DEFAULT_LANE);
+    }
+
+    /**
+     * Schedules a task for execution after all tasks previously scheduled for the same target.
+     *
+     * @param targetedTask the task to schedule
+     * @param lane         the lane to start a new sequencer in
+     * @return a future that is completed when the task has finished running, or completed exceptionally if the executor rejected its sequencer
+     * @throws RejectedExecutionException if the executor rejected the new sequencer of the task right away
+     */
+    public CompletableFuture<Void> scheduleTask(TargetedTask targetedTask, String lane) {
+        log.trace("Scheduling targeted task {} in lane {}", targetedTask, lane);
+        if (!lanes.hasLane(lane)) {
+            throw new IllegalArgumentException("Unknown lane: " + lane);
         }
+        String target = targetedTask.getTarget();
+        CompletableFuture<Void> completion = new CompletableFuture<>();
+        TargetedTaskSequencer[] created = new TargetedTaskSequencer[1];
+        sequencers.compute(target, (t, sequencer) -> {
+            if (sequencer == null) {
+                log.debug("Creating NEW sequencer for target {}", t);
+                created[0] = new TargetedTaskSequencer(this, targetedTask, completion);
+                return created[0];
+            }
+            log.debug("Using EXISTING sequencer for target {}", t);
+            sequencer.enqueue(targetedTask, completion);
+            return sequencer;
+        });
+
+        // Submitting outside the compute call, so that a caller-runs executor cannot re-enter the map for the same key
+        if (created[0] != null) {
+            TargetedTaskSequencer sequencer = created[0];
+            lanes.execute(lane, sequencer, e -> rejected(sequencer, e));
+        }
+        return completion;
     }
 
-    synchronized void removeSequencer(TargetedTaskSequencer sequencer) {
+    /*
+     * Removes a sequencer that the executor rejected and fails its tasks. Once it is removed, no more tasks can join it, so its queue can be drained outside the compute call.
+     */
+    private void rejected(TargetedTaskSequencer sequencer, RejectedExecutionException e) {
+        sequencers.remove(sequencer.getTarget(), sequencer);
+        sequencer.failQueuedTasks(e);
+    }
+
+    /**
+     * Removes the sequencer if it has no more tasks queued. This is checked atomically with {@link #scheduleTask(TargetedTask, String)} for the same target, so that a task cannot be added to a
+     * sequencer that is no longer running.
+     *
+     * @param sequencer the sequencer to remove
+     * @return true if the sequencer was removed, false if new tasks were added to it in the meantime
+     */
+    boolean removeSequencerIfIdle(TargetedTaskSequencer sequencer) {
         log.trace("Removing sequencer for target {}", sequencer.getTarget());
-        sequencers.remove(sequencer.getTarget());
+        boolean[] removed = new boolean[1];
+        sequencers.computeIfPresent(sequencer.getTarget(), (t, s) -> {
+            if (s == sequencer && s.isIdle()) {
+                removed[0] = true;
+                return null;
+            }
+            return s;
+        });
+        return removed[0];
+    }
+
+    /**
+     * Records the time a task waited between being scheduled and being started. This includes waiting for earlier tasks for the same target, waiting in a lane and waiting for a worker
+     * thread.
+     *
+     * @param nanos the waiting time in nanoseconds
+     */
+    void recordQueueWait(long nanos) {
+        queueWaitTimer.update(nanos, TimeUnit.NANOSECONDS);
     }
 
+    public int getNumberOfSequencers() {
+        return sequencers.size();
+    }
 }
@@ -19,53 +19,140 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.Queue;
-import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 class TargetedTaskSequencer implements Runnable {
     private static final Logger log = LoggerFactory.getLogger(TargetedTaskSequencer.class);
-    private final Queue<TargetedTask> localQueue = new ConcurrentLinkedDeque<>();
+    private final Queue<QueuedTask> localQueue = new ConcurrentLinkedQueue<>();
     private final TargetedTaskSequenceManager targetedTaskSequenceManager;
     private final String target;
 
-    public TargetedTaskSequencer(TargetedTaskSequenceManager targetedTaskSequenceManager, TargetedTask task) {
+    private static class QueuedTask {
+        private final TargetedTask task;
+        private final CompletableFuture<Void> completion;
+        private final long enqueuedAt = System.nanoTime();
+
+        private QueuedTask(TargetedTask task, CompletableFuture<Void> completion) {
+            this.task = task;
+            this.completion = completion;
+        }
+    }
+
+    public TargetedTaskSequencer(TargetedTaskSequenceManager targetedTaskSequenceManager, TargetedTask task, CompletableFuture<Void> completion) {
         this.targetedTaskSequenceManager = targetedTaskSequenceManager;
         this.target = task.getTarget();
-        enqueue(task);
+        enqueue(task, completion);
     }
 
-    public synchronized void enqueue(TargetedTask task) {
+    /**
+     * Adds a task to the queue of this sequencer. Must only be called by the {@link TargetedTaskSequenceManager}, from within its per-target critical section.
+     *
+     * @param task       the task to add
+     * @param completion the future to complete when the task has finished running
+     */
+    void enqueue(TargetedTask task, CompletableFuture<Void> completion) {
         log.debug("Adding task {} to sequencer queue", task);
         if (task.getTarget().equals(target)) {
-            localQueue.add(task);
+            localQueue.add(new QueuedTask(task, completion));
         }
         else {
             throw new IllegalArgumentException("Task target " + task.getTarget() + " is different from target " + target);
         }
     }
 
+    /**
+     * Fails the tasks in the queue without running them. Must only be called after the sequencer has been removed from the {@link TargetedTaskSequenceManager}, so that no more
+     * tasks are added.
+     *
+     * @param cause the reason why the tasks are not run
+     */
+    void failQueuedTasks(Throwable cause) {
+        QueuedTask queuedTask;
+        while ((queuedTask = localQueue.poll()) != null) {
+            finish(queuedTask, cause);
+        }
+    }
+
+    boolean isIdle() {
+        return localQueue.isEmpty();
+    }
+
     public String getTarget() {
         return target;
     }
 
     @Override
     public void run() {
-        TargetedTask task = localQueue.poll();
+        runFrom(localQueue.poll());
+    }
 
-        while (task != null) {
-            log.debug("Processing task {}", task);
-            task.run();
-            task = getNextTask();
+    /**
+     * Runs the tasks in the queue, starting with the given one. If a task returns before it is finished, the sequencer is parked: this method returns, and the sequencer continues
+     * on the thread that finishes the task. The sequencer is not removed while parked, so tasks for the same target that arrive in the meantime are queued behind the parked
+     * task.
+     */
+    private void runFrom(QueuedTask queuedTask) {
+        while (queuedTask != null) {
+            log.debug("Processing task {}", queuedTask.task);
+            targetedTaskSequenceManager.recordQueueWait(System.nanoTime() - queuedTask.enqueuedAt);
+            CompletableFuture<Void> running;
+            try {
+                running = queuedTask.task.start();
+            }
+            catch (RuntimeException e) {
+                running = new CompletableFuture<>();
+                running.completeExceptionally(e);
+            }
+            if (!running.isDone()) {
+                log.debug("Parking sequencer for target {} until task {} has finished", target, queuedTask.task);
+                QueuedTask parkedTask = queuedTask;
+                running.whenComplete((v, e) -> {
+                    finish(parkedTask, e);
+                    runFrom(getNextTask());
+                });
+                return;
+            }
+            finish(queuedTask, running.isCompletedExceptionally() ? getException(running) : null);
+            queuedTask = getNextTask();
+        }
+    }
+
+    private static Throwable getException(CompletableFuture<Void> future) {
+        try {
+            future.join();
+            return null;
+        }
+        catch (CompletionException | CancellationException e) {
+            return e;
+        }
+    }
+
+    private void finish(QueuedTask queuedTask, Throwable error) {
+        if (error instanceof CompletionException && error.getCause() != null) {
+            error = error.getCause();
+        }
+        if (error == null) {
+            queuedTask.completion.complete(null);
+        }
+        else {
+            log.error("Task {} failed", queuedTask.task, error);
+            queuedTask.completion.completeExceptionally(error);
         }
     }
 
-    private TargetedTask getNextTask() {
-        synchronized (targetedTaskSequenceManager) {
-            TargetedTask task = localQueue.poll();
-            if (task == null) {
-                log.debug("No more tasks on sequencer queue. Removing sequencer for target {}", target);
-                targetedTaskSequenceManager.removeSequencer(this);
+    private QueuedTask getNextTask() {
+        QueuedTask task = localQueue.poll();
+        while (task == null) {
+            if (targetedTaskSequenceManager.removeSequencerIfIdle(this)) {
+                log.debug("No more tasks on sequencer queue. Removed sequencer for target {}", target);
+                return null;
             }
-            return task;
+            // A task was added between the poll and the removal attempt; pick it up
+            task = localQueue.poll();
         }
+        return task;
     }
 }
@@ -0,0 +1,32 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.ingest.core.sequencing;
+
+public enum TaskExecutorMode {
+    /**
+     * Run the sequencers on the thread pool configured under taskQueue. The number of threads limits the number of deposits that are processed concurrently.
+     */
+    POOL,
+    /**
+     * Run the sequencers on a pool that grows to elasticMaxThreads and shrinks again when idle. Suitable when the workers are mostly blocked on I/O; the load on Dataverse is then
+     * limited by dataverse.maxConcurrentRequests rather than by the number of threads.
+     */
+    ELASTIC,
+    /**
+     * Run each sequencer on its own virtual thread. Requires Java 21 or later at run time; on older runtimes ELASTIC is used instead.
+     */
+    VIRTUAL
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.ingest.core.sequencing;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates the executors for the {@link TaskExecutorMode}s that are not configured through a Dropwizard executor service factory.
+ */
+public final class TaskExecutors {
+    private static final Logger log = LoggerFactory.getLogger(TaskExecutors.class);
+
+    private TaskExecutors() {
+    }
+
+    /**
+     * Creates a pool that starts a new thread for each task until maxThreads is reached, after which tasks are queued. Idle threads are stopped after the keep-alive time.
+     *
+     * @param namePrefix    prefix of the thread names, followed by a sequence number
+     * @param maxThreads    the maximum number of threads
+     * @param keepAliveTime how long an idle thread is kept
+     * @param unit          the unit of keepAliveTime
+     * @return the executor
+     */
+    public static ThreadPoolExecutor newElasticExecutor(String namePrefix, int maxThreads, long keepAliveTime, TimeUnit unit) {
+        AtomicInteger threadNumber = new AtomicInteger();
+        ThreadFactory threadFactory = r -> {
+            Thread thread = new Thread(r, namePrefix + threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        };
+        // With an unbounded queue the pool never grows beyond its core size, so the core size is the maximum and core threads are allowed to time out
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(maxThreads, maxThreads, keepAliveTime, unit, new LinkedBlockingQueue<>(), threadFactory);
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Creates an executor that runs each task on a new virtual thread, if the runtime supports virtual threads. This is looked up reflectively, so that the application can still
+     * be built for and run on older Java versions.
+     *
+     * @param namePrefix prefix of the thread names, followed by a sequence number
+     * @return the executor, or null if the runtime does not support virtual threads
+     */
+    public static ExecutorService newVirtualThreadExecutor(String namePrefix) {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, namePrefix, 0L);
+            ThreadFactory threadFactory = (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+            Method newThreadPerTaskExecutor = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+            return (ExecutorService) newThreadPerTaskExecutor.invoke(null, threadFactory);
+        }
+        catch (NoSuchMethodException | ClassNotFoundException | IllegalAccessException e) {
+            log.debug("Virtual threads not available", e);
+            return null;
+        }
+        catch (InvocationTargetException e) {
+            // Java 19 and 20 have the methods, but throw UnsupportedOperationException unless preview features are enabled
+            log.debug("Virtual threads not enabled", e.getCause());
+            return null;
+        }
+    }
+}
@@ -20,42 +20,63 @@ import nl.knaw.dans.ingest.core.legacy.DepositIngestTaskFactoryWrapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.IOException;
-import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.LinkedBlockingDeque;
+import java.util.stream.Collectors;
 
+/**
+ * Iterates over the deposits in an inbox, creating the import task for a deposit only when it is requested with {@link #next()}. This way, the memory used by a task is only
+ * allocated when the task is about to be scheduled, so that the number of tasks in memory can be bounded by the consumer of the iterator.
+ */
 public abstract class AbstractDepositsImportTaskIterator implements Iterator<DepositImportTaskWrapper>  {
     private static final Logger log = LoggerFactory.getLogger(AbstractDepositsImportTaskIterator.class);
-    private final LinkedBlockingDeque<DepositImportTaskWrapper> deque = new LinkedBlockingDeque<>();
+    private final LinkedBlockingDeque<Path> deque = new LinkedBlockingDeque<>();
+    // The ordering info read by the scan, until the task for the deposit is created, so that it is not read again
+    private final Map<Path, DepositOrderingInfo> scanned = new ConcurrentHashMap<>();
     private final Path inboxDir;
     private final Path outBox;
+    private final DepositInboxScanner inboxScanner;
     private final DepositIngestTaskFactoryWrapper taskFactory;
     private final EventWriter eventWriter;
 
     public AbstractDepositsImportTaskIterator(
-        Path inboxDir, Path outBox, DepositIngestTaskFactoryWrapper taskFactory, EventWriter eventWriter) {
+        Path inboxDir, Path outBox, DepositInboxScanner inboxScanner, DepositIngestTaskFactoryWrapper taskFactory, EventWriter eventWriter) {
         this.inboxDir = inboxDir;
         this.outBox = outBox;
+        this.inboxScanner = inboxScanner;
         this.taskFactory = taskFactory;
         this.eventWriter = eventWriter;
     }
 
-    protected boolean readAllDepositsFromInbox() {
-        try {
-            Files.list(inboxDir)
-                .map(d -> taskFactory.createIngestTask(d, outBox, eventWriter))
-                .sorted().forEach(deque::add);
-            return !deque.isEmpty();
-        }
-        catch (IOException e) {
-            throw new IllegalStateException("Could not read deposits from inbox", e);
-        }
+    /**
+     * Adds all deposits currently in the inbox, in Created order.
+     *
+     * @return the deposit directories that were added
+     */
+    protected List<Path> readAllDepositsFromInbox() {
+        List<DepositOrderingInfo> deposits = inboxScanner.scan(inboxDir);
+        deposits.forEach(d -> scanned.put(d.getDepositDir(), d));
+        List<Path> depositDirs = deposits.stream()
+            .map(DepositOrderingInfo::getDepositDir)
+            .collect(Collectors.toList());
+        deque.addAll(depositDirs);
+        return depositDirs;
     }
 
     protected void addTaskForDeposit(Path dir) {
-        deque.add(taskFactory.createIngestTask(dir, outBox, eventWriter));
+        deque.add(dir);
+    }
+
+    /**
+     * @return the deposit directories for which no task has been handed out yet, in the order in which they will be
+     */
+    public List<Path> getPendingDepositDirs() {
+        return new ArrayList<>(deque);
     }
 
     @Override
@@ -63,14 +84,28 @@ public abstract class AbstractDepositsImportTaskIterator implements Iterator<Dep
         return deque.peekFirst() != null;
     }
 
+    /**
+     * @throws RuntimeException if the task cannot be created, for example because the deposit is incomplete; the failure has been recorded and the deposit is skipped
+     */
     @Override
     public DepositImportTaskWrapper next() {
+        Path depositDir;
         try {
-            return deque.take();
+            depositDir = deque.take();
         }
         catch (InterruptedException e) {
             log.warn("Deque threw error", e);
+            return null;
+        }
+        try {
+            DepositOrderingInfo orderingInfo = scanned.remove(depositDir);
+            return orderingInfo != null
+                ? taskFactory.createIngestTask(orderingInfo, outBox, eventWriter)
+                : taskFactory.createIngestTask(depositDir, outBox, eventWriter);
+        }
+        catch (RuntimeException e) {
+            eventWriter.writeTaskCreationFailed(depositDir, e);
+            throw e;
         }
-        return null;
     }
 }
@@ -0,0 +1,267 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.ingest.core.service;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import io.dropwizard.lifecycle.Managed;
+import nl.knaw.dans.ingest.core.TaskEvent;
+import nl.knaw.dans.ingest.core.TaskPhase;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Writes task events and phase timings asynchronously. Events are put in a bounded buffer, from which a background thread writes them to the delegate in batches, one transaction per batch. A
+ * batch is written when it is full or when its oldest event has waited for the maximum flush delay, whichever comes first. When the buffer is full, writers block until there is
+ * room again, so events are never dropped. A batch that cannot be written is tried again a few times, and then written one event at a time, so that a single event that
+ * cannot be written does not take the rest of the batch with it.
+ * <p>
+ * The timestamp of an event is taken when it is written to this service, not when it is flushed. Events written before {@link #start()} or after {@link #stop()} are written
+ * synchronously.
+ */
+public class AsyncTaskEventService implements TaskEventService, Managed {
+    private static final Logger log = LoggerFactory.getLogger(AsyncTaskEventService.class);
+    private static final long IDLE_POLL_MILLIS = 100;
+    private static final int MAX_FLUSH_ATTEMPTS = 3;
+    private static final long INITIAL_FLUSH_RETRY_DELAY_MILLIS = 100;
+
+    /*
+     * An event or a phase timing. Both go through the same queue, so that they are flushed in the order they were written. The constructor is private, so that these are the
+     * only two kinds.
+     */
+    private abstract static class Record {
+        private Record() {
+        }
+
+        abstract void addTo(List<TaskEvent> events, List<TaskPhase> phases);
+    }
+
+    private static final class EventRecord extends Record {
+        private final TaskEvent event;
+
+        private EventRecord(TaskEvent event) {
+            this.event = event;
+        }
+
+        @Override
+        void addTo(List<TaskEvent> events, List<TaskPhase> phases) {
+            events.add(event);
+        }
+    }
+
+    private static final class PhaseRecord extends Record {
+        private final TaskPhase phase;
+
+        private PhaseRecord(TaskPhase phase) {
+            this.phase = phase;
+        }
+
+        @Override
+        void addTo(List<TaskEvent> events, List<TaskPhase> phases) {
+            phases.add(phase);
+        }
+    }
+
+    private final TaskEventService delegate;
+    private final BlockingQueue<Record> queue;
+    private final int batchSize;
+    private final long maxFlushDelayNanos;
+    private final Timer writeTimer;
+    private final Timer flushTimer;
+    private final Histogram batchSizes;
+    private final Meter lost;
+
+    private volatile boolean running = false;
+    private Thread flusher;
+
+    public AsyncTaskEventService(TaskEventService delegate, int queueSize, int batchSize, long maxFlushDelay, TimeUnit unit, MetricRegistry metricRegistry) {
+        this.delegate = delegate;
+        this.queue = new ArrayBlockingQueue<>(queueSize);
+        this.batchSize = batchSize;
+        this.maxFlushDelayNanos = unit.toNanos(maxFlushDelay);
+        metricRegistry.register(MetricRegistry.name(AsyncTaskEventService.class, "queue-depth"), (Gauge<Integer>) queue::size);
+        // The time callers spend handing over an event; only significant when the buffer is full
+        this.writeTimer = metricRegistry.timer(MetricRegistry.name(AsyncTaskEventService.class, "write"));
+        this.flushTimer = metricRegistry.timer(MetricRegistry.name(AsyncTaskEventService.class, "flush"));
+        this.batchSizes = metricRegistry.histogram(MetricRegistry.name(AsyncTaskEventService.class, "batch-size"));
+        this.lost = metricRegistry.meter(MetricRegistry.name(AsyncTaskEventService.class, "lost"));
+    }
+
+    @Override
+    public void writeEvent(String batch, UUID depositId, TaskEvent.EventType eventType, TaskEvent.Result result, String message) {
+        enqueue(new EventRecord(new TaskEvent(batch, OffsetDateTime.now(), depositId, eventType, result, message)));
+    }
+
+    @Override
+    public void writeEvents(List<TaskEvent> events) {
+        events.forEach(e -> enqueue(new EventRecord(e)));
+    }
+
+    @Override
+    public void writePhases(List<TaskPhase> phases) {
+        phases.forEach(p -> enqueue(new PhaseRecord(p)));
+    }
+
+    private void enqueue(Record event) {
+        if (!running) {
+            writeSynchronously(event);
+            return;
+        }
+        try (Timer.Context ignored = writeTimer.time()) {
+            queue.put(event);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.warn("Interrupted while buffering task event; writing it synchronously");
+            writeSynchronously(event);
+            return;
+        }
+        // If stop() drained the queue just before the event was put, the flusher will never see it
+        if (!running && queue.remove(event)) {
+            writeSynchronously(event);
+        }
+    }
+
+    @Override
+    public void start() {
+        running = true;
+        flusher = new Thread(this::flushLoop, "task-event-writer");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    @Override
+    public void stop() throws InterruptedException {
+        running = false;
+        flusher.join();
+        List<Record> remaining = new ArrayList<>();
+        queue.drainTo(remaining);
+        log.info("Flushing {} remaining task events", remaining.size());
+        for (int i = 0; i < remaining.size(); i += batchSize) {
+            flush(remaining.subList(i, Math.min(i + batchSize, remaining.size())));
+        }
+    }
+
+    private void flushLoop() {
+        List<Record> batch = new ArrayList<>(batchSize);
+        try {
+            while (running) {
+                Record first = queue.poll(IDLE_POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                long deadline = System.nanoTime() + maxFlushDelayNanos;
+                while (batch.size() < batchSize) {
+                    queue.drainTo(batch, batchSize - batch.size());
+                    long remaining = deadline - System.nanoTime();
+                    if (batch.size() >= batchSize || remaining <= 0) {
+                        break;
+                    }
+                    Record next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                flush(batch);
+                batch.clear();
+            }
+        }
+        catch (InterruptedException e) {
+            log.warn("Task event writer interrupted; remaining events will be written on stop");
+            flush(batch);
+        }
+    }
+
+    private void writeSynchronously(Record event) {
+        List<TaskEvent> events = new ArrayList<>(1);
+        List<TaskPhase> phases = new ArrayList<>(1);
+        event.addTo(events, phases);
+        if (!events.isEmpty()) {
+            delegate.writeEvents(events);
+        }
+        if (!phases.isEmpty()) {
+            delegate.writePhases(phases);
+        }
+    }
+
+    private void flush(List<Record> batch) {
+        List<TaskEvent> events = new ArrayList<>(batch.size());
+        List<TaskPhase> phases = new ArrayList<>();
+        batch.forEach(r -> r.addTo(events, phases));
+        try (Timer.Context ignored = flushTimer.time()) {
+            // Events and phases are written in separate transactions, so each is retried on its own, lest the other is written twice
+            write(events, delegate::writeEvents, "task events");
+            write(phases, delegate::writePhases, "phase timings");
+            batchSizes.update(batch.size());
+        }
+    }
+
+    private <T> void write(List<T> items, Consumer<List<T>> writer, String what) {
+        if (items.isEmpty()) {
+            return;
+        }
+        long delay = INITIAL_FLUSH_RETRY_DELAY_MILLIS;
+        for (int attempt = 1; ; attempt++) {
+            try {
+                writer.accept(items);
+                return;
+            }
+            catch (RuntimeException e) {
+                if (attempt >= MAX_FLUSH_ATTEMPTS || !sleep(delay)) {
+                    log.warn("Could not write {} {} in one transaction; writing them one by one", items.size(), what, e);
+                    break;
+                }
+                log.warn("Could not write {} {}; trying again in {} ms", items.size(), what, delay, e);
+                delay *= 2;
+            }
+        }
+        for (T item : items) {
+            try {
+                writer.accept(Collections.singletonList(item));
+            }
+            catch (RuntimeException e) {
+                lost.mark();
+                log.error("Could not write one of the {}; it is lost", what, e);
+            }
+        }
+    }
+
+    private static boolean sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+            return true;
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.ingest.core.service;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricRegistry;
+import nl.knaw.dans.ingest.api.BatchProgress;
+import nl.knaw.dans.ingest.core.TaskEvent;
+
+import java.time.OffsetDateTime;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+/**
+ * Keeps track of the progress of each batch (task source) in memory, based on the task events written for it. Recording an event only increments a lock-free counter, so this
+ * can be done for every event. The counters are registered as meters, so that they can also be followed through the metrics of the service.
+ *
+ * <p>The number of deposits that remain is based on the number of deposits found by the scan of the batch, as reported by {@link #recordScanned(String, int)}; only when that
+ * is unknown is it based on the number of deposits enqueued so far. As soon as all scanned deposits have been finished, the meters of the batch are removed from the metrics.
+ * Its progress stays available until the batch is scanned again, or until a new event is recorded for it.</p>
+ *
+ * <p>The meters of a batch are registered after its progress has been added to the map, by the thread that added it, so that the map is not locked while the registry is
+ * updated.</p>
+ */
+public class BatchProgressTracker {
+    private final ConcurrentMap<String, Progress> batches = new ConcurrentHashMap<>();
+    private final MetricRegistry metricRegistry;
+
+    private class Progress {
+        private final String batch;
+        private final Counter scanned;
+        private final Meter enqueued;
+        private final Meter enqueueFailed;
+        private final Meter started;
+        private final Meter finished;
+        private final Meter ok;
+        private final Meter failed;
+        private final Meter rejected;
+        private final Meter retried;
+        private final AtomicBoolean completed = new AtomicBoolean();
+        private final Map<String, Metric> metrics = new LinkedHashMap<>();
+
+        Progress(String batch) {
+            this.batch = batch;
+            this.scanned = metric("scanned", new Counter());
+            this.enqueueFailed = metric("enqueue-failed", new Meter());
+            this.enqueued = metric("enqueued", new Meter());
+            this.started = metric("started", new Meter());
+            this.finished = metric("finished", new Meter());
+            this.ok = metric("ok", new Meter());
+            this.failed = metric("failed", new Meter());
+            this.rejected = metric("rejected", new Meter());
+            this.retried = metric("retried", new Meter());
+            metric("remaining", (Gauge<Long>) this::getRemaining);
+        }
+
+        private <T extends Metric> T metric(String name, T metric) {
+            metrics.put(MetricRegistry.name(BatchProgressTracker.class, batch, name), metric);
+            return metric;
+        }
+
+        void registerMetrics() {
+            synchronized (BatchProgressTracker.this) {
+                metrics.forEach((name, metric) -> {
+                    // Possibly still registered by the completed progress that this one replaces
+                    metricRegistry.remove(name);
+                    metricRegistry.register(name, metric);
+                });
+                // The batch may have been completed before its meters were registered
+                if (isCompleted()) {
+                    removeMetrics();
+                }
+            }
+        }
+
+        private void removeMetrics() {
+            synchronized (BatchProgressTracker.this) {
+                // Only these meters; those of a progress that replaces this one may already be registered under the same names
+                metricRegistry.removeMatching((name, metric) -> metrics.get(name) == metric);
+            }
+        }
+
+        void record(TaskEvent.EventType eventType, TaskEvent.Result result) {
+            switch (eventType) {
+                case ENQUEUE:
+                    if (result == TaskEvent.Result.OK) {
+                        enqueued.mark();
+                    }
+                    else {
+                        enqueueFailed.mark();
+                        failed.mark();
+                    }
+                    removeMetricsIfCompleted();
+                    break;
+                case START_PROCESSING:
+                    started.mark();
+                    break;
+                case RETRY:
+                    retried.mark();
+                    break;
+                case DRAFT_CREATED:
+                    break;
+                case END_PROCESSING:
+                    finished.mark();
+                    switch (result) {
+                        case OK:
+                            ok.mark();
+                            break;
+                        case FAILED:
+                            failed.mark();
+                            break;
+                        case REJECTED:
+                            rejected.mark();
+                            break;
+                    }
+                    removeMetricsIfCompleted();
+                    break;
+            }
+        }
+
+        long getRemaining() {
+            long total = scanned.getCount() > 0 ? scanned.getCount() : enqueued.getCount();
+            return Math.max(0, total - finished.getCount() - enqueueFailed.getCount());
+        }
+
+        boolean isCompleted() {
+            return completed.get();
+        }
+
+        private void removeMetricsIfCompleted() {
+            if (scanned.getCount() > 0 && getRemaining() == 0 && completed.compareAndSet(false, true)) {
+                removeMetrics();
+            }
+        }
+
+        BatchProgress toBatchProgress() {
+            long remaining = getRemaining();
+            // The one-minute rate follows changes in throughput, but stays at zero until the first tick of the meter
+            double perSecond = finished.getOneMinuteRate() > 0 ? finished.getOneMinuteRate() : finished.getMeanRate();
+            OffsetDateTime eta = null;
+            if (perSecond > 0) {
+                eta = OffsetDateTime.now().plusSeconds((long) Math.ceil(remaining / perSecond));
+            }
+            return new BatchProgress(batch, scanned.getCount(), enqueued.getCount(), started.getCount(), ok.getCount(), failed.getCount(), rejected.getCount(), remaining, perSecond * 60, eta);
+        }
+    }
+
+    public BatchProgressTracker(MetricRegistry metricRegistry) {
+        this.metricRegistry = metricRegistry;
+    }
+
+    /**
+     * Records the number of deposits found by a scan of the batch, or resumed from the journal after a restart. The deposits must be recorded before their tasks are handed out.
+     * If the batch had already been completed, its progress is started anew.
+     *
+     * @param batch the batch
+     * @param count the number of deposits
+     */
+    public void recordScanned(String batch, int count) {
+        getCurrent(batch).scanned.inc(count);
+    }
+
+    public void record(String batch, TaskEvent.EventType eventType, TaskEvent.Result result) {
+        getCurrent(batch).record(eventType, result);
+    }
+
+    /*
+     * Returns the progress of the batch, starting it anew if there is none or if the batch has been completed.
+     */
+    private Progress getCurrent(String batch) {
+        Progress progress = batches.get(batch);
+        if (progress != null && !progress.isCompleted()) {
+            return progress;
+        }
+        Progress created = new Progress(batch);
+        progress = batches.compute(batch, (b, current) -> current == null || current.isCompleted() ? created : current);
+        if (progress == created) {
+            created.registerMetrics();
+        }
+        return progress;
+    }
+
+    public Optional<BatchProgress> getProgress(String batch) {
+        return Optional.ofNullable(batches.get(batch)).map(Progress::toBatchProgress);
+    }
+
+    public List<BatchProgress> getProgress() {
+        return batches.values().stream()
+            .map(Progress::toBatchProgress)
+            .collect(Collectors.toList());
+    }
+}
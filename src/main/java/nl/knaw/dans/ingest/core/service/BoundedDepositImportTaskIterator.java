@@ -20,9 +20,9 @@ import nl.knaw.dans.ingest.core.legacy.DepositIngestTaskFactoryWrapper;
 import java.nio.file.Path;
 
 public class BoundedDepositImportTaskIterator extends  AbstractDepositsImportTaskIterator {
-    public BoundedDepositImportTaskIterator(Path inboxDir, Path outBox, DepositIngestTaskFactoryWrapper taskFactory,
+    public BoundedDepositImportTaskIterator(Path inboxDir, Path outBox, DepositInboxScanner inboxScanner, DepositIngestTaskFactoryWrapper taskFactory,
         EventWriter eventWriter) {
-        super(inboxDir, outBox, taskFactory, eventWriter);
+        super(inboxDir, outBox, inboxScanner, taskFactory, eventWriter);
         readAllDepositsFromInbox();
     }
 }
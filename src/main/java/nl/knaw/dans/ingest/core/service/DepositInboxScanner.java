@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.ingest.core.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Scans an inbox for deposits and returns their ordering info sorted by Created timestamp. Reading the ordering info is dominated by file system latency, especially on network
+ * mounts, so with a parallelism greater than one the deposits are read concurrently on a dedicated fork/join pool and then merged in Created order.
+ */
+public class DepositInboxScanner {
+    private static final Logger log = LoggerFactory.getLogger(DepositInboxScanner.class);
+
+    private final int parallelism;
+    private final Set<String> skippedDepositIds;
+
+    /**
+     * @param parallelism the number of threads to read deposits with; one or less means the inbox is scanned on the calling thread
+     */
+    public DepositInboxScanner(int parallelism) {
+        this(parallelism, Collections.emptySet());
+    }
+
+    private DepositInboxScanner(int parallelism, Set<String> skippedDepositIds) {
+        this.parallelism = parallelism;
+        this.skippedDepositIds = skippedDepositIds;
+    }
+
+    /**
+     * Returns a scanner that leaves out the given deposits. They are left out when the inbox is listed, so their ordering info is not read.
+     *
+     * @param depositIds the IDs (directory names) of the deposits to skip
+     * @return the scanner
+     */
+    public DepositInboxScanner skipping(Set<String> depositIds) {
+        return new DepositInboxScanner(parallelism, depositIds);
+    }
+
+    public List<DepositOrderingInfo> scan(Path inboxDir) {
+        log.trace("scan({})", inboxDir);
+        List<Path> listed;
+        try (Stream<Path> dirs = Files.list(inboxDir)) {
+            listed = dirs.collect(Collectors.toList());
+        }
+        catch (IOException e) {
+            throw new IllegalStateException("Could not read deposits from inbox", e);
+        }
+        List<Path> depositDirs = listed.stream()
+            .filter(d -> !skippedDepositIds.contains(d.getFileName().toString()))
+            .collect(Collectors.toList());
+        if (!skippedDepositIds.isEmpty()) {
+            log.info("Skipped {} deposits in {} that were already processed", listed.size() - depositDirs.size(), inboxDir);
+        }
+        log.debug("Reading {} deposits from {} with parallelism {}", depositDirs.size(), inboxDir, parallelism);
+
+        if (parallelism <= 1) {
+            return readSorted(depositDirs.stream());
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            // A parallel stream started from within a fork/join pool runs on that pool instead of on the common pool
+            return pool.submit(() -> readSorted(depositDirs.parallelStream())).get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while scanning inbox " + inboxDir, e);
+        }
+        catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException("Could not read deposits from inbox", e.getCause());
+        }
+        finally {
+            pool.shutdown();
+        }
+    }
+
+    private static List<DepositOrderingInfo> readSorted(Stream<Path> depositDirs) {
+        return depositDirs
+            .map(DepositOrderingInfo::read)
+            .sorted()
+            .collect(Collectors.toList());
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.ingest.core.service;
+
+import nl.knaw.dans.ingest.core.QueuedDeposit;
+
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Keeps track of the deposits of batches that have been scanned, but not yet processed, so that they can be resumed after a restart, and of the deposits that have been
+ * processed, so that they can be skipped when a batch is continued. Deposits are removed from the journal by
+ * the {@link TaskEventService} when their END_PROCESSING event is written, or when they could not be enqueued.
+ */
+public interface DepositJournal {
+
+    /**
+     * Adds the deposits in one transaction.
+     *
+     * @param deposits the deposits to add
+     */
+    void add(List<QueuedDeposit> deposits);
+
+    /**
+     * Removes the deposits in one transaction, for deposits that will not be processed after all.
+     *
+     * @param deposits the deposits to remove
+     */
+    void remove(List<QueuedDeposit> deposits);
+
+    /**
+     * @param lane the lane of the batches
+     * @return the deposits in the journal for the lane, batch after batch, in the order in which they were scanned
+     */
+    List<QueuedDeposit> getQueued(String lane);
+
+    /**
+     * Looks up the deposits of a batch that must not be enqueued again when the batch is continued: those that have been processed, whatever the result, and those that are
+     * still in the journal, because they are being processed, are waiting for a retry or have been resumed after a restart.
+     *
+     * @param source the batch
+     * @return the IDs of the deposits
+     */
+    Set<String> getDepositIdsToSkip(String source);
+}
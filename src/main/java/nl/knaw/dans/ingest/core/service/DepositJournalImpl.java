@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.ingest.core.service;
+
+import io.dropwizard.hibernate.UnitOfWork;
+import nl.knaw.dans.ingest.core.QueuedDeposit;
+import nl.knaw.dans.ingest.db.DepositStateDAO;
+import nl.knaw.dans.ingest.db.QueuedDepositDAO;
+
+import java.util.List;
+import java.util.Set;
+
+public class DepositJournalImpl implements DepositJournal {
+    private final QueuedDepositDAO queuedDepositDAO;
+    private final DepositStateDAO depositStateDAO;
+
+    public DepositJournalImpl(QueuedDepositDAO queuedDepositDAO, DepositStateDAO depositStateDAO) {
+        this.queuedDepositDAO = queuedDepositDAO;
+        this.depositStateDAO = depositStateDAO;
+    }
+
+    @Override
+    @UnitOfWork
+    public void add(List<QueuedDeposit> deposits) {
+        queuedDepositDAO.add(deposits);
+    }
+
+    @Override
+    @UnitOfWork
+    public void remove(List<QueuedDeposit> deposits) {
+        queuedDepositDAO.remove(deposits);
+    }
+
+    @Override
+    @UnitOfWork(readOnly = true)
+    public List<QueuedDeposit> getQueued(String lane) {
+        return queuedDepositDAO.findByLane(lane);
+    }
+
+    @Override
+    @UnitOfWork(readOnly = true)
+    public Set<String> getDepositIdsToSkip(String source) {
+        Set<String> depositIds = depositStateDAO.findProcessedDepositIds(source);
+        depositIds.addAll(queuedDepositDAO.findDepositIdsBySource(source));
+        return depositIds;
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.ingest.core.service;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * The information needed to order and sequence a deposit, read directly from the deposit's <code>bag-info.txt</code> and <code>deposit.properties</code>. Reading this is much cheaper than
+ * loading the bag, which also reads the manifests, so it is used when scanning an inbox. The bag itself is loaded only when the deposit is processed.
+ */
+public class DepositOrderingInfo implements Comparable<DepositOrderingInfo> {
+    private static final String BAG_INFO_TXT = "bag-info.txt";
+    private static final String DEPOSIT_PROPERTIES = "deposit.properties";
+
+    private final Path depositDir;
+    private final Instant created;
+    private final String doi;
+    private final String isVersionOf;
+    private final String bagId;
+
+    private DepositOrderingInfo(Path depositDir, Instant created, String doi, String isVersionOf, String bagId) {
+        this.depositDir = depositDir;
+        this.created = created;
+        this.doi = doi;
+        this.isVersionOf = isVersionOf;
+        this.bagId = bagId;
+    }
+
+    public static DepositOrderingInfo read(Path depositDir) {
+        Path bagDir = findBagDir(depositDir);
+        Properties depositProperties = readDepositProperties(depositDir);
+        return new DepositOrderingInfo(depositDir, readCreated(bagDir), depositProperties.getProperty("identifier.doi", ""), readIsVersionOf(bagDir),
+            depositProperties.getProperty("dataverse.bag-id", ""));
+    }
+
+    /**
+     * Reads the Created timestamp from the <code>bag-info.txt</code> of a bag.
+     *
+     * @param bagDir the bag directory
+     * @return the Created timestamp
+     * @throws IllegalArgumentException if there is not exactly one Created value
+     */
+    public static Instant readCreated(Path bagDir) {
+        List<String> createdValues = readBagInfoValues(bagDir, "Created");
+        if (createdValues.isEmpty()) {
+            throw new IllegalArgumentException("No Created value found in bag; bag = " + bagDir);
+        }
+        if (createdValues.size() != 1) {
+            throw new IllegalArgumentException("There should be exactly one Created value; found " + createdValues.size() + "; bag = " + bagDir);
+        }
+        return OffsetDateTime.parse(createdValues.get(0)).toInstant();
+    }
+
+    private static String readIsVersionOf(Path bagDir) {
+        List<String> isVersionOfValues = readBagInfoValues(bagDir, "Is-Version-Of");
+        return isVersionOfValues.isEmpty() ? "" : isVersionOfValues.get(0);
+    }
+
+    private static Path findBagDir(Path depositDir) {
+        if (!Files.isDirectory(depositDir)) {
+            throw new IllegalArgumentException(depositDir + " is not a directory");
+        }
+        try (Stream<Path> children = Files.list(depositDir)) {
+            List<Path> subdirs = children.filter(Files::isDirectory).collect(Collectors.toList());
+            if (subdirs.size() != 1) {
+                throw new IllegalArgumentException(depositDir + " has more or fewer than one subdirectory");
+            }
+            return subdirs.get(0);
+        }
+        catch (IOException e) {
+            throw new IllegalArgumentException("Unable to list deposit directory " + depositDir, e);
+        }
+    }
+
+    /*
+     * Minimal reader for the tag file format of BagIt (RFC 8493, section 2.2.2): one "Label: value" per line, where a value may be continued on the next line if that starts with
+     * whitespace. Labels are compared case-insensitively.
+     */
+    private static List<String> readBagInfoValues(Path bagDir, String label) {
+        Path bagInfo = bagDir.resolve(BAG_INFO_TXT);
+        if (!Files.exists(bagInfo)) {
+            throw new IllegalArgumentException(BAG_INFO_TXT + " not found in bag; bag = " + bagDir);
+        }
+        List<String> values = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(bagInfo, StandardCharsets.UTF_8)) {
+            StringBuilder value = null;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (value != null && !line.isEmpty() && Character.isWhitespace(line.charAt(0))) {
+                    value.append(' ').append(line.trim());
+                    continue;
+                }
+                if (value != null) {
+                    values.add(value.toString());
+                    value = null;
+                }
+                int colon = line.indexOf(':');
+                if (colon > 0 && line.substring(0, colon).trim().equalsIgnoreCase(label)) {
+                    value = new StringBuilder(line.substring(colon + 1).trim());
+                }
+            }
+            if (value != null) {
+                values.add(value.toString());
+            }
+        }
+        catch (IOException e) {
+            throw new IllegalArgumentException("Unable to read " + bagInfo, e);
+        }
+        return values;
+    }
+
+    private static Properties readDepositProperties(Path depositDir) {
+        Path depositProperties = depositDir.resolve(DEPOSIT_PROPERTIES);
+        if (!Files.exists(depositProperties)) {
+            throw new IllegalArgumentException(depositDir + " does not contain a " + DEPOSIT_PROPERTIES + " file");
+        }
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(depositProperties, StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        }
+        catch (IOException e) {
+            throw new IllegalArgumentException("Unable to read " + depositProperties, e);
+        }
+        return properties;
+    }
+
+    public Path getDepositDir() {
+        return depositDir;
+    }
+
+    public String getDepositId() {
+        return depositDir.getFileName().toString();
+    }
+
+    public Instant getCreated() {
+        return created;
+    }
+
+    public String getDoi() {
+        return doi;
+    }
+
+    /**
+     * @return the first Is-Version-Of value of the bag, or an empty string if the bag has none
+     */
+    public String getIsVersionOf() {
+        return isVersionOf;
+    }
+
+    /**
+     * @return the <code>dataverse.bag-id</code> of <code>deposit.properties</code>, or an empty string if the deposit has none
+     */
+    public String getBagId() {
+        return bagId;
+    }
+
+    @Override
+    public int compareTo(DepositOrderingInfo o) {
+        return created.compareTo(o.created);
+    }
+
+    @Override
+    public String toString() {
+        return "DepositOrderingInfo{" +
+            "depositDir=" + depositDir +
+            ", created=" + created +
+            ", doi='" + doi + '\'' +
+            ", isVersionOf='" + isVersionOf + '\'' +
+            ", bagId='" + bagId + '\'' +
+            '}';
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.ingest.core.service;
+
+import org.apache.commons.lang3.StringUtils;
+
+public enum DepositTargetResolver implements TargetResolver {
+    /**
+     * The DOI of the dataset from <code>deposit.properties</code>. Only known for migrated deposits and for deposits of which the dataset was already created.
+     */
+    DOI {
+        @Override
+        public String resolve(DepositOrderingInfo deposit) {
+            return deposit.getDoi();
+        }
+    },
+    /**
+     * The bag that the deposit is a new version of, from the Is-Version-Of of <code>bag-info.txt</code>, without the <code>urn:uuid:</code> prefix. Only known for deposits
+     * that update an existing dataset.
+     */
+    IS_VERSION_OF {
+        @Override
+        public String resolve(DepositOrderingInfo deposit) {
+            return StringUtils.removeStartIgnoreCase(deposit.getIsVersionOf(), URN_UUID_PREFIX);
+        }
+    },
+    /**
+     * The id of the bag, from the <code>dataverse.bag-id</code> of <code>deposit.properties</code>, without the <code>urn:uuid:</code> prefix. The dataset that a deposit creates
+     * is stored with this id, and the deposits that update the dataset find it by their Is-Version-Of, so combined with IS_VERSION_OF it keeps the first version and its updates
+     * in order, while new datasets are all processed concurrently.
+     */
+    BAG_ID {
+        @Override
+        public String resolve(DepositOrderingInfo deposit) {
+            return StringUtils.removeStartIgnoreCase(deposit.getBagId(), URN_UUID_PREFIX);
+        }
+    },
+    /**
+     * The id of the deposit itself. No other deposit has it, so the deposit is processed concurrently with all others.
+     */
+    DEPOSIT_ID {
+        @Override
+        public String resolve(DepositOrderingInfo deposit) {
+            return deposit.getDepositId();
+        }
+    };
+
+    private static final String URN_UUID_PREFIX = "urn:uuid:";
+}
@@ -16,6 +16,7 @@
 package nl.knaw.dans.ingest.core.service;
 
 import nl.knaw.dans.ingest.core.sequencing.TargetedTask;
+import nl.knaw.dans.ingest.core.sequencing.TargetedTaskSequenceManager;
 
 /**
  * Enqueues a sequence of tasks asynchronously, i.e. it schedules the enqueuing action to be executed by a dedicated background thread. the reason is that the enqueuing can take
@@ -24,5 +25,20 @@ import nl.knaw.dans.ingest.core.sequencing.TargetedTask;
  */
 public interface EnqueuingService {
 
-    <T extends TargetedTask> void executeEnqueue(TargetedTaskSource<T> source);
+    /**
+     * Enqueues the tasks of the source in the default lane.
+     *
+     * @param source the tasks to enqueue
+     */
+    default <T extends TargetedTask> void executeEnqueue(TargetedTaskSource<T> source) {
+        executeEnqueue(source, TargetedTaskSequenceManager.DEFAULT_LANE);
+    }
+
+    /**
+     * Enqueues the tasks of the source in the given lane of the {@link TargetedTaskSequenceManager}.
+     *
+     * @param source the tasks to enqueue
+     * @param lane   the lane to schedule the tasks in
+     */
+    <T extends TargetedTask> void executeEnqueue(TargetedTaskSource<T> source, String lane);
 }
@@ -15,46 +15,168 @@
  */
 package nl.knaw.dans.ingest.core.service;
 
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
 import nl.knaw.dans.ingest.core.TaskEvent;
 import nl.knaw.dans.ingest.core.sequencing.TargetedTask;
 import nl.knaw.dans.ingest.core.sequencing.TargetedTaskSequenceManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * Takes the tasks from the sources on a fixed pool of enqueuing threads. A source only holds a thread while it is scanned and while tasks are taken from it. When it reaches
+ * the high-water mark, it gives up its thread, and is resumed by the completion of one of its pending tasks. A stalled lane therefore does not keep the other sources from
+ * being enqueued. An unbounded source, such as the auto-ingest inbox, does hold its thread while it waits for new deposits. When all threads are busy, a source has to wait
+ * for one; this is logged, and the number of waiting sources is reported as a metric.
+ */
 public class EnqueuingServiceImpl implements EnqueuingService {
     private static final Logger log = LoggerFactory.getLogger(EnqueuingServiceImpl.class);
 
-    private final ExecutorService enqueuingExecutor;
+    private final ThreadPoolExecutor enqueuingExecutor;
     private final TargetedTaskSequenceManager targetedTaskSequenceManager;
+    private final int maxPendingTasksPerSource;
+    private final Meter enqueuedMeter;
+    private final Meter enqueueFailedMeter;
+    private final Timer intakeWaitTimer;
+    private final CompletionStage<?> ready;
+
+    public EnqueuingServiceImpl(TargetedTaskSequenceManager targetedTaskSequenceManager, int numberOfClients, int maxPendingTasksPerSource, MetricRegistry metricRegistry) {
+        this(targetedTaskSequenceManager, numberOfClients, maxPendingTasksPerSource, CompletableFuture.completedFuture(null), metricRegistry);
+    }
 
-    public EnqueuingServiceImpl(TargetedTaskSequenceManager targetedTaskSequenceManager, int numberOfClients) {
+    /**
+     * @param targetedTaskSequenceManager the manager to schedule the tasks on
+     * @param numberOfClients             the number of enqueuing threads: the maximum number of sources that can be taking tasks concurrently. Sources that are waiting for
+     *                                    room below the high-water mark do not count.
+     * @param maxPendingTasksPerSource    the high-water mark: the maximum number of tasks per source that may be scheduled but not yet finished. When it is reached, no more tasks are taken
+     *                                    from the source until one of its pending tasks finishes. A value of zero or less means no limit.
+     * @param ready                       completed when the tasks can be run. Until then, the sources are held and no tasks are taken from them.
+     * @param metricRegistry              the registry for the enqueuing metrics
+     */
+    public EnqueuingServiceImpl(TargetedTaskSequenceManager targetedTaskSequenceManager, int numberOfClients, int maxPendingTasksPerSource, CompletionStage<?> ready,
+        MetricRegistry metricRegistry) {
         this.targetedTaskSequenceManager = targetedTaskSequenceManager;
-        enqueuingExecutor = Executors.newFixedThreadPool(numberOfClients);
+        this.ready = ready;
+        this.maxPendingTasksPerSource = maxPendingTasksPerSource;
+        this.enqueuedMeter = metricRegistry.meter(MetricRegistry.name(EnqueuingServiceImpl.class, "enqueued"));
+        this.enqueueFailedMeter = metricRegistry.meter(MetricRegistry.name(EnqueuingServiceImpl.class, "enqueue-failed"));
+        // Time that sources spend at the high-water mark; if this is high, the workers are the bottleneck
+        this.intakeWaitTimer = metricRegistry.timer(MetricRegistry.name(EnqueuingServiceImpl.class, "intake-wait"));
+        enqueuingExecutor = new ThreadPoolExecutor(numberOfClients, numberOfClients, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>());
+        // Sources that are ready to take tasks, but for which no enqueuing thread is free
+        metricRegistry.register(MetricRegistry.name(EnqueuingServiceImpl.class, "waiting-sources"), (Gauge<Integer>) () -> enqueuingExecutor.getQueue().size());
     }
 
     @Override
-    public <T extends TargetedTask> void executeEnqueue(TargetedTaskSource<T> source) {
-        log.trace("executeEnqueue({})", source);
-        enqueuingExecutor.execute(() -> {
-            log.debug("Start enqueuing tasks");
-            for (T t: source) {
-                enqueue(t);
+    public <T extends TargetedTask> void executeEnqueue(TargetedTaskSource<T> source, String lane) {
+        log.trace("executeEnqueue({}, {})", source, lane);
+        ready.thenRun(() -> {
+            if (enqueuingExecutor.getActiveCount() >= enqueuingExecutor.getMaximumPoolSize()) {
+                log.warn("All {} enqueuing threads are busy; enqueuing from {} waits until one is free", enqueuingExecutor.getMaximumPoolSize(), source);
             }
+            enqueuingExecutor.execute(new Intake<>(source, lane));
+        }).exceptionally(e -> {
+            log.error("Enqueuing from {} failed", source, e);
+            return null;
         });
     }
 
-    private <T extends TargetedTask> void enqueue(T t) {
-        log.trace("Enqueuing {}", t);
-        try {
-            targetedTaskSequenceManager.scheduleTask(t);
+    /*
+     * Takes the tasks from one source. At most one run of an intake is scheduled or running at a time; a run ends when the source is exhausted or the high-water mark is
+     * reached. In the latter case the completion of a pending task schedules the next run.
+     */
+    private class Intake<T extends TargetedTask> implements Runnable {
+        private final TargetedTaskSource<T> source;
+        private final String lane;
+        // The room left below the high-water mark; only used if there is one
+        private final AtomicInteger permits = new AtomicInteger(maxPendingTasksPerSource);
+        private final AtomicBoolean scheduled = new AtomicBoolean(true);
+        private volatile Iterator<T> tasks;
+        private volatile long pausedAt;
+
+        Intake(TargetedTaskSource<T> source, String lane) {
+            this.source = source;
+            this.lane = lane;
+        }
+
+        @Override
+        public void run() {
+            try {
+                if (tasks == null) {
+                    log.debug("Start enqueuing tasks");
+                    tasks = source.iterator();
+                }
+                while (true) {
+                    if (maxPendingTasksPerSource > 0 && permits.get() <= 0) {
+                        // Do not take the next task from the source before there is room for it; give up the thread until there is
+                        pausedAt = System.nanoTime();
+                        scheduled.set(false);
+                        if (permits.get() <= 0 || !scheduled.compareAndSet(false, true)) {
+                            return;
+                        }
+                        // A task finished between the check and giving up the thread
+                        intakeWaitTimer.update(System.nanoTime() - pausedAt, TimeUnit.NANOSECONDS);
+                    }
+                    if (!tasks.hasNext()) {
+                        return;
+                    }
+                    permits.decrementAndGet();
+                    T task;
+                    try {
+                        task = tasks.next();
+                    }
+                    catch (RuntimeException e) {
+                        // The source has recorded the failure for the deposit; the rest of the source is still enqueued
+                        log.error("Could not take task from {}", source, e);
+                        permits.incrementAndGet();
+                        enqueueFailedMeter.mark();
+                        continue;
+                    }
+                    enqueue(task);
+                }
+            }
+            catch (RuntimeException e) {
+                log.error("Enqueuing from {} failed", source, e);
+            }
+        }
+
+        private void enqueue(T t) {
+            log.trace("Enqueuing {}", t);
+            CompletableFuture<Void> completion;
+            try {
+                completion = targetedTaskSequenceManager.scheduleTask(t, lane);
+            }
+            catch (Exception e) {
+                log.error("Enqueuing of {} failed", t, e);
+                permits.incrementAndGet();
+                enqueueFailedMeter.mark();
+                t.writeEvent(TaskEvent.EventType.ENQUEUE, TaskEvent.Result.FAILED, e.getMessage());
+                return;
+            }
+            if (maxPendingTasksPerSource > 0) {
+                completion.whenComplete((r, e) -> release());
+            }
+            enqueuedMeter.mark();
             t.writeEvent(TaskEvent.EventType.ENQUEUE, TaskEvent.Result.OK, null);
         }
-        catch (Exception e) {
-            log.error("Enqueuing of {} failed", t, e);
-            t.writeEvent(TaskEvent.EventType.ENQUEUE, TaskEvent.Result.FAILED, e.getMessage());
+
+        private void release() {
+            permits.incrementAndGet();
+            if (scheduled.compareAndSet(false, true)) {
+                intakeWaitTimer.update(System.nanoTime() - pausedAt, TimeUnit.NANOSECONDS);
+                enqueuingExecutor.execute(this);
+            }
         }
     }
 }
@@ -16,10 +16,21 @@
 package nl.knaw.dans.ingest.core.service;
 
 import nl.knaw.dans.ingest.core.TaskEvent;
+import nl.knaw.dans.ingest.core.TaskPhase;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.util.Collections;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 
 public class EventWriter {
+    private static final Logger log = LoggerFactory.getLogger(EventWriter.class);
+
     private final TaskEventService taskEventService;
     private final String name;
 
@@ -31,4 +42,25 @@ public class EventWriter {
     public void write(UUID depositId, TaskEvent.EventType eventType, TaskEvent.Result result, String message) {
         taskEventService.writeEvent(name, depositId, eventType, result, message);
     }
+
+    /**
+     * Records that no task could be created for a deposit, for example because it is incomplete. If the name of the directory is not a deposit ID, there is nothing to record
+     * it under, so it is only logged.
+     */
+    public void writeTaskCreationFailed(Path depositDir, Exception cause) {
+        UUID depositId;
+        try {
+            depositId = UUID.fromString(depositDir.getFileName().toString());
+        }
+        catch (IllegalArgumentException e) {
+            log.error("Could not create task for {}, which is not a deposit", depositDir, cause);
+            return;
+        }
+        write(depositId, TaskEvent.EventType.ENQUEUE, TaskEvent.Result.FAILED, "Could not create task: " + cause.getMessage());
+    }
+
+    public void writePhase(UUID depositId, String phase, Instant start, long durationNanos, boolean succeeded) {
+        taskEventService.writePhases(Collections.singletonList(
+            new TaskPhase(name, depositId, phase, OffsetDateTime.ofInstant(start, ZoneId.systemDefault()), TimeUnit.NANOSECONDS.toMillis(durationNanos), succeeded)));
+    }
 }
@@ -0,0 +1,48 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.ingest.core.service;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Watches an inbox for deposit directories that are added to it after the watcher was started. Deposits already present at start-up are not reported; the caller is expected to
+ * scan the inbox itself after starting the watcher, which means that a deposit that arrives in between may be reported by both, in any batch.
+ */
+public interface InboxWatcher {
+
+    /**
+     * Starts watching the inbox. When this method returns, every deposit directory that is created from now on is guaranteed to be reported.
+     *
+     * @param onNewDeposits called with the paths of the deposit directories found by one check of the inbox, in batches that are never empty, on a thread owned by the
+     *                      watcher
+     */
+    void start(Consumer<List<Path>> onNewDeposits);
+
+    void stop();
+
+    static InboxWatcher create(InboxWatchMode mode, Path inboxDir, int pollingInterval) {
+        switch (mode) {
+            case WATCH_SERVICE:
+                return new WatchServiceInboxWatcher(inboxDir);
+            case POLLING:
+                return new PollingInboxWatcher(inboxDir, pollingInterval);
+            default:
+                throw new IllegalArgumentException("Unknown inbox watch mode: " + mode);
+        }
+    }
+}
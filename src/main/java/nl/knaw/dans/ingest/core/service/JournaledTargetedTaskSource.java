@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.ingest.core.service;
+
+import nl.knaw.dans.ingest.core.QueuedDeposit;
+import nl.knaw.dans.ingest.core.legacy.DepositIngestTaskFactoryWrapper;
+
+import java.nio.file.Path;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A batch whose deposits are recorded in the {@link DepositJournal} as soon as the inbox has been scanned, so that the batch can be resumed after a restart.
+ * The number of deposits found is reported to the {@link BatchProgressTracker} at the same time.
+ */
+public class JournaledTargetedTaskSource extends TargetedTaskSourceImpl {
+    private final String name;
+    private final DepositJournal journal;
+    private final BatchProgressTracker progressTracker;
+    private final String lane;
+    private final boolean migration;
+
+    public JournaledTargetedTaskSource(String name, Path inDir, Path outDir, TaskEventService taskEventService, DepositInboxScanner inboxScanner,
+        DepositIngestTaskFactoryWrapper taskFactory, DepositJournal journal, BatchProgressTracker progressTracker, String lane, boolean migration) {
+        super(name, inDir, outDir, taskEventService, inboxScanner, taskFactory);
+        this.name = name;
+        this.journal = journal;
+        this.progressTracker = progressTracker;
+        this.lane = lane;
+        this.migration = migration;
+    }
+
+    @Override
+    protected AbstractDepositsImportTaskIterator createIterator(Path inDir, Path outDir, DepositInboxScanner inboxScanner, DepositIngestTaskFactoryWrapper taskFactory,
+        EventWriter eventWriter) {
+        AbstractDepositsImportTaskIterator iterator = super.createIterator(inDir, outDir, inboxScanner, taskFactory, eventWriter);
+        OffsetDateTime now = OffsetDateTime.now();
+        List<QueuedDeposit> deposits = new ArrayList<>();
+        for (Path depositDir : iterator.getPendingDepositDirs()) {
+            deposits.add(new QueuedDeposit(name, depositDir, lane, migration, outDir, now, deposits.size()));
+        }
+        // Before the first task is handed out, so that no END_PROCESSING event can be written before its deposit is in the journal
+        journal.add(deposits);
+        progressTracker.recordScanned(name, deposits.size());
+        return iterator;
+    }
+}
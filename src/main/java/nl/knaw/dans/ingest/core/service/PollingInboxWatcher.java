@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.ingest.core.service;
+
+import org.apache.commons.io.monitor.FileAlterationListenerAdaptor;
+import org.apache.commons.io.monitor.FileAlterationMonitor;
+import org.apache.commons.io.monitor.FileAlterationObserver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+public class PollingInboxWatcher implements InboxWatcher {
+    private static final Logger log = LoggerFactory.getLogger(PollingInboxWatcher.class);
+    private final Path inboxDir;
+    private final int pollingInterval;
+    private FileAlterationMonitor monitor;
+
+    public PollingInboxWatcher(Path inboxDir, int pollingInterval) {
+        this.inboxDir = inboxDir.toAbsolutePath();
+        this.pollingInterval = pollingInterval;
+    }
+
+    @Override
+    public void start(Consumer<List<Path>> onNewDeposits) {
+        log.debug("Polling {} every {} ms", inboxDir, pollingInterval);
+        File inbox = inboxDir.toFile();
+        FileAlterationObserver observer = new FileAlterationObserver(inbox, f -> f.isDirectory() && f.getParentFile().equals(inbox));
+        observer.addListener(new FileAlterationListenerAdaptor() {
+            // Only used by the thread of the monitor
+            private final List<Path> created = new ArrayList<>();
+
+            @Override
+            public void onDirectoryCreate(File file) {
+                log.trace("onDirectoryCreate: {}", file);
+                created.add(file.toPath());
+            }
+
+            @Override
+            public void onStop(FileAlterationObserver observer) {
+                if (!created.isEmpty()) {
+                    List<Path> batch = new ArrayList<>(created);
+                    created.clear();
+                    onNewDeposits.accept(batch);
+                }
+            }
+        });
+        monitor = new FileAlterationMonitor(pollingInterval);
+        monitor.addObserver(observer);
+        try {
+            // Takes the initial snapshot of the inbox before returning
+            monitor.start();
+        }
+        catch (Exception e) {
+            throw new IllegalStateException(String.format("Could not start monitoring %s", inboxDir), e);
+        }
+    }
+
+    @Override
+    public void stop() {
+        try {
+            monitor.stop();
+        }
+        catch (Exception e) {
+            log.warn("Could not stop monitoring {}", inboxDir, e);
+        }
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.ingest.core.service;
+
+import nl.knaw.dans.ingest.core.TaskEvent;
+import nl.knaw.dans.ingest.core.TaskPhase;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Records the progress of each batch in a {@link BatchProgressTracker} before passing the events on.
+ */
+public class ProgressTrackingTaskEventService implements TaskEventService {
+    private final TaskEventService delegate;
+    private final BatchProgressTracker tracker;
+
+    public ProgressTrackingTaskEventService(TaskEventService delegate, BatchProgressTracker tracker) {
+        this.delegate = delegate;
+        this.tracker = tracker;
+    }
+
+    @Override
+    public void writeEvent(String batch, UUID depositId, TaskEvent.EventType eventType, TaskEvent.Result result, String message) {
+        tracker.record(batch, eventType, result);
+        delegate.writeEvent(batch, depositId, eventType, result, message);
+    }
+
+    @Override
+    public void writeEvents(List<TaskEvent> events) {
+        events.forEach(e -> tracker.record(e.getSource(), e.getEvenType(), e.getResult()));
+        delegate.writeEvents(events);
+    }
+
+    @Override
+    public void writePhases(List<TaskPhase> phases) {
+        delegate.writePhases(phases);
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.ingest.core.service;
+
+import nl.knaw.dans.ingest.core.QueuedDeposit;
+import nl.knaw.dans.ingest.core.legacy.DepositImportTaskWrapper;
+import nl.knaw.dans.ingest.core.legacy.DepositIngestTaskFactoryWrapper;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The deposits left in the {@link DepositJournal} by one or more batches that were interrupted by a restart. The tasks are created from the recorded deposit directories, so the
+ * inboxes of the batches are not scanned again. A deposit of which the draft was created is resumed at the publication of that draft. Each task writes its events under the
+ * name of its own batch.
+ */
+public class ResumedTargetedTaskSource implements TargetedTaskSource<DepositImportTaskWrapper> {
+    private final List<QueuedDeposit> deposits;
+    private final DepositIngestTaskFactoryWrapper taskFactory;
+    private final DepositIngestTaskFactoryWrapper migrationTaskFactory;
+    private final Map<String, EventWriter> eventWriters = new HashMap<>();
+
+    public ResumedTargetedTaskSource(List<QueuedDeposit> deposits, TaskEventService taskEventService, DepositIngestTaskFactoryWrapper taskFactory,
+        DepositIngestTaskFactoryWrapper migrationTaskFactory) {
+        this.deposits = deposits;
+        this.taskFactory = taskFactory;
+        this.migrationTaskFactory = migrationTaskFactory;
+        for (QueuedDeposit deposit : deposits) {
+            eventWriters.computeIfAbsent(deposit.getSource(), source -> new EventWriter(taskEventService, source));
+        }
+    }
+
+    /**
+     * @return the tasks; if one cannot be created, for example because the deposit was damaged, the failure is recorded, which removes the deposit from the journal, and
+     *     next() throws
+     */
+    @Override
+    public Iterator<DepositImportTaskWrapper> iterator() {
+        // Tasks are only created when requested, as for a scanned batch
+        return deposits.stream()
+            .map(this::createTask)
+            .iterator();
+    }
+
+    private DepositImportTaskWrapper createTask(QueuedDeposit deposit) {
+        EventWriter eventWriter = eventWriters.get(deposit.getSource());
+        DepositImportTaskWrapper task;
+        try {
+            task = (deposit.isMigration() ? migrationTaskFactory : taskFactory).createIngestTask(deposit.getDepositDir(), deposit.getOutboxDir(), eventWriter);
+        }
+        catch (RuntimeException e) {
+            eventWriter.writeTaskCreationFailed(deposit.getDepositDir(), e);
+            throw e;
+        }
+        if (deposit.getPersistentId() != null) {
+            task.resumeAtPublication(deposit.getPersistentId());
+        }
+        return task;
+    }
+
+    @Override
+    public String toString() {
+        return "ResumedTargetedTaskSource{" +
+            "batches=" + eventWriters.keySet() +
+            ", deposits=" + deposits.size() +
+            '}';
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.ingest.core.service;
+
+import org.apache.commons.lang3.StringUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Determines the target of a deposit, that is, the key under which it is sequenced with the other deposits for the same dataset. Deposits with different targets may be
+ * processed concurrently, so a resolver must give related deposits the same target, and should give unrelated deposits different ones.
+ */
+@FunctionalInterface
+public interface TargetResolver {
+
+    /**
+     * @param deposit the ordering information of the deposit
+     * @return the target, or an empty string if this resolver cannot determine one for the deposit
+     */
+    String resolve(DepositOrderingInfo deposit);
+
+    /**
+     * Combines resolvers into one that returns the first target found. Deposits for which none of the resolvers finds a target all get the empty target, so that they are
+     * processed one at a time.
+     *
+     * @param resolvers the resolvers, in order of preference
+     * @return the combined resolver
+     */
+    static TargetResolver firstOf(List<? extends TargetResolver> resolvers) {
+        List<TargetResolver> copy = new ArrayList<>(resolvers);
+        return deposit -> {
+            for (TargetResolver resolver : copy) {
+                String target = resolver.resolve(deposit);
+                if (StringUtils.isNotBlank(target)) {
+                    return target;
+                }
+            }
+            return "";
+        };
+    }
+}
@@ -21,6 +21,9 @@ import java.util.Iterator;
 
 public interface TargetedTaskSource<T extends TargetedTask> extends Iterable<T> {
 
+    /**
+     * @return the tasks. If the task for an item cannot be created, {@link Iterator#next()} records the failure and throws; the iterator then continues with the next item.
+     */
     @Override
     Iterator<T> iterator();
 
@@ -30,9 +30,11 @@ public class TargetedTaskSourceImpl implements TargetedTaskSource<DepositImportT
     private final Path inDir;
     private final Path outDir;
     private final EventWriter eventWriter;
+    private final DepositInboxScanner inboxScanner;
     private final DepositIngestTaskFactoryWrapper taskFactory;
 
-    public TargetedTaskSourceImpl(String name, Path inDir, Path outDir, TaskEventService taskEventService, DepositIngestTaskFactoryWrapper taskFactory) {
+    public TargetedTaskSourceImpl(String name, Path inDir, Path outDir, TaskEventService taskEventService, DepositInboxScanner inboxScanner,
+        DepositIngestTaskFactoryWrapper taskFactory) {
         this.name = name;
         if (!inDir.isAbsolute())
             throw new IllegalArgumentException("inDir must be an absolute path");
@@ -41,15 +43,17 @@ public class TargetedTaskSourceImpl implements TargetedTaskSource<DepositImportT
             throw new IllegalArgumentException("outDir must be an absolute path");
         this.outDir = outDir;
         this.eventWriter = new EventWriter(taskEventService, name);
+        this.inboxScanner = inboxScanner;
         this.taskFactory = taskFactory;
     }
 
     @Override
     public Iterator<DepositImportTaskWrapper> iterator() {
-        return createIterator(inDir, outDir, taskFactory, eventWriter);
+        return createIterator(inDir, outDir, inboxScanner, taskFactory, eventWriter);
     }
 
-    protected AbstractDepositsImportTaskIterator createIterator(Path inDir, Path outDir, DepositIngestTaskFactoryWrapper taskFactory, EventWriter eventWriter) {
-        return new BoundedDepositImportTaskIterator(inDir, outDir, taskFactory, eventWriter);
+    protected AbstractDepositsImportTaskIterator createIterator(Path inDir, Path outDir, DepositInboxScanner inboxScanner, DepositIngestTaskFactoryWrapper taskFactory,
+        EventWriter eventWriter) {
+        return new BoundedDepositImportTaskIterator(inDir, outDir, inboxScanner, taskFactory, eventWriter);
     }
 }
@@ -16,10 +16,26 @@
 package nl.knaw.dans.ingest.core.service;
 
 import nl.knaw.dans.ingest.core.TaskEvent;
+import nl.knaw.dans.ingest.core.TaskPhase;
 
+import java.util.List;
 import java.util.UUID;
 
 public interface TaskEventService {
 
     void writeEvent(String batch, UUID depositId, TaskEvent.EventType eventType, TaskEvent.Result result, String message);
+
+    /**
+     * Writes the events in one transaction.
+     *
+     * @param events the events to write, in the order in which they occurred
+     */
+    void writeEvents(List<TaskEvent> events);
+
+    /**
+     * Writes the phase timings in one transaction.
+     *
+     * @param phases the phase timings to write
+     */
+    void writePhases(List<TaskPhase> phases);
 }
@@ -17,21 +17,50 @@ package nl.knaw.dans.ingest.core.service;
 
 import io.dropwizard.hibernate.UnitOfWork;
 import nl.knaw.dans.ingest.core.TaskEvent;
+import nl.knaw.dans.ingest.core.TaskPhase;
+import nl.knaw.dans.ingest.db.DepositStateDAO;
+import nl.knaw.dans.ingest.db.QueuedDepositDAO;
 import nl.knaw.dans.ingest.db.TaskEventDAO;
+import nl.knaw.dans.ingest.db.TaskPhaseDAO;
 
 import java.time.OffsetDateTime;
+import java.util.Collections;
+import java.util.List;
 import java.util.UUID;
 
 public class TaskEventServiceImpl implements TaskEventService {
     private final TaskEventDAO taskEventDAO;
+    private final DepositStateDAO depositStateDAO;
+    private final TaskPhaseDAO taskPhaseDAO;
+    private final QueuedDepositDAO queuedDepositDAO;
 
-    public TaskEventServiceImpl(TaskEventDAO taskEventDAO) {
+    public TaskEventServiceImpl(TaskEventDAO taskEventDAO, DepositStateDAO depositStateDAO, TaskPhaseDAO taskPhaseDAO, QueuedDepositDAO queuedDepositDAO) {
         this.taskEventDAO = taskEventDAO;
+        this.depositStateDAO = depositStateDAO;
+        this.taskPhaseDAO = taskPhaseDAO;
+        this.queuedDepositDAO = queuedDepositDAO;
     }
 
     @Override
     @UnitOfWork
     public void writeEvent(String batch, UUID depositId, TaskEvent.EventType eventType, TaskEvent.Result result, String message) {
-        taskEventDAO.save(new TaskEvent(batch, OffsetDateTime.now(), depositId, eventType, result, message));
+        TaskEvent event = new TaskEvent(batch, OffsetDateTime.now(), depositId, eventType, result, message);
+        taskEventDAO.save(event);
+        depositStateDAO.update(Collections.singletonList(event));
+        queuedDepositDAO.update(Collections.singletonList(event));
+    }
+
+    @Override
+    @UnitOfWork
+    public void writeEvents(List<TaskEvent> events) {
+        events.forEach(taskEventDAO::save);
+        depositStateDAO.update(events);
+        queuedDepositDAO.update(events);
+    }
+
+    @Override
+    @UnitOfWork
+    public void writePhases(List<TaskPhase> phases) {
+        phases.forEach(taskPhaseDAO::save);
     }
 }
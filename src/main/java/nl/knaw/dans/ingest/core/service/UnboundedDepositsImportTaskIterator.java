@@ -16,53 +16,63 @@
 package nl.knaw.dans.ingest.core.service;
 
 import nl.knaw.dans.ingest.core.legacy.DepositIngestTaskFactoryWrapper;
-import org.apache.commons.io.monitor.FileAlterationListenerAdaptor;
-import org.apache.commons.io.monitor.FileAlterationMonitor;
-import org.apache.commons.io.monitor.FileAlterationObserver;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 public class UnboundedDepositsImportTaskIterator extends AbstractDepositsImportTaskIterator {
     private static final Logger log = LoggerFactory.getLogger(UnboundedDepositsImportTaskIterator.class);
-    private boolean initialized = false;
-    private boolean depositsReadInInitialization = false;
-    private boolean keepRunning = true;
+    private final InboxWatcher inboxWatcher;
+    // The identity of each deposit directory found by the initial scan, until the watcher reports that path
+    private final Map<Path, Object> depositsReadInInitialization = new HashMap<>();
+    private volatile boolean keepRunning = true;
 
-    private class EventHandler extends FileAlterationListenerAdaptor {
-        @Override
-        public void onStart(FileAlterationObserver observer) {
-            log.trace("onStart called");
-            if (!initialized) {
-                initialized = true;
-                depositsReadInInitialization = readAllDepositsFromInbox();
+    public UnboundedDepositsImportTaskIterator(Path inboxDir, Path outBox, InboxWatcher inboxWatcher, DepositInboxScanner inboxScanner,
+        DepositIngestTaskFactoryWrapper taskFactory, EventWriter eventWriter) {
+        super(inboxDir, outBox, inboxScanner, taskFactory, eventWriter);
+        this.inboxWatcher = inboxWatcher;
+        synchronized (this) {
+            // Start watching before scanning, so that no deposit can slip in between. New deposits are only reported after the scan has finished, because the watcher's
+            // callback needs the lock held here.
+            inboxWatcher.start(this::onNewDeposits);
+            for (Path depositDir : readAllDepositsFromInbox()) {
+                depositsReadInInitialization.put(depositDir, getIdentity(depositDir));
             }
         }
+    }
 
-        @Override
-        public void onDirectoryCreate(File file) {
-            log.trace("onDirectoryCreate: {}", file);
-            if (depositsReadInInitialization) {
-                depositsReadInInitialization = false;
-                return; // file already added to queue by onStart
+    private synchronized void onNewDeposits(List<Path> depositDirs) {
+        for (Path depositDir : depositDirs) {
+            // A deposit that was scanned may be reported in any batch, but a deposit that is reported under the name of one that was scanned may also have been re-created
+            Object scannedIdentity = depositsReadInInitialization.remove(depositDir);
+            if (scannedIdentity != null && scannedIdentity.equals(getIdentity(depositDir))) {
+                log.debug("Deposit {} was already added by initial scan of inbox", depositDir);
+            }
+            else {
+                addTaskForDeposit(depositDir);
             }
-            addTaskForDeposit(file.toPath());
         }
     }
 
-    public UnboundedDepositsImportTaskIterator(Path inboxDir, Path outBox, int pollingInterval, DepositIngestTaskFactoryWrapper taskFactory, EventWriter eventWriter) {
-        super(inboxDir, outBox, taskFactory, eventWriter);
-        FileAlterationObserver observer = new FileAlterationObserver(inboxDir.toFile(), f -> f.isDirectory() && f.getParentFile().equals(inboxDir.toFile()));
-        observer.addListener(new EventHandler());
-        FileAlterationMonitor monitor = new FileAlterationMonitor(pollingInterval);
-        monitor.addObserver(observer);
+    /*
+     * Identifies the directory itself rather than its path: on POSIX file systems its device and inode. A deposit that was processed has been moved to the outbox and keeps its
+     * inode there, so a deposit that is re-created under the same name gets another one. Where the file system has no file keys, the path is used, and a re-created deposit
+     * can only be told apart if the scanned one has been reported already.
+     */
+    private static Object getIdentity(Path depositDir) {
         try {
-            monitor.start();
+            Object fileKey = Files.readAttributes(depositDir, BasicFileAttributes.class).fileKey();
+            return fileKey != null ? fileKey : depositDir;
         }
-        catch (Exception e) {
-            throw new IllegalStateException(String.format("Could not start monitoring %s", inboxDir), e);
+        catch (IOException e) {
+            return depositDir;
         }
     }
 
@@ -74,5 +84,6 @@ public class UnboundedDepositsImportTaskIterator extends AbstractDepositsImportT
 
     public void stop() {
         keepRunning = false;
+        inboxWatcher.stop();
     }
 }
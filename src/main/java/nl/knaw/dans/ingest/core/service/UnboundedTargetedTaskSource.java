@@ -15,25 +15,48 @@
  */
 package nl.knaw.dans.ingest.core.service;
 
+import nl.knaw.dans.ingest.core.legacy.DepositImportTaskWrapper;
 import nl.knaw.dans.ingest.core.legacy.DepositIngestTaskFactoryWrapper;
 
 import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Iterator;
 
+/**
+ * The deposits in an inbox that is watched until the source is stopped. The iterator is created, and the watcher started, only when the enqueuing service gets to the source,
+ * which may be after the source has been stopped; the iterator is then empty, and the inbox is not watched.
+ */
 public class UnboundedTargetedTaskSource extends TargetedTaskSourceImpl {
+    private final InboxWatcher inboxWatcher;
+    // Guarded by this, so that stop() either sees the iterator or prevents it from being created
     private UnboundedDepositsImportTaskIterator iterator;
+    private boolean stopped;
+
+    public UnboundedTargetedTaskSource(String name, Path inDir, Path outDir, TaskEventService taskEventService, InboxWatcher inboxWatcher,
+        DepositInboxScanner inboxScanner, DepositIngestTaskFactoryWrapper taskFactory) {
+        super(name, inDir, outDir, taskEventService, inboxScanner, taskFactory);
+        this.inboxWatcher = inboxWatcher;
+    }
 
-    public UnboundedTargetedTaskSource(String name, Path inDir, Path outDir, TaskEventService taskEventService,
-        DepositIngestTaskFactoryWrapper taskFactory) {
-        super(name, inDir, outDir, taskEventService, taskFactory);
+    @Override
+    public synchronized Iterator<DepositImportTaskWrapper> iterator() {
+        if (stopped) {
+            return Collections.emptyIterator();
+        }
+        return super.iterator();
     }
 
     @Override
-    protected UnboundedDepositsImportTaskIterator createIterator(Path inDir, Path outDir, DepositIngestTaskFactoryWrapper taskFactory, EventWriter eventWriter) {
-        iterator = new UnboundedDepositsImportTaskIterator(inDir, outDir, 500, taskFactory, eventWriter); // TODO: make pollinginterval configurable
+    protected synchronized UnboundedDepositsImportTaskIterator createIterator(Path inDir, Path outDir, DepositInboxScanner inboxScanner, DepositIngestTaskFactoryWrapper taskFactory,
+        EventWriter eventWriter) {
+        iterator = new UnboundedDepositsImportTaskIterator(inDir, outDir, inboxWatcher, inboxScanner, taskFactory, eventWriter);
         return iterator;
     }
 
-    public void stop() {
-        iterator.stop();
+    public synchronized void stop() {
+        stopped = true;
+        if (iterator != null) {
+            iterator.stop();
+        }
     }
 }
@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.ingest.core.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Watches the inbox using the file system's change notifications, so that new deposits are picked up without delay and an idle inbox costs no CPU, however many deposits it
+ * contains. Notifications are not delivered for changes made by other hosts on a network file system; use {@link PollingInboxWatcher} there.
+ */
+public class WatchServiceInboxWatcher implements InboxWatcher {
+    private static final Logger log = LoggerFactory.getLogger(WatchServiceInboxWatcher.class);
+    private final Path inboxDir;
+    private WatchService watchService;
+
+    public WatchServiceInboxWatcher(Path inboxDir) {
+        this.inboxDir = inboxDir.toAbsolutePath();
+    }
+
+    @Override
+    public void start(Consumer<List<Path>> onNewDeposits) {
+        log.debug("Watching {} for new deposits", inboxDir);
+        try {
+            watchService = inboxDir.getFileSystem().newWatchService();
+            inboxDir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE);
+        }
+        catch (IOException e) {
+            throw new IllegalStateException(String.format("Could not start watching %s", inboxDir), e);
+        }
+        Thread thread = new Thread(() -> processEvents(onNewDeposits), "inbox-watcher-" + inboxDir.getFileName());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void processEvents(Consumer<List<Path>> onNewDeposits) {
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+                List<Path> created = new ArrayList<>();
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        log.warn("Too many changes in {} at once; some new deposits may have been missed. Move them out of the inbox and back in to have them picked up",
+                            inboxDir);
+                        continue;
+                    }
+                    Path path = inboxDir.resolve((Path) event.context());
+                    log.trace("ENTRY_CREATE: {}", path);
+                    if (Files.isDirectory(path)) {
+                        created.add(path);
+                    }
+                }
+                if (!created.isEmpty()) {
+                    onNewDeposits.accept(created);
+                }
+                if (!key.reset()) {
+                    log.error("Inbox {} can no longer be watched; no new deposits will be picked up", inboxDir);
+                    return;
+                }
+            }
+        }
+        catch (ClosedWatchServiceException e) {
+            log.debug("Stopped watching {}", inboxDir);
+        }
+        catch (InterruptedException e) {
+            log.debug("Interrupted while watching {}", inboxDir);
+            Thread.currentThread().interrupt();
+        }
+        catch (RuntimeException e) {
+            log.error("Stopped watching {} because of an error", inboxDir, e);
+        }
+    }
+
+    @Override
+    public void stop() {
+        try {
+            watchService.close();
+        }
+        catch (IOException e) {
+            log.warn("Could not stop watching {}", inboxDir, e);
+        }
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.ingest.db;
+
+import io.dropwizard.hibernate.UnitOfWork;
+import nl.knaw.dans.ingest.core.TaskEvent;
+import nl.knaw.dans.ingest.core.TaskPhase;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Brings the data of an existing database in line with the current entities. The schema itself is updated by hbm2ddl, but that does not migrate data. Must be run at startup,
+ * before anything is written to the database.
+ */
+public class DatabaseUpgrade {
+    private static final Logger log = LoggerFactory.getLogger(DatabaseUpgrade.class);
+
+    // The latest event per deposit: no event of the deposit has a later timestamp, or the same timestamp and a higher id. Events without a source have no state.
+    private static final String BACKFILL_DEPOSIT_STATES = "insert into deposit_state (source, deposit_id, timestamp, event_type, result)"
+        + " select e.source, e.deposit_id, e.timestamp, e.event_type, e.result from task_event e"
+        + " where e.source is not null and not exists (select 1 from task_event l where l.source = e.source and l.deposit_id = e.deposit_id"
+        + " and (l.timestamp > e.timestamp or (l.timestamp = e.timestamp and l.id > e.id)))";
+
+    private final SessionFactory sessionFactory;
+
+    public DatabaseUpgrade(SessionFactory sessionFactory) {
+        this.sessionFactory = sessionFactory;
+    }
+
+    @UnitOfWork
+    public void upgrade() {
+        Session session = sessionFactory.getCurrentSession();
+        restartSequence(session, "TaskEvent", "task_event_seq", TaskEvent.ID_ALLOCATION_SIZE);
+        restartSequence(session, "TaskPhase", "task_phase_seq", TaskPhase.ID_ALLOCATION_SIZE);
+        backfillDepositStates(session);
+    }
+
+    /*
+     * The state of the deposits used to be derived from the events when it was needed. The table in which it is now kept is created empty by hbm2ddl, so it is filled from the
+     * events once. After that, the events and the states are written in the same unit of work.
+     */
+    private void backfillDepositStates(Session session) {
+        if (session.createQuery("select count(s) from DepositState s", Long.class).uniqueResult() > 0) {
+            return;
+        }
+        int states = session.createNativeQuery(BACKFILL_DEPOSIT_STATES).executeUpdate();
+        if (states > 0) {
+            log.info("Derived the state of {} deposits from their events", states);
+        }
+    }
+
+    /*
+     * The ids of events and phases used to be generated by identity columns, but the sequences that hbm2ddl creates for them start at 1. The sequence is therefore restarted
+     * above the highest id. Hibernate takes the block of ids below the first value of the sequence, so the first block starts right after that id.
+     */
+    private void restartSequence(Session session, String entity, String sequence, int allocationSize) {
+        Long maxId = session.createQuery("select max(e.id) from " + entity + " e", Long.class).uniqueResult();
+        if (maxId != null) {
+            log.debug("Restarting {} above id {}", sequence, maxId);
+            session.createNativeQuery("alter sequence " + sequence + " restart with " + (maxId + allocationSize)).executeUpdate();
+        }
+    }
+}
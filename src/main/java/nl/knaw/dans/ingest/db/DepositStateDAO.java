@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.ingest.db;
+
+import io.dropwizard.hibernate.AbstractDAO;
+import nl.knaw.dans.ingest.api.StateStats;
+import nl.knaw.dans.ingest.core.DepositState;
+import nl.knaw.dans.ingest.core.TaskEvent;
+import org.hibernate.SessionFactory;
+import org.hibernate.query.Query;
+
+import java.sql.DatabaseMetaData;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+public class DepositStateDAO extends AbstractDAO<DepositState> {
+    // Only replaces the state if the event is not older than it, as DepositState.update does
+    private static final String UPSERT_POSTGRESQL = "insert into deposit_state (source, deposit_id, timestamp, event_type, result)"
+        + " values (:source, :depositId, :timestamp, :eventType, :result)"
+        + " on conflict (source, deposit_id) do update set timestamp = excluded.timestamp, event_type = excluded.event_type, result = excluded.result"
+        + " where deposit_state.timestamp <= excluded.timestamp";
+    // The standard SQL variant, for HSQLDB and PostgreSQL versions before 9.5
+    private static final String UPSERT_MERGE = "merge into deposit_state s"
+        + " using (values (cast(:source as varchar(255)), cast(:depositId as varchar(36)), cast(:timestamp as timestamp), cast(:eventType as varchar(20)),"
+        + " cast(:result as varchar(20)))) as v (source, deposit_id, ts, event_type, result)"
+        + " on s.source = v.source and s.deposit_id = v.deposit_id"
+        + " when matched and s.timestamp <= v.ts then update set timestamp = v.ts, event_type = v.event_type, result = v.result"
+        + " when not matched then insert (source, deposit_id, timestamp, event_type, result) values (v.source, v.deposit_id, v.ts, v.event_type, v.result)";
+
+    // Chosen on first use, from the database that is connected to
+    private volatile String upsert;
+
+    public DepositStateDAO(SessionFactory sessionFactory) {
+        super(sessionFactory);
+    }
+
+    /**
+     * Updates the state of the deposits of the events, creating it for deposits that have no state yet. Must be called in the same unit of work as the one that saves the events.
+     * Each state is written with a single upsert, so that concurrent units of work that create the state of the same deposit do not fail on its primary key.
+     *
+     * @param events the events, in the order in which they occurred
+     */
+    public void update(List<TaskEvent> events) {
+        // Only the last event per deposit matters, so each state is looked up once per batch
+        Map<DepositState.Key, TaskEvent> latest = new LinkedHashMap<>();
+        for (TaskEvent event : events) {
+            latest.put(new DepositState.Key(event.getSource(), event.getDepositId().toString()), event);
+        }
+        String upsert = getUpsert();
+        latest.values().forEach(event -> currentSession().createNativeQuery(upsert)
+            .setParameter("source", event.getSource())
+            .setParameter("depositId", event.getDepositId().toString())
+            .setParameter("timestamp", event.getTimestamp())
+            .setParameter("eventType", event.getEvenType().name())
+            .setParameter("result", event.getResult().name())
+            .executeUpdate());
+    }
+
+    /*
+     * Decided by the database itself rather than by the configured dialect, which may be an older or a more generic PostgreSQL dialect than the server supports.
+     */
+    private String getUpsert() {
+        if (upsert == null) {
+            upsert = currentSession().doReturningWork(connection -> {
+                DatabaseMetaData metaData = connection.getMetaData();
+                boolean onConflict = "PostgreSQL".equals(metaData.getDatabaseProductName())
+                    && (metaData.getDatabaseMajorVersion() > 9 || (metaData.getDatabaseMajorVersion() == 9 && metaData.getDatabaseMinorVersion() >= 5));
+                return onConflict ? UPSERT_POSTGRESQL : UPSERT_MERGE;
+            });
+        }
+        return upsert;
+    }
+
+    /**
+     * Looks up the deposits of a source that have been processed, whatever the result, in a single query.
+     *
+     * @param sourceName the source
+     * @return the IDs of the processed deposits
+     */
+    public Set<String> findProcessedDepositIds(String sourceName) {
+        return new HashSet<>(currentSession().createQuery("select s.depositId from DepositState s where s.source = :source and s.eventType = :eventType", String.class)
+            .setParameter("source", sourceName)
+            .setParameter("eventType", TaskEvent.EventType.END_PROCESSING.name())
+            .list());
+    }
+
+    /**
+     * Counts the deposits of a source by their latest state.
+     *
+     * @param sourceName the source; null for all sources
+     * @return the counts
+     */
+    public StateStats getStateStats(String sourceName) {
+        Query<Object[]> query = currentSession().createQuery("select s.eventType, s.result, count(s) from DepositState s"
+            + (sourceName == null ? "" : " where s.source = :source")
+            + " group by s.eventType, s.result", Object[].class);
+        if (sourceName != null) {
+            query.setParameter("source", sourceName);
+        }
+        StateStats stats = new StateStats();
+        for (Object[] row : query.list()) {
+            stats.add(TaskEvent.EventType.valueOf((String) row[0]), TaskEvent.Result.valueOf((String) row[1]), ((Number) row[2]).intValue());
+        }
+        return stats;
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.ingest.db;
+
+import io.dropwizard.hibernate.AbstractDAO;
+import nl.knaw.dans.ingest.core.DepositState;
+import nl.knaw.dans.ingest.core.QueuedDeposit;
+import nl.knaw.dans.ingest.core.TaskEvent;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+public class QueuedDepositDAO extends AbstractDAO<QueuedDeposit> {
+    // The number of deposits that are persisted before the session is flushed and cleared; keep it equal to hibernate.jdbc.batch_size, so that each flush is one JDBC batch
+    static final int FLUSH_SIZE = 50;
+    // The maximum number of deposit IDs in the IN list of a single delete
+    static final int DELETE_SIZE = 1000;
+
+    public QueuedDepositDAO(SessionFactory sessionFactory) {
+        super(sessionFactory);
+    }
+
+    /**
+     * Adds the deposits, replacing those that are already present, e.g. because a batch is continued. Those are removed first with bulk deletes, after which all deposits are
+     * inserted without being looked up. The session is flushed and cleared every {@value #FLUSH_SIZE} deposits, so that a large batch does not fill it.
+     *
+     * @param deposits the deposits to add
+     */
+    public void add(List<QueuedDeposit> deposits) {
+        removeAll(deposits.stream().map(QueuedDeposit::getKey).collect(Collectors.toList()));
+        Session session = currentSession();
+        for (int i = 0; i < deposits.size(); i++) {
+            session.persist(deposits.get(i));
+            if ((i + 1) % FLUSH_SIZE == 0) {
+                session.flush();
+                session.clear();
+            }
+        }
+    }
+
+    public void remove(List<QueuedDeposit> deposits) {
+        removeAll(deposits.stream().map(QueuedDeposit::getKey).collect(Collectors.toList()));
+    }
+
+    /**
+     * Removes the deposits that the events report as processed or as failed to enqueue, and records the drafts that the events report as created. Must be called in the same unit of work as the one
+     * that saves the events. The deposits are not loaded: each draft is recorded with a single update, and the deposits are removed with bulk deletes.
+     *
+     * @param events the events
+     */
+    public void update(List<TaskEvent> events) {
+        List<DepositState.Key> processed = new ArrayList<>();
+        for (TaskEvent event : events) {
+            DepositState.Key key = new DepositState.Key(event.getSource(), event.getDepositId().toString());
+            if (event.getEvenType() == TaskEvent.EventType.END_PROCESSING
+                || (event.getEvenType() == TaskEvent.EventType.ENQUEUE && event.getResult() != TaskEvent.Result.OK)) {
+                // A deposit that could not be enqueued is not resumed; it is picked up again when its batch is continued
+                processed.add(key);
+            }
+            else if (event.getEvenType() == TaskEvent.EventType.DRAFT_CREATED) {
+                currentSession().createQuery("update QueuedDeposit q set q.persistentId = :persistentId where q.source = :source and q.depositId = :depositId")
+                    .setParameter("persistentId", event.getMessage())
+                    .setParameter("source", key.getSource())
+                    .setParameter("depositId", key.getDepositId())
+                    .executeUpdate();
+            }
+        }
+        removeAll(processed);
+    }
+
+    private void removeAll(Collection<DepositState.Key> keys) {
+        Map<String, List<String>> depositIdsBySource = new LinkedHashMap<>();
+        for (DepositState.Key key : keys) {
+            depositIdsBySource.computeIfAbsent(key.getSource(), s -> new ArrayList<>()).add(key.getDepositId());
+        }
+        depositIdsBySource.forEach((source, depositIds) -> {
+            for (int i = 0; i < depositIds.size(); i += DELETE_SIZE) {
+                currentSession().createQuery("delete from QueuedDeposit q where q.source = :source and q.depositId in (:depositIds)")
+                    .setParameter("source", source)
+                    .setParameterList("depositIds", depositIds.subList(i, Math.min(i + DELETE_SIZE, depositIds.size())))
+                    .executeUpdate();
+            }
+        });
+    }
+
+    /**
+     * Lists the IDs of the deposits of a batch, in a single query.
+     *
+     * @param source the batch
+     * @return the IDs
+     */
+    public List<String> findDepositIdsBySource(String source) {
+        return currentSession().createQuery("select q.depositId from QueuedDeposit q where q.source = :source", String.class)
+            .setParameter("source", source)
+            .list();
+    }
+
+    /**
+     * Lists the deposits of a lane, batch after batch, in the order in which they were scanned.
+     *
+     * @param lane the lane
+     * @return the deposits
+     */
+    public List<QueuedDeposit> findByLane(String lane) {
+        return currentSession().createQuery("from QueuedDeposit q where q.lane = :lane order by q.timestamp, q.source, q.position", QueuedDeposit.class)
+            .setParameter("lane", lane)
+            .list();
+    }
+}
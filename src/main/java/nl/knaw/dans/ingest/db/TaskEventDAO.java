@@ -17,72 +17,89 @@ package nl.knaw.dans.ingest.db;
 
 import io.dropwizard.hibernate.AbstractDAO;
 import nl.knaw.dans.ingest.core.TaskEvent;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
 import org.hibernate.SessionFactory;
+import org.hibernate.StatelessSession;
+import org.hibernate.Transaction;
+import org.hibernate.query.Query;
 
-import javax.persistence.criteria.CriteriaBuilder;
-import javax.persistence.criteria.CriteriaQuery;
-import javax.persistence.criteria.Predicate;
-import javax.persistence.criteria.Root;
-import java.util.LinkedList;
-import java.util.List;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
 
 public class TaskEventDAO extends AbstractDAO<TaskEvent> {
+    private static final int STREAMING_FETCH_SIZE = 1000;
+
+    private final SessionFactory sessionFactory;
 
     public TaskEventDAO(SessionFactory sessionFactory) {
         super(sessionFactory);
+        this.sessionFactory = sessionFactory;
     }
 
     public TaskEvent save(TaskEvent taskEvent) {
         return persist(taskEvent);
     }
 
-    public List<TaskEvent> getEvents(String sourceName, String depositId) {
-        // TODO: add filter criteria for eventType, result, max-age
-        CriteriaBuilder cb = currentSession().getCriteriaBuilder();
-        CriteriaQuery<TaskEvent> crit = cb.createQuery(TaskEvent.class);
-        Root<TaskEvent> r = crit.from(TaskEvent.class);
-        List<Predicate> predicates = new LinkedList<>();
-        if (sourceName != null) {
-            predicates.add(cb.equal(r.get("source"), sourceName));
+    /**
+     * Passes the matching events, in order of id, to the consumer one at a time, without loading them all in memory. The events are read in a stateless session with a
+     * forward-only cursor, so that neither the session nor the JDBC driver holds on to rows that have been consumed. This method manages its own session and must not be called
+     * in a unit of work.
+     *
+     * @param filter   the criteria for the events
+     * @param afterId  only events with a greater id; null to start at the first event
+     * @param limit    the maximum number of events; null for no maximum
+     * @param consumer the consumer of the events
+     */
+    public void streamEvents(TaskEventFilter filter, Long afterId, Integer limit, Consumer<TaskEvent> consumer) {
+        Map<String, Object> parameters = new HashMap<>();
+        StringBuilder hql = new StringBuilder("from TaskEvent e where 1 = 1");
+        if (filter.getSource() != null) {
+            hql.append(" and e.source = :source");
+            parameters.put("source", filter.getSource());
         }
-        if (depositId != null) {
-            predicates.add(cb.equal(r.get("depositId"), depositId));
+        if (filter.getDepositId() != null) {
+            hql.append(" and e.depositId = :depositId");
+            parameters.put("depositId", filter.getDepositId());
         }
-        crit.select(r).where(cb.and(predicates.toArray(new Predicate[0])));
-        return currentSession().createQuery(crit).list();
-    }
-
-
-/*
-convert to HQL to get "StateStats"
-
-select event_type, count(*)
-from task_event as t1
-where t1.timestamp = (select max(timestamp)
-                      from task_event as t2
-                      where t2.deposit_id = t1.deposit_id and t2.source = 'test/batch'
-                      group by t2.deposit_id)
-group by event_type;
- */
-
-
-
-    // TODO: figure this out
-    //    public StateStats getStateStats(String sourceName) {
-    //        CriteriaBuilder cb = currentSession().getCriteriaBuilder();
-    //        CriteriaQuery<TaskEvent> crit = cb.createQuery(TaskEvent.class);
-    //        Root<TaskEvent> r = crit.from(TaskEvent.class);
-    //        List<Predicate> predicates = new LinkedList<>();
-    //        if (sourceName != null) {
-    //            predicates.add(cb.equal(r.get("source"), sourceName));
-    //        }
-    //        crit.select(r)
-    //            .where(cb.and(predicates.toArray(new Predicate[0])))
-    //            .groupBy(r.get("depositId"))
-    //            .multiselect(r.get("event_type"), cb.max(r.get("timestamp")));
-    //          currentSession().createQuery(crit).list();
-    //
-    //
-    //    }
+        if (filter.getEventType() != null) {
+            hql.append(" and e.evenType = :eventType");
+            parameters.put("eventType", filter.getEventType().name());
+        }
+        if (filter.getResult() != null) {
+            hql.append(" and e.result = :result");
+            parameters.put("result", filter.getResult().name());
+        }
+        if (filter.getSince() != null) {
+            hql.append(" and e.timestamp >= :since");
+            parameters.put("since", filter.getSince());
+        }
+        if (filter.getUntil() != null) {
+            hql.append(" and e.timestamp < :until");
+            parameters.put("until", filter.getUntil());
+        }
+        if (afterId != null) {
+            hql.append(" and e.id > :afterId");
+            parameters.put("afterId", afterId);
+        }
+        hql.append(" order by e.id");
 
+        try (StatelessSession session = sessionFactory.openStatelessSession()) {
+            // PostgreSQL only uses a cursor, instead of fetching the whole result, inside a transaction
+            Transaction transaction = session.beginTransaction();
+            Query<TaskEvent> query = session.createQuery(hql.toString(), TaskEvent.class);
+            parameters.forEach(query::setParameter);
+            if (limit != null) {
+                query.setMaxResults(limit);
+            }
+            query.setFetchSize(STREAMING_FETCH_SIZE);
+            try (ScrollableResults results = query.scroll(ScrollMode.FORWARD_ONLY)) {
+                while (results.next()) {
+                    consumer.accept((TaskEvent) results.get(0));
+                }
+            }
+            transaction.commit();
+        }
+    }
 }
@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.ingest.db;
+
+import nl.knaw.dans.ingest.core.TaskEvent;
+
+import java.time.OffsetDateTime;
+
+/**
+ * Criteria for selecting task events. A criterion that is null is not applied.
+ */
+public class TaskEventFilter {
+    private final String source;
+    private final String depositId;
+    private final TaskEvent.EventType eventType;
+    private final TaskEvent.Result result;
+    private final OffsetDateTime since;
+    private final OffsetDateTime until;
+
+    /**
+     * @param source    only events from this source
+     * @param depositId only events for this deposit
+     * @param eventType only events of this type
+     * @param result    only events with this result
+     * @param since     only events at or after this time
+     * @param until     only events before this time
+     */
+    public TaskEventFilter(String source, String depositId, TaskEvent.EventType eventType, TaskEvent.Result result, OffsetDateTime since, OffsetDateTime until) {
+        this.source = source;
+        this.depositId = depositId;
+        this.eventType = eventType;
+        this.result = result;
+        this.since = since;
+        this.until = until;
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    public String getDepositId() {
+        return depositId;
+    }
+
+    public TaskEvent.EventType getEventType() {
+        return eventType;
+    }
+
+    public TaskEvent.Result getResult() {
+        return result;
+    }
+
+    public OffsetDateTime getSince() {
+        return since;
+    }
+
+    public OffsetDateTime getUntil() {
+        return until;
+    }
+}
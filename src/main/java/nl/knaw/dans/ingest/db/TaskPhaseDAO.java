@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.ingest.db;
+
+import io.dropwizard.hibernate.AbstractDAO;
+import nl.knaw.dans.ingest.api.PhaseStats;
+import nl.knaw.dans.ingest.core.TaskPhase;
+import org.hibernate.SessionFactory;
+import org.hibernate.query.Query;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+public class TaskPhaseDAO extends AbstractDAO<TaskPhase> {
+
+    public TaskPhaseDAO(SessionFactory sessionFactory) {
+        super(sessionFactory);
+    }
+
+    public TaskPhase save(TaskPhase taskPhase) {
+        return persist(taskPhase);
+    }
+
+    /**
+     * Summarizes the durations per phase.
+     *
+     * @param sourceName the source; null for all sources
+     * @return the summary per phase
+     */
+    public List<PhaseStats> getPhaseStats(String sourceName) {
+        Query<Object[]> query = currentSession().createQuery("select p.phase, count(p), sum(case when p.succeeded = false then 1 else 0 end),"
+            + " avg(p.durationMs), max(p.durationMs), sum(p.durationMs) from TaskPhase p"
+            + (sourceName == null ? "" : " where p.source = :source")
+            + " group by p.phase order by sum(p.durationMs) desc", Object[].class);
+        if (sourceName != null) {
+            query.setParameter("source", sourceName);
+        }
+        return query.list().stream()
+            .map(row -> new PhaseStats((String) row[0], ((Number) row[1]).longValue(), ((Number) row[2]).longValue(), ((Number) row[3]).doubleValue(),
+                ((Number) row[4]).longValue(), ((Number) row[5]).longValue()))
+            .collect(Collectors.toList());
+    }
+}
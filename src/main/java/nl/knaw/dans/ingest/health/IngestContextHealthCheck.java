@@ -0,0 +1,42 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.ingest.health;
+
+import com.codahale.metrics.health.HealthCheck;
+import nl.knaw.dans.ingest.core.legacy.IngestContext;
+
+/**
+ * Reports whether the ingest context is ready, that is, whether deposits are being taken from the inboxes. The service itself, including the REST API, is available before
+ * that.
+ */
+public class IngestContextHealthCheck extends HealthCheck {
+    private final IngestContext ingestContext;
+
+    public IngestContextHealthCheck(IngestContext ingestContext) {
+        this.ingestContext = ingestContext;
+    }
+
+    @Override
+    protected Result check() throws Exception {
+        if (ingestContext.isReady()) {
+            return Result.healthy("Ready to process deposits");
+        }
+        String lastFailure = ingestContext.getLastFailure();
+        return Result.unhealthy(lastFailure == null
+            ? "Waiting for the active metadata blocks from Dataverse"
+            : "Waiting for the active metadata blocks from Dataverse; last attempt failed: " + lastFailure);
+    }
+}
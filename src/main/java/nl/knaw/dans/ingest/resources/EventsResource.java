@@ -15,30 +15,99 @@
  */
 package nl.knaw.dans.ingest.resources;
 
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SequenceWriter;
 import io.dropwizard.hibernate.UnitOfWork;
+import io.dropwizard.jersey.jsr310.OffsetDateTimeParam;
+import nl.knaw.dans.ingest.api.PhaseStats;
+import nl.knaw.dans.ingest.api.StateStats;
+import nl.knaw.dans.ingest.core.CsvWriters;
 import nl.knaw.dans.ingest.core.TaskEvent;
+import nl.knaw.dans.ingest.db.DepositStateDAO;
 import nl.knaw.dans.ingest.db.TaskEventDAO;
+import nl.knaw.dans.ingest.db.TaskEventFilter;
+import nl.knaw.dans.ingest.db.TaskPhaseDAO;
 
+import javax.ws.rs.BadRequestException;
 import javax.ws.rs.GET;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.List;
 
 @Path("/events")
 public class EventsResource {
 
     private final TaskEventDAO taskEventDAO;
+    private final DepositStateDAO depositStateDAO;
+    private final TaskPhaseDAO taskPhaseDAO;
+    private final CsvWriters csvWriters;
 
-    public EventsResource(TaskEventDAO taskEventDAO) {
+    public EventsResource(TaskEventDAO taskEventDAO, DepositStateDAO depositStateDAO, TaskPhaseDAO taskPhaseDAO, CsvWriters csvWriters) {
         this.taskEventDAO = taskEventDAO;
+        this.depositStateDAO = depositStateDAO;
+        this.taskPhaseDAO = taskPhaseDAO;
+        this.csvWriters = csvWriters;
     }
 
+    /**
+     * Streams the events as CSV, in order of id. Large result sets can be paged through by passing the id of the last event received as after-id. The since and until parameters
+     * are ISO-8601 timestamps with offset; since is inclusive, until exclusive.
+     */
     @GET
     @Produces("text/csv")
-    @UnitOfWork
-    public List<TaskEvent> getEvents(@QueryParam("source") String batchName, @QueryParam("depositId") String depositId) {
-        return taskEventDAO.getEvents(batchName, depositId);
+    public StreamingOutput getEvents(@QueryParam("source") String batchName, @QueryParam("depositId") String depositId,
+        @QueryParam("eventType") TaskEvent.EventType eventType, @QueryParam("result") TaskEvent.Result result,
+        @QueryParam("since") OffsetDateTimeParam since, @QueryParam("until") OffsetDateTimeParam until,
+        @QueryParam("after-id") Long afterId, @QueryParam("limit") Integer limit) {
+        if (limit != null && limit < 1) {
+            throw new BadRequestException("limit must be at least 1");
+        }
+        TaskEventFilter filter = new TaskEventFilter(batchName, depositId, eventType, result,
+            since == null ? null : since.get(), until == null ? null : until.get());
+        ObjectWriter writer = csvWriters.forType(TaskEvent.class);
+        return outputStream -> {
+            try (SequenceWriter rows = writer.writeValues(outputStream)) {
+                taskEventDAO.streamEvents(filter, afterId, limit, event -> {
+                    try {
+                        rows.write(event);
+                    }
+                    catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            }
+            catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        };
+    }
+
+    /**
+     * Counts the deposits by their latest state, for one source or, if no source is given, for all sources.
+     */
+    @GET
+    @Path("/stats")
+    @Produces(MediaType.APPLICATION_JSON)
+    @UnitOfWork(readOnly = true)
+    public StateStats getStateStats(@QueryParam("source") String batchName) {
+        return depositStateDAO.getStateStats(batchName);
+    }
+
+    /**
+     * Summarizes the time spent in each phase of the ingest, for one source or, if no source is given, for all sources. The phases are ordered by total time spent, so that the
+     * bottleneck comes first.
+     */
+    @GET
+    @Path("/phases")
+    @Produces(MediaType.APPLICATION_JSON)
+    @UnitOfWork(readOnly = true)
+    public List<PhaseStats> getPhaseStats(@QueryParam("source") String batchName) {
+        return taskPhaseDAO.getPhaseStats(batchName);
     }
 
 }
@@ -0,0 +1,51 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.ingest.resources;
+
+import nl.knaw.dans.ingest.api.BatchProgress;
+import nl.knaw.dans.ingest.core.service.BatchProgressTracker;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.NotFoundException;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.MediaType;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Live progress of the batches processed since the service was started. This is kept in memory; for the full history use the events resource.
+ */
+@Path("/progress")
+@Produces(MediaType.APPLICATION_JSON)
+public class ProgressResource {
+
+    private final BatchProgressTracker tracker;
+
+    public ProgressResource(BatchProgressTracker tracker) {
+        this.tracker = tracker;
+    }
+
+    @GET
+    public List<BatchProgress> getProgress(@QueryParam("batch") String batch) {
+        if (batch == null) {
+            return tracker.getProgress();
+        }
+        return Collections.singletonList(tracker.getProgress(batch)
+            .orElseThrow(() -> new NotFoundException("No progress recorded for batch " + batch)));
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.easy.dd2d
+
+import scala.util.Try
+
+/**
+ * Limits the number of tasks that call an external service concurrently. Each call to [[acquire]] must be followed by a call to [[release]], which reports how the call went,
+ * so that adaptive implementations can adjust the limit to the responsiveness of the service.
+ */
+trait ConcurrencyLimiter {
+  def acquire(): Unit
+
+  /**
+   * @param call          the kind of call that was made; calls of the same kind are expected to take a similar amount of time
+   * @param durationNanos the time the call took, excluding the time waiting in [[acquire]]
+   * @param succeeded     whether the call succeeded
+   */
+  def release(call: String, durationNanos: Long, succeeded: Boolean): Unit
+}
+
+object ConcurrencyLimiter {
+  val NONE: ConcurrencyLimiter = new ConcurrencyLimiter {
+    override def acquire(): Unit = ()
+
+    override def release(call: String, durationNanos: Long, succeeded: Boolean): Unit = ()
+  }
+
+  /**
+   * Makes a call while holding a permit of the limiter, and reports the outcome to it. The body should make one request to the service. Waiting, for example for a lock to be
+   * released, must be done outside of it, so that waiting tasks do not hold permits and the reported duration is that of the request.
+   */
+  def limited[T](limiter: ConcurrencyLimiter, call: String)(body: => Try[T]): Try[T] = {
+    limiter.acquire()
+    val startNanos = System.nanoTime()
+    var succeeded = false
+    try {
+      val result = Try(body).flatten
+      succeeded = result.isSuccess
+      result
+    }
+    finally limiter.release(call, System.nanoTime() - startNanos, succeeded)
+  }
+}
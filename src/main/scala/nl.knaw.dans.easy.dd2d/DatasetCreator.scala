@@ -45,10 +45,10 @@ class DatasetCreator(deposit: Deposit,
       for {
         // autoPublish is false, because it seems there is a bug with it in Dataverse (most of the time?)
         response <- if (isMigration)
-                      instance
+                      limited("import-dataset")(instance
                         .dataverse("root")
-                        .importDataset(dataverseDataset, Some(s"doi:${ deposit.doi }"), autoPublish = false)
-                    else instance.dataverse("root").createDataset(dataverseDataset)
+                        .importDataset(dataverseDataset, Some(s"doi:${ deposit.doi }"), autoPublish = false))
+                    else limited("create-dataset")(instance.dataverse("root").createDataset(dataverseDataset))
         persistentId <- getPersistentId(response)
       } yield persistentId
     } match {
@@ -59,13 +59,13 @@ class DatasetCreator(deposit: Deposit,
           _ <- instance.dataset(persistentId).awaitUnlock()
           pathToFileInfo <- getPathToFileInfo(deposit)
           prestagedFiles <- optMigrationInfoService.map(_.getPrestagedDataFilesFor(s"doi:${ deposit.doi }", 1)).getOrElse(Success(Set.empty[BasicFileMeta]))
-          databaseIdsToFileInfo <- addFiles(persistentId, pathToFileInfo.values.toList, prestagedFiles)
+          databaseIdsToFileInfo <- timed(PhaseListener.UPLOAD)(addFiles(persistentId, pathToFileInfo.values.toList, prestagedFiles))
           _ <- updateFileMetadata(databaseIdsToFileInfo.mapValues(_.metadata))
           _ <- instance.dataset(persistentId).awaitUnlock()
           _ <- configureEnableAccessRequests(deposit, persistentId, canEnable = true)
           _ <- instance.dataset(persistentId).awaitUnlock()
           _ = debug(s"Assigning role $depositorRole to ${ deposit.depositorUserId }")
-          _ <- instance.dataset(persistentId).assignRole(RoleAssignment(s"@${ deposit.depositorUserId }", depositorRole))
+          _ <- limited("assign-role")(instance.dataset(persistentId).assignRole(RoleAssignment(s"@${ deposit.depositorUserId }", depositorRole)))
           _ <- instance.dataset(persistentId).awaitUnlock()
           dateAvailable <- deposit.getDateAvailable
           _ <- if (isEmbargo(dateAvailable)) embargoFiles(persistentId, dateAvailable)
@@ -15,6 +15,7 @@
  */
 package nl.knaw.dans.easy.dd2d
 
+import better.files.File
 import nl.knaw.dans.easy.dd2d.mapping.{ AccessRights, License }
 import nl.knaw.dans.easy.dd2d.migrationinfo.BasicFileMeta
 import nl.knaw.dans.lib.dataverse.model.dataset.Embargo
@@ -26,6 +27,7 @@ import nl.knaw.dans.lib.logging.DebugEnhancedLogging
 
 import java.net.URI
 import java.nio.file.{ Path, Paths }
+import java.time.Instant
 import java.util.Date
 import java.util.regex.Pattern
 import scala.collection.mutable
@@ -38,6 +40,44 @@ abstract class DatasetEditor(instance: DataverseInstance, optFileExclusionPatter
   type PersistentId = String
   type DatasetId = Int
 
+  @volatile private var dataverseLimiter: ConcurrencyLimiter = ConcurrencyLimiter.NONE
+  @volatile private var phaseListener: PhaseListener = PhaseListener.NONE
+
+  def setDataverseLimiter(limiter: ConcurrencyLimiter): Unit = {
+    dataverseLimiter = limiter
+  }
+
+  def setPhaseListener(listener: PhaseListener): Unit = {
+    phaseListener = listener
+  }
+
+  /**
+   * Calls Dataverse while holding a permit of the Dataverse limiter. Each call is limited separately, so that the editor does not hold a permit while it waits for a lock.
+   */
+  protected def limited[T](call: String)(body: => Try[T]): Try[T] = {
+    ConcurrencyLimiter.limited(dataverseLimiter, call)(body)
+  }
+
+  /**
+   * Runs one phase of the edit, such as the upload of the files, and reports its duration to the phase listener. A failing listener does not affect the edit.
+   */
+  protected def timed[T](phase: String)(body: => Try[T]): Try[T] = {
+    val start = Instant.now()
+    val startNanos = System.nanoTime()
+    val result = Try(body).flatten
+    Try(phaseListener.phaseCompleted(phase, start, System.nanoTime() - startNanos, result.isSuccess))
+      .doIfFailure { case e => logger.warn(s"Could not record phase $phase", e) }
+    result
+  }
+
+  /**
+   * The kind of call for an upload of the file. The duration of an upload depends on the size of the file, so uploads of files of different orders of magnitude are reported
+   * to the limiter as different kinds of call; otherwise every large file would look like a slow response.
+   */
+  protected def uploadCall(call: String, file: File): String = {
+    s"$call-1e${ Try(file.size).getOrElse(0L).toString.length - 1 }"
+  }
+
   /**
    * Performs the task.
    *
@@ -61,14 +101,13 @@ abstract class DatasetEditor(instance: DataverseInstance, optFileExclusionPatter
     val result = for {
       r <- getPrestagedFileFor(fileInfo, prestagedFiles).map { prestagedFile =>
         debug(s"Adding prestaged file: $fileInfo")
-        instance.dataset(doi).addPrestagedFile(prestagedFile)
+        limited("add-prestaged-file")(instance.dataset(doi).addPrestagedFile(prestagedFile))
       }.getOrElse {
         debug(s"Uploading file: $fileInfo")
         val optWrappedZip = zipFileHandler
           .wrapIfZipFile(fileInfo.file)
-        val r = instance.dataset(doi).addFile(Option(
-          optWrappedZip
-            .getOrElse(fileInfo.file)), Option(fileInfo.metadata))
+        val fileToUpload = optWrappedZip.getOrElse(fileInfo.file)
+        val r = limited(uploadCall("add-file", fileToUpload))(instance.dataset(doi).addFile(Option(fileToUpload), Option(fileInfo.metadata)))
         optWrappedZip.foreach(_.delete(swallowIOExceptions = true))
         r
       }
@@ -113,7 +152,7 @@ abstract class DatasetEditor(instance: DataverseInstance, optFileExclusionPatter
   protected def updateFileMetadata(databaseIdToFileInfo: Map[Int, FileMeta]): Try[Unit] = {
     trace(databaseIdToFileInfo)
     databaseIdToFileInfo.map { case (id, fileMeta) => {
-      val r = instance.file(id).updateMetadata(fileMeta)
+      val r = limited("update-file-metadata")(instance.file(id).updateMetadata(fileMeta))
       debug(s"id = $id, result = $r")
       r
     }
@@ -125,9 +164,9 @@ abstract class DatasetEditor(instance: DataverseInstance, optFileExclusionPatter
       ddm <- deposit.tryDdm
       files <- deposit.tryFilesXml
       enable = AccessRights.isEnableRequests((ddm \ "profile" \ "accessRights").head, files)
-      _ <- if (enable && canEnable) instance.accessRequests(persistendId).enable()
+      _ <- if (enable && canEnable) limited("access-requests")(instance.accessRequests(persistendId).enable())
            else Success(())
-      _ <- if (!enable) instance.accessRequests(persistendId).disable()
+      _ <- if (!enable) limited("access-requests")(instance.accessRequests(persistendId).disable())
            else Success(())
     } yield ()
   }
@@ -138,16 +177,16 @@ abstract class DatasetEditor(instance: DataverseInstance, optFileExclusionPatter
       ddm <- deposit.tryDdm
       optLicense = (ddm \ "dcmiMetadata" \ "license").find(License.isLicenseUri)
       _ <- if (optLicense.isEmpty) Failure(RejectedDepositException(deposit, "No license specified"))
-           else dataset.updateMetadataFromJsonLd(
+           else limited("set-license")(dataset.updateMetadataFromJsonLd(
              s"""
                 |{ "http://schema.org/license": "${ License.getLicenseUri(supportedLicenses)(variantToNormalized)(optLicense.get).toASCIIString }" }
-                |""".stripMargin, replace = true)
+                |""".stripMargin, replace = true))
     } yield ()
   }
 
   protected def getFilesToEmbargo(persistendId: PersistentId): Try[List[FileMeta]] = {
     for {
-      r <- instance.dataset(persistendId).listFiles()
+      r <- limited("list-files")(instance.dataset(persistendId).listFiles())
       files <- r.data
       filesToEmbargo = files.filter(f => f.directoryLabel.getOrElse("") != "easy-migration")
     } yield filesToEmbargo
@@ -159,12 +198,12 @@ abstract class DatasetEditor(instance: DataverseInstance, optFileExclusionPatter
 
   protected def embargoFiles(persistendId: PersistentId, dateAvailable: Date, fileIds: List[Int]): Try[Unit] = {
     trace(persistendId, fileIds)
-    instance.dataset(persistendId).setEmbargo(Embargo(dateAvailableFormat.format(dateAvailable), "", fileIds)).map(_ => ())
+    limited("set-embargo")(instance.dataset(persistendId).setEmbargo(Embargo(dateAvailableFormat.format(dateAvailable), "", fileIds))).map(_ => ())
   }
 
   protected def deleteDraftIfExists(persistentId: String): Unit = {
     val result = for {
-      r <- instance.dataset(persistentId).viewLatestVersion()
+      r <- limited("view-latest-version")(instance.dataset(persistentId).viewLatestVersion())
       v <- r.data
       _ <- if (v.latestVersion.versionState.contains("DRAFT"))
              deleteDraft(persistentId)
@@ -177,7 +216,7 @@ abstract class DatasetEditor(instance: DataverseInstance, optFileExclusionPatter
 
   private def deleteDraft(persistentId: PersistentId): Try[Unit] = {
     for {
-      r <- instance.dataset(persistentId).deleteDraft()
+      r <- limited("delete-draft")(instance.dataset(persistentId).deleteDraft())
       _ = logger.info(s"DRAFT deleted")
     } yield ()
   }
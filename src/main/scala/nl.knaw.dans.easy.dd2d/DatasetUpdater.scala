@@ -62,7 +62,7 @@ class DatasetUpdater(deposit: Deposit,
           // TODO: library should provide function waitForIndexing that uses the @Path("{identifier}/timestamps") endpoint on Datasets
           _ <- dataset.awaitUnlock()
           _ <- checkDatasetInPublishedState(dataset)
-          _ <- dataset.updateMetadata(metadataBlocks)
+          _ <- limited("update-metadata")(dataset.updateMetadata(metadataBlocks))
           _ <- dataset.awaitUnlock()
 
           _ <- setLicense(supportedLicenses)(variantToLicense)(deposit, dataset)
@@ -95,7 +95,7 @@ class DatasetUpdater(deposit: Deposit,
             .filterNot { case (path, _) => oldToNewPathMovedFiles.keySet.contains(path) } // remove old paths of moved files
             .filterNot { case (path, _) => oldToNewPathMovedFiles.values.toSet.contains(path) } // remove new paths of moved files
           filesToReplace <- getFilesToReplace(pathToFileInfo, fileReplacementCandidates)
-          fileReplacements <- replaceFiles(dataset, filesToReplace, prestagedFiles)
+          fileReplacements <- timed(PhaseListener.UPLOAD)(replaceFiles(dataset, filesToReplace, prestagedFiles))
           _ = debug(s"fileReplacements = $fileReplacements")
 
           /*
@@ -135,7 +135,7 @@ class DatasetUpdater(deposit: Deposit,
           pathsToAdd = pathToFileInfo.keySet diff occupiedPaths
           filesToAdd = pathsToAdd.map(pathToFileInfo).toList
           _ = debug(s"filesToAdd = $filesToAdd")
-          fileAdditions <- addFiles(doi, filesToAdd, prestagedFiles).map(_.mapValues(_.metadata))
+          fileAdditions <- timed(PhaseListener.UPLOAD)(addFiles(doi, filesToAdd, prestagedFiles)).map(_.mapValues(_.metadata))
 
           // TODO: check that only updating the file metadata works
           _ <- updateFileMetadata(fileReplacements ++ fileMovements ++ fileAdditions)
@@ -168,7 +168,7 @@ class DatasetUpdater(deposit: Deposit,
   private def checkDatasetInPublishedState(datasetApi: DatasetApi): Try[Unit] = {
     implicit val jsonFormats: Formats = DefaultFormats
     for {
-      r <- datasetApi.viewLatestVersion()
+      r <- limited("view-latest-version")(datasetApi.viewLatestVersion())
       v <- r.data
       _ <- if (v.latestVersion.versionState.contains("DRAFT")) {
         logger.error(s"v = ${ Serialization.writePretty(v) }")
@@ -182,7 +182,7 @@ class DatasetUpdater(deposit: Deposit,
     trace(())
     debug(s"dansSwordToken = ${ deposit.vaultMetadata.dataverseSwordToken }")
     for {
-      r <- instance.search().find(s"""dansSwordToken:"${ deposit.vaultMetadata.dataverseSwordToken }"""")
+      r <- limited("search")(instance.search().find(s"""dansSwordToken:"${ deposit.vaultMetadata.dataverseSwordToken }""""))
       searchResult <- r.data
       items = searchResult.items
       _ = if (items.size != 1) throw FailedDepositException(deposit, s"Deposit is update of ${ items.size } datasets; should always be 1!")
@@ -196,7 +196,7 @@ class DatasetUpdater(deposit: Deposit,
     for {
       isVersionOf <- deposit.getIsVersionOf
       _ = debug(s"Is-Version-Of = $isVersionOf")
-      r <- instance.search().find(s"""dansBagId:"$isVersionOf"""")
+      r <- limited("search")(instance.search().find(s"""dansBagId:"$isVersionOf""""))
       searchResult <- r.data
       items = searchResult.items
       _ = if (items.size != 1) throw FailedDepositException(deposit, s"Deposit is update of ${ items.size } datasets; should always be 1!")
@@ -207,7 +207,7 @@ class DatasetUpdater(deposit: Deposit,
 
   private def getFilesInLatestVersion(dataset: DatasetApi): Try[Map[Path, FileMeta]] = {
     for {
-      response <- dataset.listFiles(Version.LATEST_PUBLISHED) // N.B. If LATEST_PUBLISHED is not specified, it almost works, but the directoryLabel is not picked up somehow.
+      response <- limited("list-files")(dataset.listFiles(Version.LATEST_PUBLISHED)) // N.B. If LATEST_PUBLISHED is not specified, it almost works, but the directoryLabel is not picked up somehow.
       files <- response.data
       pathToFileMeta = files.map(f => (getPathFromFileMeta(f), f)).toMap
     } yield pathToFileMeta
@@ -225,7 +225,7 @@ class DatasetUpdater(deposit: Deposit,
 
   private def getNumberOfPublishedVersions(datasetApi: DatasetApi): Try[Int] = {
     for {
-      r <- datasetApi.viewAllVersions()
+      r <- limited("view-all-versions")(datasetApi.viewAllVersions())
       vs <- r.data
     } yield vs.count(v => v.versionState.isDefined && v.versionState.get == "RELEASED")
   }
@@ -280,7 +280,7 @@ class DatasetUpdater(deposit: Deposit,
   private def deleteFiles(dataset: DatasetApi, databaseIds: List[DatabaseId]): Try[Unit] = {
     databaseIds.map(id => {
       debug(s"Deleting file, databaseId = $id")
-      instance.sword().deleteFile(id)
+      limited("delete-file")(instance.sword().deleteFile(id))
       dataset.awaitUnlock()
     }).collectResults.map(_ => ())
   }
@@ -308,10 +308,10 @@ class DatasetUpdater(deposit: Deposit,
     for {
       r <- getPrestagedFileFor(fileInfo, prestagedFiles).map { prestagedFile =>
         debug(s"Replacing with prestaged file: $fileInfo")
-        fileApi.replaceWithPrestagedFile(prestagedFile.copy(forceReplace = true))
+        limited("replace-with-prestaged-file")(fileApi.replaceWithPrestagedFile(prestagedFile.copy(forceReplace = true)))
       }.getOrElse {
         debug(s"Uploading replacement file: $fileInfo")
-        fileApi.replace(Option(fileInfo.file), Option(FileMeta(forceReplace = true)))
+        limited(uploadCall("replace-file", fileInfo.file))(fileApi.replace(Option(fileInfo.file), Option(FileMeta(forceReplace = true))))
       }
       fileList <- r.data
       id = fileList.files.head.dataFile.map(_.id).getOrElse(throw new IllegalStateException("Could not get ID of replacement file after replace action"))
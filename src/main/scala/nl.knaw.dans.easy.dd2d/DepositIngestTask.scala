@@ -31,6 +31,7 @@ import org.json4s.{ DefaultFormats, Formats }
 
 import java.lang.Thread.sleep
 import java.net.URI
+import java.time.Instant
 import java.util.regex.Pattern
 import scala.collection.mutable.ListBuffer
 import scala.language.postfixOps
@@ -66,9 +67,140 @@ case class DepositIngestTask(deposit: Deposit,
 
   private val datasetMetadataMapper = new DepositToDvDatasetMetadataMapper(deduplicate, activeMetadataBlocks, narcisClassification, iso1ToDataverseLanguage, iso2ToDataverseLanguage, repordIdToTerm)
   private val bagDirPath = File(deposit.bagDir.path)
+  @volatile private var phaseListener: PhaseListener = PhaseListener.NONE
+  @volatile private var dataverseLimiter: ConcurrencyLimiter = ConcurrencyLimiter.NONE
+  @volatile private var retryPolicy: RetryPolicy = RetryPolicy.NEVER
+  @volatile private var lookupCache: LookupCache = LookupCache.NONE
+  @volatile private var awaitUnlockStart: Option[(Instant, Long)] = None
+  // The stages that have been completed, so that a retried ingest resumes after them instead of creating or editing the dataset again
+  @volatile private var editStarted = false
+  @volatile private var editedPersistentId: Option[String] = None
+  @volatile private var publicationRequested = false
+  @volatile private var resumedAtPublication = false
+
+  def setPhaseListener(listener: PhaseListener): Unit = {
+    phaseListener = listener
+  }
+
+  def setDataverseLimiter(limiter: ConcurrencyLimiter): Unit = {
+    dataverseLimiter = limiter
+  }
+
+  def setRetryPolicy(policy: RetryPolicy): Unit = {
+    retryPolicy = policy
+  }
+
+  def setLookupCache(cache: LookupCache): Unit = {
+    lookupCache = cache
+  }
+
+  /**
+   * Resumes an ingest of which the draft was created before a restart: the deposit is not ingested again, but the draft is published, unless that already happened.
+   */
+  def resumeAtPublication(persistentId: String): Unit = {
+    editedPersistentId = Some(persistentId)
+    resumedAtPublication = true
+  }
+
+  /**
+   * Calls Dataverse while holding a permit of the Dataverse limiter, and reports the outcome to it. Waiting for a lock to be released is not done through this method, so that
+   * sleeping tasks do not hold permits.
+   */
+  protected def limited[T](call: String)(body: => Try[T]): Try[T] = {
+    ConcurrencyLimiter.limited(dataverseLimiter, call)(body)
+  }
+
+  /**
+   * Runs one phase of the ingest and reports its duration to the phase listener. A failing listener does not affect the ingest.
+   */
+  protected def timed[T](phase: String)(body: => Try[T]): Try[T] = {
+    val start = Instant.now()
+    val startNanos = System.nanoTime()
+    val result = Try(body).flatten
+    phaseCompleted(phase, start, startNanos, result.isSuccess)
+    result
+  }
+
+  private def phaseCompleted(phase: String, start: Instant, startNanos: Long, succeeded: Boolean): Unit = {
+    Try(phaseListener.phaseCompleted(phase, start, System.nanoTime() - startNanos, succeeded))
+      .doIfFailure { case e => logger.warn(s"Could not record phase $phase of $deposit", e) }
+  }
 
   override def run(): Try[Unit] = {
-    doRun()
+    complete(doRun())
+  }
+
+  /**
+   * Runs the ingest up to and including the request to publish the dataset, without waiting for Dataverse to finish publishing. If this succeeds, the caller must wait until
+   * [[isUnlocked]] returns true and then call [[finishIngest]], or call [[abortIngest]] if the dataset does not become unlocked. If this fails, the deposit has been moved to the
+   * outbox already. The outcome is the same as that of [[run]], but no thread is needed while Dataverse is publishing.
+   *
+   * @return the persistent identifier of the dataset that is being published
+   */
+  def startIngest(): Try[String] = {
+    requestPublication()
+      .doIfSuccess(_ => awaitUnlockStart = Some((Instant.now(), System.nanoTime())))
+      .doIfFailure { case e => complete(Failure(e)) }
+  }
+
+  /**
+   * Checks once whether the dataset is unlocked, without waiting. The check is not limited, as it is called from the threads of the poller, which must not block on permits.
+   */
+  def isUnlocked(persistentId: String): Try[Boolean] = {
+    for {
+      response <- instance.dataset(persistentId).getLocks
+      locks <- response.data
+    } yield locks.isEmpty
+  }
+
+  /**
+   * Completes an ingest started with [[startIngest]], once the dataset is unlocked.
+   */
+  def finishIngest(persistentId: String): Try[Unit] = {
+    awaitUnlockCompleted(succeeded = true)
+    complete(timed(PhaseListener.POST_PUBLICATION)(postPublication(persistentId)))
+  }
+
+  /**
+   * Runs the ingest up to and including the edit of the draft version, without publishing it. This is the first stage of a deferred publication: if this succeeds, the caller
+   * must call [[publishDraft]] and [[awaitPublication]] later, and then [[finishIngest]] or [[abortIngest]]. If this fails, the deposit has been moved to the outbox already.
+   *
+   * @return the persistent identifier of the draft
+   */
+  def createDraft(): Try[String] = {
+    editDraft()
+      .doIfFailure { case e => complete(Failure(e)) }
+  }
+
+  /**
+   * Requests Dataverse to publish a draft created with [[createDraft]]. A failure does not complete the ingest, so that the caller can make the request again.
+   */
+  def publishDraft(persistentId: String): Try[Unit] = {
+    requestPublicationOnce(persistentId)
+  }
+
+  /**
+   * Waits on the calling thread until Dataverse has unlocked a dataset published with [[publishDraft]]. A failure does not complete the ingest.
+   */
+  def awaitPublication(persistentId: String): Try[Unit] = {
+    timed(PhaseListener.PUBLISH_AWAIT_UNLOCK)(awaitUnlock(persistentId))
+  }
+
+  /**
+   * Fails an ingest started with [[startIngest]] or [[createDraft]], for example because the dataset did not become unlocked in time.
+   */
+  def abortIngest(cause: Throwable): Try[Unit] = {
+    awaitUnlockCompleted(succeeded = false)
+    complete(Failure(cause))
+  }
+
+  private def awaitUnlockCompleted(succeeded: Boolean): Unit = {
+    awaitUnlockStart.foreach { case (start, startNanos) => phaseCompleted(PhaseListener.PUBLISH_AWAIT_UNLOCK, start, startNanos, succeeded) }
+    awaitUnlockStart = None
+  }
+
+  private def complete(result: Try[Unit]): Try[Unit] = {
+    result
       .doIfSuccess(_ => {
         logger.info(s"SUCCESS: $deposit")
         deposit.setState("ARCHIVED", "The deposit was successfully ingested in the Data Station and will be automatically archived")
@@ -79,6 +211,9 @@ case class DepositIngestTask(deposit: Deposit,
           logger.info(s"REJECTED: $deposit", e)
           deposit.setState("REJECTED", e.msg)
           moveDepositToOutbox(REJECTED)
+        case e if !isEditIncomplete && Try(retryPolicy.shouldRetry(e)).getOrElse(false) =>
+          // Left in the inbox, so that the same task can be run again; it resumes after the last completed stage
+          logger.info(s"RETRY: $deposit", e)
         case e =>
           logger.info(s"FAILED: $deposit", e)
           deposit.setState("FAILED", e.getMessage)
@@ -86,6 +221,13 @@ case class DepositIngestTask(deposit: Deposit,
       }
   }
 
+  /*
+   * A failure during the edit is never retried: the dataset may have been created or partly updated, and running the edit again could create a second dataset.
+   */
+  private def isEditIncomplete: Boolean = {
+    editStarted && editedPersistentId.isEmpty
+  }
+
   private def moveDepositToOutbox(subDir: OutboxSubdir): Unit = {
     try {
       deposit.dir.moveToDirectory(outboxDir / subDir.toString)
@@ -95,20 +237,75 @@ case class DepositIngestTask(deposit: Deposit,
   }
 
   private def doRun(): Try[Unit] = {
+    for {
+      persistentId <- requestPublication()
+      _ <- timed(PhaseListener.PUBLISH_AWAIT_UNLOCK)(awaitUnlock(persistentId))
+      _ <- timed(PhaseListener.POST_PUBLICATION)(postPublication(persistentId))
+    } yield ()
+  }
+
+  private def awaitUnlock(persistentId: String): Try[Unit] = {
+    instance.dataset(persistentId).awaitUnlock(
+      maxNumberOfRetries = publishAwaitUnlockMaxNumberOfRetries,
+      waitTimeInMilliseconds = publishAwaitUnlockMillisecondsBetweenRetries)
+  }
+
+  private def requestPublication(): Try[String] = {
+    for {
+      persistentId <- editDraft()
+      _ <- requestPublicationOnce(persistentId)
+    } yield persistentId
+  }
+
+  private def requestPublicationOnce(persistentId: String): Try[Unit] = {
+    if (publicationRequested) Success(())
+    else for {
+      released <- if (resumedAtPublication) isReleased(persistentId)
+                  else Success(false)
+      _ <- if (released) Success(())
+           else timed(PhaseListener.PUBLISH)(publishDataset(persistentId))
+    } yield { publicationRequested = true }
+  }
+
+  /*
+   * The publication of a resumed draft may have been requested before the restart, and publishing a released dataset again fails. The dataset is locked until the publication
+   * has finished, so that is waited for first.
+   */
+  private def isReleased(persistentId: String): Try[Boolean] = {
+    for {
+      _ <- awaitUnlock(persistentId)
+      response <- limited("view-latest-version")(instance.dataset(persistentId).viewLatestVersion())
+      ds <- response.data
+    } yield ds.latestVersion.versionState.contains("RELEASED")
+  }
+
+  private def editDraft(): Try[String] = {
+    editedPersistentId
+      .map(persistentId => {
+        logger.info(s"Resuming ingest of $deposit at the publication of $persistentId")
+        Success(persistentId)
+      })
+      .getOrElse(edit())
+  }
+
+  private def edit(): Try[String] = {
     trace(())
     logger.info(s"Ingesting $deposit into Dataverse")
     for {
       _ <- checkDepositType()
-      _ <- validateDeposit()
-      dataverseDataset <- getMetadata
+      _ <- timed(PhaseListener.VALIDATION)(validateDeposit())
+      dataverseDataset <- timed(PhaseListener.METADATA_MAPPING)(getMetadata)
       isUpdate <- deposit.isUpdate
       _ = debug(s"isUpdate? = $isUpdate")
       editor = if (isUpdate) newDatasetUpdater(dataverseDataset)
                else newDatasetCreator(dataverseDataset, depositorRole)
-      persistentId <- editor.performEdit()
-      _ <- publishDataset(persistentId)
-      _ <- postPublication(persistentId)
-    } yield ()
+      // The editor limits each of its calls, as it waits for locks in between
+      _ = editor.setDataverseLimiter(dataverseLimiter)
+      _ = editor.setPhaseListener(phaseListener)
+      _ = { editStarted = true }
+      persistentId <- timed(PhaseListener.EDIT)(editor.performEdit())
+      _ = { editedPersistentId = Some(persistentId) }
+    } yield persistentId
   }
 
   protected def checkDepositType(): Try[Unit] = {
@@ -169,8 +366,8 @@ case class DepositIngestTask(deposit: Deposit,
 
   private def getDatasetContacts: Try[List[JsonObject]] = {
     for {
-      response <- instance.admin().getSingleUser(deposit.depositorUserId)
-      user <- response.data
+      // The depositor is often the same for many deposits
+      user <- lookupCache.getOrLoad(s"user:${ deposit.depositorUserId }", () => limited("get-user")(instance.admin().getSingleUser(deposit.depositorUserId)).flatMap(_.data))
       datasetContacts <- createDatasetContacts(user.displayName, user.email, user.affiliation)
     } yield datasetContacts
   }
@@ -191,14 +388,12 @@ case class DepositIngestTask(deposit: Deposit,
     new DatasetCreator(deposit, optFileExclusionPattern, zipFileHandler, depositorRole, isMigration = false, dataverseDataset, variantToLicense, supportedLicenses, instance, Option.empty)
   }
 
+  /**
+   * Requests Dataverse to publish the dataset. Publishing continues in the background while the dataset is locked.
+   */
   protected def publishDataset(persistentId: String): Try[Unit] = {
     trace(persistentId)
-    for {
-      _ <- instance.dataset(persistentId).publish(major)
-      _ <- instance.dataset(persistentId).awaitUnlock(
-        maxNumberOfRetries = publishAwaitUnlockMaxNumberOfRetries,
-        waitTimeInMilliseconds = publishAwaitUnlockMillisecondsBetweenRetries)
-    } yield ()
+    limited("publish")(instance.dataset(persistentId).publish(major)).map(_ => ())
   }
 
   protected def postPublication(persistentId: String): Try[Unit] = {
@@ -215,7 +410,7 @@ case class DepositIngestTask(deposit: Deposit,
 
     def getDatasetState: Try[String] = {
       for {
-        response <- instance.dataset(persistentId).viewLatestVersion()
+        response <- limited("view-latest-version")(instance.dataset(persistentId).viewLatestVersion())
         ds <- response.data
         state = ds.latestVersion.versionState
       } yield state.get
@@ -244,7 +439,7 @@ case class DepositIngestTask(deposit: Deposit,
       _ <- instance.dataset(persistentId).awaitUnlock()
       _ = debug(s"Dataset $persistentId is not locked")
       _ <- deposit.setDoi(persistentId)
-      r <- instance.dataset(persistentId).view()
+      r <- limited("view")(instance.dataset(persistentId).view())
       _ = if (logger.underlying.isDebugEnabled) debug(Serialization.writePretty(r.json))
       d <- r.data
       v = d.metadataBlocks("dansDataVaultMetadata")
@@ -100,10 +100,7 @@ class DepositMigrationTask(deposit: Deposit,
       amd = optAmd.getOrElse(throw new Exception(s"no AMD found for $persistentId"))
       optPublicationDate <- getJsonLdPublicationdate(amd)
       publicationDate = optPublicationDate.getOrElse(throw new IllegalArgumentException(s"no publication date found in AMD for $persistentId"))
-      _ <- instance.dataset(persistentId).releaseMigrated(publicationDate)
-      _ <- instance.dataset(persistentId).awaitUnlock(
-        maxNumberOfRetries = publishAwaitUnlockMaxNumberOfRetries,
-        waitTimeInMilliseconds = publishAwaitUnlockMillisecondsBetweenRetries)
+      _ <- limited("release-migrated")(instance.dataset(persistentId).releaseMigrated(publicationDate))
     } yield ()
   }
 
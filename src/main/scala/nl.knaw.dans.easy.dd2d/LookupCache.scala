@@ -0,0 +1,35 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.easy.dd2d
+
+import scala.util.Try
+
+/**
+ * Caches the results of read-only lookups in Dataverse, for data that rarely changes, such as the account of a depositor. Failed lookups are not cached.
+ */
+trait LookupCache {
+  /**
+   * @param key  identifies the lookup; lookups of different kinds must use different keys
+   * @param load does the lookup if there is no valid cached result
+   */
+  def getOrLoad[T](key: String, load: () => Try[T]): Try[T]
+}
+
+object LookupCache {
+  val NONE: LookupCache = new LookupCache {
+    override def getOrLoad[T](key: String, load: () => Try[T]): Try[T] = load()
+  }
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.easy.dd2d
+
+import java.time.Instant
+
+/**
+ * Receives the timing of each phase of a deposit ingest, as it completes. The publish phase only covers the publish request; the time Dataverse then takes to
+ * finish publishing is reported as publish-await-unlock.
+ * The edit phase includes the upload of the files, which is also reported separately as upload; an update reports an upload for the replaced files and one for the added
+ * files.
+ */
+trait PhaseListener {
+  def phaseCompleted(phase: String, start: Instant, durationNanos: Long, succeeded: Boolean): Unit
+}
+
+object PhaseListener {
+  val VALIDATION = "validation"
+  val METADATA_MAPPING = "metadata-mapping"
+  val EDIT = "edit"
+  val UPLOAD = "upload"
+  val PUBLISH = "publish"
+  val PUBLISH_AWAIT_UNLOCK = "publish-await-unlock"
+  val POST_PUBLICATION = "post-publication"
+
+  val NONE: PhaseListener = (_: String, _: Instant, _: Long, _: Boolean) => ()
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.ingest.api;
+
+import nl.knaw.dans.ingest.core.TaskEvent;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class StateStatsTest {
+
+    @Test
+    public void shouldCountByEventTypeAndFinishedByResult() {
+        StateStats stats = new StateStats();
+        stats.add(TaskEvent.EventType.ENQUEUE, TaskEvent.Result.OK, 5);
+        stats.add(TaskEvent.EventType.ENQUEUE, TaskEvent.Result.FAILED, 1);
+        stats.add(TaskEvent.EventType.START_PROCESSING, TaskEvent.Result.OK, 2);
+        stats.add(TaskEvent.EventType.END_PROCESSING, TaskEvent.Result.OK, 10);
+        stats.add(TaskEvent.EventType.END_PROCESSING, TaskEvent.Result.REJECTED, 3);
+        stats.add(TaskEvent.EventType.END_PROCESSING, TaskEvent.Result.FAILED, 4);
+
+        assertEquals(6, stats.getEnqueue());
+        assertEquals(2, stats.getStartProcessing());
+        assertEquals(17, stats.getFinished());
+        assertEquals(10, stats.getOk());
+        assertEquals(3, stats.getRejected());
+        assertEquals(5, stats.getFailed());
+    }
+
+    @Test
+    public void depositsWaitingForRetryShouldCountAsProcessingNotAsFailed() {
+        StateStats stats = new StateStats();
+        stats.add(TaskEvent.EventType.START_PROCESSING, TaskEvent.Result.OK, 2);
+        stats.add(TaskEvent.EventType.RETRY, TaskEvent.Result.FAILED, 3);
+
+        assertEquals(5, stats.getStartProcessing());
+        assertEquals(0, stats.getFailed());
+    }
+}
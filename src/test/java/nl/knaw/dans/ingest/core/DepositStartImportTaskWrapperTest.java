@@ -16,10 +16,14 @@
 package nl.knaw.dans.ingest.core;
 
 import better.files.File;
+import com.codahale.metrics.MetricRegistry;
 import nl.knaw.dans.easy.dd2d.Deposit;
 import nl.knaw.dans.easy.dd2d.DepositMigrationTask;
 import nl.knaw.dans.easy.dd2d.ZipFileHandler;
 import nl.knaw.dans.ingest.core.legacy.DepositImportTaskWrapper;
+import nl.knaw.dans.ingest.core.legacy.SemaphoreConcurrencyLimiter;
+import nl.knaw.dans.ingest.core.service.DepositOrderingInfo;
+import nl.knaw.dans.ingest.core.service.DepositTargetResolver;
 import org.junit.jupiter.api.Test;
 import scala.Option;
 
@@ -87,6 +91,7 @@ public class DepositStartImportTaskWrapperTest {
     }
 
     private static DepositImportTaskWrapper createTaskWrapper(String depositName) {
+        MetricRegistry metricRegistry = new MetricRegistry();
         return new DepositImportTaskWrapper(new DepositMigrationTask(
             new Deposit(File.apply(testDepositsBasedir.resolve(depositName))),
             Option.empty(),
@@ -106,6 +111,7 @@ public class DepositStartImportTaskWrapperTest {
             null,
             null,
             null
-        ), null);
+        ), DepositOrderingInfo.read(testDepositsBasedir.resolve(depositName)), null, metricRegistry, new SemaphoreConcurrencyLimiter("dataverse", 1, metricRegistry), null, null, null,
+            DepositTargetResolver.DOI);
     }
 }
@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.ingest.core;
+
+import com.codahale.metrics.MetricRegistry;
+import nl.knaw.dans.ingest.core.config.IngestFlowConfig;
+import nl.knaw.dans.ingest.core.legacy.DepositImportTaskWrapper;
+import nl.knaw.dans.ingest.core.legacy.DepositIngestTaskFactoryWrapper;
+import nl.knaw.dans.ingest.core.sequencing.TargetedTask;
+import nl.knaw.dans.ingest.core.service.BatchProgressTracker;
+import nl.knaw.dans.ingest.core.service.DepositInboxScanner;
+import nl.knaw.dans.ingest.core.service.DepositJournal;
+import nl.knaw.dans.ingest.core.service.EnqueuingService;
+import nl.knaw.dans.ingest.core.service.EventWriter;
+import nl.knaw.dans.ingest.core.service.ResumedTargetedTaskSource;
+import nl.knaw.dans.ingest.core.service.TargetedTaskSource;
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ImportAreaTest {
+    private static final String LANE = "import";
+
+    private static class RecordingJournal implements DepositJournal {
+        private final List<QueuedDeposit> queued = new ArrayList<>();
+        private final List<QueuedDeposit> added = new ArrayList<>();
+        private final List<QueuedDeposit> removed = new ArrayList<>();
+        private final Set<String> processed = new HashSet<>();
+
+        @Override
+        public void add(List<QueuedDeposit> deposits) {
+            queued.addAll(deposits);
+            added.addAll(deposits);
+        }
+
+        @Override
+        public void remove(List<QueuedDeposit> deposits) {
+            queued.removeAll(deposits);
+            removed.addAll(deposits);
+        }
+
+        @Override
+        public List<QueuedDeposit> getQueued(String lane) {
+            return queued.stream().filter(d -> d.getLane().equals(lane)).collect(Collectors.toList());
+        }
+
+        @Override
+        public Set<String> getDepositIdsToSkip(String source) {
+            Set<String> depositIds = new HashSet<>(processed);
+            queued.stream().filter(d -> d.getSource().equals(source)).forEach(d -> depositIds.add(d.getDepositId()));
+            return depositIds;
+        }
+    }
+
+    private static class RecordingEnqueuingService implements EnqueuingService {
+        private final List<TargetedTaskSource<?>> sources = new ArrayList<>();
+
+        @Override
+        public <T extends TargetedTask> void executeEnqueue(TargetedTaskSource<T> source, String lane) {
+            sources.add(source);
+        }
+    }
+
+    // Records the deposits that tasks are created for, without creating them
+    private static DepositIngestTaskFactoryWrapper recordingFactory(List<Path> requested) {
+        IngestFlowConfig config = new IngestFlowConfig();
+        config.setZipWrappingTempDir(Paths.get("target/zip-wrapping"));
+        return new DepositIngestTaskFactoryWrapper(false, config, null, null, null, null, null, null, null, null) {
+            @Override
+            public DepositImportTaskWrapper createIngestTask(Path depositDir, Path outboxDir, EventWriter eventWriter) {
+                requested.add(depositDir);
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    @Test
+    public void startShouldResumeJournaledDepositsThatAreStillInTheInbox() throws Exception {
+        Path inbox = Files.createTempDirectory("inbox");
+        Path outbox = Files.createTempDirectory("outbox");
+        try {
+            Path present = createDeposit(inbox.resolve("batch1"), "deposit1");
+            QueuedDeposit resumable = new QueuedDeposit("batch1", present, LANE, false, outbox.resolve("batch1"), OffsetDateTime.now(), 0);
+            QueuedDeposit gone = new QueuedDeposit("batch1", inbox.resolve("batch1").resolve("deposit2"), LANE, false, outbox.resolve("batch1"), OffsetDateTime.now(), 1);
+            RecordingJournal journal = new RecordingJournal();
+            journal.queued.addAll(Arrays.asList(resumable, gone));
+            RecordingEnqueuingService enqueuingService = new RecordingEnqueuingService();
+            List<Path> requested = new ArrayList<>();
+            DepositIngestTaskFactoryWrapper taskFactory = recordingFactory(requested);
+            BatchProgressTracker progressTracker = new BatchProgressTracker(new MetricRegistry());
+            ImportArea importArea = new ImportArea(inbox, outbox, new DepositInboxScanner(1), taskFactory, taskFactory, null, enqueuingService, LANE, journal,
+                progressTracker);
+
+            importArea.start();
+
+            assertEquals(Collections.singletonList(gone), journal.removed);
+            assertEquals(1, enqueuingService.sources.size());
+            assertTrue(enqueuingService.sources.get(0) instanceof ResumedTargetedTaskSource);
+            Iterator<?> tasks = enqueuingService.sources.get(0).iterator();
+            assertThrows(UnsupportedOperationException.class, tasks::next);
+            assertFalse(tasks.hasNext());
+            assertEquals(Collections.singletonList(present), requested);
+            assertEquals(1, progressTracker.getProgress("batch1").get().getScanned());
+        }
+        finally {
+            FileUtils.deleteDirectory(inbox.toFile());
+            FileUtils.deleteDirectory(outbox.toFile());
+        }
+    }
+
+    @Test
+    public void startShouldNotEnqueueAnythingIfTheJournalIsEmpty() throws Exception {
+        RecordingEnqueuingService enqueuingService = new RecordingEnqueuingService();
+        ImportArea importArea = new ImportArea(Paths.get("inbox"), Paths.get("outbox"), new DepositInboxScanner(1), null, null, null, enqueuingService, LANE,
+            new RecordingJournal(), new BatchProgressTracker(new MetricRegistry()));
+
+        importArea.start();
+
+        assertTrue(enqueuingService.sources.isEmpty());
+    }
+
+    @Test
+    public void continuedBatchShouldSkipProcessedAndJournaledDeposits() throws Exception {
+        Path inbox = Files.createTempDirectory("inbox");
+        Path outbox = Files.createTempDirectory("outbox");
+        try {
+            Path batchDir = inbox.resolve("batch1");
+            Path fresh = createDeposit(batchDir, "deposit0");
+            // Still in the journal, for instance because it is waiting for a retry
+            Path journaled = createDeposit(batchDir, "deposit1");
+            createDeposit(batchDir, "deposit2");
+            createDeposit(batchDir, "deposit3");
+            Files.createDirectories(outbox.resolve("batch1/processed/deposit3"));
+            RecordingJournal journal = new RecordingJournal();
+            journal.queued.add(new QueuedDeposit("batch1", journaled, LANE, false, outbox.resolve("batch1"), OffsetDateTime.now(), 0));
+            journal.processed.add("deposit2");
+            RecordingEnqueuingService enqueuingService = new RecordingEnqueuingService();
+            BatchProgressTracker progressTracker = new BatchProgressTracker(new MetricRegistry());
+            ImportArea importArea = new ImportArea(inbox, outbox, new DepositInboxScanner(1), null, null, null, enqueuingService, LANE, journal, progressTracker);
+
+            importArea.startBatch(Paths.get("batch1"), true, false);
+
+            assertEquals(1, enqueuingService.sources.size());
+            // Scans the inbox and journals what is left of it
+            assertTrue(enqueuingService.sources.get(0).iterator().hasNext());
+            assertEquals(Collections.singletonList(fresh), journal.added.stream().map(QueuedDeposit::getDepositDir).collect(Collectors.toList()));
+            assertEquals(1, progressTracker.getProgress("batch1").get().getScanned());
+        }
+        finally {
+            FileUtils.deleteDirectory(inbox.toFile());
+            FileUtils.deleteDirectory(outbox.toFile());
+        }
+    }
+
+    private static Path createDeposit(Path batchDir, String name) throws IOException {
+        Path depositDir = batchDir.resolve(name);
+        Path bagDir = Files.createDirectories(depositDir.resolve("bag"));
+        Files.write(bagDir.resolve("bag-info.txt"), "Created: 2020-02-15T09:01:00.345+01:00\n".getBytes(StandardCharsets.UTF_8));
+        Files.write(depositDir.resolve("deposit.properties"), ("identifier.doi = 10.5072/" + name + "\n").getBytes(StandardCharsets.UTF_8));
+        return depositDir;
+    }
+}
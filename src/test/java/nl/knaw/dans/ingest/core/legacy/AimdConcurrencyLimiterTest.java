@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.ingest.core.legacy;
+
+import com.codahale.metrics.MetricRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class AimdConcurrencyLimiterTest {
+    private static final long MILLIS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private static void call(AimdConcurrencyLimiter limiter, String call, long durationNanos, boolean succeeded) {
+        limiter.acquire();
+        limiter.release(call, durationNanos, succeeded);
+    }
+
+    @Test
+    public void limitShouldGrowWithFastCallsUpToMax() {
+        AimdConcurrencyLimiter limiter = new AimdConcurrencyLimiter("test", 1, 4, 2.0, 0.5, new MetricRegistry());
+        assertEquals(1, limiter.getLimit());
+        for (int i = 0; i < 100; i++) {
+            call(limiter, "view", 10 * MILLIS, true);
+        }
+        assertEquals(4, limiter.getLimit());
+    }
+
+    @Test
+    public void limitShouldDecreaseOnFailureButNotBelowMin() throws Exception {
+        AimdConcurrencyLimiter limiter = new AimdConcurrencyLimiter("test", 1, 8, 2.0, 0.5, new MetricRegistry());
+        for (int i = 0; i < 100; i++) {
+            call(limiter, "view", 10 * MILLIS, true);
+        }
+        assertEquals(8, limiter.getLimit());
+        Thread.sleep(1);
+        call(limiter, "view", 0, false);
+        assertEquals(4, limiter.getLimit());
+        for (int i = 0; i < 5; i++) {
+            Thread.sleep(1);
+            call(limiter, "view", 0, false);
+        }
+        assertEquals(1, limiter.getLimit());
+    }
+
+    @Test
+    public void slowCallsShouldOnlyCountAgainstTheirOwnKind() throws Exception {
+        AimdConcurrencyLimiter limiter = new AimdConcurrencyLimiter("test", 1, 8, 2.0, 0.5, new MetricRegistry());
+        for (int i = 0; i < 100; i++) {
+            call(limiter, "view", 10 * MILLIS, true);
+            call(limiter, "edit", 1000 * MILLIS, true);
+        }
+        assertEquals(8, limiter.getLimit());
+
+        // An edit is slow compared to a view, but not compared to other edits
+        call(limiter, "edit", 1100 * MILLIS, true);
+        assertEquals(8, limiter.getLimit());
+
+        // Make sure the call below could have started after the limiter was created
+        Thread.sleep(100);
+        call(limiter, "view", 50 * MILLIS, true);
+        assertEquals(4, limiter.getLimit());
+    }
+
+    @Test
+    public void callsInFlightDuringADecreaseShouldNotDecreaseTheLimitAgain() throws Exception {
+        AimdConcurrencyLimiter limiter = new AimdConcurrencyLimiter("test", 1, 8, 2.0, 0.5, new MetricRegistry());
+        for (int i = 0; i < 100; i++) {
+            call(limiter, "view", 10 * MILLIS, true);
+        }
+        // Make sure the calls below could have started after the limiter was created
+        Thread.sleep(150);
+        for (int i = 0; i < 3; i++) {
+            limiter.acquire();
+        }
+        // All three started before the first of them reported the failure
+        limiter.release("view", 100 * MILLIS, false);
+        limiter.release("view", 100 * MILLIS, false);
+        limiter.release("view", 100 * MILLIS, false);
+        assertEquals(4, limiter.getLimit());
+    }
+
+    @Test
+    public void acquireShouldBlockAtTheLimit() throws Exception {
+        AimdConcurrencyLimiter limiter = new AimdConcurrencyLimiter("test", 1, 1, 2.0, 0.5, new MetricRegistry());
+        limiter.acquire();
+        CountDownLatch acquired = new CountDownLatch(1);
+        Thread waiter = new Thread(() -> {
+            limiter.acquire();
+            acquired.countDown();
+        });
+        waiter.start();
+        assertFalse(acquired.await(100, TimeUnit.MILLISECONDS));
+        limiter.release("view", MILLIS, true);
+        assertTrue(acquired.await(5, TimeUnit.SECONDS));
+        assertEquals(1, limiter.getInUse());
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.ingest.core.legacy;
+
+import com.codahale.metrics.MetricRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class AwaitUnlockPollerTest {
+
+    @Test
+    public void shouldCompleteImmediatelyIfAlreadyUnlocked() {
+        AwaitUnlockPoller poller = new AwaitUnlockPoller(1, Runnable::run, new MetricRegistry());
+        try {
+            CompletableFuture<Void> unlocked = poller.awaitUnlock(() -> true, 10, 1, TimeUnit.SECONDS);
+            assertTrue(unlocked.isDone());
+            assertEquals(0, poller.getWaiting());
+        }
+        finally {
+            poller.stop();
+        }
+    }
+
+    @Test
+    public void shouldResumeOnTheResumeExecutorOnceUnlocked() throws Exception {
+        ExecutorService workers = Executors.newSingleThreadExecutor(r -> new Thread(r, "worker"));
+        AwaitUnlockPoller poller = new AwaitUnlockPoller(1, workers, new MetricRegistry());
+        AtomicInteger checks = new AtomicInteger();
+        try {
+            CompletableFuture<String> resumedOn = poller.awaitUnlock(() -> checks.incrementAndGet() == 3, 10, 10, TimeUnit.MILLISECONDS)
+                .thenApply(v -> Thread.currentThread().getName());
+            assertEquals(1, poller.getWaiting());
+            assertEquals("worker", resumedOn.get(5, TimeUnit.SECONDS));
+            assertEquals(3, checks.get());
+            assertEquals(0, poller.getWaiting());
+        }
+        finally {
+            poller.stop();
+            workers.shutdownNow();
+        }
+    }
+
+    @Test
+    public void shouldFailAfterMaxPolls() {
+        AwaitUnlockPoller poller = new AwaitUnlockPoller(1, Runnable::run, new MetricRegistry());
+        AtomicInteger checks = new AtomicInteger();
+        try {
+            CompletableFuture<Void> unlocked = poller.awaitUnlock(() -> {
+                checks.incrementAndGet();
+                return false;
+            }, 3, 10, TimeUnit.MILLISECONDS);
+            ExecutionException e = assertThrows(ExecutionException.class, () -> unlocked.get(5, TimeUnit.SECONDS));
+            assertTrue(e.getCause() instanceof IllegalStateException);
+            assertEquals(3, checks.get());
+        }
+        finally {
+            poller.stop();
+        }
+    }
+
+    @Test
+    public void shouldFailIfCheckFails() {
+        AwaitUnlockPoller poller = new AwaitUnlockPoller(1, Runnable::run, new MetricRegistry());
+        AtomicInteger checks = new AtomicInteger();
+        try {
+            CompletableFuture<Void> unlocked = poller.awaitUnlock(() -> {
+                if (checks.incrementAndGet() == 2) {
+                    throw new IllegalArgumentException("Dataverse not available");
+                }
+                return false;
+            }, 10, 10, TimeUnit.MILLISECONDS);
+            ExecutionException e = assertThrows(ExecutionException.class, () -> unlocked.get(5, TimeUnit.SECONDS));
+            assertEquals("Dataverse not available", e.getCause().getMessage());
+            assertEquals(2, checks.get());
+        }
+        finally {
+            poller.stop();
+        }
+    }
+
+    @Test
+    public void stopShouldCompleteWaitsThatHaveNotFinished() {
+        AwaitUnlockPoller poller = new AwaitUnlockPoller(1, Runnable::run, new MetricRegistry());
+        CompletableFuture<Void> unlocked = poller.awaitUnlock(() -> false, 10, 1, TimeUnit.MINUTES);
+        assertEquals(1, poller.getWaiting());
+        poller.stop();
+        ExecutionException e = assertThrows(ExecutionException.class, () -> unlocked.get(5, TimeUnit.SECONDS));
+        assertTrue(e.getCause() instanceof AwaitUnlockPoller.StoppedException);
+        assertEquals(0, poller.getWaiting());
+
+        // Also after the stop
+        CompletableFuture<Void> late = poller.awaitUnlock(() -> false, 10, 1, TimeUnit.MINUTES);
+        e = assertThrows(ExecutionException.class, () -> late.get(5, TimeUnit.SECONDS));
+        assertTrue(e.getCause() instanceof AwaitUnlockPoller.StoppedException);
+    }
+}
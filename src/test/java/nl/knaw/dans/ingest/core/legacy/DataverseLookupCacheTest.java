@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.ingest.core.legacy;
+
+import com.codahale.metrics.MetricRegistry;
+import org.junit.jupiter.api.Test;
+import scala.util.Failure;
+import scala.util.Success;
+import scala.util.Try;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class DataverseLookupCacheTest {
+
+    @Test
+    public void resultShouldBeCachedUntilItExpires() {
+        AtomicLong clock = new AtomicLong();
+        AtomicInteger loads = new AtomicInteger();
+        MetricRegistry metricRegistry = new MetricRegistry();
+        DataverseLookupCache cache = new DataverseLookupCache(10, 10, TimeUnit.SECONDS, clock::get, metricRegistry);
+
+        assertEquals("user001", cache.getOrLoad("user:1", () -> load(loads, "user001")).get());
+        clock.addAndGet(TimeUnit.SECONDS.toNanos(9));
+        assertEquals("user001", cache.getOrLoad("user:1", () -> load(loads, "changed")).get());
+        assertEquals(1, loads.get());
+
+        clock.addAndGet(TimeUnit.SECONDS.toNanos(1));
+        assertEquals("changed", cache.getOrLoad("user:1", () -> load(loads, "changed")).get());
+        assertEquals(2, loads.get());
+        assertEquals(1, metricRegistry.meter(MetricRegistry.name(DataverseLookupCache.class, "hits")).getCount());
+        assertEquals(2, metricRegistry.meter(MetricRegistry.name(DataverseLookupCache.class, "misses")).getCount());
+    }
+
+    @Test
+    public void leastRecentlyUsedResultShouldBeEvictedWhenFull() {
+        AtomicInteger loads = new AtomicInteger();
+        MetricRegistry metricRegistry = new MetricRegistry();
+        DataverseLookupCache cache = new DataverseLookupCache(2, 1, TimeUnit.MINUTES, new AtomicLong()::get, metricRegistry);
+
+        cache.getOrLoad("a", () -> load(loads, "a"));
+        cache.getOrLoad("b", () -> load(loads, "b"));
+        cache.getOrLoad("a", () -> load(loads, "a"));
+        cache.getOrLoad("c", () -> load(loads, "c"));
+        assertEquals(2, cache.size());
+        assertEquals(3, loads.get());
+
+        cache.getOrLoad("a", () -> load(loads, "a"));
+        assertEquals(3, loads.get());
+        cache.getOrLoad("b", () -> load(loads, "b"));
+        assertEquals(4, loads.get());
+        assertEquals(2, metricRegistry.meter(MetricRegistry.name(DataverseLookupCache.class, "evictions")).getCount());
+    }
+
+    @Test
+    public void failuresShouldNotBeCached() {
+        AtomicInteger loads = new AtomicInteger();
+        DataverseLookupCache cache = new DataverseLookupCache(10, 1, TimeUnit.MINUTES, new AtomicLong()::get, new MetricRegistry());
+
+        Try<String> failure = cache.getOrLoad("user:1", () -> {
+            loads.incrementAndGet();
+            return new Failure<>(new IllegalStateException("Dataverse replied 503 Service Unavailable"));
+        });
+        assertTrue(failure.isFailure());
+        assertEquals(0, cache.size());
+        assertEquals("user001", cache.getOrLoad("user:1", () -> load(loads, "user001")).get());
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    public void nothingShouldBeCachedWithMaxSizeZero() {
+        AtomicInteger loads = new AtomicInteger();
+        DataverseLookupCache cache = new DataverseLookupCache(0, 1, TimeUnit.MINUTES, new AtomicLong()::get, new MetricRegistry());
+
+        cache.getOrLoad("user:1", () -> load(loads, "user001"));
+        cache.getOrLoad("user:1", () -> load(loads, "user001"));
+        assertEquals(0, cache.size());
+        assertEquals(2, loads.get());
+    }
+
+    private static Try<String> load(AtomicInteger loads, String value) {
+        loads.incrementAndGet();
+        return new Success<>(value);
+    }
+}
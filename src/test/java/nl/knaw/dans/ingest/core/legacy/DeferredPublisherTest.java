@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.ingest.core.legacy;
+
+import com.codahale.metrics.MetricRegistry;
+import org.junit.jupiter.api.Test;
+import scala.util.Failure;
+import scala.util.Success;
+import scala.util.Try;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class DeferredPublisherTest {
+    private static final Pattern TRANSIENT = Pattern.compile("(?is).*(timed out|\\b503\\b).*");
+
+    @Test
+    public void noMoreDatasetsThanMaxConcurrentPublicationsShouldBePublishedAtTheSameTime() throws Exception {
+        DeferredPublisher publisher = new DeferredPublisher(2, null, Runnable::run, new MetricRegistry());
+        try {
+            AtomicInteger publishing = new AtomicInteger();
+            AtomicInteger maxPublishing = new AtomicInteger();
+            CountDownLatch unlocked = new CountDownLatch(1);
+            List<CompletableFuture<Void>> done = new ArrayList<>();
+            for (int i = 0; i < 6; i++) {
+                done.add(publisher.publish(() -> {
+                    maxPublishing.accumulateAndGet(publishing.incrementAndGet(), Math::max);
+                    return new Success<>(null);
+                }, () -> {
+                    try {
+                        unlocked.await();
+                    }
+                    catch (InterruptedException e) {
+                        return new Failure<>(e);
+                    }
+                    publishing.decrementAndGet();
+                    return new Success<>(null);
+                }));
+            }
+            Thread.sleep(100);
+            assertEquals(2, publishing.get());
+            assertEquals(6, publisher.getPending());
+            unlocked.countDown();
+            CompletableFuture.allOf(done.toArray(new CompletableFuture[0])).get(5, TimeUnit.SECONDS);
+            assertEquals(2, maxPublishing.get());
+            assertEquals(0, publisher.getPending());
+        }
+        finally {
+            publisher.stop();
+        }
+    }
+
+    @Test
+    public void publishRequestShouldBeMadeAgainAfterTransientFailure() throws Exception {
+        RetryScheduler retryScheduler = new RetryScheduler("publish", 3, 10, 10, 0.0, TRANSIENT, Runnable::run, new MetricRegistry());
+        DeferredPublisher publisher = new DeferredPublisher(1, retryScheduler, Runnable::run, new MetricRegistry());
+        try {
+            AtomicInteger requests = new AtomicInteger();
+            AtomicInteger waits = new AtomicInteger();
+            publisher.publish(() -> requests.incrementAndGet() == 1
+                ? new Failure<>(new IllegalStateException("Dataverse replied 503 Service Unavailable"))
+                : new Success<>(null), () -> {
+                waits.incrementAndGet();
+                return new Success<>(null);
+            }).get(5, TimeUnit.SECONDS);
+            assertEquals(2, requests.get());
+            assertEquals(1, waits.get());
+        }
+        finally {
+            publisher.stop();
+            retryScheduler.stop();
+        }
+    }
+
+    @Test
+    public void publicationShouldFailWithoutWaitingAfterPermanentFailure() throws Exception {
+        RetryScheduler retryScheduler = new RetryScheduler("publish", 3, 10, 10, 0.0, TRANSIENT, Runnable::run, new MetricRegistry());
+        MetricRegistry metricRegistry = new MetricRegistry();
+        DeferredPublisher publisher = new DeferredPublisher(1, retryScheduler, Runnable::run, metricRegistry);
+        try {
+            AtomicInteger requests = new AtomicInteger();
+            AtomicInteger waits = new AtomicInteger();
+            CompletableFuture<Void> done = publisher.publish(() -> {
+                requests.incrementAndGet();
+                return new Failure<>(new IllegalArgumentException("no publication date found in AMD"));
+            }, () -> {
+                waits.incrementAndGet();
+                return new Success<>(null);
+            });
+            ExecutionException e = assertThrows(ExecutionException.class, () -> done.get(5, TimeUnit.SECONDS));
+            assertTrue(e.getCause() instanceof IllegalArgumentException);
+            assertEquals(1, requests.get());
+            assertEquals(0, waits.get());
+            assertEquals(1, metricRegistry.meter(MetricRegistry.name(DeferredPublisher.class, "failed")).getCount());
+        }
+        finally {
+            publisher.stop();
+            retryScheduler.stop();
+        }
+    }
+
+    @Test
+    public void publicationShouldBeCompletedOnTheResumeExecutor() throws Exception {
+        ExecutorService workers = Executors.newSingleThreadExecutor(r -> new Thread(r, "worker"));
+        DeferredPublisher publisher = new DeferredPublisher(1, null, workers, new MetricRegistry());
+        try {
+            // Holds the publication until the continuation has been added, so that it cannot run on this thread
+            CountDownLatch continuationAdded = new CountDownLatch(1);
+            CompletableFuture<String> thread = publisher.publish(() -> {
+                try {
+                    continuationAdded.await();
+                }
+                catch (InterruptedException e) {
+                    return new Failure<>(e);
+                }
+                return new Success<>(null);
+            }, () -> new Success<>(null))
+                .thenApply(v -> Thread.currentThread().getName());
+            continuationAdded.countDown();
+            assertEquals("worker", thread.get(5, TimeUnit.SECONDS));
+        }
+        finally {
+            publisher.stop();
+            workers.shutdownNow();
+        }
+    }
+
+    @Test
+    public void stopShouldCompleteRunningAndQueuedPublications() throws Exception {
+        MetricRegistry metricRegistry = new MetricRegistry();
+        DeferredPublisher publisher = new DeferredPublisher(1, null, Runnable::run, metricRegistry);
+        CountDownLatch waiting = new CountDownLatch(1);
+        List<CompletableFuture<Void>> done = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            done.add(publisher.publish(() -> new Success<>(null), () -> {
+                waiting.countDown();
+                try {
+                    Thread.sleep(TimeUnit.MINUTES.toMillis(1));
+                }
+                catch (InterruptedException e) {
+                    return new Failure<>(e);
+                }
+                return new Success<>(null);
+            }));
+        }
+        assertTrue(waiting.await(5, TimeUnit.SECONDS));
+        publisher.stop();
+        for (CompletableFuture<Void> publication : done) {
+            ExecutionException e = assertThrows(ExecutionException.class, () -> publication.get(5, TimeUnit.SECONDS));
+            assertTrue(e.getCause() instanceof DeferredPublisher.StoppedException);
+        }
+        assertEquals(0, publisher.getPending());
+        assertEquals(0, metricRegistry.meter(MetricRegistry.name(DeferredPublisher.class, "failed")).getCount());
+
+        // Also after the stop
+        ExecutionException e = assertThrows(ExecutionException.class, () -> publisher.publish(() -> new Success<>(null), () -> new Success<>(null)).get(5, TimeUnit.SECONDS));
+        assertTrue(e.getCause() instanceof DeferredPublisher.StoppedException);
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.ingest.core.legacy;
+
+import com.codahale.metrics.MetricRegistry;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import scala.collection.immutable.List;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class IngestContextTest {
+    private static final Logger log = LoggerFactory.getLogger(IngestContextTest.class);
+    private static final Path mappingDefsDir = Paths.get("src/main/assembly/dist/cfg");
+
+    @Test
+    public void shouldLoadAllMappingTables() throws Exception {
+        IngestContext context = load(() -> null);
+        try {
+            Mappings mappings = context.getMappingRegistry().getCurrent();
+            assertEquals(1, mappings.getVersion());
+            assertNotNull(mappings.getNarcisClassification());
+            assertTrue(mappings.getIso1ToDataverseLanguage().size() > 0);
+            assertTrue(mappings.getIso2ToDataverseLanguage().size() > 0);
+            assertTrue(mappings.getReportIdToTerm().size() > 0);
+            assertTrue(mappings.getVariantToLicense().size() > 0);
+            assertTrue(mappings.getSupportedLicenses().size() > 0);
+        }
+        finally {
+            stop(context);
+        }
+    }
+
+    @Test
+    public void shouldBecomeReadyOnceDataverseAnswers() throws Exception {
+        AtomicInteger attempts = new AtomicInteger();
+        IngestContext context = load(() -> {
+            if (attempts.incrementAndGet() < 3) {
+                throw new IllegalStateException("Dataverse is not available");
+            }
+            return null;
+        });
+        try {
+            // The first two attempts fail, whatever their timing
+            assertFalse(context.isReady());
+            assertThrows(IllegalStateException.class, context::getActiveMetadataBlocks);
+
+            context.whenReady().get(5, TimeUnit.SECONDS);
+            assertTrue(context.isReady());
+            assertEquals(3, attempts.get());
+            assertNull(context.getLastFailure());
+        }
+        finally {
+            stop(context);
+        }
+    }
+
+    /*
+     * Not part of the regular build. Shows that startup does not wait for Dataverse: it compares the time until the context is loaded with the time until it is ready, with
+     * the mapping files loaded on one thread and in parallel. The request for the active metadata blocks is simulated with a delay. Run with the benchmark profile.
+     */
+    @Test
+    @Tag("benchmark")
+    public void benchmarkStartup() throws Exception {
+        int rounds = 20;
+        long dataverseLatencyMs = 300;
+        Supplier<List<String>> activeMetadataBlocks = () -> {
+            try {
+                Thread.sleep(dataverseLatencyMs);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return null;
+        };
+        for (int loaderThreads : new int[] { 1, MappingRegistry.DEFAULT_LOADER_THREADS }) {
+            long loadedNanos = 0;
+            long readyNanos = 0;
+            for (int i = 0; i < rounds; i++) {
+                long start = System.nanoTime();
+                IngestContext context = IngestContext.load(null, null, null, activeMetadataBlocks, new MappingRegistry(mappingDefsDir, 0, loaderThreads, new MetricRegistry()),
+                    noLookupCache(), 10, 100);
+                loadedNanos += System.nanoTime() - start;
+                context.whenReady().join();
+                readyNanos += System.nanoTime() - start;
+                stop(context);
+            }
+            log.info("loader threads {}: loaded in {} ms, ready in {} ms", loaderThreads, loadedNanos / rounds / 1_000_000, readyNanos / rounds / 1_000_000);
+            assertTrue(loadedNanos / rounds < TimeUnit.MILLISECONDS.toNanos(dataverseLatencyMs), "Loading waited for Dataverse");
+        }
+    }
+
+    private static IngestContext load(Supplier<List<String>> activeMetadataBlocks) {
+        return IngestContext.load(null, null, null, activeMetadataBlocks, new MappingRegistry(mappingDefsDir, 0, new MetricRegistry()), noLookupCache(),
+            10, 100);
+    }
+
+    private static DataverseLookupCache noLookupCache() {
+        return new DataverseLookupCache(0, 0, TimeUnit.SECONDS, new MetricRegistry());
+    }
+
+    private static void stop(IngestContext context) throws Exception {
+        context.stop();
+        context.getMappingRegistry().stop();
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.ingest.core.legacy;
+
+import com.codahale.metrics.MetricRegistry;
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class MappingRegistryTest {
+
+    @Test
+    public void changedFilesShouldBeLoadedIntoANewVersion() throws Exception {
+        Path mappingDefsDir = copyMappingDefs();
+        MappingRegistry registry = new MappingRegistry(mappingDefsDir, 0, new MetricRegistry());
+        try {
+            Mappings first = registry.reload();
+            int licenses = first.getSupportedLicenses().size();
+            assertFalse(registry.reloadIfChanged());
+
+            Files.write(mappingDefsDir.resolve("supported-licenses.txt"), "\nhttp://example.org/license".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+            assertTrue(registry.reloadIfChanged());
+            assertEquals(2, registry.getCurrent().getVersion());
+            assertEquals(licenses + 1, registry.getCurrent().getSupportedLicenses().size());
+            // Tasks created before the reload keep their snapshot
+            assertEquals(licenses, first.getSupportedLicenses().size());
+        }
+        finally {
+            registry.stop();
+            FileUtils.deleteDirectory(mappingDefsDir.toFile());
+        }
+    }
+
+    @Test
+    public void currentVersionShouldStayInUseIfTheChangedFilesCannotBeLoaded() throws Exception {
+        Path mappingDefsDir = copyMappingDefs();
+        MappingRegistry registry = new MappingRegistry(mappingDefsDir, 0, new MetricRegistry());
+        try {
+            Mappings first = registry.reload();
+
+            Files.delete(mappingDefsDir.resolve("narcis_classification.xml"));
+
+            assertFalse(registry.reloadIfChanged());
+            assertSame(first, registry.getCurrent());
+            // Not tried again until the files change again
+            assertFalse(registry.reloadIfChanged());
+        }
+        finally {
+            registry.stop();
+            FileUtils.deleteDirectory(mappingDefsDir.toFile());
+        }
+    }
+
+    private static Path copyMappingDefs() throws IOException {
+        Path mappingDefsDir = Files.createTempDirectory("mappings");
+        for (String file : Mappings.FILES) {
+            Files.copy(Paths.get("src/main/assembly/dist/cfg").resolve(file), mappingDefsDir.resolve(file));
+        }
+        return mappingDefsDir;
+    }
+}
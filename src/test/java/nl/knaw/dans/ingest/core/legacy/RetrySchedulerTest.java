@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.ingest.core.legacy;
+
+import com.codahale.metrics.MetricRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class RetrySchedulerTest {
+    private static final Pattern TRANSIENT = Pattern.compile("(?is).*(timed out|\\b503\\b).*");
+
+    @Test
+    public void delayShouldDoubleUpToTheMaximumMinusJitter() {
+        RetryScheduler scheduler = new RetryScheduler(10, 100, 1000, 0.5, TRANSIENT, Runnable::run, new MetricRegistry());
+        try {
+            long[] maxDelays = { 100, 200, 400, 800, 1000, 1000 };
+            for (int attempt = 1; attempt <= maxDelays.length; attempt++) {
+                for (int i = 0; i < 100; i++) {
+                    long delay = scheduler.getDelayMillis(attempt);
+                    long max = maxDelays[attempt - 1];
+                    assertTrue(delay <= max && delay >= max / 2, "Delay " + delay + " for attempt " + attempt);
+                }
+            }
+            assertEquals(1000, new RetryScheduler(10, 100, 1000, 0.0, TRANSIENT, Runnable::run, new MetricRegistry()).getDelayMillis(100));
+        }
+        finally {
+            scheduler.stop();
+        }
+    }
+
+    @Test
+    public void onlyTransientFailuresShouldBeRetriedAndOnlyUpToMaxAttempts() {
+        RetryScheduler scheduler = new RetryScheduler(3, 100, 1000, 0.5, TRANSIENT, Runnable::run, new MetricRegistry());
+        try {
+            assertTrue(scheduler.shouldRetry(new IllegalStateException("Dataverse replied 503 Service Unavailable"), 1));
+            assertTrue(scheduler.shouldRetry(new IOException("wrapped", new SocketTimeoutException()), 2));
+            assertFalse(scheduler.shouldRetry(new IOException("read timed out"), 3));
+            assertFalse(scheduler.shouldRetry(new IllegalArgumentException("Metadata is invalid"), 1));
+        }
+        finally {
+            scheduler.stop();
+        }
+    }
+
+    @Test
+    public void nextAttemptShouldRunOnTheResumeExecutorAfterTheDelay() throws Exception {
+        ExecutorService workers = Executors.newSingleThreadExecutor(r -> new Thread(r, "worker"));
+        RetryScheduler scheduler = new RetryScheduler(3, 100, 1000, 0.5, TRANSIENT, workers, new MetricRegistry());
+        try {
+            String[] ranOn = new String[1];
+            long start = System.nanoTime();
+            CompletableFuture<Void> finished = scheduler.schedule(() -> {
+                ranOn[0] = Thread.currentThread().getName();
+                return CompletableFuture.completedFuture(null);
+            }, 50);
+            assertEquals(1, scheduler.getWaiting());
+            finished.get(5, TimeUnit.SECONDS);
+            assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+            assertEquals("worker", ranOn[0]);
+            assertEquals(0, scheduler.getWaiting());
+        }
+        finally {
+            scheduler.stop();
+            workers.shutdownNow();
+        }
+    }
+
+    @Test
+    public void waitingAttemptsShouldFailWhenTheSchedulerIsStopped() {
+        RetryScheduler scheduler = new RetryScheduler(3, 100, 1000, 0.5, TRANSIENT, Runnable::run, new MetricRegistry());
+        boolean[] ran = new boolean[1];
+        CompletableFuture<Void> finished = scheduler.schedule(() -> {
+            ran[0] = true;
+            return CompletableFuture.completedFuture(null);
+        }, 60000);
+        scheduler.stop();
+
+        ExecutionException e = assertThrows(ExecutionException.class, () -> finished.get(5, TimeUnit.SECONDS));
+        assertTrue(e.getCause() instanceof RetryScheduler.StoppedException);
+        assertFalse(ran[0]);
+        assertEquals(0, scheduler.getWaiting());
+        assertTrue(scheduler.schedule(() -> CompletableFuture.completedFuture(null), 0).isCompletedExceptionally());
+    }
+}
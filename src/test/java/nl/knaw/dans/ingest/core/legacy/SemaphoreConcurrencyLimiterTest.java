@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.ingest.core.legacy;
+
+import com.codahale.metrics.MetricRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class SemaphoreConcurrencyLimiterTest {
+
+    @Test
+    public void shouldNotAllowMoreThanMaxConcurrentCallers() throws Exception {
+        SemaphoreConcurrencyLimiter limiter = new SemaphoreConcurrencyLimiter("test", 2, new MetricRegistry());
+        AtomicInteger current = new AtomicInteger();
+        AtomicInteger highest = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        for (int i = 0; i < 40; i++) {
+            executor.execute(() -> {
+                limiter.acquire();
+                try {
+                    highest.accumulateAndGet(current.incrementAndGet(), Math::max);
+                    Thread.sleep(5);
+                    current.decrementAndGet();
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                finally {
+                    limiter.release("test", 0, true);
+                }
+            });
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        assertEquals(2, highest.get());
+        assertEquals(0, limiter.getInUse());
+    }
+
+    @Test
+    public void shouldRejectLessThanOnePermit() {
+        assertThrows(IllegalArgumentException.class, () -> new SemaphoreConcurrencyLimiter("test", 0, new MetricRegistry()));
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.ingest.core.sequencing;
+
+import com.codahale.metrics.MetricRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class PriorityLanesTest {
+
+    @Test
+    public void runnablesQueuedConcurrentlyShouldAllRunWithinMaxConcurrent() throws Exception {
+        int clients = 8;
+        int runnablesPerClient = 2000;
+        ExecutorService workers = Executors.newFixedThreadPool(16);
+        ExecutorService clientThreads = Executors.newFixedThreadPool(clients);
+        try {
+            PriorityLanes lanes = new PriorityLanes(workers, 4, new MetricRegistry());
+            lanes.addLane("high", 1);
+            lanes.addLane("low", 0);
+            AtomicInteger running = new AtomicInteger();
+            AtomicInteger maxRunning = new AtomicInteger();
+            CountDownLatch done = new CountDownLatch(clients * runnablesPerClient);
+            Runnable runnable = () -> {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                running.decrementAndGet();
+                done.countDown();
+            };
+            for (int c = 0; c < clients; c++) {
+                String lane = c % 2 == 0 ? "high" : "low";
+                clientThreads.execute(() -> {
+                    for (int i = 0; i < runnablesPerClient; i++) {
+                        lanes.execute(lane, runnable, e -> {
+                        });
+                    }
+                });
+            }
+
+            // A runnable that was queued but never handed over would keep the latch from reaching zero
+            assertTrue(done.await(30, TimeUnit.SECONDS));
+            assertTrue(maxRunning.get() <= 4, "At most 4 at a time, but was " + maxRunning.get());
+            assertEquals(0, lanes.getQueueSize("high") + lanes.getQueueSize("low"));
+        }
+        finally {
+            clientThreads.shutdownNow();
+            workers.shutdownNow();
+        }
+    }
+}
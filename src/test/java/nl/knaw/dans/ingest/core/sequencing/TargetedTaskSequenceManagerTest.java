@@ -0,0 +1,338 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.ingest.core.sequencing;
+
+import com.codahale.metrics.MetricRegistry;
+import nl.knaw.dans.ingest.core.TaskEvent;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TargetedTaskSequenceManagerTest {
+    private static final int NUMBER_OF_CLIENTS = 3;
+    private static final int NUMBER_OF_TARGETS_PER_CLIENT = 50;
+    private static final int NUMBER_OF_TASKS_PER_TARGET = 200;
+
+    private static class RecordingTask implements TargetedTask {
+        private final String target;
+        private final int sequenceNumber;
+        private final Map<String, Queue<Integer>> executed;
+        private final Map<String, AtomicInteger> running;
+        private final Queue<String> errors;
+        private final CountDownLatch done;
+
+        private RecordingTask(String target, int sequenceNumber, Map<String, Queue<Integer>> executed, Map<String, AtomicInteger> running, Queue<String> errors, CountDownLatch done) {
+            this.target = target;
+            this.sequenceNumber = sequenceNumber;
+            this.executed = executed;
+            this.running = running;
+            this.errors = errors;
+            this.done = done;
+        }
+
+        @Override
+        public String getTarget() {
+            return target;
+        }
+
+        @Override
+        public void writeEvent(TaskEvent.EventType eventType, TaskEvent.Result result, String message) {
+        }
+
+        @Override
+        public void run() {
+            if (running.get(target).incrementAndGet() != 1) {
+                errors.add("Concurrent execution of tasks for target " + target);
+            }
+            executed.get(target).add(sequenceNumber);
+            if (sequenceNumber % 10 == 0) {
+                Thread.yield();
+            }
+            running.get(target).decrementAndGet();
+            done.countDown();
+        }
+
+        @Override
+        public String toString() {
+            return target + "#" + sequenceNumber;
+        }
+    }
+
+    @Test
+    public void tasksShouldNeitherBeLostNorReorderedUnderContention() throws Exception {
+        ExecutorService workers = Executors.newFixedThreadPool(8);
+        ExecutorService clients = Executors.newFixedThreadPool(NUMBER_OF_CLIENTS);
+        TargetedTaskSequenceManager manager = new TargetedTaskSequenceManager(workers, new MetricRegistry());
+        Map<String, Queue<Integer>> executed = new ConcurrentHashMap<>();
+        Map<String, AtomicInteger> running = new ConcurrentHashMap<>();
+        Queue<String> errors = new ConcurrentLinkedQueue<>();
+        int totalTasks = NUMBER_OF_CLIENTS * NUMBER_OF_TARGETS_PER_CLIENT * NUMBER_OF_TASKS_PER_TARGET;
+        CountDownLatch done = new CountDownLatch(totalTasks);
+
+        try {
+            for (int c = 0; c < NUMBER_OF_CLIENTS; c++) {
+                List<String> targets = new ArrayList<>();
+                for (int t = 0; t < NUMBER_OF_TARGETS_PER_CLIENT; t++) {
+                    String target = "client" + c + "/target" + t;
+                    executed.put(target, new ConcurrentLinkedQueue<>());
+                    running.put(target, new AtomicInteger());
+                    targets.add(target);
+                }
+                // Each client interleaves its targets, so that sequencers are continually created, drained and removed
+                clients.execute(() -> {
+                    for (int i = 0; i < NUMBER_OF_TASKS_PER_TARGET; i++) {
+                        for (String target : targets) {
+                            manager.scheduleTask(new RecordingTask(target, i, executed, running, errors, done));
+                        }
+                    }
+                });
+            }
+
+            assertTrue(done.await(60, TimeUnit.SECONDS), "Not all tasks were executed; remaining: " + done.getCount());
+            assertTrue(errors.isEmpty(), () -> "Errors: " + errors);
+            for (Map.Entry<String, Queue<Integer>> entry : executed.entrySet()) {
+                List<Integer> order = new ArrayList<>(entry.getValue());
+                assertEquals(NUMBER_OF_TASKS_PER_TARGET, order.size(), "Number of tasks executed for " + entry.getKey());
+                for (int i = 0; i < order.size(); i++) {
+                    assertEquals(i, order.get(i), "Task executed out of order for " + entry.getKey());
+                }
+            }
+        }
+        finally {
+            clients.shutdownNow();
+            workers.shutdownNow();
+        }
+    }
+
+    @Test
+    public void sequencersShouldBeRemovedWhenAllTasksAreDone() throws Exception {
+        ExecutorService workers = Executors.newFixedThreadPool(4);
+        MetricRegistry metricRegistry = new MetricRegistry();
+        TargetedTaskSequenceManager manager = new TargetedTaskSequenceManager(workers, metricRegistry);
+        Map<String, Queue<Integer>> executed = new ConcurrentHashMap<>();
+        Map<String, AtomicInteger> running = new ConcurrentHashMap<>();
+        Queue<String> errors = new ConcurrentLinkedQueue<>();
+        CountDownLatch done = new CountDownLatch(100);
+
+        try {
+            for (int i = 0; i < 100; i++) {
+                String target = "target" + (i % 10);
+                executed.putIfAbsent(target, new ConcurrentLinkedQueue<>());
+                running.putIfAbsent(target, new AtomicInteger());
+                manager.scheduleTask(new RecordingTask(target, i / 10, executed, running, errors, done));
+            }
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+            assertEquals(4, metricRegistry.getGauges().get(MetricRegistry.name(TargetedTaskSequenceManager.class, "executor", "pool-size")).getValue());
+            workers.shutdown();
+            assertTrue(workers.awaitTermination(10, TimeUnit.SECONDS));
+            assertEquals(0, manager.getNumberOfSequencers());
+            assertEquals(0, metricRegistry.getGauges().get(MetricRegistry.name(TargetedTaskSequenceManager.class, "sequencers")).getValue());
+            assertEquals(100, metricRegistry.timer(MetricRegistry.name(TargetedTaskSequenceManager.class, "queue-wait")).getCount());
+        }
+        finally {
+            workers.shutdownNow();
+        }
+    }
+
+    private static class ParkingTask implements TargetedTask {
+        private final String target;
+        private final CompletableFuture<Void> finished;
+        private final Queue<String> started;
+
+        private ParkingTask(String target, CompletableFuture<Void> finished, Queue<String> started) {
+            this.target = target;
+            this.finished = finished;
+            this.started = started;
+        }
+
+        @Override
+        public String getTarget() {
+            return target;
+        }
+
+        @Override
+        public void writeEvent(TaskEvent.EventType eventType, TaskEvent.Result result, String message) {
+        }
+
+        @Override
+        public void run() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public CompletableFuture<Void> start() {
+            started.add(target);
+            return finished;
+        }
+    }
+
+    @Test
+    public void parkedTaskShouldFreeTheWorkerButHoldBackItsTarget() throws Exception {
+        ExecutorService workers = Executors.newSingleThreadExecutor();
+        TargetedTaskSequenceManager manager = new TargetedTaskSequenceManager(workers, new MetricRegistry());
+        Queue<String> started = new ConcurrentLinkedQueue<>();
+        CompletableFuture<Void> firstForA = new CompletableFuture<>();
+
+        try {
+            CompletableFuture<Void> a1 = manager.scheduleTask(new ParkingTask("A", firstForA, started));
+            CompletableFuture<Void> a2 = manager.scheduleTask(new ParkingTask("A", CompletableFuture.completedFuture(null), started));
+            CompletableFuture<Void> b1 = manager.scheduleTask(new ParkingTask("B", CompletableFuture.completedFuture(null), started));
+
+            // The only worker is free to run B while the first task for A is parked
+            b1.get(10, TimeUnit.SECONDS);
+            assertFalse(a1.isDone());
+            assertFalse(a2.isDone());
+            assertEquals(Arrays.asList("A", "B"), new ArrayList<>(started));
+            // The sequencer for B is removed right after completing b1; the one for A stays while parked
+            long deadline = System.currentTimeMillis() + 5000;
+            while (manager.getNumberOfSequencers() > 1 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(1, manager.getNumberOfSequencers());
+
+            workers.execute(() -> firstForA.complete(null));
+            a2.get(10, TimeUnit.SECONDS);
+            assertTrue(a1.isDone());
+            assertEquals(Arrays.asList("A", "B", "A"), new ArrayList<>(started));
+        }
+        finally {
+            workers.shutdownNow();
+        }
+    }
+
+    private static class BlockingTask implements TargetedTask {
+        private final String target;
+        private final String label;
+        private final CountDownLatch release;
+        private final Queue<String> started;
+
+        private BlockingTask(String target, String label, CountDownLatch release, Queue<String> started) {
+            this.target = target;
+            this.label = label;
+            this.release = release;
+            this.started = started;
+        }
+
+        @Override
+        public String getTarget() {
+            return target;
+        }
+
+        @Override
+        public void writeEvent(TaskEvent.EventType eventType, TaskEvent.Result result, String message) {
+        }
+
+        @Override
+        public void run() {
+            started.add(label);
+            try {
+                release.await();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @Test
+    public void higherLanesShouldBeDrainedFirstWithoutBreakingTheOrderPerTarget() throws Exception {
+        ExecutorService workers = Executors.newSingleThreadExecutor();
+        MetricRegistry metricRegistry = new MetricRegistry();
+        TargetedTaskSequenceManager manager = new TargetedTaskSequenceManager(workers, 1, metricRegistry);
+        manager.addLane("high", 10);
+        manager.addLane("low", 1);
+        Queue<String> started = new ConcurrentLinkedQueue<>();
+        CountDownLatch gate = new CountDownLatch(1);
+        CountDownLatch open = new CountDownLatch(0);
+
+        try {
+            manager.scheduleTask(new BlockingTask("X", "low-X", gate, started), "low");
+            long deadline = System.currentTimeMillis() + 5000;
+            while (started.isEmpty() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            manager.scheduleTask(new BlockingTask("Y", "low-Y1", open, started), "low");
+            manager.scheduleTask(new BlockingTask("Z", "low-Z", open, started), "low");
+            manager.scheduleTask(new BlockingTask("A", "high-A", open, started), "high");
+            // Joins the sequencer for Y, so it must wait for low-Y1 despite its lane
+            manager.scheduleTask(new BlockingTask("Y", "high-Y2", open, started), "high");
+            CompletableFuture<Void> last = manager.scheduleTask(new BlockingTask("B", "high-B", open, started), "high");
+
+            assertEquals(2, metricRegistry.getGauges().get(MetricRegistry.name(TargetedTaskSequenceManager.class, "lane", "high", "queue-size")).getValue());
+            assertEquals(2, metricRegistry.getGauges().get(MetricRegistry.name(TargetedTaskSequenceManager.class, "lane", "low", "queue-size")).getValue());
+            assertEquals(1, metricRegistry.getGauges().get(MetricRegistry.name(TargetedTaskSequenceManager.class, "lanes", "running")).getValue());
+
+            gate.countDown();
+            last.get(10, TimeUnit.SECONDS);
+            deadline = System.currentTimeMillis() + 5000;
+            while (started.size() < 6 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(Arrays.asList("low-X", "high-A", "high-B", "low-Y1", "high-Y2", "low-Z"), new ArrayList<>(started));
+        }
+        finally {
+            workers.shutdownNow();
+        }
+    }
+
+    @Test
+    public void sequencerRejectedWhenItLeavesItsLaneShouldFailItsTasksAndBeRemoved() throws Exception {
+        ExecutorService workers = Executors.newSingleThreadExecutor();
+        TargetedTaskSequenceManager manager = new TargetedTaskSequenceManager(workers, 1, new MetricRegistry());
+        Queue<String> started = new ConcurrentLinkedQueue<>();
+        CountDownLatch gate = new CountDownLatch(1);
+        CountDownLatch open = new CountDownLatch(0);
+
+        try {
+            CompletableFuture<Void> first = manager.scheduleTask(new BlockingTask("X", "X", gate, started));
+            // Waits in the lane, as the only worker is taken
+            CompletableFuture<Void> second = manager.scheduleTask(new BlockingTask("Y", "Y1", open, started));
+            CompletableFuture<Void> third = manager.scheduleTask(new BlockingTask("Y", "Y2", open, started));
+            workers.shutdown();
+            gate.countDown();
+            first.get(10, TimeUnit.SECONDS);
+
+            for (CompletableFuture<Void> completion : Arrays.asList(second, third)) {
+                ExecutionException e = assertThrows(ExecutionException.class, () -> completion.get(10, TimeUnit.SECONDS));
+                assertTrue(e.getCause() instanceof RejectedExecutionException);
+            }
+            assertEquals(Arrays.asList("X"), new ArrayList<>(started));
+            assertEquals(0, manager.getNumberOfSequencers());
+        }
+        finally {
+            workers.shutdownNow();
+        }
+    }
+}
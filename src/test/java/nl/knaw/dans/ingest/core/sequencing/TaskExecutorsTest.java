@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.ingest.core.sequencing;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TaskExecutorsTest {
+
+    @Test
+    public void elasticExecutorShouldGrowToMaxThreadsAndQueueTheRest() throws Exception {
+        ThreadPoolExecutor executor = TaskExecutors.newElasticExecutor("test-", 3, 100, TimeUnit.MILLISECONDS);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(3);
+        try {
+            for (int i = 0; i < 5; i++) {
+                executor.execute(() -> {
+                    started.countDown();
+                    try {
+                        release.await();
+                    }
+                    catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                });
+            }
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            assertEquals(3, executor.getPoolSize());
+            assertEquals(2, executor.getQueue().size());
+        }
+        finally {
+            release.countDown();
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void elasticExecutorShouldShrinkWhenIdle() throws Exception {
+        ThreadPoolExecutor executor = TaskExecutors.newElasticExecutor("test-", 3, 50, TimeUnit.MILLISECONDS);
+        executor.execute(() -> {
+        });
+        long deadline = System.currentTimeMillis() + 5000;
+        while (executor.getPoolSize() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, executor.getPoolSize());
+        executor.shutdown();
+    }
+
+    @Test
+    public void virtualThreadExecutorShouldOnlyBeAvailableFromJava21() throws Exception {
+        ExecutorService executor = TaskExecutors.newVirtualThreadExecutor("test-");
+        String javaVersion = System.getProperty("java.specification.version");
+        if (javaVersion.startsWith("1.") || Integer.parseInt(javaVersion) < 21) {
+            assertNull(executor);
+            return;
+        }
+        Thread[] thread = new Thread[1];
+        executor.submit(() -> thread[0] = Thread.currentThread()).get();
+        executor.shutdown();
+        assertTrue(thread[0].getName().startsWith("test-"));
+        assertTrue((Boolean) Thread.class.getMethod("isVirtual").invoke(thread[0]));
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.ingest.core.service;
+
+import com.codahale.metrics.MetricRegistry;
+import nl.knaw.dans.ingest.core.TaskEvent;
+import nl.knaw.dans.ingest.core.TaskPhase;
+import org.junit.jupiter.api.Test;
+
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class AsyncTaskEventServiceTest {
+
+    private static class RecordingTaskEventService implements TaskEventService {
+        private final List<List<TaskEvent>> batches = Collections.synchronizedList(new ArrayList<>());
+        private final List<TaskPhase> phases = Collections.synchronizedList(new ArrayList<>());
+
+        @Override
+        public void writeEvent(String batch, UUID depositId, TaskEvent.EventType eventType, TaskEvent.Result result, String message) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void writeEvents(List<TaskEvent> events) {
+            batches.add(new ArrayList<>(events));
+        }
+
+        @Override
+        public void writePhases(List<TaskPhase> phases) {
+            this.phases.addAll(phases);
+        }
+
+        int numberOfEvents() {
+            synchronized (batches) {
+                return batches.stream().mapToInt(List::size).sum();
+            }
+        }
+    }
+
+    @Test
+    public void allEventsShouldBeWrittenInBatchesByStop() throws Exception {
+        RecordingTaskEventService delegate = new RecordingTaskEventService();
+        AsyncTaskEventService service = new AsyncTaskEventService(delegate, 100, 10, 1, TimeUnit.SECONDS, new MetricRegistry());
+        service.start();
+
+        ExecutorService writers = Executors.newFixedThreadPool(4);
+        for (int i = 0; i < 1000; i++) {
+            writers.execute(() -> service.writeEvent("test", UUID.randomUUID(), TaskEvent.EventType.ENQUEUE, TaskEvent.Result.OK, null));
+        }
+        writers.shutdown();
+        assertTrue(writers.awaitTermination(10, TimeUnit.SECONDS));
+        service.stop();
+
+        assertEquals(1000, delegate.numberOfEvents());
+        assertTrue(delegate.batches.stream().allMatch(b -> b.size() <= 10));
+        assertTrue(delegate.batches.size() < 1000);
+    }
+
+    @Test
+    public void eventsShouldBeWrittenAfterMaxFlushDelay() throws Exception {
+        RecordingTaskEventService delegate = new RecordingTaskEventService();
+        AsyncTaskEventService service = new AsyncTaskEventService(delegate, 100, 10, 50, TimeUnit.MILLISECONDS, new MetricRegistry());
+        service.start();
+        try {
+            service.writeEvent("test", UUID.randomUUID(), TaskEvent.EventType.ENQUEUE, TaskEvent.Result.OK, null);
+            service.writeEvent("test", UUID.randomUUID(), TaskEvent.EventType.ENQUEUE, TaskEvent.Result.OK, null);
+
+            long deadline = System.currentTimeMillis() + 5000;
+            while (delegate.numberOfEvents() < 2 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(2, delegate.numberOfEvents());
+        }
+        finally {
+            service.stop();
+        }
+    }
+
+    @Test
+    public void eventsShouldBeWrittenSynchronouslyAfterStop() throws Exception {
+        RecordingTaskEventService delegate = new RecordingTaskEventService();
+        AsyncTaskEventService service = new AsyncTaskEventService(delegate, 100, 10, 1, TimeUnit.SECONDS, new MetricRegistry());
+        service.start();
+        service.stop();
+
+        service.writeEvent("test", UUID.randomUUID(), TaskEvent.EventType.END_PROCESSING, TaskEvent.Result.OK, null);
+
+        assertEquals(1, delegate.numberOfEvents());
+    }
+
+    @Test
+    public void phasesShouldBeWrittenSeparatelyFromEvents() throws Exception {
+        RecordingTaskEventService delegate = new RecordingTaskEventService();
+        AsyncTaskEventService service = new AsyncTaskEventService(delegate, 100, 10, 1, TimeUnit.SECONDS, new MetricRegistry());
+        service.start();
+        UUID depositId = UUID.randomUUID();
+        service.writeEvent("test", depositId, TaskEvent.EventType.START_PROCESSING, TaskEvent.Result.OK, null);
+        service.writePhases(Collections.singletonList(new TaskPhase("test", depositId, "validation", OffsetDateTime.now(), 12, true)));
+        service.stop();
+
+        assertEquals(1, delegate.numberOfEvents());
+        assertEquals(1, delegate.phases.size());
+        assertEquals("validation", delegate.phases.get(0).getPhase());
+    }
+
+    private static class FailingTaskEventService extends RecordingTaskEventService {
+        private final AtomicInteger failuresLeft;
+        private final Predicate<TaskEvent> unwritable;
+
+        private FailingTaskEventService(int failures, Predicate<TaskEvent> unwritable) {
+            this.failuresLeft = new AtomicInteger(failures);
+            this.unwritable = unwritable;
+        }
+
+        @Override
+        public void writeEvents(List<TaskEvent> events) {
+            if (failuresLeft.getAndDecrement() > 0 || events.stream().anyMatch(unwritable)) {
+                throw new IllegalStateException("Could not write events");
+            }
+            super.writeEvents(events);
+        }
+    }
+
+    @Test
+    public void batchShouldBeWrittenAgainAfterFailure() throws Exception {
+        RecordingTaskEventService delegate = new FailingTaskEventService(1, e -> false);
+        AsyncTaskEventService service = new AsyncTaskEventService(delegate, 100, 10, 1, TimeUnit.SECONDS, new MetricRegistry());
+        service.start();
+        for (int i = 0; i < 5; i++) {
+            service.writeEvent("test", UUID.randomUUID(), TaskEvent.EventType.ENQUEUE, TaskEvent.Result.OK, null);
+        }
+        service.stop();
+
+        assertEquals(5, delegate.numberOfEvents());
+        assertEquals(1, delegate.batches.size());
+    }
+
+    @Test
+    public void eventThatCannotBeWrittenShouldNotTakeTheRestOfTheBatchWithIt() throws Exception {
+        FailingTaskEventService delegate = new FailingTaskEventService(0, e -> "unwritable".equals(e.getMessage()));
+        MetricRegistry metricRegistry = new MetricRegistry();
+        AsyncTaskEventService service = new AsyncTaskEventService(delegate, 100, 10, 1, TimeUnit.SECONDS, metricRegistry);
+        service.start();
+        for (int i = 0; i < 5; i++) {
+            service.writeEvent("test", UUID.randomUUID(), TaskEvent.EventType.ENQUEUE, TaskEvent.Result.OK, i == 2 ? "unwritable" : null);
+        }
+        service.stop();
+
+        assertEquals(4, delegate.numberOfEvents());
+        assertEquals(1, metricRegistry.meter(MetricRegistry.name(AsyncTaskEventService.class, "lost")).getCount());
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.ingest.core.service;
+
+import com.codahale.metrics.MetricRegistry;
+import nl.knaw.dans.ingest.api.BatchProgress;
+import nl.knaw.dans.ingest.core.TaskEvent;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class BatchProgressTrackerTest {
+
+    @Test
+    public void shouldCountDepositsPerBatch() {
+        MetricRegistry metricRegistry = new MetricRegistry();
+        BatchProgressTracker tracker = new BatchProgressTracker(metricRegistry);
+        for (int i = 0; i < 10; i++) {
+            tracker.record("batch1", TaskEvent.EventType.ENQUEUE, TaskEvent.Result.OK);
+        }
+        tracker.record("batch1", TaskEvent.EventType.START_PROCESSING, TaskEvent.Result.OK);
+        tracker.record("batch1", TaskEvent.EventType.END_PROCESSING, TaskEvent.Result.OK);
+        tracker.record("batch1", TaskEvent.EventType.START_PROCESSING, TaskEvent.Result.OK);
+        tracker.record("batch1", TaskEvent.EventType.END_PROCESSING, TaskEvent.Result.REJECTED);
+        tracker.record("batch1", TaskEvent.EventType.START_PROCESSING, TaskEvent.Result.OK);
+        tracker.record("batch2", TaskEvent.EventType.ENQUEUE, TaskEvent.Result.FAILED);
+
+        BatchProgress batch1 = tracker.getProgress("batch1").get();
+        assertEquals(10, batch1.getEnqueued());
+        assertEquals(3, batch1.getStarted());
+        assertEquals(1, batch1.getOk());
+        assertEquals(1, batch1.getRejected());
+        assertEquals(0, batch1.getFailed());
+        assertEquals(8, batch1.getRemaining());
+
+        BatchProgress batch2 = tracker.getProgress("batch2").get();
+        assertEquals(0, batch2.getEnqueued());
+        assertEquals(1, batch2.getFailed());
+
+        assertFalse(tracker.getProgress("batch3").isPresent());
+        assertEquals(2, tracker.getProgress().size());
+        assertEquals(8L, metricRegistry.getGauges().get(MetricRegistry.name(BatchProgressTracker.class, "batch1", "remaining")).getValue());
+    }
+
+    @Test
+    public void remainingShouldBeBasedOnTheScannedDeposits() {
+        MetricRegistry metricRegistry = new MetricRegistry();
+        BatchProgressTracker tracker = new BatchProgressTracker(metricRegistry);
+        tracker.recordScanned("batch1", 100);
+        for (int i = 0; i < 10; i++) {
+            tracker.record("batch1", TaskEvent.EventType.ENQUEUE, TaskEvent.Result.OK);
+        }
+        tracker.record("batch1", TaskEvent.EventType.ENQUEUE, TaskEvent.Result.FAILED);
+        tracker.record("batch1", TaskEvent.EventType.START_PROCESSING, TaskEvent.Result.OK);
+        tracker.record("batch1", TaskEvent.EventType.END_PROCESSING, TaskEvent.Result.OK);
+
+        BatchProgress batch1 = tracker.getProgress("batch1").get();
+        assertEquals(100, batch1.getScanned());
+        assertEquals(10, batch1.getEnqueued());
+        assertEquals(98, batch1.getRemaining());
+    }
+
+    @Test
+    public void metersShouldBeRemovedWhenAllScannedDepositsHaveFinished() {
+        MetricRegistry metricRegistry = new MetricRegistry();
+        BatchProgressTracker tracker = new BatchProgressTracker(metricRegistry);
+        tracker.recordScanned("batch1", 2);
+        tracker.record("batch1", TaskEvent.EventType.ENQUEUE, TaskEvent.Result.OK);
+        tracker.record("batch1", TaskEvent.EventType.ENQUEUE, TaskEvent.Result.FAILED);
+        tracker.record("batch1", TaskEvent.EventType.START_PROCESSING, TaskEvent.Result.OK);
+        assertFalse(metricRegistry.getMetrics().isEmpty());
+
+        tracker.record("batch1", TaskEvent.EventType.END_PROCESSING, TaskEvent.Result.OK);
+
+        assertTrue(metricRegistry.getMetrics().isEmpty());
+        BatchProgress batch1 = tracker.getProgress("batch1").get();
+        assertEquals(1, batch1.getOk());
+        assertEquals(1, batch1.getFailed());
+        assertEquals(0, batch1.getRemaining());
+
+        // Scanning the batch again starts its progress anew
+        tracker.recordScanned("batch1", 1);
+        assertEquals(0, tracker.getProgress("batch1").get().getOk());
+        assertEquals(1, tracker.getProgress("batch1").get().getRemaining());
+        assertFalse(metricRegistry.getMetrics().isEmpty());
+    }
+
+    @Test
+    public void eventForCompletedBatchShouldStartItsProgressAnew() {
+        MetricRegistry metricRegistry = new MetricRegistry();
+        BatchProgressTracker tracker = new BatchProgressTracker(metricRegistry);
+        tracker.recordScanned("batch1", 1);
+        tracker.record("batch1", TaskEvent.EventType.ENQUEUE, TaskEvent.Result.OK);
+        tracker.record("batch1", TaskEvent.EventType.END_PROCESSING, TaskEvent.Result.OK);
+        assertTrue(metricRegistry.getMetrics().isEmpty());
+
+        // For example, the batch is continued with deposits that were added to its inbox
+        tracker.record("batch1", TaskEvent.EventType.ENQUEUE, TaskEvent.Result.OK);
+
+        BatchProgress batch1 = tracker.getProgress("batch1").get();
+        assertEquals(1, batch1.getEnqueued());
+        assertEquals(0, batch1.getOk());
+        assertEquals(1, batch1.getRemaining());
+        assertEquals(1L, metricRegistry.getGauges().get(MetricRegistry.name(BatchProgressTracker.class, "batch1", "remaining")).getValue());
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.ingest.core.service;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class DepositInboxScannerTest {
+    private static final Logger log = LoggerFactory.getLogger(DepositInboxScannerTest.class);
+
+    @Test
+    public void parallelScanShouldYieldSameOrderAsSequentialScan() throws Exception {
+        Path inbox = createInbox(500);
+        try {
+            List<Path> sequential = depositDirs(new DepositInboxScanner(1).scan(inbox));
+            List<Path> parallel = depositDirs(new DepositInboxScanner(8).scan(inbox));
+
+            assertEquals(500, sequential.size());
+            assertEquals(sequential, parallel);
+        }
+        finally {
+            FileUtils.deleteDirectory(inbox.toFile());
+        }
+    }
+
+    @Test
+    public void parallelScanShouldPropagateInvalidDeposit() throws Exception {
+        Path inbox = createInbox(50);
+        try {
+            Path invalid = Files.createDirectories(inbox.resolve("invalid").resolve("bag"));
+            Files.write(invalid.resolve("bag-info.txt"), "Bagging-Date: 2020-02-15\n".getBytes(StandardCharsets.UTF_8));
+            Files.write(inbox.resolve("invalid").resolve("deposit.properties"), new byte[0]);
+
+            IllegalArgumentException thrown = assertThrows(IllegalArgumentException.class, () -> new DepositInboxScanner(4).scan(inbox));
+            assertTrue(thrown.getMessage().contains("No Created value found in bag"));
+        }
+        finally {
+            FileUtils.deleteDirectory(inbox.toFile());
+        }
+    }
+
+    @Test
+    public void skippedDepositsShouldNotBeRead() throws Exception {
+        Path inbox = createInbox(50);
+        try {
+            // Would fail the scan if it were read
+            Path invalid = Files.createDirectories(inbox.resolve("invalid").resolve("bag"));
+            Files.write(invalid.resolve("bag-info.txt"), "Bagging-Date: 2020-02-15\n".getBytes(StandardCharsets.UTF_8));
+            Files.write(inbox.resolve("invalid").resolve("deposit.properties"), new byte[0]);
+
+            List<Path> scanned = depositDirs(new DepositInboxScanner(4).skipping(new HashSet<>(Arrays.asList("invalid", "deposit7"))).scan(inbox));
+
+            assertEquals(49, scanned.size());
+            assertFalse(scanned.contains(inbox.resolve("deposit7")));
+        }
+        finally {
+            FileUtils.deleteDirectory(inbox.toFile());
+        }
+    }
+
+    /*
+     * Not part of the regular build; run with the benchmark profile.
+     */
+    @Test
+    @Tag("benchmark")
+    public void benchmarkScanParallelism() throws Exception {
+        int numberOfDeposits = 50000;
+        Path inbox = createInbox(numberOfDeposits);
+        try {
+            for (int parallelism : new int[] { 1, 2, 4, 8, 16 }) {
+                DepositInboxScanner scanner = new DepositInboxScanner(parallelism);
+                long start = System.nanoTime();
+                int found = scanner.scan(inbox).size();
+                long millis = (System.nanoTime() - start) / 1_000_000;
+                log.info("parallelism {}: {} deposits in {} ms", parallelism, found, millis);
+                assertEquals(numberOfDeposits, found);
+            }
+        }
+        finally {
+            FileUtils.deleteDirectory(inbox.toFile());
+        }
+    }
+
+    private static List<Path> depositDirs(List<DepositOrderingInfo> infos) {
+        return infos.stream().map(DepositOrderingInfo::getDepositDir).collect(Collectors.toList());
+    }
+
+    private static Path createInbox(int numberOfDeposits) throws IOException {
+        Path inbox = Files.createTempDirectory("inbox");
+        Random random = new Random(42);
+        OffsetDateTime base = OffsetDateTime.of(2020, 1, 1, 0, 0, 0, 0, ZoneOffset.ofHours(1));
+        for (int i = 0; i < numberOfDeposits; i++) {
+            Path depositDir = inbox.resolve("deposit" + i);
+            Path bagDir = Files.createDirectories(depositDir.resolve("bag"));
+            String created = base.plusNanos(random.nextInt(Integer.MAX_VALUE) * 1000L).toString();
+            Files.write(bagDir.resolve("bag-info.txt"), ("Created: " + created + "\n").getBytes(StandardCharsets.UTF_8));
+            Files.write(depositDir.resolve("deposit.properties"), ("identifier.doi = 10.5072/deposit" + i + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+        return inbox;
+    }
+}
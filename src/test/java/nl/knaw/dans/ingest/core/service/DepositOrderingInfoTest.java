@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.ingest.core.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class DepositOrderingInfoTest {
+    private static final Path testDepositsBasedir = Paths.get("src/test/resources/unordered-stub-deposits/");
+
+    @Test
+    public void shouldReadCreatedAndDoiWithoutLoadingBag() {
+        DepositOrderingInfo info = DepositOrderingInfo.read(testDepositsBasedir.resolve("deposit1_a"));
+        assertEquals(OffsetDateTime.parse("2020-02-15T09:02:00.345+01:00").toInstant(), info.getCreated());
+        assertEquals("10.5072/deposit1_a", info.getDoi());
+        assertEquals("deposit1_first", info.getIsVersionOf());
+        assertEquals("deposit1_a", info.getDepositId());
+    }
+
+    @Test
+    public void depositsShouldBeOrderedByCreatedTimestamp() {
+        List<String> sorted = Stream.of("deposit2_a", "deposit1_b", "deposit1_a", "deposit1_first", "deposit2_first")
+            .map(d -> DepositOrderingInfo.read(testDepositsBasedir.resolve(d)))
+            .sorted()
+            .map(DepositOrderingInfo::getDoi)
+            .collect(Collectors.toList());
+
+        assertEquals("10.5072/deposit2_first", sorted.get(0));
+        assertEquals("10.5072/deposit1_first", sorted.get(1));
+        assertEquals("10.5072/deposit1_a", sorted.get(2));
+        assertEquals("10.5072/deposit1_b", sorted.get(3));
+        assertEquals("10.5072/deposit2_a", sorted.get(4));
+    }
+
+    @Test
+    public void failFastIfNoTimeZoneInCreatedTimestamp() {
+        assertThrows(DateTimeParseException.class, () -> DepositOrderingInfo.read(testDepositsBasedir.resolve("deposit3_notimezone")));
+    }
+
+    @Test
+    public void failFastIfNoCreatedTimestamp() {
+        IllegalArgumentException thrown = assertThrows(IllegalArgumentException.class, () -> DepositOrderingInfo.read(testDepositsBasedir.resolve("deposit3_nocreated")));
+        assertTrue(thrown.getMessage().contains("No Created value found in bag"));
+    }
+
+    @Test
+    public void failFastIfMultipleCreatedTimestamps() {
+        IllegalArgumentException thrown = assertThrows(IllegalArgumentException.class, () -> DepositOrderingInfo.read(testDepositsBasedir.resolve("deposit3_2created")));
+        assertTrue(thrown.getMessage().contains("There should be exactly one Created value; found 2"));
+    }
+
+    @Test
+    public void failFastIfNoBag() {
+        IllegalArgumentException thrown = assertThrows(IllegalArgumentException.class, () -> DepositOrderingInfo.read(Paths.get("src/test/resources/no-deposit/no-subdir")));
+        assertTrue(thrown.getMessage().contains("has more or fewer than one subdirectory"));
+    }
+}
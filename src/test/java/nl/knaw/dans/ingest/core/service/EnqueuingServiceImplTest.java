@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.ingest.core.service;
+
+import com.codahale.metrics.MetricRegistry;
+import nl.knaw.dans.ingest.core.TaskEvent;
+import nl.knaw.dans.ingest.core.sequencing.TargetedTask;
+import nl.knaw.dans.ingest.core.sequencing.TargetedTaskSequenceManager;
+import org.junit.jupiter.api.Test;
+
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class EnqueuingServiceImplTest {
+
+    private static class BlockingTask implements TargetedTask {
+        private final String target;
+        private final CountDownLatch release;
+        private final CountDownLatch done;
+
+        private BlockingTask(String target, CountDownLatch release, CountDownLatch done) {
+            this.target = target;
+            this.release = release;
+            this.done = done;
+        }
+
+        @Override
+        public String getTarget() {
+            return target;
+        }
+
+        @Override
+        public void writeEvent(TaskEvent.EventType eventType, TaskEvent.Result result, String message) {
+        }
+
+        @Override
+        public void run() {
+            try {
+                release.await();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            done.countDown();
+        }
+    }
+
+    private static class CountingSource implements TargetedTaskSource<BlockingTask> {
+        private final int size;
+        private final AtomicInteger taken = new AtomicInteger();
+        private final CountDownLatch release;
+        private final CountDownLatch done;
+
+        private CountingSource(int size, CountDownLatch release, CountDownLatch done) {
+            this.size = size;
+            this.release = release;
+            this.done = done;
+        }
+
+        @Override
+        public Iterator<BlockingTask> iterator() {
+            return new Iterator<BlockingTask>() {
+
+                @Override
+                public boolean hasNext() {
+                    return taken.get() < size;
+                }
+
+                @Override
+                public BlockingTask next() {
+                    return new BlockingTask("target" + taken.getAndIncrement(), release, done);
+                }
+            };
+        }
+    }
+
+    @Test
+    public void noMoreTasksThanHighWaterMarkShouldBeTakenFromSourceUntilTheyFinish() throws Exception {
+        ExecutorService workers = Executors.newFixedThreadPool(20);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(100);
+        CountingSource source = new CountingSource(100, release, done);
+        try {
+            new EnqueuingServiceImpl(new TargetedTaskSequenceManager(workers, new MetricRegistry()), 1, 10, new MetricRegistry()).executeEnqueue(source);
+            Thread.sleep(500);
+            assertEquals(10, source.taken.get());
+
+            release.countDown();
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+            assertEquals(100, source.taken.get());
+        }
+        finally {
+            workers.shutdownNow();
+        }
+    }
+
+    @Test
+    public void failureToCreateTaskShouldNotStopTheRestOfTheSource() throws Exception {
+        ExecutorService workers = Executors.newFixedThreadPool(2);
+        CountDownLatch release = new CountDownLatch(0);
+        CountDownLatch done = new CountDownLatch(6);
+        AtomicInteger taken = new AtomicInteger();
+        TargetedTaskSource<BlockingTask> source = () -> new Iterator<BlockingTask>() {
+
+            @Override
+            public boolean hasNext() {
+                return taken.get() < 9;
+            }
+
+            @Override
+            public BlockingTask next() {
+                int i = taken.getAndIncrement();
+                if (i % 3 == 0) {
+                    throw new IllegalStateException("Incomplete deposit " + i);
+                }
+                return new BlockingTask("target" + i, release, done);
+            }
+        };
+        MetricRegistry metricRegistry = new MetricRegistry();
+        try {
+            // With a high-water mark of 1, a permit that is not released after a failure would stop the intake
+            new EnqueuingServiceImpl(new TargetedTaskSequenceManager(workers, new MetricRegistry()), 1, 1, metricRegistry).executeEnqueue(source);
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+            assertEquals(9, taken.get());
+            assertEquals(3, metricRegistry.meter(MetricRegistry.name(EnqueuingServiceImpl.class, "enqueue-failed")).getCount());
+        }
+        finally {
+            workers.shutdownNow();
+        }
+    }
+
+    @Test
+    public void noTasksShouldBeTakenFromSourceBeforeReady() throws Exception {
+        ExecutorService workers = Executors.newFixedThreadPool(2);
+        CountDownLatch release = new CountDownLatch(0);
+        CountDownLatch done = new CountDownLatch(5);
+        CountingSource source = new CountingSource(5, release, done);
+        CompletableFuture<Void> ready = new CompletableFuture<>();
+        try {
+            new EnqueuingServiceImpl(new TargetedTaskSequenceManager(workers, new MetricRegistry()), 1, 0, ready, new MetricRegistry()).executeEnqueue(source);
+            Thread.sleep(200);
+            assertEquals(0, source.taken.get());
+
+            ready.complete(null);
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+            assertEquals(5, source.taken.get());
+        }
+        finally {
+            workers.shutdownNow();
+        }
+    }
+
+    @Test
+    public void sourceAtHighWaterMarkShouldNotHoldEnqueuingThread() throws Exception {
+        ExecutorService workers = Executors.newFixedThreadPool(4);
+        CountDownLatch stalledRelease = new CountDownLatch(1);
+        CountDownLatch stalledDone = new CountDownLatch(5);
+        CountingSource stalled = new CountingSource(5, stalledRelease, stalledDone);
+        CountDownLatch release = new CountDownLatch(0);
+        CountDownLatch done = new CountDownLatch(5);
+        AtomicInteger taken = new AtomicInteger();
+        // Other targets than the stalled source, so that its tasks are not sequenced after the stalled ones
+        TargetedTaskSource<BlockingTask> other = () -> new Iterator<BlockingTask>() {
+
+            @Override
+            public boolean hasNext() {
+                return taken.get() < 5;
+            }
+
+            @Override
+            public BlockingTask next() {
+                return new BlockingTask("other" + taken.getAndIncrement(), release, done);
+            }
+        };
+        try {
+            // One enqueuing thread: the second source is only enqueued if the first one gives up the thread at its high-water mark
+            EnqueuingServiceImpl enqueuingService = new EnqueuingServiceImpl(new TargetedTaskSequenceManager(workers, new MetricRegistry()), 1, 2, new MetricRegistry());
+            enqueuingService.executeEnqueue(stalled);
+            enqueuingService.executeEnqueue(other);
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+            assertEquals(2, stalled.taken.get());
+
+            stalledRelease.countDown();
+            assertTrue(stalledDone.await(10, TimeUnit.SECONDS));
+            assertEquals(5, stalled.taken.get());
+        }
+        finally {
+            workers.shutdownNow();
+        }
+    }
+}
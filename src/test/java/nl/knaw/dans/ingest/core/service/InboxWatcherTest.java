@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.ingest.core.service;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class InboxWatcherTest {
+    private static final Logger log = LoggerFactory.getLogger(InboxWatcherTest.class);
+
+    @Test
+    public void watchServiceShouldReportNewDepositDirectories() throws Exception {
+        shouldReportNewDepositDirectories(InboxWatchMode.WATCH_SERVICE);
+    }
+
+    @Test
+    public void pollingShouldReportNewDepositDirectories() throws Exception {
+        shouldReportNewDepositDirectories(InboxWatchMode.POLLING);
+    }
+
+    private void shouldReportNewDepositDirectories(InboxWatchMode mode) throws Exception {
+        Path inbox = Files.createTempDirectory("inbox");
+        InboxWatcher watcher = InboxWatcher.create(mode, inbox, 50);
+        try {
+            Files.createDirectory(inbox.resolve("existing"));
+            BlockingQueue<Path> reported = new LinkedBlockingQueue<>();
+            watcher.start(reported::addAll);
+
+            Files.createFile(inbox.resolve("not-a-deposit.txt"));
+            Path deposit = Files.createDirectory(inbox.resolve("deposit1"));
+
+            assertEquals(deposit, reported.poll(5, TimeUnit.SECONDS));
+            assertNull(reported.poll(200, TimeUnit.MILLISECONDS));
+        }
+        finally {
+            watcher.stop();
+            FileUtils.deleteDirectory(inbox.toFile());
+        }
+    }
+
+    /*
+     * Not part of the regular build; run with the benchmark profile.
+     */
+    @Test
+    @Tag("benchmark")
+    public void benchmarkPickupLatencyAndIdleCpu() throws Exception {
+        int existingDeposits = 10000;
+        Path dir = Files.createTempDirectory("benchmark");
+        try {
+            Path inbox = Files.createDirectory(dir.resolve("inbox"));
+            Path staging = Files.createDirectory(dir.resolve("staging"));
+            for (int i = 0; i < existingDeposits; i++) {
+                Files.createDirectories(inbox.resolve("existing" + i).resolve("bag"));
+            }
+            for (InboxWatchMode mode : InboxWatchMode.values()) {
+                InboxWatcher watcher = InboxWatcher.create(mode, inbox, 500);
+                BlockingQueue<Long> reported = new LinkedBlockingQueue<>();
+                watcher.start(deposits -> reported.add(System.nanoTime()));
+                try {
+                    long cpuStart = processCpuTime();
+                    Thread.sleep(10_000);
+                    long idleCpuMillis = (processCpuTime() - cpuStart) / 1_000_000;
+
+                    int rounds = 20;
+                    long totalLatency = 0;
+                    long maxLatency = 0;
+                    for (int i = 0; i < rounds; i++) {
+                        // Deposits are moved into the inbox atomically, as the clients of the auto-ingest area do
+                        Path deposit = Files.createDirectory(staging.resolve(mode + "-" + i));
+                        long start = System.nanoTime();
+                        Files.move(deposit, inbox.resolve(deposit.getFileName()));
+                        Long reportedAt = reported.poll(10, TimeUnit.SECONDS);
+                        assertNotNull(reportedAt, "Deposit " + deposit.getFileName() + " not reported");
+                        long latency = (reportedAt - start) / 1_000_000;
+                        totalLatency += latency;
+                        maxLatency = Math.max(maxLatency, latency);
+                        Thread.sleep((long) (Math.random() * 500));
+                    }
+                    log.info("{}: idle CPU {} ms per 10 s; pickup latency avg {} ms, max {} ms", mode, idleCpuMillis, totalLatency / rounds, maxLatency);
+                }
+                finally {
+                    watcher.stop();
+                }
+            }
+        }
+        finally {
+            FileUtils.deleteDirectory(dir.toFile());
+        }
+    }
+
+    private static long processCpuTime() {
+        return ((com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean()).getProcessCpuTime();
+    }
+}
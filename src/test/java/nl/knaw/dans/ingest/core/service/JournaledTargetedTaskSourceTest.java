@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.ingest.core.service;
+
+import com.codahale.metrics.MetricRegistry;
+import nl.knaw.dans.ingest.core.QueuedDeposit;
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class JournaledTargetedTaskSourceTest {
+
+    private static class RecordingJournal implements DepositJournal {
+        private final List<QueuedDeposit> added = new ArrayList<>();
+
+        @Override
+        public void add(List<QueuedDeposit> deposits) {
+            added.addAll(deposits);
+        }
+
+        @Override
+        public void remove(List<QueuedDeposit> deposits) {
+            added.removeAll(deposits);
+        }
+
+        @Override
+        public List<QueuedDeposit> getQueued(String lane) {
+            return added.stream().filter(d -> d.getLane().equals(lane)).collect(Collectors.toList());
+        }
+
+        @Override
+        public Set<String> getDepositIdsToSkip(String source) {
+            return new HashSet<>();
+        }
+    }
+
+    @Test
+    public void scannedDepositsShouldBeJournaledInOrderBeforeAnyTaskIsHandedOut() throws Exception {
+        Path inbox = createInbox(20);
+        Path outbox = Files.createTempDirectory("outbox");
+        try {
+            RecordingJournal journal = new RecordingJournal();
+            // No tasks are created until next() is called, so no task factory is needed here
+            BatchProgressTracker progressTracker = new BatchProgressTracker(new MetricRegistry());
+            JournaledTargetedTaskSource source = new JournaledTargetedTaskSource("batch1", inbox, outbox, null, new DepositInboxScanner(1), null, journal, progressTracker,
+                "migration", true);
+
+            assertTrue(source.iterator().hasNext());
+
+            List<Path> expected = new DepositInboxScanner(1).scan(inbox).stream().map(DepositOrderingInfo::getDepositDir).collect(Collectors.toList());
+            List<QueuedDeposit> queued = journal.getQueued("migration");
+            assertEquals(expected, queued.stream().map(QueuedDeposit::getDepositDir).collect(Collectors.toList()));
+            for (int i = 0; i < queued.size(); i++) {
+                QueuedDeposit deposit = queued.get(i);
+                assertEquals(i, deposit.getPosition());
+                assertEquals("batch1", deposit.getSource());
+                assertEquals(deposit.getDepositDir().getFileName().toString(), deposit.getDepositId());
+                assertEquals(outbox, deposit.getOutboxDir());
+                assertTrue(deposit.isMigration());
+            }
+            assertEquals(20, progressTracker.getProgress("batch1").get().getScanned());
+        }
+        finally {
+            FileUtils.deleteDirectory(inbox.toFile());
+            FileUtils.deleteDirectory(outbox.toFile());
+        }
+    }
+
+    private static Path createInbox(int numberOfDeposits) throws IOException {
+        Path inbox = Files.createTempDirectory("inbox");
+        Random random = new Random(42);
+        OffsetDateTime base = OffsetDateTime.of(2020, 1, 1, 0, 0, 0, 0, ZoneOffset.ofHours(1));
+        for (int i = 0; i < numberOfDeposits; i++) {
+            Path depositDir = inbox.resolve("deposit" + i);
+            Path bagDir = Files.createDirectories(depositDir.resolve("bag"));
+            String created = base.plusNanos(random.nextInt(Integer.MAX_VALUE) * 1000L).toString();
+            Files.write(bagDir.resolve("bag-info.txt"), ("Created: " + created + "\n").getBytes(StandardCharsets.UTF_8));
+            Files.write(depositDir.resolve("deposit.properties"), ("identifier.doi = 10.5072/deposit" + i + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+        return inbox;
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.ingest.core.service;
+
+import nl.knaw.dans.ingest.core.QueuedDeposit;
+import nl.knaw.dans.ingest.core.TaskEvent;
+import nl.knaw.dans.ingest.core.TaskPhase;
+import nl.knaw.dans.ingest.core.config.IngestFlowConfig;
+import nl.knaw.dans.ingest.core.legacy.DepositImportTaskWrapper;
+import nl.knaw.dans.ingest.core.legacy.DepositIngestTaskFactoryWrapper;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class ResumedTargetedTaskSourceTest {
+
+    private static class RecordingTaskEventService implements TaskEventService {
+        private final List<TaskEvent> events = new ArrayList<>();
+
+        @Override
+        public void writeEvent(String batch, UUID depositId, TaskEvent.EventType eventType, TaskEvent.Result result, String message) {
+            events.add(new TaskEvent(batch, OffsetDateTime.now(), depositId, eventType, result, message));
+        }
+
+        @Override
+        public void writeEvents(List<TaskEvent> events) {
+            this.events.addAll(events);
+        }
+
+        @Override
+        public void writePhases(List<TaskPhase> phases) {
+        }
+    }
+
+    private static DepositIngestTaskFactoryWrapper failingFactory(String message, List<Path> requested) {
+        IngestFlowConfig config = new IngestFlowConfig();
+        config.setZipWrappingTempDir(Paths.get("target/zip-wrapping"));
+        return new DepositIngestTaskFactoryWrapper(false, config, null, null, null, null, null, null, null, null) {
+            @Override
+            public DepositImportTaskWrapper createIngestTask(Path depositDir, Path outboxDir, EventWriter eventWriter) {
+                requested.add(depositDir);
+                throw new IllegalStateException(message);
+            }
+        };
+    }
+
+    @Test
+    public void tasksShouldBeCreatedByTheFactoryOfTheirBatchType() {
+        List<Path> regular = new ArrayList<>();
+        List<Path> migration = new ArrayList<>();
+        QueuedDeposit first = new QueuedDeposit("batch1", Paths.get("inbox/batch1", UUID.randomUUID().toString()), "import", false, Paths.get("outbox/batch1"),
+            OffsetDateTime.now(), 0);
+        QueuedDeposit second = new QueuedDeposit("batch2", Paths.get("inbox/batch2", UUID.randomUUID().toString()), "import", true, Paths.get("outbox/batch2"),
+            OffsetDateTime.now(), 0);
+        ResumedTargetedTaskSource source = new ResumedTargetedTaskSource(Arrays.asList(first, second), new RecordingTaskEventService(),
+            failingFactory("regular", regular), failingFactory("migration", migration));
+
+        Iterator<DepositImportTaskWrapper> tasks = source.iterator();
+        assertEquals("regular", assertThrows(IllegalStateException.class, tasks::next).getMessage());
+        assertEquals("migration", assertThrows(IllegalStateException.class, tasks::next).getMessage());
+        assertFalse(tasks.hasNext());
+        assertEquals(Arrays.asList(first.getDepositDir()), regular);
+        assertEquals(Arrays.asList(second.getDepositDir()), migration);
+    }
+
+    @Test
+    public void failureToCreateTaskShouldBeRecordedUnderTheBatchOfTheDeposit() {
+        RecordingTaskEventService taskEventService = new RecordingTaskEventService();
+        UUID depositId = UUID.randomUUID();
+        QueuedDeposit deposit = new QueuedDeposit("batch1", Paths.get("inbox/batch1", depositId.toString()), "import", false, Paths.get("outbox/batch1"),
+            OffsetDateTime.now(), 0);
+        List<Path> requested = new ArrayList<>();
+        ResumedTargetedTaskSource source = new ResumedTargetedTaskSource(Arrays.asList(deposit), taskEventService, failingFactory("bag-info.txt not found", requested),
+            failingFactory("bag-info.txt not found", requested));
+
+        assertThrows(IllegalStateException.class, () -> source.iterator().next());
+
+        // An ENQUEUE event that reports a failure removes the deposit from the journal, so that it is not resumed again after the next restart
+        assertEquals(1, taskEventService.events.size());
+        TaskEvent event = taskEventService.events.get(0);
+        assertEquals("batch1", event.getSource());
+        assertEquals(depositId, event.getDepositId());
+        assertEquals(TaskEvent.EventType.ENQUEUE, event.getEvenType());
+        assertEquals(TaskEvent.Result.FAILED, event.getResult());
+        assertEquals("Could not create task: bag-info.txt not found", event.getMessage());
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.ingest.core.service;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class TargetResolverTest {
+    private static final Path testDepositsBasedir = Paths.get("src/test/resources/unordered-stub-deposits/");
+
+    @Test
+    public void newVersionsShouldGetTheTargetOfTheFirstVersionAndNewDatasetsTheirOwn() {
+        TargetResolver resolver = TargetResolver.firstOf(Arrays.asList(DepositTargetResolver.IS_VERSION_OF, DepositTargetResolver.DEPOSIT_ID));
+
+        assertEquals("deposit1_first", resolver.resolve(read("deposit1_first")));
+        assertEquals("deposit1_first", resolver.resolve(read("deposit1_a")));
+        assertEquals("deposit1_first", resolver.resolve(read("deposit1_b")));
+        assertEquals("deposit2_first", resolver.resolve(read("deposit2_first")));
+        assertEquals("deposit2_first", resolver.resolve(read("deposit2_a")));
+    }
+
+    @Test
+    public void doiShouldTakePrecedenceWhenListedFirst() {
+        TargetResolver resolver = TargetResolver.firstOf(Arrays.asList(DepositTargetResolver.values()));
+
+        assertEquals("10.5072/deposit1_a", resolver.resolve(read("deposit1_a")));
+    }
+
+    @Test
+    public void depositsWithoutAnyTargetShouldShareTheEmptyTarget() {
+        TargetResolver resolver = TargetResolver.firstOf(Collections.singletonList(DepositTargetResolver.IS_VERSION_OF));
+
+        assertEquals("", resolver.resolve(read("deposit1_first")));
+        assertEquals("", resolver.resolve(read("deposit2_first")));
+    }
+
+    @Test
+    public void followUpVersionShouldGetTheTargetOfTheFirstVersionByItsBagId() throws Exception {
+        TargetResolver resolver = TargetResolver.firstOf(Arrays.asList(DepositTargetResolver.values()));
+        Path inbox = Files.createTempDirectory("inbox");
+        try {
+            // As created by the deposit clients: the deposit directories have their own names, and only the bag id links the versions
+            Path first = createDeposit(inbox, "0b9bb5ee-3187-4387-bb39-2c09536c79f7", "dataverse.bag-id = urn:uuid:6d4e5a15-f2b2-4b24-a5e1-d3a8cb1f2ebc\n", "");
+            Path followUp = createDeposit(inbox, "e7d6b3a1-5f19-4c0a-9d2b-8a8f1c3e4b5d", "dataverse.bag-id = urn:uuid:1f0c6ab2-4b5e-4c3e-8f2a-7d9e6b5a4c3d\n",
+                "Is-Version-Of: urn:uuid:6d4e5a15-f2b2-4b24-a5e1-d3a8cb1f2ebc\n");
+
+            assertEquals("6d4e5a15-f2b2-4b24-a5e1-d3a8cb1f2ebc", resolver.resolve(DepositOrderingInfo.read(first)));
+            assertEquals("6d4e5a15-f2b2-4b24-a5e1-d3a8cb1f2ebc", resolver.resolve(DepositOrderingInfo.read(followUp)));
+        }
+        finally {
+            FileUtils.deleteDirectory(inbox.toFile());
+        }
+    }
+
+    private static Path createDeposit(Path inbox, String depositId, String depositProperties, String bagInfo) throws IOException {
+        Path depositDir = inbox.resolve(depositId);
+        Path bagDir = Files.createDirectories(depositDir.resolve("bag"));
+        Files.write(bagDir.resolve("bag-info.txt"), ("Created: 2022-06-01T12:00:00.000+02:00\n" + bagInfo).getBytes(StandardCharsets.UTF_8));
+        Files.write(depositDir.resolve("deposit.properties"), depositProperties.getBytes(StandardCharsets.UTF_8));
+        return depositDir;
+    }
+
+    private static DepositOrderingInfo read(String depositName) {
+        return DepositOrderingInfo.read(testDepositsBasedir.resolve(depositName));
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.ingest.core.service;
+
+import nl.knaw.dans.ingest.core.config.IngestFlowConfig;
+import nl.knaw.dans.ingest.core.legacy.DepositImportTaskWrapper;
+import nl.knaw.dans.ingest.core.legacy.DepositIngestTaskFactoryWrapper;
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class UnboundedDepositsImportTaskIteratorTest {
+
+    private static class ManualInboxWatcher implements InboxWatcher {
+        private Consumer<List<Path>> onNewDeposits;
+
+        @Override
+        public void start(Consumer<List<Path>> onNewDeposits) {
+            this.onNewDeposits = onNewDeposits;
+        }
+
+        @Override
+        public void stop() {
+        }
+
+        void report(Path... depositDirs) {
+            onNewDeposits.accept(Arrays.asList(depositDirs));
+        }
+    }
+
+    // Records which deposits tasks are created for, and whether that was from the ordering info of the scan, without creating them
+    private static DepositIngestTaskFactoryWrapper recordingFactory(List<String> requested) {
+        IngestFlowConfig config = new IngestFlowConfig();
+        config.setZipWrappingTempDir(Paths.get("target/zip-wrapping"));
+        return new DepositIngestTaskFactoryWrapper(false, config, null, null, null, null, null, null, null, null) {
+            @Override
+            public DepositImportTaskWrapper createIngestTask(Path depositDir, Path outboxDir, EventWriter eventWriter) {
+                requested.add(depositDir.getFileName() + " read");
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public DepositImportTaskWrapper createIngestTask(DepositOrderingInfo orderingInfo, Path outboxDir, EventWriter eventWriter) {
+                requested.add(orderingInfo.getDepositDir().getFileName() + " scanned");
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    @Test
+    public void tasksForScannedDepositsShouldBeCreatedFromTheOrderingInfoOfTheScan() throws Exception {
+        Path inbox = Files.createTempDirectory("inbox");
+        try {
+            createDeposit(inbox, "deposit1");
+            ManualInboxWatcher watcher = new ManualInboxWatcher();
+            List<String> requested = new ArrayList<>();
+            EventWriter eventWriter = new EventWriter(null, "auto-ingest");
+            UnboundedDepositsImportTaskIterator iterator = new UnboundedDepositsImportTaskIterator(inbox, inbox, watcher, new DepositInboxScanner(1),
+                recordingFactory(requested), eventWriter);
+            watcher.report(createDeposit(inbox, "deposit2"));
+
+            assertThrows(UnsupportedOperationException.class, iterator::next);
+            assertThrows(UnsupportedOperationException.class, iterator::next);
+            assertEquals(Arrays.asList("deposit1 scanned", "deposit2 read"), requested);
+        }
+        finally {
+            FileUtils.deleteDirectory(inbox.toFile());
+        }
+    }
+
+    @Test
+    public void depositFoundByTheScanShouldBeIgnoredInWhicheverBatchItIsReported() throws Exception {
+        Path inbox = Files.createTempDirectory("inbox");
+        try {
+            Path scanned = createDeposit(inbox, "deposit1");
+            ManualInboxWatcher watcher = new ManualInboxWatcher();
+            UnboundedDepositsImportTaskIterator iterator = new UnboundedDepositsImportTaskIterator(inbox, inbox, watcher, new DepositInboxScanner(1), null, null);
+            assertEquals(Collections.singletonList(scanned), iterator.getPendingDepositDirs());
+
+            Path created = createDeposit(inbox, "deposit2");
+            watcher.report(created);
+            // Created while the inbox was being scanned, but reported in the second batch
+            watcher.report(scanned);
+            assertEquals(Arrays.asList(scanned, created), iterator.getPendingDepositDirs());
+        }
+        finally {
+            FileUtils.deleteDirectory(inbox.toFile());
+        }
+    }
+
+    @Test
+    public void depositReCreatedUnderTheNameOfAScannedOneShouldBeAdded() throws Exception {
+        Path inbox = Files.createTempDirectory("inbox");
+        Path outbox = Files.createTempDirectory("outbox");
+        try {
+            Path scanned = createDeposit(inbox, "deposit1");
+            ManualInboxWatcher watcher = new ManualInboxWatcher();
+            UnboundedDepositsImportTaskIterator iterator = new UnboundedDepositsImportTaskIterator(inbox, outbox, watcher, new DepositInboxScanner(1), null, null);
+
+            // Processed and moved to the outbox, as the task does, before the watcher got to report it
+            Files.move(scanned, outbox.resolve("deposit1"));
+            createDeposit(inbox, "deposit1");
+            watcher.report(scanned);
+            assertEquals(Arrays.asList(scanned, scanned), iterator.getPendingDepositDirs());
+        }
+        finally {
+            FileUtils.deleteDirectory(inbox.toFile());
+            FileUtils.deleteDirectory(outbox.toFile());
+        }
+    }
+
+    private static Path createDeposit(Path inbox, String name) throws IOException {
+        Path depositDir = inbox.resolve(name);
+        Path bagDir = Files.createDirectories(depositDir.resolve("bag"));
+        Files.write(bagDir.resolve("bag-info.txt"), "Created: 2020-02-15T09:01:00.345+01:00\n".getBytes(StandardCharsets.UTF_8));
+        Files.write(depositDir.resolve("deposit.properties"), ("identifier.doi = 10.5072/" + name + "\n").getBytes(StandardCharsets.UTF_8));
+        return depositDir;
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.ingest.core.service;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class UnboundedTargetedTaskSourceTest {
+
+    private static class RecordingInboxWatcher implements InboxWatcher {
+        private boolean started;
+        private boolean stopped;
+
+        @Override
+        public void start(Consumer<List<Path>> onNewDeposits) {
+            started = true;
+        }
+
+        @Override
+        public void stop() {
+            stopped = true;
+        }
+    }
+
+    @Test
+    public void stopBeforeTheIteratorIsCreatedShouldKeepTheWatcherFromStarting() throws Exception {
+        Path inbox = Files.createTempDirectory("inbox");
+        try {
+            RecordingInboxWatcher watcher = new RecordingInboxWatcher();
+            UnboundedTargetedTaskSource source = new UnboundedTargetedTaskSource("auto-ingest", inbox, inbox, null, watcher, new DepositInboxScanner(1), null);
+
+            source.stop();
+
+            assertFalse(source.iterator().hasNext());
+            assertFalse(watcher.started);
+        }
+        finally {
+            FileUtils.deleteDirectory(inbox.toFile());
+        }
+    }
+
+    @Test
+    public void stopShouldStopTheWatcherOfTheIterator() throws Exception {
+        Path inbox = Files.createTempDirectory("inbox");
+        try {
+            RecordingInboxWatcher watcher = new RecordingInboxWatcher();
+            UnboundedTargetedTaskSource source = new UnboundedTargetedTaskSource("auto-ingest", inbox, inbox, null, watcher, new DepositInboxScanner(1), null);
+            assertTrue(source.iterator().hasNext());
+            assertTrue(watcher.started);
+
+            source.stop();
+
+            assertTrue(watcher.stopped);
+        }
+        finally {
+            FileUtils.deleteDirectory(inbox.toFile());
+        }
+    }
+}
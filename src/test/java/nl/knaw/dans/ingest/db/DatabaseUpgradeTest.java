@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.ingest.db;
+
+import nl.knaw.dans.ingest.api.StateStats;
+import nl.knaw.dans.ingest.core.DepositState;
+import nl.knaw.dans.ingest.core.TaskEvent;
+import nl.knaw.dans.ingest.core.TaskPhase;
+import org.hibernate.SessionFactory;
+import org.junit.jupiter.api.Test;
+
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class DatabaseUpgradeTest {
+    private static final OffsetDateTime T0 = OffsetDateTime.of(2022, 6, 1, 12, 0, 0, 0, ZoneOffset.UTC);
+    private static final UUID DEPOSIT1 = UUID.fromString("00000000-0000-0000-0000-000000000001");
+    private static final UUID DEPOSIT2 = UUID.fromString("00000000-0000-0000-0000-000000000002");
+
+    @Test
+    public void upgradeShouldDeriveTheStateOfEachDepositFromItsLatestEvent() {
+        SessionFactory sessionFactory = InMemoryDatabase.createSessionFactory(TaskEvent.class, TaskPhase.class, DepositState.class);
+        try {
+            TaskEventDAO taskEventDAO = new TaskEventDAO(sessionFactory);
+            // The END_PROCESSING event of DEPOSIT1 is saved before its START_PROCESSING event, but it is the later one
+            InMemoryDatabase.inUnitOfWork(sessionFactory, () -> Arrays.asList(
+                new TaskEvent("batch1", T0, DEPOSIT1, TaskEvent.EventType.ENQUEUE, TaskEvent.Result.OK, null),
+                new TaskEvent("batch1", T0.plusMinutes(2), DEPOSIT1, TaskEvent.EventType.END_PROCESSING, TaskEvent.Result.OK, null),
+                new TaskEvent("batch1", T0.plusMinutes(1), DEPOSIT1, TaskEvent.EventType.START_PROCESSING, TaskEvent.Result.OK, null),
+                new TaskEvent("batch1", T0, DEPOSIT2, TaskEvent.EventType.ENQUEUE, TaskEvent.Result.OK, null)).forEach(taskEventDAO::save));
+
+            DatabaseUpgrade upgrade = new DatabaseUpgrade(sessionFactory);
+            InMemoryDatabase.inUnitOfWork(sessionFactory, upgrade::upgrade);
+            // The states are only derived while there are none, so a second upgrade changes nothing
+            InMemoryDatabase.inUnitOfWork(sessionFactory, upgrade::upgrade);
+
+            DepositStateDAO depositStateDAO = new DepositStateDAO(sessionFactory);
+            InMemoryDatabase.inUnitOfWork(sessionFactory, () -> {
+                assertEquals(Collections.singleton(DEPOSIT1.toString()), depositStateDAO.findProcessedDepositIds("batch1"));
+                StateStats stats = depositStateDAO.getStateStats("batch1");
+                assertEquals(1, stats.getEnqueue());
+                assertEquals(1, stats.getFinished());
+            });
+        }
+        finally {
+            sessionFactory.close();
+        }
+    }
+
+    @Test
+    public void upgradeShouldRestartTheSequenceAboveTheExistingIds() {
+        SessionFactory sessionFactory = InMemoryDatabase.createSessionFactory(TaskEvent.class, TaskPhase.class, DepositState.class);
+        try {
+            // As written with an identity column
+            InMemoryDatabase.inUnitOfWork(sessionFactory, () -> sessionFactory.getCurrentSession()
+                .createNativeQuery("insert into task_event (id, source, timestamp, deposit_id, event_type, result) values (1000, 'batch1', :timestamp, :depositId, 'ENQUEUE', 'OK')")
+                .setParameter("timestamp", T0)
+                .setParameter("depositId", DEPOSIT1.toString())
+                .executeUpdate());
+
+            InMemoryDatabase.inUnitOfWork(sessionFactory, new DatabaseUpgrade(sessionFactory)::upgrade);
+
+            TaskEventDAO taskEventDAO = new TaskEventDAO(sessionFactory);
+            TaskEvent event = new TaskEvent("batch1", T0.plusMinutes(1), DEPOSIT1, TaskEvent.EventType.START_PROCESSING, TaskEvent.Result.OK, null);
+            InMemoryDatabase.inUnitOfWork(sessionFactory, () -> taskEventDAO.save(event));
+            assertTrue(event.getId() > 1000, "id " + event.getId());
+        }
+        finally {
+            sessionFactory.close();
+        }
+    }
+}
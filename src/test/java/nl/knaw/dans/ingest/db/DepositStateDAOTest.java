@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.ingest.db;
+
+import nl.knaw.dans.ingest.api.StateStats;
+import nl.knaw.dans.ingest.core.DepositState;
+import nl.knaw.dans.ingest.core.TaskEvent;
+import org.hibernate.SessionFactory;
+import org.junit.jupiter.api.Test;
+
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class DepositStateDAOTest {
+    private static final OffsetDateTime T0 = OffsetDateTime.of(2022, 6, 1, 12, 0, 0, 0, ZoneOffset.UTC);
+    private static final UUID DEPOSIT1 = UUID.fromString("00000000-0000-0000-0000-000000000001");
+    private static final UUID DEPOSIT2 = UUID.fromString("00000000-0000-0000-0000-000000000002");
+
+    @Test
+    public void updateShouldCreateAndReplaceTheStateWithTheLatestEvent() {
+        SessionFactory sessionFactory = InMemoryDatabase.createSessionFactory(DepositState.class);
+        try {
+            DepositStateDAO dao = new DepositStateDAO(sessionFactory);
+            InMemoryDatabase.inUnitOfWork(sessionFactory, () -> dao.update(Arrays.asList(
+                new TaskEvent("batch1", T0, DEPOSIT1, TaskEvent.EventType.ENQUEUE, TaskEvent.Result.OK, null),
+                new TaskEvent("batch1", T0, DEPOSIT2, TaskEvent.EventType.ENQUEUE, TaskEvent.Result.OK, null))));
+            InMemoryDatabase.inUnitOfWork(sessionFactory, () -> dao.update(Collections.singletonList(
+                new TaskEvent("batch1", T0.plusMinutes(2), DEPOSIT1, TaskEvent.EventType.END_PROCESSING, TaskEvent.Result.OK, null))));
+
+            InMemoryDatabase.inUnitOfWork(sessionFactory, () -> {
+                assertEquals(Collections.singleton(DEPOSIT1.toString()), dao.findProcessedDepositIds("batch1"));
+                StateStats stats = dao.getStateStats("batch1");
+                assertEquals(1, stats.getEnqueue());
+                assertEquals(1, stats.getFinished());
+            });
+        }
+        finally {
+            sessionFactory.close();
+        }
+    }
+
+    @Test
+    public void updateShouldNotReplaceTheStateWithAnOlderEvent() {
+        SessionFactory sessionFactory = InMemoryDatabase.createSessionFactory(DepositState.class);
+        try {
+            DepositStateDAO dao = new DepositStateDAO(sessionFactory);
+            InMemoryDatabase.inUnitOfWork(sessionFactory, () -> dao.update(Collections.singletonList(
+                new TaskEvent("batch1", T0.plusMinutes(2), DEPOSIT1, TaskEvent.EventType.END_PROCESSING, TaskEvent.Result.OK, null))));
+            InMemoryDatabase.inUnitOfWork(sessionFactory, () -> dao.update(Collections.singletonList(
+                new TaskEvent("batch1", T0.plusMinutes(1), DEPOSIT1, TaskEvent.EventType.START_PROCESSING, TaskEvent.Result.OK, null))));
+
+            InMemoryDatabase.inUnitOfWork(sessionFactory, () ->
+                assertEquals(Collections.singleton(DEPOSIT1.toString()), dao.findProcessedDepositIds("batch1")));
+        }
+        finally {
+            sessionFactory.close();
+        }
+    }
+}
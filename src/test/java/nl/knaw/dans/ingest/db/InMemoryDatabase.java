@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.ingest.db;
+
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.cfg.Configuration;
+import org.hibernate.context.internal.ManagedSessionContext;
+
+import java.util.UUID;
+
+/**
+ * The in-memory variant of the HSQLDB database of debug-etc, for testing the DAOs. Each session factory gets a new, empty database.
+ */
+public class InMemoryDatabase {
+
+    public static SessionFactory createSessionFactory(Class<?>... entities) {
+        Configuration configuration = new Configuration()
+            .setProperty(AvailableSettings.DRIVER, "org.hsqldb.jdbcDriver")
+            .setProperty(AvailableSettings.URL, "jdbc:hsqldb:mem:" + UUID.randomUUID())
+            .setProperty(AvailableSettings.USER, "sa")
+            .setProperty(AvailableSettings.DIALECT, "org.hibernate.dialect.HSQLDialect")
+            .setProperty(AvailableSettings.HBM2DDL_AUTO, "create-drop")
+            .setProperty(AvailableSettings.CURRENT_SESSION_CONTEXT_CLASS, "managed");
+        for (Class<?> entity : entities) {
+            configuration.addAnnotatedClass(entity);
+        }
+        return configuration.buildSessionFactory();
+    }
+
+    /**
+     * Runs the action in a unit of work, as {@code @UnitOfWork} does for the resources and services.
+     */
+    public static void inUnitOfWork(SessionFactory sessionFactory, Runnable action) {
+        Session session = sessionFactory.openSession();
+        try {
+            ManagedSessionContext.bind(session);
+            Transaction transaction = session.beginTransaction();
+            action.run();
+            transaction.commit();
+        }
+        finally {
+            ManagedSessionContext.unbind(sessionFactory);
+            session.close();
+        }
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.ingest.db;
+
+import nl.knaw.dans.ingest.core.QueuedDeposit;
+import nl.knaw.dans.ingest.core.TaskEvent;
+import org.hibernate.SessionFactory;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class QueuedDepositDAOTest {
+    private static final OffsetDateTime T0 = OffsetDateTime.of(2022, 6, 1, 12, 0, 0, 0, ZoneOffset.UTC);
+    private static final Path INBOX = Paths.get("inbox/batch1");
+    private static final Path OUTBOX = Paths.get("outbox/batch1");
+
+    private static List<QueuedDeposit> createDeposits(int count) {
+        List<QueuedDeposit> deposits = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            deposits.add(new QueuedDeposit("batch1", INBOX.resolve(new UUID(0, i).toString()), "lane1", false, OUTBOX, T0, i));
+        }
+        return deposits;
+    }
+
+    @Test
+    public void addShouldStoreMoreDepositsThanOneFlushAndReplaceThosePresent() {
+        SessionFactory sessionFactory = InMemoryDatabase.createSessionFactory(QueuedDeposit.class);
+        try {
+            QueuedDepositDAO dao = new QueuedDepositDAO(sessionFactory);
+            int count = 2 * QueuedDepositDAO.FLUSH_SIZE + 1;
+            InMemoryDatabase.inUnitOfWork(sessionFactory, () -> dao.add(createDeposits(count)));
+            // Continuing the batch adds the first deposits again
+            InMemoryDatabase.inUnitOfWork(sessionFactory, () -> dao.add(createDeposits(3)));
+
+            InMemoryDatabase.inUnitOfWork(sessionFactory, () -> {
+                List<QueuedDeposit> deposits = dao.findByLane("lane1");
+                assertEquals(count, deposits.size());
+                assertEquals(new UUID(0, 0).toString(), deposits.get(0).getDepositId());
+                assertEquals(count, dao.findDepositIdsBySource("batch1").size());
+            });
+        }
+        finally {
+            sessionFactory.close();
+        }
+    }
+
+    @Test
+    public void updateShouldRecordDraftsAndRemoveProcessedDeposits() {
+        SessionFactory sessionFactory = InMemoryDatabase.createSessionFactory(QueuedDeposit.class);
+        try {
+            QueuedDepositDAO dao = new QueuedDepositDAO(sessionFactory);
+            InMemoryDatabase.inUnitOfWork(sessionFactory, () -> dao.add(createDeposits(4)));
+            InMemoryDatabase.inUnitOfWork(sessionFactory, () -> dao.update(Arrays.asList(
+                new TaskEvent("batch1", T0, new UUID(0, 0), TaskEvent.EventType.END_PROCESSING, TaskEvent.Result.OK, null),
+                new TaskEvent("batch1", T0, new UUID(0, 1), TaskEvent.EventType.ENQUEUE, TaskEvent.Result.FAILED, "no room"),
+                new TaskEvent("batch1", T0, new UUID(0, 2), TaskEvent.EventType.DRAFT_CREATED, TaskEvent.Result.OK, "doi:10.5072/FK2/ABCDEF"))));
+
+            InMemoryDatabase.inUnitOfWork(sessionFactory, () -> {
+                List<QueuedDeposit> deposits = dao.findByLane("lane1");
+                assertEquals(2, deposits.size());
+                assertEquals("doi:10.5072/FK2/ABCDEF", deposits.get(0).getPersistentId());
+                assertNull(deposits.get(1).getPersistentId());
+            });
+
+            InMemoryDatabase.inUnitOfWork(sessionFactory, () -> dao.remove(dao.findByLane("lane1")));
+            InMemoryDatabase.inUnitOfWork(sessionFactory, () -> assertEquals(Collections.emptyList(), dao.findByLane("lane1")));
+        }
+        finally {
+            sessionFactory.close();
+        }
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.ingest.db;
+
+import nl.knaw.dans.ingest.core.TaskEvent;
+import org.hibernate.SessionFactory;
+import org.junit.jupiter.api.Test;
+
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class TaskEventDAOTest {
+    private static final OffsetDateTime T0 = OffsetDateTime.of(2022, 6, 1, 12, 0, 0, 0, ZoneOffset.UTC);
+    private static final UUID DEPOSIT1 = UUID.fromString("00000000-0000-0000-0000-000000000001");
+    private static final UUID DEPOSIT2 = UUID.fromString("00000000-0000-0000-0000-000000000002");
+
+    /*
+     * batch1: DEPOSIT1 ENQUEUE OK, START_PROCESSING OK, END_PROCESSING FAILED
+     * batch2: DEPOSIT2 ENQUEUE OK, START_PROCESSING OK, END_PROCESSING OK
+     * One minute apart, in this order.
+     */
+    private static TaskEventDAO createDAO(SessionFactory sessionFactory) {
+        TaskEventDAO dao = new TaskEventDAO(sessionFactory);
+        List<TaskEvent> events = Arrays.asList(
+            new TaskEvent("batch1", T0, DEPOSIT1, TaskEvent.EventType.ENQUEUE, TaskEvent.Result.OK, null),
+            new TaskEvent("batch1", T0.plusMinutes(1), DEPOSIT1, TaskEvent.EventType.START_PROCESSING, TaskEvent.Result.OK, null),
+            new TaskEvent("batch1", T0.plusMinutes(2), DEPOSIT1, TaskEvent.EventType.END_PROCESSING, TaskEvent.Result.FAILED, "Dataverse not available"),
+            new TaskEvent("batch2", T0.plusMinutes(3), DEPOSIT2, TaskEvent.EventType.ENQUEUE, TaskEvent.Result.OK, null),
+            new TaskEvent("batch2", T0.plusMinutes(4), DEPOSIT2, TaskEvent.EventType.START_PROCESSING, TaskEvent.Result.OK, null),
+            new TaskEvent("batch2", T0.plusMinutes(5), DEPOSIT2, TaskEvent.EventType.END_PROCESSING, TaskEvent.Result.OK, null));
+        InMemoryDatabase.inUnitOfWork(sessionFactory, () -> events.forEach(dao::save));
+        return dao;
+    }
+
+    private static List<String> stream(TaskEventDAO dao, TaskEventFilter filter, Long afterId, Integer limit) {
+        List<String> events = new ArrayList<>();
+        dao.streamEvents(filter, afterId, limit, e -> events.add(e.getSource() + " " + e.getEvenType() + " " + e.getResult()));
+        return events;
+    }
+
+    private static List<Long> streamIds(TaskEventDAO dao, TaskEventFilter filter, Long afterId, Integer limit) {
+        List<TaskEvent> events = new ArrayList<>();
+        dao.streamEvents(filter, afterId, limit, events::add);
+        return events.stream().map(TaskEvent::getId).collect(Collectors.toList());
+    }
+
+    @Test
+    public void emptyFilterShouldSelectAllEventsInOrder() {
+        SessionFactory sessionFactory = InMemoryDatabase.createSessionFactory(TaskEvent.class);
+        try {
+            TaskEventDAO dao = createDAO(sessionFactory);
+            assertEquals(Arrays.asList(
+                "batch1 ENQUEUE OK", "batch1 START_PROCESSING OK", "batch1 END_PROCESSING FAILED",
+                "batch2 ENQUEUE OK", "batch2 START_PROCESSING OK", "batch2 END_PROCESSING OK"),
+                stream(dao, new TaskEventFilter(null, null, null, null, null, null), null, null));
+        }
+        finally {
+            sessionFactory.close();
+        }
+    }
+
+    @Test
+    public void eachCriterionShouldBeApplied() {
+        SessionFactory sessionFactory = InMemoryDatabase.createSessionFactory(TaskEvent.class);
+        try {
+            TaskEventDAO dao = createDAO(sessionFactory);
+            assertEquals(Arrays.asList("batch2 ENQUEUE OK", "batch2 START_PROCESSING OK", "batch2 END_PROCESSING OK"),
+                stream(dao, new TaskEventFilter("batch2", null, null, null, null, null), null, null));
+            assertEquals(Arrays.asList("batch1 ENQUEUE OK", "batch1 START_PROCESSING OK", "batch1 END_PROCESSING FAILED"),
+                stream(dao, new TaskEventFilter(null, DEPOSIT1.toString(), null, null, null, null), null, null));
+            assertEquals(Arrays.asList("batch1 END_PROCESSING FAILED", "batch2 END_PROCESSING OK"),
+                stream(dao, new TaskEventFilter(null, null, TaskEvent.EventType.END_PROCESSING, null, null, null), null, null));
+            assertEquals(Arrays.asList("batch1 END_PROCESSING FAILED"),
+                stream(dao, new TaskEventFilter(null, null, null, TaskEvent.Result.FAILED, null, null), null, null));
+            // since is inclusive, until is exclusive
+            assertEquals(Arrays.asList("batch1 END_PROCESSING FAILED", "batch2 ENQUEUE OK"),
+                stream(dao, new TaskEventFilter(null, null, null, null, T0.plusMinutes(2), T0.plusMinutes(4)), null, null));
+        }
+        finally {
+            sessionFactory.close();
+        }
+    }
+
+    @Test
+    public void criteriaShouldBeCombined() {
+        SessionFactory sessionFactory = InMemoryDatabase.createSessionFactory(TaskEvent.class);
+        try {
+            TaskEventDAO dao = createDAO(sessionFactory);
+            assertEquals(Arrays.asList("batch2 END_PROCESSING OK"),
+                stream(dao, new TaskEventFilter("batch2", null, TaskEvent.EventType.END_PROCESSING, TaskEvent.Result.OK, T0, null), null, null));
+            assertEquals(Collections.emptyList(),
+                stream(dao, new TaskEventFilter("batch1", DEPOSIT2.toString(), null, null, null, null), null, null));
+        }
+        finally {
+            sessionFactory.close();
+        }
+    }
+
+    @Test
+    public void pagesShouldFollowOnWithoutGapsOrOverlap() {
+        SessionFactory sessionFactory = InMemoryDatabase.createSessionFactory(TaskEvent.class);
+        try {
+            TaskEventDAO dao = createDAO(sessionFactory);
+            TaskEventFilter filter = new TaskEventFilter(null, null, null, null, null, null);
+            List<Long> all = streamIds(dao, filter, null, null);
+
+            List<Long> paged = new ArrayList<>();
+            Long afterId = null;
+            List<Long> page;
+            do {
+                page = streamIds(dao, filter, afterId, 4);
+                paged.addAll(page);
+                afterId = page.isEmpty() ? afterId : page.get(page.size() - 1);
+            } while (page.size() == 4);
+
+            assertEquals(6, all.size());
+            assertEquals(all, paged);
+        }
+        finally {
+            sessionFactory.close();
+        }
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2022 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.ingest.resources;
+
+import io.dropwizard.jersey.jsr310.OffsetDateTimeParam;
+import nl.knaw.dans.ingest.core.CsvWriters;
+import nl.knaw.dans.ingest.core.TaskEvent;
+import nl.knaw.dans.ingest.db.InMemoryDatabase;
+import nl.knaw.dans.ingest.db.TaskEventDAO;
+import nl.knaw.dans.ingest.db.TaskEventFilter;
+import org.hibernate.SessionFactory;
+import org.junit.jupiter.api.Test;
+
+import javax.ws.rs.BadRequestException;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class EventsResourceTest {
+    private static final OffsetDateTime T0 = OffsetDateTime.of(2022, 6, 1, 12, 0, 0, 0, ZoneOffset.UTC);
+
+    private static TaskEventDAO createDAO(SessionFactory sessionFactory, int numberOfEvents) {
+        TaskEventDAO dao = new TaskEventDAO(sessionFactory);
+        InMemoryDatabase.inUnitOfWork(sessionFactory, () -> {
+            for (int i = 0; i < numberOfEvents; i++) {
+                dao.save(new TaskEvent(i % 2 == 0 ? "even" : "odd", T0.plusSeconds(i), UUID.randomUUID(), TaskEvent.EventType.ENQUEUE, TaskEvent.Result.OK, null));
+            }
+        });
+        return dao;
+    }
+
+    private static String write(StreamingOutput output) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        output.write(bytes);
+        return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    /*
+     * The value of a column in each row, without the header. The values in the test data contain no commas.
+     */
+    private static List<String> column(String csv, String name) {
+        List<String[]> rows = Arrays.stream(csv.split("\n")).map(l -> l.split(",", -1)).collect(Collectors.toList());
+        int index = Arrays.asList(rows.get(0)).indexOf(name);
+        assertTrue(index >= 0, "no column " + name);
+        return rows.subList(1, rows.size()).stream().map(r -> r[index]).collect(Collectors.toList());
+    }
+
+    @Test
+    public void eventsShouldBePagedByAfterIdAndLimit() throws Exception {
+        SessionFactory sessionFactory = InMemoryDatabase.createSessionFactory(TaskEvent.class);
+        try {
+            EventsResource resource = new EventsResource(createDAO(sessionFactory, 10), null, null, new CsvWriters());
+            List<String> all = column(write(resource.getEvents(null, null, null, null, null, null, null, null)), "id");
+            assertEquals(10, all.size());
+
+            List<String> paged = new ArrayList<>();
+            Long afterId = null;
+            List<String> page;
+            do {
+                page = column(write(resource.getEvents(null, null, null, null, null, null, afterId, 3)), "id");
+                assertTrue(page.size() <= 3);
+                paged.addAll(page);
+                if (!page.isEmpty()) {
+                    afterId = Long.parseLong(page.get(page.size() - 1));
+                }
+            } while (page.size() == 3);
+            assertEquals(all, paged);
+        }
+        finally {
+            sessionFactory.close();
+        }
+    }
+
+    @Test
+    public void filterShouldBeAppliedToEachPage() throws Exception {
+        SessionFactory sessionFactory = InMemoryDatabase.createSessionFactory(TaskEvent.class);
+        try {
+            EventsResource resource = new EventsResource(createDAO(sessionFactory, 10), null, null, new CsvWriters());
+            String csv = write(resource.getEvents("odd", null, TaskEvent.EventType.ENQUEUE, TaskEvent.Result.OK,
+                new OffsetDateTimeParam(T0.toString()), new OffsetDateTimeParam(T0.plusSeconds(8).toString()), null, 2));
+            assertEquals(Arrays.asList("odd", "odd"), column(csv, "source"));
+            List<String> afterFirstPage = column(write(resource.getEvents("odd", null, null, null, null, null,
+                Long.parseLong(column(csv, "id").get(1)), null)), "source");
+            // 10 events, of which 5 are odd; 2 were on the first page
+            assertEquals(3, afterFirstPage.size());
+        }
+        finally {
+            sessionFactory.close();
+        }
+    }
+
+    @Test
+    public void rowsShouldBeWrittenWhileTheEventsAreRead() throws Exception {
+        SessionFactory sessionFactory = InMemoryDatabase.createSessionFactory(TaskEvent.class);
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            int[] writtenWhileReading = new int[1];
+            TaskEventDAO dao = new TaskEventDAO(sessionFactory) {
+                @Override
+                public void streamEvents(TaskEventFilter filter, Long afterId, Integer limit, Consumer<TaskEvent> consumer) {
+                    super.streamEvents(filter, afterId, limit, consumer);
+                    // Before the response is completed by the resource
+                    writtenWhileReading[0] = bytes.size();
+                }
+            };
+            createDAO(sessionFactory, 1000);
+            EventsResource resource = new EventsResource(dao, null, null, new CsvWriters());
+
+            resource.getEvents(null, null, null, null, null, null, null, null).write(bytes);
+
+            // The writer only buffers a few kilobytes, not the whole response
+            assertTrue(writtenWhileReading[0] > 0);
+            assertEquals(1000, column(new String(bytes.toByteArray(), StandardCharsets.UTF_8), "id").size());
+        }
+        finally {
+            sessionFactory.close();
+        }
+    }
+
+    @Test
+    public void limitShouldBePositive() {
+        EventsResource resource = new EventsResource(null, null, null, new CsvWriters());
+        assertThrows(BadRequestException.class, () -> resource.getEvents(null, null, null, null, null, null, null, 0));
+    }
+}